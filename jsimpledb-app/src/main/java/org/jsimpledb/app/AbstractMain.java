@@ -6,6 +6,7 @@
 package org.jsimpledb.app;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -18,6 +19,9 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.dellroad.stuff.main.MainClass;
 import org.jsimpledb.JSimpleDBFactory;
 import org.jsimpledb.annotation.JFieldType;
@@ -26,6 +30,7 @@ import org.jsimpledb.core.FieldType;
 import org.jsimpledb.kv.KVDatabase;
 import org.jsimpledb.kv.KVImplementation;
 import org.jsimpledb.kv.mvcc.AtomicKVStore;
+import org.jsimpledb.kv.util.MetricsKVDatabase;
 import org.jsimpledb.spring.JSimpleDBClassScanner;
 import org.jsimpledb.spring.JSimpleDBFieldTypeScanner;
 
@@ -36,6 +41,7 @@ public abstract class AbstractMain extends MainClass {
 
     private static final File DEMO_XML_FILE = new File("demo-database.xml");
     private static final File DEMO_SUBDIR = new File("demo-classes");
+    private static final String KV_METRICS_MBEAN_NAME = "org.jsimpledb.kv:type=KVMetrics";
 
     // Schema
     protected int schemaVersion;
@@ -46,6 +52,7 @@ public abstract class AbstractMain extends MainClass {
     // Key/value database
     protected KVDatabase kvdb;
     protected String databaseDescription;
+    protected boolean kvMetrics;
 
     // Misc
     protected boolean verbose;
@@ -117,6 +124,8 @@ public abstract class AbstractMain extends MainClass {
                 this.readOnly = true;
             else if (option.equals("--verbose"))
                 this.verbose = true;
+            else if (option.equals("--kv-metrics"))
+                this.kvMetrics = true;
             else if (option.equals("-v") || option.equals("--schema-version")) {
                 if (params.isEmpty())
                     this.usageError();
@@ -367,6 +376,18 @@ public abstract class AbstractMain extends MainClass {
           this.requiredKVDatabase.createKVDatabase(this.kvConfigMap.get(this.requiredAtomicKVStore), null, null) : null;
         this.kvdb = this.kvImplementation.createKVDatabase(config, nestedKV, nestedKVS);
 
+        // Gather key/value metrics if requested
+        if (this.kvMetrics) {
+            final MetricsKVDatabase metricsKVDatabase = new MetricsKVDatabase(this.kvdb);
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metricsKVDatabase.getMetrics(),
+                  new ObjectName(KV_METRICS_MBEAN_NAME));
+            } catch (JMException e) {
+                this.log.warn("failed to register key/value metrics MBean: " + e);
+            }
+            this.kvdb = metricsKVDatabase;
+        }
+
         // Start up database
         this.databaseDescription =  this.kvImplementation.getDescription(config);
         this.log.debug("using database: " + this.databaseDescription);
@@ -388,6 +409,14 @@ public abstract class AbstractMain extends MainClass {
      */
     protected void shutdownKVDatabase() {
         this.kvdb.stop();
+        if (this.kvdb instanceof MetricsKVDatabase) {
+            this.log.info("key/value metrics:\n" + ((MetricsKVDatabase)this.kvdb).getMetrics());
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(KV_METRICS_MBEAN_NAME));
+            } catch (JMException e) {
+                // ignore
+            }
+        }
     }
 
     protected abstract String getName();
@@ -413,6 +442,7 @@ public abstract class AbstractMain extends MainClass {
             { "--pkg, -p package",              "Equivalent to `--model-pkg package --type-pkg package'" },
             { "--help, -h",                     "Show this help message" },
             { "--verbose",                      "Show verbose error messages" },
+            { "--kv-metrics",                   "Gather key/value operation metrics (via JMX and logged on shutdown)" },
         }));
 
         // Add options supported by the various key/value implementations
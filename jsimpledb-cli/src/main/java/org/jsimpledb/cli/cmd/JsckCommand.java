@@ -0,0 +1,80 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.cli.cmd;
+
+import java.io.PrintWriter;
+import java.util.Map;
+
+import org.jsimpledb.cli.CliSession;
+import org.jsimpledb.core.ConsistencyChecker;
+import org.jsimpledb.parse.ParseException;
+import org.jsimpledb.util.ParseContext;
+
+public class JsckCommand extends AbstractCommand {
+
+    public JsckCommand() {
+        super("jsck -t:threads:int -k:keys:int -s:splits:int -l:limit:int");
+    }
+
+    @Override
+    public String getHelpSummary() {
+        return "Checks the database for inconsistencies";
+    }
+
+    @Override
+    public String getHelpDetail() {
+        return "Checks the database meta-data, object meta-data, field encodings, and index entries for consistency,"
+          + " and looks for extraneous key/value pairs. Each issue found is printed as it is found.\n\n"
+          + "The key space is partitioned into chunks by object type and index, and chunks are checked concurrently,"
+          + " each in a series of short transactions, so the check may be run on large databases. For meaningful results,"
+          + " the database should not be modified while the check runs.\n\n"
+          + "The `-t' flag sets the number of threads (default: number of processors).\n"
+          + "The `-k' flag sets the maximum number of keys read per transaction (default "
+          + ConsistencyChecker.DEFAULT_MAX_KEYS_PER_TRANSACTION + ").\n"
+          + "The `-s' flag sets the number of chunks into which each object type and index is split (default "
+          + ConsistencyChecker.DEFAULT_SPLITS + ").\n"
+          + "The `-l' flag limits the number of issues printed; all issues are still counted.";
+    }
+
+    @Override
+    public CliSession.Action getAction(CliSession session0, ParseContext ctx, boolean complete, Map<String, Object> params) {
+
+        // Parse parameters
+        final Integer threads = (Integer)params.get("threads");
+        final Integer keys = (Integer)params.get("keys");
+        final Integer splits = (Integer)params.get("splits");
+        final Integer limit = (Integer)params.get("limit");
+        if (threads != null && threads <= 0)
+            throw new ParseException(ctx, "invalid non-positive number of threads");
+        if (keys != null && keys <= 0)
+            throw new ParseException(ctx, "invalid non-positive number of keys");
+        if (splits != null && (splits < 1 || splits > 256))
+            throw new ParseException(ctx, "number of splits must be in the range 1 to 256");
+        if (limit != null && limit < 0)
+            throw new ParseException(ctx, "invalid negative limit");
+
+        // Return action
+        return session -> {
+            final ConsistencyChecker checker = new ConsistencyChecker(session.getDatabase());
+            if (threads != null)
+                checker.setThreads(threads);
+            if (keys != null)
+                checker.setMaxKeysPerTransaction(keys);
+            if (splits != null)
+                checker.setSplits(splits);
+            final PrintWriter writer = session.getWriter();
+            final long count = checker.check(issue -> {
+                if (limit == null || checker.getIssuesFound() <= limit) {
+                    writer.println(issue);
+                    writer.flush();
+                }
+            });
+            writer.println("Checked " + checker.getKeysChecked() + " key/value pair(s) in "
+              + checker.getTotalChunks() + " chunk(s); found " + count + " issue(s)");
+        };
+    }
+}
+
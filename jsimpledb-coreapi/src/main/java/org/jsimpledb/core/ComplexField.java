@@ -131,7 +131,7 @@ public abstract class ComplexField<T> extends Field<T> {
         tx.kvt.remove(this.buildIndexEntry(id, subField, contentKey, contentValue));
     }
 
-    private byte[] buildIndexEntry(ObjId id, SimpleField<?> subField, byte[] contentKey, byte[] contentValue) {
+    byte[] buildIndexEntry(ObjId id, SimpleField<?> subField, byte[] contentKey, byte[] contentValue) {
         final ByteReader contentKeyReader = new ByteReader(contentKey);
         contentKeyReader.skip(ObjId.NUM_BYTES + this.storageIdLength);                  // skip to content
         final ByteWriter writer = new ByteWriter();
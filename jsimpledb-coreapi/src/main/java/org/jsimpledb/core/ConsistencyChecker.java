@@ -0,0 +1,1010 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Bytes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.jsimpledb.kv.KVDatabase;
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.kv.KVTransaction;
+import org.jsimpledb.kv.KeyRange;
+import org.jsimpledb.kv.KeyRanges;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.util.ByteReader;
+import org.jsimpledb.util.ByteUtil;
+import org.jsimpledb.util.LongEncoder;
+import org.jsimpledb.util.UnsignedIntEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the key/value store underlying a {@link Database} for consistency.
+ *
+ * <p>
+ * The following are verified:
+ * <ul>
+ *  <li>The database meta-data, including the format version and recorded schema versions, is correctly stored</li>
+ *  <li>Each object has valid meta-data and a corresponding schema version index entry, and vice-versa</li>
+ *  <li>All field values are properly encoded, and no simple field explicitly stores its default value</li>
+ *  <li>Every index entry required by an object exists, and every index entry corresponds to an actual field value</li>
+ *  <li>No extraneous key/value pairs exist</li>
+ * </ul>
+ *
+ * <p>
+ * So that very large databases can be checked without one giant transaction, the key space is partitioned into chunks:
+ * the meta-data, the key range of each object type and each index, each split further into
+ * {@linkplain #setSplits sub-ranges}, and the gaps in between (which should be empty). Chunks are checked concurrently
+ * by {@linkplain #setThreads multiple threads}, each chunk in a series of short transactions that read at most
+ * {@linkplain #setMaxKeysPerTransaction a limited number of keys}. Issues are delivered to the caller as they are found.
+ *
+ * <p>
+ * Optionally, each chunk's progress may be checkpointed into a separate, otherwise unused {@linkplain #setStateDatabase
+ * state database}. If a check is interrupted or fails, a subsequent check using the same state database and
+ * configuration resumes where the previous check left off. The state database is cleared when a check completes.
+ *
+ * <p>
+ * Because different chunks are checked in different transactions, the database should not be modified while a check
+ * is in progress; otherwise, spurious issues may be reported.
+ *
+ * <p>
+ * Instances are thread safe; however, only one check at a time may be performed by any instance.
+ */
+@ThreadSafe
+public class ConsistencyChecker {
+
+    /**
+     * Default maximum number of keys read in any one transaction ({@value #DEFAULT_MAX_KEYS_PER_TRANSACTION}).
+     */
+    public static final int DEFAULT_MAX_KEYS_PER_TRANSACTION = 10000;
+
+    /**
+     * Default number of sub-ranges into which each object type and index key range is split ({@value #DEFAULT_SPLITS}).
+     */
+    public static final int DEFAULT_SPLITS = 16;
+
+    private static final int MAX_RETRIES = 10;
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+    private final Database db;
+
+    private final AtomicInteger totalChunks = new AtomicInteger();
+    private final AtomicInteger chunksCompleted = new AtomicInteger();
+    private final AtomicLong keysChecked = new AtomicLong();
+    private final AtomicLong issuesFound = new AtomicLong();
+
+    private volatile int threads = Runtime.getRuntime().availableProcessors();
+    private volatile int maxKeysPerTransaction = DEFAULT_MAX_KEYS_PER_TRANSACTION;
+    private volatile int splits = DEFAULT_SPLITS;
+    private volatile KVDatabase stateDatabase;
+
+    /**
+     * Constructor.
+     *
+     * @param db database to check
+     * @throws IllegalArgumentException if {@code db} is null
+     */
+    public ConsistencyChecker(Database db) {
+        Preconditions.checkArgument(db != null, "null db");
+        this.db = db;
+    }
+
+// Configuration
+
+    /**
+     * Get the number of threads used to check chunks concurrently.
+     *
+     * @return number of threads
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Configure the number of threads used to check chunks concurrently.
+     *
+     * <p>
+     * Default is the number of available processors.
+     *
+     * @param threads number of threads
+     * @throws IllegalArgumentException if {@code threads} is not positive
+     */
+    public void setThreads(int threads) {
+        Preconditions.checkArgument(threads > 0, "threads <= 0");
+        this.threads = threads;
+    }
+
+    /**
+     * Get the maximum number of keys read in any one transaction.
+     *
+     * @return maximum keys per transaction
+     */
+    public int getMaxKeysPerTransaction() {
+        return this.maxKeysPerTransaction;
+    }
+
+    /**
+     * Configure the maximum number of keys read in any one transaction.
+     *
+     * <p>
+     * Transactions are only ended between objects, so an object having more keys than this is still checked
+     * within a single transaction.
+     *
+     * <p>
+     * Default is {@value #DEFAULT_MAX_KEYS_PER_TRANSACTION}.
+     *
+     * @param maxKeysPerTransaction maximum keys per transaction
+     * @throws IllegalArgumentException if {@code maxKeysPerTransaction} is not positive
+     */
+    public void setMaxKeysPerTransaction(int maxKeysPerTransaction) {
+        Preconditions.checkArgument(maxKeysPerTransaction > 0, "maxKeysPerTransaction <= 0");
+        this.maxKeysPerTransaction = maxKeysPerTransaction;
+    }
+
+    /**
+     * Get the number of sub-ranges into which each object type and index key range is split.
+     *
+     * @return number of splits
+     */
+    public int getSplits() {
+        return this.splits;
+    }
+
+    /**
+     * Configure the number of sub-ranges into which each object type and index key range is split.
+     *
+     * <p>
+     * Key ranges are split on the first byte following the storage ID prefix, so larger values only help when
+     * a few object types or indexes contain most of the data.
+     *
+     * <p>
+     * Default is {@value #DEFAULT_SPLITS}.
+     *
+     * @param splits number of splits
+     * @throws IllegalArgumentException if {@code splits} is not in the range 1 to 256
+     */
+    public void setSplits(int splits) {
+        Preconditions.checkArgument(splits >= 1 && splits <= 256, "splits not in the range 1..256");
+        this.splits = splits;
+    }
+
+    /**
+     * Get the database in which checkpoints are recorded, if any.
+     *
+     * @return state database, or null if none
+     */
+    public KVDatabase getStateDatabase() {
+        return this.stateDatabase;
+    }
+
+    /**
+     * Configure a database in which to record checkpoints, so that an interrupted check may be resumed.
+     *
+     * <p>
+     * The state database must not be used for anything else, and the same configuration must be used when resuming.
+     * Note that issues found prior to an interruption are not reported again when resuming.
+     *
+     * <p>
+     * Default is null, i.e., every check starts from the beginning.
+     *
+     * @param stateDatabase state database, or null for none
+     */
+    public void setStateDatabase(KVDatabase stateDatabase) {
+        this.stateDatabase = stateDatabase;
+    }
+
+// Progress
+
+    /**
+     * Get the number of chunks in the current or most recent check.
+     *
+     * @return total number of chunks
+     */
+    public int getTotalChunks() {
+        return this.totalChunks.get();
+    }
+
+    /**
+     * Get the number of chunks completed so far in the current or most recent check.
+     *
+     * @return number of chunks completed
+     */
+    public int getChunksCompleted() {
+        return this.chunksCompleted.get();
+    }
+
+    /**
+     * Get the number of key/value pairs checked so far in the current or most recent check.
+     *
+     * @return number of keys checked
+     */
+    public long getKeysChecked() {
+        return this.keysChecked.get();
+    }
+
+    /**
+     * Get the number of issues found so far in the current or most recent check.
+     *
+     * @return number of issues found
+     */
+    public long getIssuesFound() {
+        return this.issuesFound.get();
+    }
+
+// Checking
+
+    /**
+     * Check the database for consistency.
+     *
+     * <p>
+     * This method blocks until the check completes. Issues are delivered to {@code consumer} as they are found;
+     * deliveries are serialized, so {@code consumer} does not need to be thread safe.
+     *
+     * @param consumer receives each issue found
+     * @return the number of issues found
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws IllegalArgumentException if {@code consumer} is null
+     * @throws org.jsimpledb.kv.KVDatabaseException if an error occurs accessing the database
+     */
+    public synchronized long check(Consumer<? super Issue> consumer) throws InterruptedException {
+
+        // Sanity check
+        Preconditions.checkArgument(consumer != null, "null consumer");
+
+        // Reset progress
+        this.totalChunks.set(0);
+        this.chunksCompleted.set(0);
+        this.keysChecked.set(0);
+        this.issuesFound.set(0);
+
+        // Read and verify schema meta-data
+        final Schemas schemas;
+        final KVTransaction kvt = this.db.getKVDatabase().createTransaction();
+        try {
+            if (kvt.getAtLeast(ByteUtil.EMPTY, null) == null)
+                return 0;
+            schemas = this.db.createTransaction(kvt, null, 0, false).getSchemas();
+        } catch (InconsistentDatabaseException | InvalidSchemaException e) {
+            this.deliver(consumer, Arrays.asList(new Issue(ByteUtil.EMPTY, null, "invalid database meta-data: " + e.getMessage())));
+            return this.issuesFound.get();
+        } finally {
+            kvt.rollback();
+        }
+
+        // Partition the key space into chunks
+        final List<Chunk> chunks = this.buildChunks(schemas);
+        this.totalChunks.set(chunks.size());
+        this.log.info("checking database consistency using " + this.threads + " thread(s) and " + chunks.size() + " chunk(s)");
+
+        // Check chunks in parallel
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(this.threads, action -> {
+            final Thread thread = new Thread(action);
+            thread.setName(this.getClass().getSimpleName() + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final ArrayList<Future<?>> futures = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks)
+                futures.add(executor.submit(() -> this.checkChunk(chunk, consumer)));
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException)cause;
+                    if (cause instanceof Error)
+                        throw (Error)cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Clear checkpoints
+        final KVDatabase state = this.stateDatabase;
+        if (state != null) {
+            final KVTransaction stx = state.createTransaction();
+            stx.removeRange(null, null);
+            stx.commit();
+        }
+
+        // Done
+        this.log.info("database consistency check complete: " + this.keysChecked.get()
+          + " key(s) checked, " + this.issuesFound.get() + " issue(s) found");
+        return this.issuesFound.get();
+    }
+
+    private List<Chunk> buildChunks(Schemas schemas) {
+        final ArrayList<Chunk> chunks = new ArrayList<>();
+        final ArrayList<KeyRange> covered = new ArrayList<>();
+
+        // Meta-data
+        final byte[] versionIndexEnd = ByteUtil.getKeyAfterPrefix(Database.VERSION_INDEX_PREFIX);
+        chunks.add(new MetaDataChunk(schemas, new KeyRange(Database.METADATA_KEY_RANGE.getMin(), Database.VERSION_INDEX_PREFIX)));
+        for (KeyRange range : this.split(Database.VERSION_INDEX_PREFIX))
+            chunks.add(new VersionIndexChunk(schemas, range));
+        chunks.add(new MetaDataChunk(schemas, new KeyRange(versionIndexEnd, Database.METADATA_KEY_RANGE.getMax())));
+        covered.add(Database.METADATA_KEY_RANGE);
+
+        // Object types and indexes
+        for (StorageInfo info : schemas.storageInfos.values()) {
+            final byte[] prefix = UnsignedIntEncoder.encode(info.storageId);
+            if (info instanceof ObjTypeStorageInfo) {
+                for (KeyRange range : this.split(prefix))
+                    chunks.add(new ObjectChunk(schemas, range));
+            } else if (info instanceof IndexStorageInfo) {
+                for (KeyRange range : this.split(prefix))
+                    chunks.add(new IndexChunk(schemas, range, (IndexStorageInfo)info));
+            } else
+                continue;
+            covered.add(KeyRange.forPrefix(prefix));
+        }
+
+        // Gaps in between
+        for (KeyRange range : new KeyRanges(covered).inverse().asList())
+            chunks.add(new GapChunk(schemas, range));
+        return chunks;
+    }
+
+    private List<KeyRange> split(byte[] prefix) {
+        final int numSplits = this.splits;
+        final ArrayList<KeyRange> ranges = new ArrayList<>(numSplits);
+        byte[] min = prefix;
+        for (int i = 1; i < numSplits; i++) {
+            final byte[] max = Bytes.concat(prefix, new byte[] { (byte)(i * 256 / numSplits) });
+            ranges.add(new KeyRange(min, max));
+            min = max;
+        }
+        ranges.add(new KeyRange(min, ByteUtil.getKeyAfterPrefix(prefix)));
+        return ranges;
+    }
+
+    private Void checkChunk(Chunk chunk, Consumer<? super Issue> consumer) throws InterruptedException {
+        byte[] next = this.readCheckpoint(chunk);
+        while (next != null) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            final ArrayList<Issue> issues = new ArrayList<>();
+            for (int attempt = 0; true; attempt++) {
+                issues.clear();
+                final KVTransaction kvt = this.db.getKVDatabase().createTransaction();
+                try {
+                    next = chunk.check(kvt, next, this.maxKeysPerTransaction, issues);
+                    break;
+                } catch (RetryTransactionException e) {
+                    if (attempt >= MAX_RETRIES)
+                        throw e;
+                    this.log.debug("retrying consistency check of " + chunk + " after " + e);
+                } finally {
+                    kvt.rollback();
+                }
+            }
+            this.deliver(consumer, issues);
+            this.writeCheckpoint(chunk, next);
+        }
+        this.chunksCompleted.incrementAndGet();
+        return null;
+    }
+
+    private void deliver(Consumer<? super Issue> consumer, List<Issue> issues) {
+        if (issues.isEmpty())
+            return;
+        synchronized (consumer) {
+            for (Issue issue : issues) {
+                this.issuesFound.incrementAndGet();
+                consumer.accept(issue);
+            }
+        }
+    }
+
+    // Checkpoint values: absent means not started, empty means complete, otherwise the next key to check
+    private byte[] readCheckpoint(Chunk chunk) {
+        final KVDatabase state = this.stateDatabase;
+        if (state == null)
+            return chunk.range.getMin();
+        final KVTransaction stx = state.createTransaction();
+        final byte[] value;
+        try {
+            value = stx.get(chunk.range.getMin());
+        } finally {
+            stx.rollback();
+        }
+        return value == null ? chunk.range.getMin() : value.length == 0 ? null : value;
+    }
+
+    private void writeCheckpoint(Chunk chunk, byte[] next) {
+        final KVDatabase state = this.stateDatabase;
+        if (state == null)
+            return;
+        final KVTransaction stx = state.createTransaction();
+        stx.put(chunk.range.getMin(), next != null ? next : ByteUtil.EMPTY);
+        stx.commit();
+    }
+
+    /**
+     * Decode the schema version from object meta-data.
+     *
+     * @throws IllegalArgumentException if {@code value} is invalid
+     * @throws IndexOutOfBoundsException if {@code value} is truncated
+     */
+    private static int decodeObjectVersion(byte[] value) {
+        final ByteReader reader = new ByteReader(value);
+        final int metaDataVersion = UnsignedIntEncoder.read(reader);
+        if (metaDataVersion != ObjInfo.META_DATA_VERSION)
+            throw new IllegalArgumentException("unknown object meta-data version " + metaDataVersion);
+        final int version = UnsignedIntEncoder.read(reader);
+        if (version == 0)
+            throw new IllegalArgumentException("invalid schema version zero");
+        FieldTypeRegistry.BOOLEAN.read(reader);
+        if (reader.remain() > 0)
+            throw new IllegalArgumentException("trailing garbage");
+        return version;
+    }
+
+    /**
+     * Verify a value is properly encoded.
+     *
+     * @return error message, or null if value is valid
+     */
+    private static String validateValue(FieldType<?> fieldType, byte[] value) {
+        try {
+            final ByteReader reader = new ByteReader(value);
+            fieldType.read(reader);
+            return reader.remain() == 0 ? null : "trailing garbage after encoded value";
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return "invalid encoded value (" + e.getMessage() + ")";
+        }
+    }
+
+// Issue
+
+    /**
+     * An inconsistency found by a {@link ConsistencyChecker}.
+     *
+     * <p>
+     * Instances are immutable.
+     */
+    public static final class Issue {
+
+        private final byte[] key;
+        private final byte[] value;
+        private final String description;
+
+        Issue(byte[] key, byte[] value, String description) {
+            this.key = key;
+            this.value = value;
+            this.description = description;
+        }
+
+        /**
+         * Get the key of the inconsistent key/value pair.
+         *
+         * <p>
+         * For a missing key/value pair, this is the key that should exist.
+         *
+         * @return key/value store key
+         */
+        public byte[] getKey() {
+            return this.key.clone();
+        }
+
+        /**
+         * Get the value of the inconsistent key/value pair.
+         *
+         * @return key/value store value, or null if the key/value pair is missing or the value is not relevant
+         */
+        public byte[] getValue() {
+            return this.value != null ? this.value.clone() : null;
+        }
+
+        /**
+         * Get a description of this issue.
+         *
+         * @return issue description
+         */
+        public String getDescription() {
+            return this.description;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + ByteUtil.toString(this.key) + "] " + this.description;
+        }
+    }
+
+// Chunk
+
+    /**
+     * A key range that is checked independently.
+     */
+    private abstract class Chunk {
+
+        final Schemas schemas;
+        final KeyRange range;
+
+        Chunk(Schemas schemas, KeyRange range) {
+            this.schemas = schemas;
+            this.range = range;
+        }
+
+        /**
+         * Check up to {@code maxKeys} key/value pairs starting at {@code start}.
+         *
+         * <p>
+         * Any state left over from a previous attempt that failed with a {@link RetryTransactionException} is discarded first.
+         *
+         * @return the next key to check, or null if this chunk is complete
+         */
+        byte[] check(KVTransaction kvt, byte[] start, int maxKeys, List<Issue> issues) {
+            this.reset();
+            int count = 0;
+            final Iterator<KVPair> i = kvt.getRange(start, this.range.getMax(), false);
+            try {
+                while (i.hasNext()) {
+                    final KVPair pair = i.next();
+                    if (count >= maxKeys && this.isBoundary(pair.getKey())) {
+                        this.flush(kvt, issues);
+                        return pair.getKey();
+                    }
+                    this.check(kvt, pair, issues);
+                    count++;
+                }
+                this.flush(kvt, issues);
+                return null;
+            } finally {
+                Database.closeIfPossible(i);
+                ConsistencyChecker.this.keysChecked.addAndGet(count);
+            }
+        }
+
+        /**
+         * Check one key/value pair.
+         */
+        abstract void check(KVTransaction kvt, KVPair pair, List<Issue> issues);
+
+        /**
+         * Determine whether checking may stop just prior to the given key.
+         */
+        boolean isBoundary(byte[] key) {
+            return true;
+        }
+
+        /**
+         * Finish checking any pending key/value pairs.
+         */
+        void flush(KVTransaction kvt, List<Issue> issues) {
+        }
+
+        /**
+         * Discard any pending key/value pairs.
+         */
+        void reset() {
+        }
+
+        /**
+         * Decode the schema version of the given object and find its object type.
+         *
+         * @return object type, or null if an issue was found
+         */
+        ObjType getObjType(KVTransaction kvt, ObjId id, byte[] key, String what, List<Issue> issues) {
+            final byte[] metaData = kvt.get(id.getBytes());
+            if (metaData == null) {
+                issues.add(new Issue(key, null, what + " for non-existent object " + id));
+                return null;
+            }
+            final int version;
+            try {
+                version = ConsistencyChecker.decodeObjectVersion(metaData);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                issues.add(new Issue(key, null, what + " for object " + id + " having invalid meta-data"));
+                return null;
+            }
+            final Schema schema = this.schemas.versions.get(version);
+            final ObjType objType = schema != null ? schema.objTypeMap.get(id.getStorageId()) : null;
+            if (objType == null) {
+                issues.add(new Issue(key, null, what + " for object " + id + " having invalid schema version " + version));
+                return null;
+            }
+            return objType;
+        }
+
+        @Override
+        public String toString() {
+            return this.getClass().getSimpleName() + "[" + this.range + "]";
+        }
+    }
+
+// MetaDataChunk
+
+    private class MetaDataChunk extends Chunk {
+
+        MetaDataChunk(Schemas schemas, KeyRange range) {
+            super(schemas, range);
+        }
+
+        @Override
+        void check(KVTransaction kvt, KVPair pair, List<Issue> issues) {
+            final byte[] key = pair.getKey();
+            if (Arrays.equals(key, Database.FORMAT_VERSION_KEY))
+                return;                                                 // already verified when schemas were read
+            if (ByteUtil.isPrefixOf(Database.SCHEMA_KEY_PREFIX, key)) {
+                final ByteReader reader = new ByteReader(key, Database.SCHEMA_KEY_PREFIX.length);
+                try {
+                    final int version = UnsignedIntEncoder.read(reader);
+                    if (reader.remain() == 0 && this.schemas.versions.containsKey(version))
+                        return;
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    // fall through
+                }
+                issues.add(new Issue(key, pair.getValue(), "invalid schema version meta-data key"));
+                return;
+            }
+            issues.add(new Issue(key, pair.getValue(), "extraneous meta-data key"));
+        }
+    }
+
+// VersionIndexChunk
+
+    private class VersionIndexChunk extends Chunk {
+
+        VersionIndexChunk(Schemas schemas, KeyRange range) {
+            super(schemas, range);
+        }
+
+        @Override
+        void check(KVTransaction kvt, KVPair pair, List<Issue> issues) {
+            final byte[] key = pair.getKey();
+            final int version;
+            final ObjId id;
+            try {
+                final ByteReader reader = new ByteReader(key, Database.VERSION_INDEX_PREFIX.length);
+                version = UnsignedIntEncoder.read(reader);
+                id = new ObjId(reader);
+                if (reader.remain() > 0)
+                    throw new IllegalArgumentException("trailing garbage");
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                issues.add(new Issue(key, pair.getValue(), "invalid schema version index entry"));
+                return;
+            }
+            if (pair.getValue().length > 0)
+                issues.add(new Issue(key, pair.getValue(), "schema version index entry has non-empty value"));
+            final byte[] metaData = kvt.get(id.getBytes());
+            if (metaData == null) {
+                issues.add(new Issue(key, null, "schema version index entry for non-existent object " + id));
+                return;
+            }
+            try {
+                final int actualVersion = ConsistencyChecker.decodeObjectVersion(metaData);
+                if (actualVersion != version) {
+                    issues.add(new Issue(key, null, "schema version index entry for object " + id
+                      + " has version " + version + " but object has version " + actualVersion));
+                }
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                // this will be reported when the object is checked
+            }
+        }
+    }
+
+// ObjectChunk
+
+    private class ObjectChunk extends Chunk {
+
+        private final ArrayList<KVPair> pairs = new ArrayList<>();
+        private ObjId id;
+
+        ObjectChunk(Schemas schemas, KeyRange range) {
+            super(schemas, range);
+        }
+
+        @Override
+        boolean isBoundary(byte[] key) {
+            return this.id == null || !ByteUtil.isPrefixOf(this.id.getBytes(), key);
+        }
+
+        @Override
+        void check(KVTransaction kvt, KVPair pair, List<Issue> issues) {
+            final byte[] key = pair.getKey();
+            final ObjId nextId;
+            try {
+                nextId = new ObjId(new ByteReader(key));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                this.flush(kvt, issues);
+                issues.add(new Issue(key, pair.getValue(), "invalid object key"));
+                return;
+            }
+            if (!nextId.equals(this.id)) {
+                this.flush(kvt, issues);
+                this.id = nextId;
+            }
+            this.pairs.add(pair);
+        }
+
+        @Override
+        void flush(KVTransaction kvt, List<Issue> issues) {
+            if (this.id != null) {
+                this.checkObject(kvt, this.id, issues);
+                this.reset();
+            }
+        }
+
+        @Override
+        void reset() {
+            this.id = null;
+            this.pairs.clear();
+        }
+
+        private void checkObject(KVTransaction kvt, ObjId id, List<Issue> issues) {
+
+            // Check object meta-data
+            final KVPair first = this.pairs.get(0);
+            if (!Arrays.equals(first.getKey(), id.getBytes())) {
+                for (KVPair pair : this.pairs)
+                    issues.add(new Issue(pair.getKey(), pair.getValue(), "field data for non-existent object " + id));
+                return;
+            }
+            final int version;
+            try {
+                version = ConsistencyChecker.decodeObjectVersion(first.getValue());
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                issues.add(new Issue(first.getKey(), first.getValue(), "invalid meta-data for object " + id + ": " + e));
+                return;
+            }
+            final Schema schema = this.schemas.versions.get(version);
+            final ObjType objType = schema != null ? schema.objTypeMap.get(id.getStorageId()) : null;
+            if (objType == null) {
+                issues.add(new Issue(first.getKey(), first.getValue(),
+                  "object " + id + " has invalid schema version " + version));
+                return;
+            }
+            final byte[] versionKey = Database.buildVersionIndexKey(id, version);
+            if (kvt.get(versionKey) == null)
+                issues.add(new Issue(versionKey, null, "missing schema version index entry for object " + id));
+
+            // Check fields, gathering the index entries that should exist
+            final ArrayList<byte[]> indexEntries = new ArrayList<>();
+            final HashMap<Integer, byte[]> simpleValues = new HashMap<>();
+            final HashMap<Integer, Integer> listSizes = new HashMap<>();
+            for (KVPair pair : this.pairs.subList(1, this.pairs.size())) {
+                final byte[] key = pair.getKey();
+                final byte[] value = pair.getValue();
+                final ByteReader reader = new ByteReader(key, ObjId.NUM_BYTES);
+                final Field<?> field;
+                try {
+                    field = objType.fields.get(UnsignedIntEncoder.read(reader));
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    issues.add(new Issue(key, value, "invalid field key in object " + id));
+                    continue;
+                }
+                if (field == null) {
+                    issues.add(new Issue(key, value, "extraneous field data in object " + id
+                      + " having schema version " + version));
+                    continue;
+                }
+                final String error = this.checkField(kvt, id, field, reader, value, simpleValues, listSizes, indexEntries);
+                if (error != null)
+                    issues.add(new Issue(key, value, error + " in " + field + " of object " + id));
+            }
+
+            // Check simple and composite index entries
+            for (SimpleField<?> field : objType.indexedSimpleFields)
+                indexEntries.add(Transaction.buildSimpleIndexEntry(field, id, simpleValues.get(field.storageId)));
+            for (CompositeIndex index : objType.compositeIndexes.values()) {
+                indexEntries.add(Transaction.buildCompositeIndexEntry(id, index,
+                  field -> simpleValues.get(field.storageId)));
+            }
+            for (byte[] indexEntry : indexEntries) {
+                if (kvt.get(indexEntry) == null)
+                    issues.add(new Issue(indexEntry, null, "missing index entry for object " + id));
+            }
+        }
+
+        private String checkField(KVTransaction kvt, ObjId id, Field<?> field, ByteReader reader, byte[] value,
+          HashMap<Integer, byte[]> simpleValues, HashMap<Integer, Integer> listSizes, List<byte[]> indexEntries) {
+
+            // Simple field
+            if (field instanceof SimpleField) {
+                final SimpleField<?> simpleField = (SimpleField<?>)field;
+                if (reader.remain() > 0)
+                    return "invalid key";
+                if (Arrays.equals(value, simpleField.fieldType.getDefaultValue()))
+                    return "explicitly stored default value";
+                simpleValues.put(field.storageId, value);
+                return ConsistencyChecker.validateValue(simpleField.fieldType, value);
+            }
+
+            // Counter field
+            if (field instanceof CounterField) {
+                if (reader.remain() > 0) {
+                    final int shard = UnsignedIntEncoder.read(reader);
+                    if (shard == 0 || shard >= ((CounterField)field).shards || reader.remain() > 0)
+                        return "invalid counter shard key";
+                }
+                try {
+                    kvt.decodeCounter(value);
+                } catch (IllegalArgumentException e) {
+                    return "invalid counter value";
+                }
+                return null;
+            }
+
+            // Complex field
+            final ComplexField<?> complexField = (ComplexField<?>)field;
+            String error;
+            if (field instanceof SetField) {
+                final SimpleField<?> elementField = ((SetField<?>)field).elementField;
+                error = value.length > 0 ? "non-empty value" : this.validateRemainder(elementField.fieldType, reader);
+            } else if (field instanceof ListField) {
+                final ListField<?> listField = (ListField<?>)field;
+                if (listField.sparse)
+                    error = this.validateSparsePosition(reader);
+                else {
+                    final int expected = listSizes.getOrDefault(field.storageId, 0);
+                    listSizes.put(field.storageId, expected + 1);
+                    final ByteReader indexReader = new ByteReader(reader.getBytes(), reader.getOffset());
+                    error = this.validateRemainder(FieldTypeRegistry.UNSIGNED_INT, reader) != null ? "invalid list index" :
+                      UnsignedIntEncoder.read(indexReader) != expected ? "missing list element at index " + expected : null;
+                }
+                if (error == null)
+                    error = ConsistencyChecker.validateValue(listField.elementField.fieldType, value);
+            } else if (field instanceof MapField) {
+                final MapField<?, ?> mapField = (MapField<?, ?>)field;
+                error = this.validateRemainder(mapField.keyField.fieldType, reader);
+                if (error == null)
+                    error = ConsistencyChecker.validateValue(mapField.valueField.fieldType, value);
+            } else
+                throw new RuntimeException("internal error");
+            if (error != null)
+                return error;
+
+            // Gather sub-field index entries
+            final byte[] contentKey = reader.getBytes();
+            for (SimpleField<?> subField : complexField.getSubFields()) {
+                if (subField.indexed)
+                    indexEntries.add(complexField.buildIndexEntry(id, subField, contentKey, value));
+            }
+            return null;
+        }
+
+        // Validate the remainder of a complex field content key
+        private String validateRemainder(FieldType<?> fieldType, ByteReader reader) {
+            try {
+                fieldType.read(reader);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                return "invalid content key";
+            }
+            return reader.remain() == 0 ? null : "invalid content key";
+        }
+
+        // Validate the remainder of a sparse list content key, which must be a canonically encoded, in-range position
+        private String validateSparsePosition(ByteReader reader) {
+            final int start = reader.getOffset();
+            final long position;
+            try {
+                position = LongEncoder.read(reader);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                return "invalid sparse list position";
+            }
+            if (reader.remain() > 0)
+                return "invalid sparse list position";
+            if (!Arrays.equals(Arrays.copyOfRange(reader.getBytes(), start, reader.getOffset()), LongEncoder.encode(position)))
+                return "non-canonical sparse list position encoding";
+            if (position < JSSparseList.MIN_POSITION || position > JSSparseList.MAX_POSITION)
+                return "sparse list position " + position + " is out of range";
+            return null;
+        }
+    }
+
+// IndexChunk
+
+    private class IndexChunk extends Chunk {
+
+        private final IndexStorageInfo info;
+        private final int storageIdLength;
+
+        IndexChunk(Schemas schemas, KeyRange range, IndexStorageInfo info) {
+            super(schemas, range);
+            this.info = info;
+            this.storageIdLength = UnsignedIntEncoder.encodeLength(info.storageId);
+        }
+
+        @Override
+        void check(KVTransaction kvt, KVPair pair, List<Issue> issues) {
+            final byte[] key = pair.getKey();
+            if (pair.getValue().length > 0)
+                issues.add(new Issue(key, pair.getValue(), "index entry has non-empty value"));
+
+            // Decode indexed value(s) and object ID
+            final ByteReader reader = new ByteReader(key, this.storageIdLength);
+            final int valueOffset = reader.getOffset();
+            final int valueLength;
+            final ObjId id;
+            try {
+                if (this.info instanceof CompositeIndexStorageInfo) {
+                    for (FieldType<?> fieldType : ((CompositeIndexStorageInfo)this.info).fieldTypes)
+                        fieldType.read(reader);
+                } else
+                    ((SimpleFieldStorageInfo<?>)this.info).fieldType.read(reader);
+                valueLength = reader.getOffset() - valueOffset;
+                id = new ObjId(reader);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                issues.add(new Issue(key, pair.getValue(), "invalid index entry for " + this.info));
+                return;
+            }
+
+            // Find object type
+            final ObjType objType = this.getObjType(kvt, id, key, "index entry", issues);
+            if (objType == null)
+                return;
+
+            // Rebuild the index entry from the object's actual field value
+            byte[] expected = null;
+            if (this.info instanceof CompositeIndexStorageInfo) {
+                final CompositeIndex index = objType.compositeIndexes.get(this.info.storageId);
+                if (index != null)
+                    expected = Transaction.buildCompositeIndexEntry(id, index, field -> kvt.get(field.buildKey(id)));
+            } else if (this.info instanceof ComplexSubFieldStorageInfo) {
+                final ComplexSubFieldStorageInfo<?> subInfo = (ComplexSubFieldStorageInfo<?>)this.info;
+                final Field<?> parent = objType.fields.get(subInfo.parentStorageId);
+                final SimpleField<?> subField = parent instanceof ComplexField ?
+                  ((ComplexField<?>)parent).getSubFields().stream()
+                    .filter(field -> field.storageId == this.info.storageId && field.indexed)
+                    .findFirst().orElse(null) : null;
+                if (subField != null) {
+
+                    // Set elements and map keys are stored in the content key; list elements and map values are not
+                    final byte[] suffix = this.info instanceof SetElementStorageInfo || this.info instanceof MapKeyStorageInfo ?
+                      reader.getBytes(valueOffset, valueLength) : reader.getBytes(reader.getOffset());
+                    final byte[] contentKey = Bytes.concat(parent.buildKey(id), suffix);
+                    final byte[] contentValue = kvt.get(contentKey);
+                    if (contentValue != null)
+                        expected = ((ComplexField<?>)parent).buildIndexEntry(id, subField, contentKey, contentValue);
+                }
+            } else {
+                final Field<?> field = objType.fields.get(this.info.storageId);
+                if (field instanceof SimpleField && ((SimpleField<?>)field).indexed) {
+                    final SimpleField<?> simpleField = (SimpleField<?>)field;
+                    expected = Transaction.buildSimpleIndexEntry(simpleField, id, kvt.get(simpleField.buildKey(id)));
+                }
+            }
+            if (expected == null || !Arrays.equals(expected, key))
+                issues.add(new Issue(key, null, "index entry for " + this.info + " does not match object " + id));
+        }
+    }
+
+// GapChunk
+
+    private class GapChunk extends Chunk {
+
+        GapChunk(Schemas schemas, KeyRange range) {
+            super(schemas, range);
+        }
+
+        @Override
+        void check(KVTransaction kvt, KVPair pair, List<Issue> issues) {
+            issues.add(new Issue(pair.getKey(), pair.getValue(), "extraneous key not belonging to any object type or index"));
+        }
+    }
+}
+
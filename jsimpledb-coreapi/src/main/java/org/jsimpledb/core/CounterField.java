@@ -8,6 +8,9 @@ package org.jsimpledb.core;
 import com.google.common.base.Preconditions;
 import com.google.common.reflect.TypeToken;
 
+import org.jsimpledb.util.ByteWriter;
+import org.jsimpledb.util.UnsignedIntEncoder;
+
 /**
  * Counter fields.
  *
@@ -17,26 +20,48 @@ import com.google.common.reflect.TypeToken;
  * Counter fields do not support indexing or change listeners.
  *
  * <p>
+ * A counter field may be <i>sharded</i>, in which case its value is stored as the sum of several sub-values
+ * (shards). Each transaction chooses one shard at random to adjust, so concurrent adjustments from different
+ * transactions usually touch different keys and do not conflict, even on key/value stores that implement
+ * {@link org.jsimpledb.kv.KVStore#adjustCounter KVStore.adjustCounter()} as a read-modify-write operation.
+ * Reading a sharded counter requires reading all of its shards.
+ *
+ * <p>
  * Note: during schema version change notification, counter field values appear as plain {@code long} values.
  */
 public class CounterField extends Field<Long> {
 
+    final int shards;
+
     /**
      * Constructor.
      *
      * @param name the name of the field
      * @param storageId field storage ID
      * @param schema schema version
+     * @param shards number of shards
      * @throws IllegalArgumentException if any parameter is null
      * @throws IllegalArgumentException if {@code name} is invalid
      * @throws IllegalArgumentException if {@code storageId} is zero or less
+     * @throws IllegalArgumentException if {@code shards} is zero or less
      */
-    CounterField(String name, int storageId, Schema schema) {
+    CounterField(String name, int storageId, Schema schema, int shards) {
         super(name, storageId, schema, TypeToken.of(Long.class));
+        Preconditions.checkArgument(shards > 0, "invalid shards");
+        this.shards = shards;
     }
 
 // Public methods
 
+    /**
+     * Get the number of shards across which this counter's value is spread.
+     *
+     * @return number of shards, or one if this field is not sharded
+     */
+    public int getShards() {
+        return this.shards;
+    }
+
     @Override
     public Long getValue(Transaction tx, ObjId id) {
         Preconditions.checkArgument(tx != null, "null tx");
@@ -71,6 +96,26 @@ public class CounterField extends Field<Long> {
         return null;
     }
 
+    /**
+     * Build the key for the given shard of this field in the given object.
+     *
+     * <p>
+     * Shard zero is stored under the field's {@linkplain #buildKey normal key}; the remaining shards
+     * are stored under that key with the shard number appended.
+     */
+    byte[] buildShardKey(ObjId id, int shard) {
+        assert shard >= 0 && shard < this.shards;
+        if (shard == 0)
+            return this.buildKey(id);
+        final ByteWriter writer = new ByteWriter(ObjId.NUM_BYTES + this.encodedStorageId.length
+          + UnsignedIntEncoder.encodeLength(shard));
+        id.writeTo(writer);
+        writer.write(this.encodedStorageId);
+        UnsignedIntEncoder.write(writer, shard);
+        return writer.getBytes();
+    }
+
+    // Counters having different numbers of shards are compatible; the value is redistributed on upgrade
     @Override
     boolean isUpgradeCompatible(Field<?> field) {
         if (field.getClass() != this.getClass())
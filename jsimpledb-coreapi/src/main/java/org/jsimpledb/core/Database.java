@@ -82,23 +82,23 @@ public class Database {
     public static final int MAX_INDEXED_FIELDS = 4;
 
     // Prefix of all meta-data keys
-    private static final byte METADATA_PREFIX_BYTE = (byte)0x00;
-    private static final byte[] METADATA_PREFIX = new byte[] { METADATA_PREFIX_BYTE };
+    static final byte METADATA_PREFIX_BYTE = (byte)0x00;
+    static final byte[] METADATA_PREFIX = new byte[] { METADATA_PREFIX_BYTE };
 
     // Meta-data keys and key prefixes
-    private static final byte[] FORMAT_VERSION_KEY = new byte[] {
+    static final byte[] FORMAT_VERSION_KEY = new byte[] {
       METADATA_PREFIX_BYTE, (byte)0x00,
       (byte)'J', (byte)'S', (byte)'i', (byte)'m', (byte)'p', (byte)'l', (byte)'e', (byte)'D', (byte)'B'
     };
-    private static final byte[] SCHEMA_KEY_PREFIX = new byte[] {
+    static final byte[] SCHEMA_KEY_PREFIX = new byte[] {
       METADATA_PREFIX_BYTE, (byte)0x01
     };
-    private static final byte[] VERSION_INDEX_PREFIX = new byte[] {
+    static final byte[] VERSION_INDEX_PREFIX = new byte[] {
       METADATA_PREFIX_BYTE, (byte)0x80
     };
 
     // Key ranges
-    private static final KeyRange METADATA_KEY_RANGE = KeyRange.forPrefix(METADATA_PREFIX);
+    static final KeyRange METADATA_KEY_RANGE = KeyRange.forPrefix(METADATA_PREFIX);
     private static final KeyRange SCHEMA_KEY_RANGE = KeyRange.forPrefix(SCHEMA_KEY_PREFIX);
 
     // JSimpleDB format version numbers
@@ -155,6 +155,9 @@ public class Database {
     private final KVDatabase kvdb;
 
     private volatile Schemas lastSchemas;
+    private volatile ObjIdGenerator objIdGenerator = new DefaultObjIdGenerator();
+    private volatile boolean transactionProfiling;
+    private volatile boolean schemaGarbageCollection;
 
     /**
      * Constructor.
@@ -185,6 +188,128 @@ public class Database {
         return this.kvdb;
     }
 
+    /**
+     * Get the {@link ObjIdGenerator} used to generate the {@link ObjId}s of new objects.
+     *
+     * <p>
+     * Default is a {@link DefaultObjIdGenerator}.
+     *
+     * @return object ID generator
+     */
+    public ObjIdGenerator getObjIdGenerator() {
+        return this.objIdGenerator;
+    }
+
+    /**
+     * Configure the {@link ObjIdGenerator} used to generate the {@link ObjId}s of new objects.
+     *
+     * <p>
+     * This may be changed at any time; the change affects objects created thereafter, including within open transactions.
+     *
+     * @param objIdGenerator object ID generator
+     * @throws IllegalArgumentException if {@code objIdGenerator} is null
+     */
+    public void setObjIdGenerator(ObjIdGenerator objIdGenerator) {
+        Preconditions.checkArgument(objIdGenerator != null, "null objIdGenerator");
+        this.objIdGenerator = objIdGenerator;
+    }
+
+    /**
+     * Determine whether transaction profiling is enabled.
+     *
+     * <p>
+     * Default is false.
+     *
+     * @return true if transactions created by this instance gather a {@link TransactionProfile}
+     * @see Transaction#getProfile
+     */
+    public boolean isTransactionProfiling() {
+        return this.transactionProfiling;
+    }
+
+    /**
+     * Configure whether transaction profiling is enabled.
+     *
+     * <p>
+     * When enabled, each key/value store access made by a newly created {@link Transaction} is attributed to the
+     * object type, field, or index that owns the key, and the results are made available via {@link Transaction#getProfile}.
+     * Profiling adds per-operation overhead and retains a copy of every key read, so it should only be enabled
+     * while diagnosing performance problems.
+     *
+     * <p>
+     * This may be changed at any time; the change affects transactions created thereafter.
+     *
+     * @param transactionProfiling true to profile new transactions
+     */
+    public void setTransactionProfiling(boolean transactionProfiling) {
+        this.transactionProfiling = transactionProfiling;
+    }
+
+    /**
+     * Determine whether unused schema versions are automatically garbage collected.
+     *
+     * <p>
+     * Default is false.
+     *
+     * @return true if unused schema versions are automatically deleted
+     * @see #setSchemaGarbageCollection
+     */
+    public boolean isSchemaGarbageCollection() {
+        return this.schemaGarbageCollection;
+    }
+
+    /**
+     * Configure whether unused schema versions are automatically garbage collected.
+     *
+     * <p>
+     * When enabled, each time a transaction deletes or upgrades the last remaining object having some schema version,
+     * that schema version is deleted from the database as part of the same commit (see
+     * {@link Transaction#deleteSchemaVersion Transaction.deleteSchemaVersion()}). Without garbage collection,
+     * recorded schema versions accumulate forever, which makes opening transactions progressively more expensive.
+     *
+     * <p>
+     * Only schema versions from which an object was removed during the committing transaction are considered, and
+     * a transaction never deletes its own schema version, so versions that are recorded but not yet used by any object
+     * are left alone. Checking whether a version is still in use requires one key range read per such version.
+     *
+     * <p>
+     * Applications that are still running with an old schema version can't be expected to reuse that version after
+     * it's been deleted, unless they are configured to allow recording new schema versions.
+     *
+     * <p>
+     * This may be changed at any time; the change affects transactions committed thereafter.
+     *
+     * @param schemaGarbageCollection true to automatically delete unused schema versions
+     */
+    public void setSchemaGarbageCollection(boolean schemaGarbageCollection) {
+        this.schemaGarbageCollection = schemaGarbageCollection;
+    }
+
+    /**
+     * Describe the object type, field, or index that owns the given key/value store key.
+     *
+     * <p>
+     * The returned description has the same form as {@link TransactionProfile.Target#getDescription}, e.g.,
+     * {@code "field Person.name"}, {@code "index Person.name"}, or {@code "meta-data"}. The schema information
+     * comes from the most recently opened transaction; if no transaction has been opened yet, only meta-data keys
+     * are recognized.
+     *
+     * <p>
+     * This method is suitable for use as an {@link org.jsimpledb.kv.mvcc.ConflictTracker} key decoder.
+     *
+     * @param key key/value store key
+     * @return description of {@code key}'s owner, or {@code "unknown"} if unknown
+     * @throws IllegalArgumentException if {@code key} is null
+     */
+    public String describeKey(byte[] key) {
+        Preconditions.checkArgument(key != null, "null key");
+        final Schemas schemas = this.lastSchemas;
+        TransactionProfile.Target target = TransactionProfile.classify(schemas, key);
+        if (target.getDescription() == null)
+            target = TransactionProfile.describe(schemas, target);
+        return target.getDescription();
+    }
+
     /**
      * Create a new transaction.
      *
@@ -378,9 +503,16 @@ public class Database {
         // Sanity check
         Preconditions.checkArgument(kvt != null, "null kvt");
 
+        // Add profiling wrapper if needed
+        final ProfilingKVTransaction profiler = this.transactionProfiling ? new ProfilingKVTransaction(kvt) : null;
+        if (profiler != null)
+            kvt = profiler;
+
         // Validate meta-data
         final Schemas schemas = this.verifySchemas(kvt, schemaModel, version, allowNewSchema);
         assert schemas != null;
+        if (profiler != null)
+            profiler.getProfile().setSchemas(schemas);
 
         // Create transaction
         return version > 0 ? new Transaction(this, kvt, schemas, version) : new Transaction(this, kvt, schemas);
@@ -681,6 +813,13 @@ public class Database {
         tx.kvt.removeRange(VERSION_INDEX_PREFIX.clone(), null);
     }
 
+    static byte[] buildVersionIndexPrefix(int version) {
+        final ByteWriter writer = new ByteWriter(VERSION_INDEX_PREFIX.length + 5);
+        writer.write(VERSION_INDEX_PREFIX);
+        UnsignedIntEncoder.write(writer, version);
+        return writer.getBytes();
+    }
+
     static byte[] buildVersionIndexKey(ObjId id, int version) {
         final ByteWriter writer = new ByteWriter(VERSION_INDEX_PREFIX.length + 5 + ObjId.NUM_BYTES);
         writer.write(VERSION_INDEX_PREFIX);
@@ -0,0 +1,25 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+/**
+ * Default {@link ObjIdGenerator} implementation, which fills all of the non-storage ID bits using a
+ * {@link java.security.SecureRandom}.
+ *
+ * <p>
+ * The generated {@link ObjId}s are unpredictable, but generation is relatively slow, and new objects are scattered
+ * uniformly across the key space.
+ *
+ * @see ObjId#ObjId(int)
+ */
+public class DefaultObjIdGenerator implements ObjIdGenerator {
+
+    @Override
+    public ObjId generateId(int storageId) {
+        return new ObjId(storageId);
+    }
+}
+
@@ -0,0 +1,25 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link ObjIdGenerator} implementation that fills all of the non-storage ID bits using a fast,
+ * non-cryptographic random number generator.
+ *
+ * <p>
+ * This is much faster than {@link DefaultObjIdGenerator}, but the generated {@link ObjId}s are predictable.
+ * Like {@link DefaultObjIdGenerator}, new objects are scattered uniformly across the key space.
+ */
+public class FastObjIdGenerator implements ObjIdGenerator {
+
+    @Override
+    public ObjId generateId(int storageId) {
+        return new ObjId(storageId, ThreadLocalRandom.current().nextLong());
+    }
+}
+
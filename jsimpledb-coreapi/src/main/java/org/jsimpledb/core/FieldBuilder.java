@@ -75,7 +75,7 @@ class FieldBuilder extends SchemaFieldSwitchAdapter<Field<?>> {
 
     @Override
     public CounterField caseCounterSchemaField(CounterSchemaField field) {
-        return new CounterField(field.getName(), field.getStorageId(), this.schema);
+        return new CounterField(field.getName(), field.getStorageId(), this.schema, field.getShards());
     }
 
 // Internal methods
@@ -96,7 +96,7 @@ class FieldBuilder extends SchemaFieldSwitchAdapter<Field<?>> {
 
     // This method exists solely to bind the generic type parameters
     private <E> ListField<E> buildListField(ListSchemaField field, SimpleField<E> elementField) {
-        return new ListField<>(field.getName(), field.getStorageId(), this.schema, elementField);
+        return new ListField<>(field.getName(), field.getStorageId(), this.schema, elementField, field.isSparse());
     }
 
     // This method exists solely to bind the generic type parameters
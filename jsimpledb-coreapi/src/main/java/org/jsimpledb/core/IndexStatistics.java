@@ -0,0 +1,135 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+
+import org.jsimpledb.tuple.Tuple2;
+
+/**
+ * Cardinality statistics for a {@link CoreIndex}, sampled from the index's key range.
+ *
+ * <p>
+ * Statistics are gathered by scanning the index entries in order, stopping after a fixed number of entries; no extra
+ * information is stored in the database. If the scan completes before reaching the limit, the statistics are exact;
+ * otherwise, they describe a prefix of the index and should be treated as estimates.
+ *
+ * <p>
+ * The primary use for these statistics is estimating the size of the set of targets associated with a single index
+ * value, e.g., for supplying to {@link org.jsimpledb.util.NavigableSetPlanner#setEstimate NavigableSetPlanner.setEstimate()}
+ * when planning an intersection of index query results.
+ *
+ * <p>
+ * Instances are immutable.
+ *
+ * @see org.jsimpledb.util.NavigableSetPlanner
+ */
+public final class IndexStatistics {
+
+    private final long entries;
+    private final long values;
+    private final boolean exact;
+
+    private IndexStatistics(long entries, long values, boolean exact) {
+        this.entries = entries;
+        this.values = values;
+        this.exact = exact;
+    }
+
+    /**
+     * Gather statistics for the given index by scanning at most {@code limit} index entries.
+     *
+     * @param index the index
+     * @param limit maximum number of index entries to scan
+     * @param <V> index value type
+     * @return statistics for {@code index}
+     * @throws IllegalArgumentException if {@code index} is null
+     * @throws IllegalArgumentException if {@code limit} is not positive
+     * @throws StaleTransactionException if the index's transaction is no longer usable
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> IndexStatistics sample(CoreIndex<V, ?> index, int limit) {
+        Preconditions.checkArgument(index != null, "null index");
+        Preconditions.checkArgument(limit > 0, "limit <= 0");
+        final FieldType<V> valueType = (FieldType<V>)index.getFieldTypes().get(0);
+        long entries = 0;
+        long values = 0;
+        V prevValue = null;
+        final Iterator<? extends Tuple2<V, ?>> i = index.asSet().iterator();
+        while (entries < limit && i.hasNext()) {
+            final V value = i.next().getValue1();
+            if (entries++ == 0 || valueType.compare(value, prevValue) != 0)
+                values++;
+            prevValue = value;
+        }
+        return new IndexStatistics(entries, values, !i.hasNext());
+    }
+
+    /**
+     * Get the number of index entries scanned.
+     *
+     * <p>
+     * If {@link #isExact} returns true, this is the total number of entries in the index.
+     *
+     * @return number of index entries scanned
+     */
+    public long getEntryCount() {
+        return this.entries;
+    }
+
+    /**
+     * Get the number of distinct index values scanned.
+     *
+     * <p>
+     * If {@link #isExact} returns true, this is the total number of distinct values in the index.
+     *
+     * @return number of distinct index values scanned
+     */
+    public long getValueCount() {
+        return this.values;
+    }
+
+    /**
+     * Determine whether the entire index was scanned.
+     *
+     * @return true if these statistics are exact, false if they were sampled from a prefix of the index
+     */
+    public boolean isExact() {
+        return this.exact;
+    }
+
+    /**
+     * Get the average number of index targets associated with each distinct index value.
+     *
+     * @return average number of targets per value, or zero if the index is empty
+     */
+    public double getAverageTargetsPerValue() {
+        return this.values > 0 ? (double)this.entries / this.values : 0.0;
+    }
+
+    /**
+     * Estimate the number of index targets associated with a single index value, rounding up.
+     *
+     * @return estimated number of targets per value
+     */
+    public long estimateTargetsPerValue() {
+        return (long)Math.ceil(this.getAverageTargetsPerValue());
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[entries=" + this.entries
+          + ",values=" + this.values
+          + ",exact=" + this.exact
+          + "]";
+    }
+}
+
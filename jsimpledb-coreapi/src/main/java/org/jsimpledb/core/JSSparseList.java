@@ -0,0 +1,845 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractSequentialList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.util.ByteReader;
+import org.jsimpledb.util.ByteUtil;
+import org.jsimpledb.util.ByteWriter;
+import org.jsimpledb.util.LongEncoder;
+
+/**
+ * {@link List} implementation for {@linkplain ListField#isSparse sparse} {@link ListField}s.
+ *
+ * <p>
+ * List elements are stored under signed {@code long} "positions" that are spaced apart by gaps. Inserting elements
+ * allocates positions from the gap between the adjacent elements, so only the new elements' keys are written.
+ * When a gap is exhausted, a neighborhood of elements around the insertion point is re-spaced; the neighborhood
+ * grows until it's sparse enough, so re-spacing the entire list is rare. Removing elements never affects other elements.
+ *
+ * <p>
+ * Positional access requires scanning from the start of the list with a single range read. It ends at the target
+ * index, so all preceding elements are read and become part of the transaction's read set. Appending reads only the
+ * last element (unless monitored).
+ */
+class JSSparseList<E> extends AbstractSequentialList<E> {
+
+    /**
+     * Spacing between consecutive positions when there's plenty of room.
+     */
+    static final long GAP = 1L << 20;
+
+    /**
+     * Minimum spacing we require when re-spacing a neighborhood of elements.
+     */
+    static final long MIN_RESPACE_GAP = GAP >> 1;
+
+    /**
+     * Minimum position. Positions are restricted so that the difference between any two positions fits in a {@code long}.
+     */
+    static final long MIN_POSITION = -(1L << 61);
+
+    /**
+     * Maximum position. Positions are restricted so that the difference between any two positions fits in a {@code long}.
+     */
+    static final long MAX_POSITION = 1L << 61;
+
+    private final Transaction tx;
+    private final ObjId id;
+    private final ListField<E> field;
+    private final FieldType<E> elementType;
+    private final byte[] contentPrefix;
+    private final byte[] contentPrefixEnd;
+
+// Constructors
+
+    JSSparseList(Transaction tx, ListField<E> field, ObjId id) {
+        Preconditions.checkArgument(tx != null, "null tx");
+        Preconditions.checkArgument(field != null, "null field");
+        Preconditions.checkArgument(id != null, "null id");
+        Preconditions.checkArgument(field.sparse, "not a sparse list field");
+        this.tx = tx;
+        this.field = field;
+        this.id = id;
+        this.elementType = this.field.elementField.fieldType;
+        this.contentPrefix = field.buildKey(id);
+        this.contentPrefixEnd = ByteUtil.getKeyAfterPrefix(this.contentPrefix);
+    }
+
+// List API
+
+    @Override
+    public E get(int index) {
+        final KVPair pair = this.findEntry(index);
+        if (pair == null)
+            throw new IndexOutOfBoundsException("index = " + index);
+        return this.elementType.read(new ByteReader(pair.getValue()));
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        final Iterator<KVPair> i = this.tx.kvt.getRange(this.contentPrefix, this.contentPrefixEnd, false);
+        try {
+            while (i.hasNext() && size < Integer.MAX_VALUE) {
+                i.next();
+                size++;
+            }
+        } finally {
+            Database.closeIfPossible(i);
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.tx.kvt.getAtLeast(this.contentPrefix, this.contentPrefixEnd) == null;
+    }
+
+    @Override
+    public E set(final int index, final E elem) {
+        return this.tx.mutateAndNotify(this.id, () -> {
+            final KVPair pair = this.findEntry(index);
+            if (pair == null)
+                throw new IndexOutOfBoundsException("index = " + index);
+            return this.doReplace(pair.getKey(), pair.getValue(), index, elem);
+        });
+    }
+
+    @Override
+    public boolean add(final E elem) {
+        return this.tx.mutateAndNotify(this.id, () -> this.doAddAll(-1, Collections.singleton(elem)));
+    }
+
+    @Override
+    public void add(final int index, final E elem) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("index = " + index);
+        this.tx.mutateAndNotify(this.id, () -> this.doAddAll(index, Collections.singleton(elem)));
+    }
+
+    @Override
+    public boolean addAll(final Collection<? extends E> elems) {
+        return this.tx.mutateAndNotify(this.id, () -> this.doAddAll(-1, elems));
+    }
+
+    @Override
+    public boolean addAll(final int index, final Collection<? extends E> elems) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("index = " + index);
+        return this.tx.mutateAndNotify(this.id, () -> this.doAddAll(index, elems));
+    }
+
+    @Override
+    public E remove(final int index) {
+        return this.tx.mutateAndNotify(this.id, () -> {
+            final KVPair pair = this.findEntry(index);
+            if (pair == null)
+                throw new IndexOutOfBoundsException("index = " + index);
+            this.doRemove(pair.getKey(), pair.getValue(), index);
+            return this.elementType.read(new ByteReader(pair.getValue()));
+        });
+    }
+
+    @Override
+    public void clear() {
+        this.tx.mutateAndNotify(this.id, new Transaction.Mutation<Void>() {
+            @Override
+            public Void mutate() {
+                JSSparseList.this.doClear();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    protected void removeRange(final int min, final int max) {
+        this.tx.mutateAndNotify(this.id, new Transaction.Mutation<Void>() {
+            @Override
+            public Void mutate() {
+                JSSparseList.this.doRemoveRange(min, max);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iter();
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int index) {
+        return new ListIter(index);
+    }
+
+// Package methods
+
+    /**
+     * Remove the element at the specified position. Used when unreferencing a deleted object.
+     *
+     * @param position element position (not list index)
+     * @throws InconsistentDatabaseException if no element exists at {@code position}
+     */
+    void removeAtPosition(final long position) {
+        this.tx.mutateAndNotify(this.id, new Transaction.Mutation<Void>() {
+            @Override
+            public Void mutate() {
+                final byte[] key = JSSparseList.this.buildKey(position);
+                final byte[] value = JSSparseList.this.tx.kvt.get(key);
+                if (value == null)
+                    throw new InconsistentDatabaseException("list entry at position " + position + " not found");
+                JSSparseList.this.doRemove(key, value, JSSparseList.this.isMonitored() ? JSSparseList.this.countBefore(key) : -1);
+                return null;
+            }
+        });
+    }
+
+// Mutations
+
+    private boolean doAddAll(int index, Collection<? extends E> elems0) {
+
+        // Copy array
+        final ArrayList<E> elems = new ArrayList<>(elems0);
+        final int numElems = elems.size();
+
+        // Check for deleted assignement
+        if (this.field.elementField instanceof ReferenceField) {
+            for (E elem : elems)
+                this.tx.checkDeletedAssignment(this.id, (ReferenceField)this.field.elementField, (ObjId)elem);
+        }
+
+        // Encode elements
+        final ArrayList<byte[]> values = elems.stream()
+          .map(this::buildValue)
+          .collect(Collectors.toCollection(() -> new ArrayList<>(numElems)));
+
+        // Find the elements on either side of the insertion point; index -1 means append
+        final byte[] prevKey;
+        final byte[] nextKey;
+        if (index == -1) {
+            final KVPair last = this.tx.kvt.getAtMost(this.contentPrefixEnd, this.contentPrefix);
+            prevKey = last != null ? last.getKey() : null;
+            nextKey = null;
+        } else {
+            final KVPair[] neighbors = this.findNeighbors(index);
+            prevKey = neighbors[0] != null ? neighbors[0].getKey() : null;
+            nextKey = neighbors[1] != null ? neighbors[1].getKey() : null;
+        }
+        if (numElems == 0)
+            return false;
+
+        // Add entries
+        this.doInsert(prevKey, nextKey, values);
+
+        // Notify field monitors
+        if (this.isMonitored()) {
+            int index2 = index != -1 ? index : this.size() - numElems;
+            for (E elem : elems)
+                this.notifyAdd(index2++, elem);
+        }
+
+        // Done
+        return true;
+    }
+
+    // Insert the given values between the given adjacent list entries (either of which may be null) and return the new keys
+    private byte[][] doInsert(byte[] prevKey, byte[] nextKey, List<byte[]> values) {
+
+        // Bump modification counter (structural modification)
+        this.modCount++;
+
+        // Allocate positions from the gap between the neighboring elements, if possible
+        final int numValues = values.size();
+        final long[] positions = JSSparseList.allocate(prevKey != null ? this.decodePosition(prevKey) : null,
+          nextKey != null ? this.decodePosition(nextKey) : null, numValues, 1);
+        if (positions == null)
+            return this.respace(prevKey, nextKey, values);
+
+        // Write new entries
+        final byte[][] keys = new byte[numValues][];
+        for (int i = 0; i < numValues; i++) {
+            keys[i] = this.buildKey(positions[i]);
+            this.write(keys[i], values.get(i));
+        }
+        return keys;
+    }
+
+    // Re-space a neighborhood of existing elements around the insertion point to make room for the given values
+    private byte[][] respace(byte[] prevKey, byte[] nextKey, List<byte[]> values) {
+
+        // Gather neighbors on either side of the insertion point, doubling each time, until there's enough room
+        final int numValues = values.size();
+        final ArrayList<KVPair> below = new ArrayList<>();                      // nearest first
+        final ArrayList<KVPair> above = new ArrayList<>();                      // nearest first
+        final Iterator<KVPair> lower = prevKey != null ?
+          this.tx.kvt.getRange(this.contentPrefix, ByteUtil.getNextKey(prevKey), true) : Collections.<KVPair>emptyIterator();
+        final Iterator<KVPair> upper = nextKey != null ?
+          this.tx.kvt.getRange(nextKey, this.contentPrefixEnd, false) : Collections.<KVPair>emptyIterator();
+        long[] positions;
+        try {
+            KVPair lowerBound = lower.hasNext() ? lower.next() : null;
+            KVPair upperBound = upper.hasNext() ? upper.next() : null;
+            for (int expand = 1; true; expand <<= 1) {
+                for (int i = 0; i < expand && lowerBound != null; i++) {
+                    below.add(lowerBound);
+                    lowerBound = lower.hasNext() ? lower.next() : null;
+                }
+                for (int i = 0; i < expand && upperBound != null; i++) {
+                    above.add(upperBound);
+                    upperBound = upper.hasNext() ? upper.next() : null;
+                }
+                positions = JSSparseList.allocate(
+                  lowerBound != null ? this.decodePosition(lowerBound.getKey()) : null,
+                  upperBound != null ? this.decodePosition(upperBound.getKey()) : null,
+                  below.size() + numValues + above.size(), MIN_RESPACE_GAP);
+                if (positions != null)
+                    break;
+            }
+        } finally {
+            Database.closeIfPossible(lower);
+            Database.closeIfPossible(upper);
+        }
+        Collections.reverse(below);
+
+        // Remove the old entries, which are contiguous, and their index entries
+        final byte[] minKey = !below.isEmpty() ? below.get(0).getKey() : above.get(0).getKey();
+        final byte[] maxKey = !above.isEmpty() ? above.get(above.size() - 1).getKey() : below.get(below.size() - 1).getKey();
+        if (this.field.elementField.indexed) {
+            for (List<KVPair> pairs : Arrays.asList(below, above)) {
+                for (KVPair pair : pairs)
+                    this.field.removeIndexEntry(this.tx, this.id, this.field.elementField, pair.getKey(), pair.getValue());
+            }
+        }
+        this.tx.kvt.removeRange(minKey, ByteUtil.getNextKey(maxKey));
+
+        // Rewrite the old entries and write the new entries
+        int next = 0;
+        for (KVPair pair : below)
+            this.write(this.buildKey(positions[next++]), pair.getValue());
+        final byte[][] keys = new byte[numValues][];
+        for (int i = 0; i < numValues; i++) {
+            keys[i] = this.buildKey(positions[next++]);
+            this.write(keys[i], values.get(i));
+        }
+        for (KVPair pair : above)
+            this.write(this.buildKey(positions[next++]), pair.getValue());
+        assert next == positions.length;
+        return keys;
+    }
+
+    private E doReplace(byte[] key, byte[] oldValue, int index, E newElem) {
+
+        // Check for deleted assignement
+        if (this.field.elementField instanceof ReferenceField)
+            this.tx.checkDeletedAssignment(this.id, (ReferenceField)this.field.elementField, (ObjId)newElem);
+
+        // Optimize if no change
+        final byte[] newValue = this.buildValue(newElem);
+        if (Arrays.equals(newValue, oldValue))
+            return newElem;
+
+        // Decode previous entry
+        final E oldElem = this.elementType.read(new ByteReader(oldValue));
+
+        // Update list content and index
+        this.tx.kvt.put(key, newValue);
+        if (this.field.elementField.indexed) {
+            this.field.removeIndexEntry(this.tx, this.id, this.field.elementField, key, oldValue);
+            this.field.addIndexEntry(this.tx, this.id, this.field.elementField, key, newValue);
+        }
+
+        // Notify field monitors
+        if (!this.tx.disableListenerNotifications) {
+            this.tx.addFieldChangeNotification(new ListFieldChangeNotifier() {
+                @Override
+                public void notify(Transaction tx, ListFieldChangeListener listener, int[] path, NavigableSet<ObjId> referrers) {
+                    listener.onListFieldReplace(tx, this.id, JSSparseList.this.field, path, referrers, index, oldElem, newElem);
+                }
+            });
+        }
+
+        // Return previous entry
+        return oldElem;
+    }
+
+    // Remove a single entry; index is only needed if monitored
+    private void doRemove(byte[] key, byte[] value, int index) {
+
+        // Bump modification counter (structural modification)
+        this.modCount++;
+
+        // Update list content and index
+        if (this.field.elementField.indexed)
+            this.field.removeIndexEntry(this.tx, this.id, this.field.elementField, key, value);
+        this.tx.kvt.remove(key);
+
+        // Notify field monitors
+        this.notifyRemove(index, value);
+    }
+
+    private void doClear() {
+
+        // Check size
+        if (this.isEmpty())
+            return;
+
+        // Bump modification counter (structural modification)
+        this.modCount++;
+
+        // Delete index entries
+        if (this.field.elementField.indexed)
+            this.field.removeIndexEntries(this.tx, this.id, this.field.elementField);
+
+        // Delete content
+        this.field.deleteContent(this.tx, this.id);
+
+        // Notify field monitors
+        if (!this.tx.disableListenerNotifications) {
+            this.tx.addFieldChangeNotification(new ListFieldChangeNotifier() {
+                @Override
+                public void notify(Transaction tx, ListFieldChangeListener listener, int[] path, NavigableSet<ObjId> referrers) {
+                    listener.onListFieldClear(tx, this.id, JSSparseList.this.field, path, referrers);
+                }
+            });
+        }
+    }
+
+    private void doRemoveRange(int min, int max) {
+
+        // Check bounds
+        if (min < 0 || max < min)
+            throw new IndexOutOfBoundsException("min = " + min + ", max = " + max);
+
+        // Find the entries in the range
+        final ArrayList<KVPair> pairs = new ArrayList<>(max - min);
+        final Iterator<KVPair> i = this.tx.kvt.getRange(this.contentPrefix, this.contentPrefixEnd, false);
+        try {
+            for (int index = 0; index < max && i.hasNext(); index++) {
+                final KVPair pair = i.next();
+                if (index >= min)
+                    pairs.add(pair);
+            }
+            if (pairs.size() < max - min)
+                throw new IndexOutOfBoundsException("min = " + min + ", max = " + max + ", size = " + (min + pairs.size()));
+
+            // Optimize for clear()
+            if (min == 0 && !i.hasNext()) {
+                this.doClear();
+                return;
+            }
+        } finally {
+            Database.closeIfPossible(i);
+        }
+        if (pairs.isEmpty())
+            return;
+
+        // Bump modification counter (structural modification)
+        this.modCount++;
+
+        // Delete index entries
+        if (this.field.elementField.indexed) {
+            for (KVPair pair : pairs)
+                this.field.removeIndexEntry(this.tx, this.id, this.field.elementField, pair.getKey(), pair.getValue());
+        }
+
+        // Notify field monitors
+        for (int index = min; index < max; index++)
+            this.notifyRemove(index, pairs.get(index - min).getValue());
+
+        // Delete content, which is contiguous
+        this.tx.kvt.removeRange(pairs.get(0).getKey(), ByteUtil.getNextKey(pairs.get(pairs.size() - 1).getKey()));
+    }
+
+    private void write(byte[] key, byte[] value) {
+        this.tx.kvt.put(key, value);
+        if (this.field.elementField.indexed)
+            this.field.addIndexEntry(this.tx, this.id, this.field.elementField, key, value);
+    }
+
+// Position allocation
+
+    /**
+     * Allocate positions for the given number of elements, strictly between the given bounds.
+     *
+     * @param lower exclusive lower bound, or null for none
+     * @param upper exclusive upper bound, or null for none
+     * @param count number of positions to allocate
+     * @param minSpacing minimum required spacing between positions
+     * @return allocated positions in increasing order, or null if there is not enough room between {@code lower} and {@code upper}
+     */
+    static long[] allocate(Long lower, Long upper, int count, long minSpacing) {
+        final long start;
+        final long spacing;
+        if (lower == null && upper == null) {
+            spacing = GAP;
+            start = -(count / 2) * GAP;
+        } else if (lower == null && upper - count * GAP >= MIN_POSITION) {
+            spacing = GAP;
+            start = upper - count * GAP;
+        } else if (upper == null && lower + count * GAP <= MAX_POSITION) {
+            spacing = GAP;
+            start = lower + GAP;
+        } else {
+            final long min = lower != null ? lower : MIN_POSITION - 1;
+            final long max = upper != null ? upper : MAX_POSITION + 1;
+            spacing = (max - min) / (count + 1);
+            if (spacing < minSpacing)
+                return null;
+            start = min + spacing;
+        }
+        final long[] positions = new long[count];
+        for (int i = 0; i < count; i++)
+            positions[i] = start + i * spacing;
+        return positions;
+    }
+
+// Internal methods
+
+    // Find the list entry at the given index, or null if index >= size
+    private KVPair findEntry(int index) {
+        if (index < 0)
+            throw new IndexOutOfBoundsException("index = " + index);
+        if (index == 0)
+            return this.tx.kvt.getAtLeast(this.contentPrefix, this.contentPrefixEnd);
+        final Iterator<KVPair> i = this.tx.kvt.getRange(this.contentPrefix, this.contentPrefixEnd, false);
+        try {
+            while (i.hasNext()) {
+                final KVPair pair = i.next();
+                if (index-- == 0)
+                    return pair;
+            }
+            return null;
+        } finally {
+            Database.closeIfPossible(i);
+        }
+    }
+
+    // Find the list entries at index - 1 and index, either of which may be null
+    private KVPair[] findNeighbors(int index) {
+        final KVPair[] neighbors = new KVPair[2];
+        if (index == 0) {
+            neighbors[1] = this.tx.kvt.getAtLeast(this.contentPrefix, this.contentPrefixEnd);
+            return neighbors;
+        }
+        int size = 0;
+        final Iterator<KVPair> i = this.tx.kvt.getRange(this.contentPrefix, this.contentPrefixEnd, false);
+        try {
+            while (i.hasNext() && size <= index) {
+                final KVPair pair = i.next();
+                if (size == index - 1)
+                    neighbors[0] = pair;
+                else if (size == index)
+                    neighbors[1] = pair;
+                size++;
+            }
+        } finally {
+            Database.closeIfPossible(i);
+        }
+        if (neighbors[0] == null)
+            throw new IndexOutOfBoundsException("index = " + index + ", size = " + size);
+        return neighbors;
+    }
+
+    // Count the number of list entries prior to the given key, i.e., get its list index
+    private int countBefore(byte[] key) {
+        int count = 0;
+        final Iterator<KVPair> i = this.tx.kvt.getRange(this.contentPrefix, key, false);
+        try {
+            while (i.hasNext()) {
+                i.next();
+                count++;
+            }
+        } finally {
+            Database.closeIfPossible(i);
+        }
+        return count;
+    }
+
+    private byte[] buildKey(long position) {
+        final ByteWriter writer = new ByteWriter(this.contentPrefix.length + LongEncoder.encodeLength(position));
+        writer.write(this.contentPrefix);
+        LongEncoder.write(writer, position);
+        return writer.getBytes();
+    }
+
+    private long decodePosition(byte[] key) {
+        assert ByteUtil.isPrefixOf(this.contentPrefix, key);
+        return LongEncoder.read(new ByteReader(key, this.contentPrefix.length));
+    }
+
+    private byte[] buildValue(E elem) {
+        final ByteWriter writer = new ByteWriter();
+        try {
+            this.elementType.validateAndWrite(writer, elem);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("list containing " + this.elementType
+              + " can't hold values of type " + (elem != null ? elem.getClass().getName() : "null"), e);
+        }
+        return writer.getBytes();
+    }
+
+// Notifications
+
+    // Determine whether anyone cares about list indexes for notifications
+    private boolean isMonitored() {
+        return !this.tx.disableListenerNotifications && this.tx.hasFieldMonitor(this.id, this.field.storageId);
+    }
+
+    private void notifyAdd(final int index, final E elem) {
+        if (this.tx.disableListenerNotifications)
+            return;
+        this.tx.addFieldChangeNotification(new ListFieldChangeNotifier() {
+            @Override
+            public void notify(Transaction tx, ListFieldChangeListener listener, int[] path, NavigableSet<ObjId> referrers) {
+                listener.onListFieldAdd(tx, this.id, JSSparseList.this.field, path, referrers, index, elem);
+            }
+        });
+    }
+
+    private void notifyRemove(final int index, final byte[] value) {
+        if (this.tx.disableListenerNotifications)
+            return;
+        this.tx.addFieldChangeNotification(new ListFieldChangeNotifier() {
+
+            private boolean decoded;
+            private E elem;
+
+            @Override
+            public void notify(Transaction tx, ListFieldChangeListener listener, int[] path, NavigableSet<ObjId> referrers) {
+                if (!this.decoded) {
+                    this.elem = JSSparseList.this.elementType.read(new ByteReader(value));
+                    this.decoded = true;
+                }
+                listener.onListFieldRemove(tx, this.id, JSSparseList.this.field, path, referrers, index, this.elem);
+            }
+        });
+    }
+
+// Iter
+
+    private class Iter implements Iterator<E> {
+
+        private final Iterator<KVPair> i;
+        private boolean finished;
+        private byte[] removeKey;
+        private int nextIndex;
+
+        Iter() {
+            this.i = JSSparseList.this.tx.kvt.getRange(JSSparseList.this.contentPrefix, JSSparseList.this.contentPrefixEnd, false);
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            if (this.finished)
+                return false;
+            if (!this.i.hasNext()) {
+                this.finished = true;
+                Database.closeIfPossible(this.i);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized E next() {
+            if (this.finished)
+                throw new NoSuchElementException();
+            final KVPair pair = this.i.next();
+            this.removeKey = pair.getKey();
+            this.nextIndex++;
+            return JSSparseList.this.elementType.read(new ByteReader(pair.getValue()));
+        }
+
+        @Override
+        public synchronized void remove() {
+            Preconditions.checkState(this.removeKey != null);
+            final byte[] key = this.removeKey;
+            final int index = this.nextIndex - 1;
+            JSSparseList.this.tx.mutateAndNotify(JSSparseList.this.id, new Transaction.Mutation<Void>() {
+                @Override
+                public Void mutate() {
+                    final byte[] value = JSSparseList.this.tx.kvt.get(key);
+                    if (value == null)
+                        throw new ConcurrentModificationException();
+                    JSSparseList.this.doRemove(key, value, index);
+                    return null;
+                }
+            });
+            this.nextIndex--;
+            this.removeKey = null;
+        }
+    }
+
+// ListIter
+
+    private class ListIter implements ListIterator<E> {
+
+        private byte[] prevKey;                         // key of the element just before the cursor, or null if none
+        private int cursor;                             // index of the element just after the cursor
+        private byte[] lastKey;                         // key of the element last returned by next() or previous()
+        private boolean lastWasNext;
+        private int expectedModCount = JSSparseList.this.modCount;
+
+        ListIter(int index) {
+            if (index < 0)
+                throw new IndexOutOfBoundsException("index = " + index);
+            if (index > 0) {
+                final KVPair pair = JSSparseList.this.findEntry(index - 1);
+                if (pair == null)
+                    throw new IndexOutOfBoundsException("index = " + index);
+                this.prevKey = pair.getKey();
+            }
+            this.cursor = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            this.checkForComodification();
+            return this.peekNext() != null;
+        }
+
+        @Override
+        public E next() {
+            this.checkForComodification();
+            final KVPair pair = this.peekNext();
+            if (pair == null)
+                throw new NoSuchElementException();
+            this.prevKey = pair.getKey();
+            this.lastKey = pair.getKey();
+            this.lastWasNext = true;
+            this.cursor++;
+            return JSSparseList.this.elementType.read(new ByteReader(pair.getValue()));
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            this.checkForComodification();
+            return this.prevKey != null;
+        }
+
+        @Override
+        public E previous() {
+            this.checkForComodification();
+            if (this.prevKey == null)
+                throw new NoSuchElementException();
+            final byte[] value = JSSparseList.this.tx.kvt.get(this.prevKey);
+            if (value == null)
+                throw new ConcurrentModificationException();
+            this.lastKey = this.prevKey;
+            this.lastWasNext = false;
+            final KVPair pair = JSSparseList.this.tx.kvt.getAtMost(this.prevKey, JSSparseList.this.contentPrefix);
+            this.prevKey = pair != null ? pair.getKey() : null;
+            this.cursor--;
+            return JSSparseList.this.elementType.read(new ByteReader(value));
+        }
+
+        @Override
+        public int nextIndex() {
+            return this.cursor;
+        }
+
+        @Override
+        public int previousIndex() {
+            return this.cursor - 1;
+        }
+
+        @Override
+        public void remove() {
+            Preconditions.checkState(this.lastKey != null);
+            this.checkForComodification();
+            final byte[] key = this.lastKey;
+            final int index = this.lastWasNext ? this.cursor - 1 : this.cursor;
+            JSSparseList.this.tx.mutateAndNotify(JSSparseList.this.id, new Transaction.Mutation<Void>() {
+                @Override
+                public Void mutate() {
+                    final byte[] value = JSSparseList.this.tx.kvt.get(key);
+                    if (value == null)
+                        throw new ConcurrentModificationException();
+                    JSSparseList.this.doRemove(key, value, index);
+                    return null;
+                }
+            });
+            if (this.lastWasNext) {
+                final KVPair pair = JSSparseList.this.tx.kvt.getAtMost(key, JSSparseList.this.contentPrefix);
+                this.prevKey = pair != null ? pair.getKey() : null;
+                this.cursor--;
+            }
+            this.lastKey = null;
+            this.expectedModCount = JSSparseList.this.modCount;
+        }
+
+        @Override
+        public void set(final E elem) {
+            Preconditions.checkState(this.lastKey != null);
+            this.checkForComodification();
+            final byte[] key = this.lastKey;
+            final int index = this.lastWasNext ? this.cursor - 1 : this.cursor;
+            JSSparseList.this.tx.mutateAndNotify(JSSparseList.this.id, () -> {
+                final byte[] value = JSSparseList.this.tx.kvt.get(key);
+                if (value == null)
+                    throw new ConcurrentModificationException();
+                return JSSparseList.this.doReplace(key, value, index, elem);
+            });
+        }
+
+        @Override
+        public void add(final E elem) {
+            this.checkForComodification();
+            final KVPair next = this.peekNext();
+            final byte[] nextKey = next != null ? next.getKey() : null;
+            final int index = this.cursor;
+            this.prevKey = JSSparseList.this.tx.mutateAndNotify(JSSparseList.this.id, () -> {
+                if (JSSparseList.this.field.elementField instanceof ReferenceField) {
+                    JSSparseList.this.tx.checkDeletedAssignment(JSSparseList.this.id,
+                      (ReferenceField)JSSparseList.this.field.elementField, (ObjId)elem);
+                }
+                final byte[] key = JSSparseList.this.doInsert(this.prevKey, nextKey,
+                  Collections.singletonList(JSSparseList.this.buildValue(elem)))[0];
+                JSSparseList.this.notifyAdd(index, elem);
+                return key;
+            });
+            this.cursor++;
+            this.lastKey = null;
+            this.expectedModCount = JSSparseList.this.modCount;
+        }
+
+        private KVPair peekNext() {
+            return JSSparseList.this.tx.kvt.getAtLeast(this.prevKey != null ?
+              ByteUtil.getNextKey(this.prevKey) : JSSparseList.this.contentPrefix, JSSparseList.this.contentPrefixEnd);
+        }
+
+        private void checkForComodification() {
+            if (JSSparseList.this.modCount != this.expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+// ListFieldChangeNotifier
+
+    private abstract class ListFieldChangeNotifier extends FieldChangeNotifier<ListFieldChangeListener> {
+
+        ListFieldChangeNotifier() {
+            super(ListFieldChangeListener.class, JSSparseList.this.field.storageId, JSSparseList.this.id);
+        }
+    }
+}
+
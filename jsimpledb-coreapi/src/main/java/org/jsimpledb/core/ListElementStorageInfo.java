@@ -9,33 +9,49 @@ import java.util.List;
 
 import org.jsimpledb.kv.KVPairIterator;
 import org.jsimpledb.util.ByteReader;
+import org.jsimpledb.util.LongEncoder;
 import org.jsimpledb.util.UnsignedIntEncoder;
 
 class ListElementStorageInfo<E> extends ComplexSubFieldStorageInfo<E> {
 
+    final boolean sparse;
+
     ListElementStorageInfo(ListField<E> field) {
         super(field.elementField);
+        this.sparse = field.sparse;
     }
 
     CoreIndex2<E, ObjId, Integer> getElementIndex(Transaction tx) {
+        if (this.sparse) {
+            throw new IllegalArgumentException("list element index containing list indexes is not available for sparse "
+              + this + "; use a simple index query instead");
+        }
         return new CoreIndex2<>(tx,
           new Index2View<>(this.storageId, this.fieldType, FieldTypeRegistry.OBJ_ID, FieldTypeRegistry.UNSIGNED_INT));
     }
 
     @Override
     CoreIndex<E, ObjId> getIndex(Transaction tx) {
+        if (this.sparse) {
+            return new CoreIndex<>(tx,
+              new IndexView<>(UnsignedIntEncoder.encode(this.storageId), true, this.fieldType, FieldTypeRegistry.OBJ_ID));
+        }
         return this.getElementIndex(tx).asIndex();
     }
 
     // Note: as we delete list elements, the index of remaining elements will decrease by one each time.
     // However, the KVPairIterator always reflects the current state so we'll see updated list indexes.
+    // For sparse lists, the index entry contains the element's position, which does not change on deletion.
     @Override
     void unreference(Transaction tx, ObjId target, ObjId referrer, byte[] prefix) {
         final List<?> list = tx.readListField(referrer, this.parentStorageId, false);
         for (KVPairIterator i = new KVPairIterator(tx.kvt, prefix); i.hasNext(); ) {
             final ByteReader reader = new ByteReader(i.next().getKey());
             reader.skip(prefix.length);
-            list.remove(UnsignedIntEncoder.read(reader));
+            if (this.sparse)
+                ((JSSparseList<?>)list).removeAtPosition(LongEncoder.read(reader));
+            else
+                list.remove(UnsignedIntEncoder.read(reader));
         }
     }
 
@@ -43,7 +59,21 @@ class ListElementStorageInfo<E> extends ComplexSubFieldStorageInfo<E> {
 
     @Override
     public String toString() {
-        return "list element with " + this.fieldType;
+        return (this.sparse ? "sparse " : "") + "list element with " + this.fieldType;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        final ListElementStorageInfo<?> that = (ListElementStorageInfo<?>)obj;
+        return this.sparse == that.sparse;
     }
-}
 
+    @Override
+    public int hashCode() {
+        return super.hashCode() ^ (this.sparse ? 1 : 0);
+    }
+}
@@ -12,6 +12,7 @@ import com.google.common.reflect.TypeToken;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.ListIterator;
 
 import org.jsimpledb.util.ByteReader;
 import org.jsimpledb.util.ByteWriter;
@@ -20,12 +21,23 @@ import org.jsimpledb.util.ByteWriter;
  * List field.
  *
  * <p>
- * JSimpleDB list fields have performance characteristics similar to {@link ArrayList}.
+ * By default, JSimpleDB list fields have performance characteristics similar to {@link ArrayList}: elements are
+ * stored under consecutive list indexes, so positional access is constant time, but inserting or removing an element
+ * rewrites the keys (and index entries) of all subsequent elements.
+ *
+ * <p>
+ * A list field may instead be configured for {@linkplain #isSparse sparse} storage, in which elements are stored under
+ * positions separated by gaps. Then inserting or removing an element only writes that element's key (and occasionally
+ * re-spaces a few nearby elements), but positional access requires a scan from the front of the list; i.e., performance
+ * characteristics are similar to {@link java.util.LinkedList}. Sparse storage is appropriate for large lists that
+ * are frequently modified in the middle, especially when there are concurrent readers.
  *
  * @param <E> Java type for the list elements
  */
 public class ListField<E> extends CollectionField<List<E>, E> {
 
+    final boolean sparse;
+
     /**
      * Constructor.
      *
@@ -33,17 +45,34 @@ public class ListField<E> extends CollectionField<List<E>, E> {
      * @param storageId field content storage ID
      * @param schema schema version
      * @param elementField this field's element sub-field
+     * @param sparse whether to use sparse element storage
      * @throws IllegalArgumentException if any parameter is null
      * @throws IllegalArgumentException if {@code storageId} is non-positive
      */
     @SuppressWarnings("serial")
-    ListField(String name, int storageId, Schema schema, SimpleField<E> elementField) {
+    ListField(String name, int storageId, Schema schema, SimpleField<E> elementField, boolean sparse) {
         super(name, storageId, schema, new TypeToken<List<E>>() { }
           .where(new TypeParameter<E>() { }, elementField.typeToken.wrap()), elementField);
+        this.sparse = sparse;
     }
 
 // Public methods
 
+    /**
+     * Determine whether this field uses sparse element storage.
+     *
+     * <p>
+     * Sparse list fields store elements under signed "positions" that are separated by gaps, rather than under consecutive
+     * list indexes. As a consequence, list element index entries contain positions rather than list indexes, so
+     * {@link Transaction#queryListElementIndex Transaction.queryListElementIndex()} is not supported for sparse list fields;
+     * use {@link Transaction#queryIndex Transaction.queryIndex()} instead.
+     *
+     * @return true if this field uses sparse storage, false if elements are stored under consecutive list indexes
+     */
+    public boolean isSparse() {
+        return this.sparse;
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public List<E> getValue(Transaction tx, ObjId id) {
@@ -58,14 +87,14 @@ public class ListField<E> extends CollectionField<List<E>, E> {
 
     @Override
     public String toString() {
-        return "list field `" + this.name + "' containing " + this.elementField;
+        return (this.sparse ? "sparse " : "") + "list field `" + this.name + "' containing " + this.elementField;
     }
 
 // Non-public methods
 
     @Override
     List<E> getValueInternal(Transaction tx, ObjId id) {
-        return new JSList<>(tx, this, id);
+        return this.sparse ? new JSSparseList<>(tx, this, id) : new JSList<>(tx, this, id);
     }
 
     @Override
@@ -83,6 +112,21 @@ public class ListField<E> extends CollectionField<List<E>, E> {
     void copy(ObjId srcId, ObjId dstId, Transaction srcTx, Transaction dstTx) {
         final List<E> srcList = this.getValue(srcTx, srcId);
         final List<E> dstList = this.getValue(dstTx, dstId);
+        if (this.sparse) {                                              // avoid positional access, which is linear time
+            final ListIterator<E> si = srcList.listIterator();
+            final ListIterator<E> di = dstList.listIterator();
+            while (si.hasNext()) {
+                final E elem = si.next();
+                if (di.hasNext()) {
+                    di.next();
+                    di.set(elem);
+                } else
+                    di.add(elem);
+            }
+            if (di.hasNext())
+                dstList.subList(di.nextIndex(), dstList.size()).clear();
+            return;
+        }
         final int ssize = srcList.size();
         final int dsize = dstList.size();
         final int min = Math.min(ssize, dsize);
@@ -94,6 +138,11 @@ public class ListField<E> extends CollectionField<List<E>, E> {
             dstList.addAll(srcList.subList(dsize, ssize));
     }
 
+    @Override
+    boolean isUpgradeCompatible(Field<?> field) {
+        return super.isUpgradeCompatible(field) && ((ListField<?>)field).sparse == this.sparse;
+    }
+
     @Override
     void buildIndexEntry(ObjId id, SimpleField<?> subField, ByteReader reader, byte[] value, ByteWriter writer) {
         assert subField == this.elementField;
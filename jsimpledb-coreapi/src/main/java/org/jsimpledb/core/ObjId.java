@@ -91,6 +91,26 @@ public class ObjId implements Comparable<ObjId>, Serializable {
         this.validateStorageId();
     }
 
+    /**
+     * Create an instance with the given storage ID and the given bits filling the remainder of the binary encoding.
+     *
+     * <p>
+     * Only the low-order {@link #getSuffixBits getSuffixBits(storageId)} bits of {@code suffix} are used.
+     * This constructor is intended for use by {@link ObjIdGenerator} implementations.
+     *
+     * @param storageId storage ID, must be greater than zero
+     * @param suffix the bits following the storage ID
+     * @throws IllegalArgumentException if {@code storageId} is zero or negative
+     */
+    public ObjId(int storageId, long suffix) {
+        final byte[] prefix = UnsignedIntEncoder.encode(ObjId.checkStorageId(storageId));
+        long prefixValue = 0;
+        for (byte b : prefix)
+            prefixValue = (prefixValue << 8) | (b & 0xff);
+        final int suffixBits = (NUM_BYTES - prefix.length) * 8;
+        this.value = (prefixValue << suffixBits) | (suffix & ((1L << suffixBits) - 1));
+    }
+
     private void validateStorageId() {
         final int storageId;
         try {
@@ -109,7 +129,18 @@ public class ObjId implements Comparable<ObjId>, Serializable {
      * @return object type storage ID
      */
     public int getStorageId() {
-        return UnsignedIntEncoder.read(new ByteReader(this.getBytes()));
+
+        // Decode the UnsignedIntEncoder encoding directly from our long value
+        final int first = (int)(this.value >>> 56);
+        if (first < UnsignedIntEncoder.MIN_MULTI_BYTE_VALUE)
+            return first;
+        if (first == 0xff)
+            throw new IllegalArgumentException("invalid unsigned int encoding starting with 0xff");
+        final int numBits = (first - UnsignedIntEncoder.MIN_MULTI_BYTE_VALUE + 1) * 8;
+        final long storageId = ((this.value >>> (56 - numBits)) & ((1L << numBits) - 1)) + UnsignedIntEncoder.MIN_MULTI_BYTE_VALUE;
+        if (storageId > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("invalid unsigned int encoding with high bit set");
+        return (int)storageId;
     }
 
     /**
@@ -141,6 +172,17 @@ public class ObjId implements Comparable<ObjId>, Serializable {
         ByteUtil.writeLong(writer, this.value);
     }
 
+    /**
+     * Get the number of bits following the storage ID in the binary encoding of instances having the given storage ID.
+     *
+     * @param storageId storage ID, must be greater than zero
+     * @return number of bits available for the non-storage ID part of an {@link ObjId}
+     * @throws IllegalArgumentException if {@code storageId} is zero or negative
+     */
+    public static int getSuffixBits(int storageId) {
+        return (NUM_BYTES - UnsignedIntEncoder.encodeLength(ObjId.checkStorageId(storageId))) * 8;
+    }
+
     /**
      * Get the smallest (i.e., first) instance having the given storage ID.
      *
@@ -229,13 +271,25 @@ public class ObjId implements Comparable<ObjId>, Serializable {
 
 // Comparable
 
+    /**
+     * Compare this instance to another.
+     *
+     * <p>
+     * The ordering is consistent with the unsigned lexicographic ordering of the {@linkplain #getBytes binary encodings},
+     * which (because the encoding is big-endian) is the same as the unsigned ordering of the {@link #asLong} values.
+     */
     @Override
     public int compareTo(ObjId that) {
-        return ByteUtil.compare(this.getBytes(), that.getBytes());
+        return Long.compareUnsigned(this.value, that.value);
     }
 
 // Internal methods
 
+    private static int checkStorageId(int storageId) {
+        Preconditions.checkArgument(storageId > 0, "invalid non-positive storage ID");
+        return storageId;
+    }
+
     private static ByteReader buildRandom(int storageId) {
         if (storageId <= 0)
             throw new IllegalArgumentException("invalid storage ID " + storageId);
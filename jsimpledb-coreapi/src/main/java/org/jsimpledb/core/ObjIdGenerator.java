@@ -0,0 +1,35 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+/**
+ * Generates the {@link ObjId}s assigned to newly created objects.
+ *
+ * <p>
+ * Generated {@link ObjId}s need not be unique: {@link Transaction} checks that a generated {@link ObjId} is not already
+ * in use, and if so asks for another. However, an implementation that frequently generates the same {@link ObjId}
+ * for concurrent transactions will cause spurious transaction conflicts.
+ *
+ * <p>
+ * Implementations must be thread safe.
+ *
+ * @see Database#setObjIdGenerator Database.setObjIdGenerator()
+ * @see DefaultObjIdGenerator
+ * @see FastObjIdGenerator
+ * @see TimeOrderedObjIdGenerator
+ */
+@FunctionalInterface
+public interface ObjIdGenerator {
+
+    /**
+     * Generate a new {@link ObjId} for an object with the given storage ID.
+     *
+     * @param storageId object type storage ID, always greater than zero
+     * @return new object ID having storage ID {@code storageId}
+     */
+    ObjId generateId(int storageId);
+}
+
@@ -14,7 +14,7 @@ import org.jsimpledb.util.UnsignedIntEncoder;
  */
 class ObjInfo {
 
-    private static final int META_DATA_VERSION = 1;
+    static final int META_DATA_VERSION = 1;
 
     // Stored meta-data
     final Transaction tx;
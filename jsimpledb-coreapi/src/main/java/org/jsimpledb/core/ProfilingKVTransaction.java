@@ -0,0 +1,276 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+
+import org.jsimpledb.kv.CloseableKVStore;
+import org.jsimpledb.kv.KVDatabase;
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.kv.KVTransaction;
+import org.jsimpledb.kv.KVTransactionException;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.TransactionTimeoutException;
+import org.jsimpledb.kv.util.ForwardingKVStore;
+
+/**
+ * {@link KVTransaction} wrapper that records every key/value access in a {@link TransactionProfile}.
+ *
+ * @see Database#setTransactionProfiling
+ */
+class ProfilingKVTransaction extends ForwardingKVStore implements KVTransaction {
+
+    private final KVTransaction tx;
+    private final TransactionProfile profile = new TransactionProfile();
+
+    ProfilingKVTransaction(KVTransaction tx) {
+        Preconditions.checkArgument(tx != null, "null tx");
+        this.tx = tx;
+    }
+
+    KVTransaction getWrappedKVTransaction() {
+        return this.tx;
+    }
+
+    TransactionProfile getProfile() {
+        return this.profile;
+    }
+
+// ForwardingKVStore
+
+    @Override
+    protected KVTransaction delegate() {
+        return this.tx;
+    }
+
+// KVStore
+
+    @Override
+    public byte[] get(byte[] key) {
+        final long startTime = System.nanoTime();
+        final byte[] value;
+        try {
+            value = this.tx.get(key);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordGet(key, value != null, System.nanoTime() - startTime);
+        return value;
+    }
+
+    @Override
+    public KVPair getAtLeast(byte[] minKey, byte[] maxKey) {
+        final long startTime = System.nanoTime();
+        final KVPair pair;
+        try {
+            pair = this.tx.getAtLeast(minKey, maxKey);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordSeek(pair != null ? pair.getKey() : minKey, pair != null, System.nanoTime() - startTime);
+        return pair;
+    }
+
+    @Override
+    public KVPair getAtMost(byte[] maxKey, byte[] minKey) {
+        final long startTime = System.nanoTime();
+        final KVPair pair;
+        try {
+            pair = this.tx.getAtMost(maxKey, minKey);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordSeek(pair != null ? pair.getKey() : minKey, pair != null, System.nanoTime() - startTime);
+        return pair;
+    }
+
+    @Override
+    public Iterator<KVPair> getRange(byte[] minKey, byte[] maxKey, boolean reverse) {
+        final long startTime = System.nanoTime();
+        final Iterator<KVPair> iterator;
+        try {
+            iterator = this.tx.getRange(minKey, maxKey, reverse);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordRangeRead(minKey, System.nanoTime() - startTime);
+        return new ProfilingIterator(iterator, minKey);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.put(key, value);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordWrite(key, System.nanoTime() - startTime);
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.remove(key);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordWrite(key, System.nanoTime() - startTime);
+    }
+
+    @Override
+    public void removeRange(byte[] minKey, byte[] maxKey) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.removeRange(minKey, maxKey);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordRemoveRange(minKey, System.nanoTime() - startTime);
+    }
+
+    @Override
+    public void adjustCounter(byte[] key, long amount) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.adjustCounter(key, amount);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+        this.profile.recordWrite(key, System.nanoTime() - startTime);
+    }
+
+// KVTransaction
+
+    @Override
+    public KVDatabase getKVDatabase() {
+        return this.tx.getKVDatabase();
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.tx.setTimeout(timeout);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return this.tx.isReadOnly();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        this.tx.setReadOnly(readOnly);
+    }
+
+    @Override
+    public Future<Void> watchKey(byte[] key) {
+        return this.tx.watchKey(key);
+    }
+
+    @Override
+    public void commit() {
+        try {
+            this.tx.commit();
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+    }
+
+    @Override
+    public void rollback() {
+        try {
+            this.tx.rollback();
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        }
+    }
+
+    @Override
+    public CloseableKVStore mutableSnapshot() {
+        return this.tx.mutableSnapshot();
+    }
+
+    // Report exceptions from the wrapped transaction as coming from this transaction
+    private KVTransactionException wrapException(KVTransactionException e) {
+        if (e.getTransaction() != this.tx)
+            return e;
+        if (e instanceof RetryTransactionException)
+            return new RetryTransactionException(this, e.getMessage(), e);
+        if (e instanceof TransactionTimeoutException)
+            return new TransactionTimeoutException(this, e.getMessage(), e);
+        if (e instanceof org.jsimpledb.kv.StaleTransactionException)
+            return new org.jsimpledb.kv.StaleTransactionException(this, e.getMessage(), e);
+        return new KVTransactionException(this, e.getMessage(), e);
+    }
+
+// ProfilingIterator
+
+    private class ProfilingIterator implements Iterator<KVPair>, Closeable {
+
+        private final Iterator<KVPair> iterator;
+        private final byte[] minKey;
+
+        private long pendingNanos;
+
+        ProfilingIterator(Iterator<KVPair> iterator, byte[] minKey) {
+            this.iterator = iterator;
+            this.minKey = minKey;
+        }
+
+        @Override
+        public boolean hasNext() {
+            final long startTime = System.nanoTime();
+            final boolean hasNext = this.iterator.hasNext();
+            this.pendingNanos += System.nanoTime() - startTime;
+            if (!hasNext)
+                this.flush();
+            return hasNext;
+        }
+
+        @Override
+        public KVPair next() {
+            final long startTime = System.nanoTime();
+            final KVPair pair = this.iterator.next();
+            final long nanos = this.pendingNanos + System.nanoTime() - startTime;
+            this.pendingNanos = 0;
+            ProfilingKVTransaction.this.profile.recordRangePair(pair.getKey(), nanos);
+            return pair;
+        }
+
+        @Override
+        public void remove() {
+            final long startTime = System.nanoTime();
+            this.iterator.remove();
+            this.pendingNanos += System.nanoTime() - startTime;
+        }
+
+        @Override
+        public void close() {
+            this.flush();
+            if (this.iterator instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable)this.iterator).close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+
+        // Attribute time not associated with any returned pair to the start of the range
+        private void flush() {
+            if (this.pendingNanos == 0)
+                return;
+            ProfilingKVTransaction.this.profile.recordNanos(this.minKey, this.pendingNanos);
+            this.pendingNanos = 0;
+        }
+    }
+}
+
@@ -60,6 +60,7 @@ public class Schemas {
         // Reset state
         this.versions.clear();
         this.storageInfos.clear();
+        this.referenceFieldIndexStorageInfos.clear();
         this.objTypeStorageIds.clear();
 
         // Copy versions
@@ -0,0 +1,88 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ObjIdGenerator} implementation that generates {@link ObjId}s whose high-order bits are a timestamp.
+ *
+ * <p>
+ * The bits following the storage ID consist of a timestamp followed by a sequence number. The sequence number comes from
+ * a counter shared by all storage ID's that starts at a random value. As a result, objects created around the same time
+ * are clustered together in the key space, and objects created in sequence are mostly appended to the end of their type's
+ * key range. This improves write locality for key/value stores based on sorted files, such as LevelDB, RocksDB,
+ * and the array key/value store.
+ *
+ * <p>
+ * By default, the timestamp has 32 bits at a resolution of one second, which does not wrap around until the year 2106.
+ * However, at least {@link #MIN_SEQUENCE_BITS} bits are always reserved for the sequence number, so for storage ID's
+ * with long encodings the timestamp is truncated and wraps around sooner. Wrap-around does not cause
+ * incorrect behavior; it only reduces locality.
+ *
+ * <p>
+ * The generated {@link ObjId}s are predictable, and reveal approximately when each object was created.
+ */
+public class TimeOrderedObjIdGenerator implements ObjIdGenerator {
+
+    /**
+     * Default number of timestamp bits.
+     */
+    public static final int DEFAULT_TIMESTAMP_BITS = 32;
+
+    /**
+     * Default timestamp resolution in milliseconds.
+     */
+    public static final long DEFAULT_RESOLUTION = 1000;
+
+    /**
+     * Minimum number of bits reserved for the sequence number.
+     */
+    public static final int MIN_SEQUENCE_BITS = 16;
+
+    private final int timestampBits;
+    private final long resolution;
+    private final AtomicLong sequence = new AtomicLong(ThreadLocalRandom.current().nextLong());
+
+    /**
+     * Default constructor.
+     *
+     * <p>
+     * Uses {@link #DEFAULT_TIMESTAMP_BITS} timestamp bits and a resolution of {@link #DEFAULT_RESOLUTION} milliseconds.
+     */
+    public TimeOrderedObjIdGenerator() {
+        this(DEFAULT_TIMESTAMP_BITS, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param timestampBits maximum number of timestamp bits
+     * @param resolution timestamp resolution in milliseconds
+     * @throws IllegalArgumentException if {@code timestampBits} is not in the range 1 to 48
+     * @throws IllegalArgumentException if {@code resolution} is not positive
+     */
+    public TimeOrderedObjIdGenerator(int timestampBits, long resolution) {
+        Preconditions.checkArgument(timestampBits >= 1 && timestampBits <= 48, "invalid timestampBits");
+        Preconditions.checkArgument(resolution > 0, "invalid resolution");
+        this.timestampBits = timestampBits;
+        this.resolution = resolution;
+    }
+
+    @Override
+    public ObjId generateId(int storageId) {
+        final int suffixBits = ObjId.getSuffixBits(storageId);
+        final int numTimestampBits = Math.min(this.timestampBits, suffixBits - MIN_SEQUENCE_BITS);
+        final int sequenceBits = suffixBits - numTimestampBits;
+        final long timestamp = System.currentTimeMillis() / this.resolution;
+        final long suffix = (timestamp << sequenceBits) | (this.sequence.getAndIncrement() & ((1L << sequenceBits) - 1));
+        return new ObjId(storageId, suffix);
+    }
+}
+
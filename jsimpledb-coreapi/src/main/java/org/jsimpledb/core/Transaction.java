@@ -6,6 +6,7 @@
 package org.jsimpledb.core;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.util.ArrayList;
@@ -23,13 +24,17 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
 import org.jsimpledb.core.util.ObjIdMap;
-import org.jsimpledb.core.util.ObjIdSet;
+import org.jsimpledb.core.util.ObjIdSortedSet;
 import org.jsimpledb.kv.KVPair;
 import org.jsimpledb.kv.KVTransaction;
 import org.jsimpledb.kv.KVTransactionException;
@@ -231,12 +236,17 @@ public class Transaction {
     private final ThreadLocal<TreeMap<Integer, ArrayList<FieldChangeNotifier<?>>>> pendingNotifications = new ThreadLocal<>();
     @GuardedBy("this")
     private final ObjIdMap<ObjInfo> objInfoCache = new ObjIdMap<>();
+    private final int counterShard = ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE;    // for sharded counters
     @GuardedBy("this")
     private Object userObject;
 
     // Recording of deleted assignments used during a copy() operation (otherwise should be null)
     private ObjIdMap<ReferenceField> deletedAssignments;
 
+    // Schema versions from which objects have been removed (possible garbage collection candidates)
+    @GuardedBy("this")
+    private TreeSet<Integer> vacatedVersions;
+
 // Constructors
 
     Transaction(Database db, KVTransaction kvt, Schemas schemas) {
@@ -301,6 +311,7 @@ public class Transaction {
      * @throws InvalidSchemaException if {@code version} is equal to this transaction's version
      * @throws IllegalArgumentException if {@code version} is zero or negative
      * @throws StaleTransactionException if this transaction is no longer usable
+     * @see Database#setSchemaGarbageCollection
      */
     public synchronized boolean deleteSchemaVersion(int version) {
 
@@ -319,6 +330,36 @@ public class Transaction {
         return true;
     }
 
+    /**
+     * Delete any schema versions from which objects were removed in this transaction and which are no longer in use.
+     *
+     * <p>
+     * This is invoked just prior to commit, when this transaction is already stale, so the in-memory {@link Schemas},
+     * which may be shared with other transactions, is left unmodified; only the database meta-data is updated.
+     * Checking the version index range also adds it to this transaction's reads, so a concurrent transaction that adds
+     * an object with the deleted version will conflict.
+     */
+    private synchronized void collectSchemaGarbage() {
+        assert this.stale;
+        for (int version : this.vacatedVersions) {
+            if (version == this.schema.getVersionNumber() || !this.schemas.versions.containsKey(version))
+                continue;
+            final byte[] minKey = Database.buildVersionIndexPrefix(version);
+            if (this.kvt.getAtLeast(minKey, ByteUtil.getKeyAfterPrefix(minKey)) != null)
+                continue;
+            this.log.info("garbage collecting unused schema version " + version);
+            this.db.deleteSchema(this.kvt, version);
+        }
+        this.vacatedVersions = null;
+    }
+
+    private void recordVacatedVersion(int version) {
+        assert Thread.holdsLock(this);
+        if (this.vacatedVersions == null)
+            this.vacatedVersions = new TreeSet<>();
+        this.vacatedVersions.add(version);
+    }
+
     /**
      * Get the underlying key/value store transaction.
      *
@@ -326,10 +367,28 @@ public class Transaction {
      * <b>Warning:</b> making changes to the key/value store directly is not supported. If any changes
      * are made, all future behavior is undefined.
      *
+     * <p>
+     * If this transaction is being {@linkplain #getProfile profiled}, accesses made directly through the returned
+     * {@link KVTransaction} are not recorded.
+     *
      * @return the associated key/value transaction
      */
     public KVTransaction getKVTransaction() {
-        return this.kvt;
+        return this.kvt instanceof ProfilingKVTransaction ? ((ProfilingKVTransaction)this.kvt).getWrappedKVTransaction() : this.kvt;
+    }
+
+    /**
+     * Get the profile of key/value store accesses made by this transaction.
+     *
+     * <p>
+     * Profiling is enabled via {@link Database#setTransactionProfiling Database.setTransactionProfiling()}.
+     * The returned profile is live, i.e., it reflects accesses made so far; it remains available after
+     * this transaction is committed or rolled back.
+     *
+     * @return key/value access profile, or null if profiling was not enabled when this transaction was created
+     */
+    public TransactionProfile getProfile() {
+        return this.kvt instanceof ProfilingKVTransaction ? ((ProfilingKVTransaction)this.kvt).getProfile() : null;
     }
 
 // Transaction Lifecycle
@@ -400,6 +459,8 @@ public class Transaction {
 
         // Commit KVTransaction and trigger after completion callbacks
         try {
+            if (this.vacatedVersions != null && this.db.isSchemaGarbageCollection())
+                this.collectSchemaGarbage();
             this.kvt.commit();
             if (this.callbacks != null) {
                 for (Callback callback : this.callbacks) {
@@ -717,6 +778,10 @@ public class Transaction {
     /**
      * Generate a random, unused {@link ObjId} for the given storage ID.
      *
+     * <p>
+     * The {@link ObjId} is generated by the {@link Database}'s {@linkplain Database#getObjIdGenerator configured}
+     * {@link ObjIdGenerator}.
+     *
      * @param storageId object type storage ID
      * @return random unassigned object id
      * @throws UnknownTypeException if {@code storageId} does not correspond to any known object type
@@ -737,9 +802,12 @@ public class Transaction {
         assert Thread.holdsLock(this);
 
         // Create a new, unique key
+        final ObjIdGenerator generator = this.db.getObjIdGenerator();
         final ByteWriter keyWriter = new ByteWriter();
         for (int attempts = 0; attempts < MAX_GENERATED_KEY_ATTEMPTS; attempts++) {
-            final ObjId id = new ObjId(storageId);
+            final ObjId id = generator.generateId(storageId);
+            if (id == null || id.getStorageId() != storageId)
+                throw new DatabaseException(generator + " generated an invalid object ID " + id + " for storage ID " + storageId);
             id.writeTo(keyWriter);
             if (this.kvt.get(keyWriter.getBytes()) == null)
                 return id;
@@ -748,7 +816,7 @@ public class Transaction {
 
         // Give up
         throw new DatabaseException("could not find a new, unused object ID after "
-          + MAX_GENERATED_KEY_ATTEMPTS + " attempts; is our source of randomness truly random?");
+          + MAX_GENERATED_KEY_ATTEMPTS + " attempts; is " + generator + " generating sufficiently random IDs?");
     }
 
     /**
@@ -774,7 +842,7 @@ public class Transaction {
         // Initialize counters to zero
         if (!objType.counterFields.isEmpty()) {
             for (CounterField field : objType.counterFields.values())
-                this.kvt.put(field.buildKey(id), this.kvt.encodeCounter(0));
+                this.initializeCounter(field, id, 0);
         }
 
         // Write simple field index entries
@@ -807,8 +875,8 @@ public class Transaction {
      * through fields configured for {@link DeleteAction#DELETE}, those referring objects will be deleted.
      *
      * <p>
-     * In any case, deletions occur one at a time, and only when an object is actually deleted are any associated secondary
-     * deletions added to an internal deletion queue. However, the order in which objects on this deletion queue are
+     * In any case, deletions occur in batches (see {@link #delete(Iterable)}), and only when an object is actually deleted
+     * are any associated secondary deletions added to the next batch. However, the order in which objects are
      * processed is unspecified. For an example of where this ordering matters, consider an object {@code A} referring to objects
      * {@code B} and {@code C} with delete cascading references, where B also refers to C with a {@link DeleteAction#EXCEPTION}
      * reference. Then if {@code A} is deleted, it's indeterminate whether a {@link ReferencedObjectException} will be thrown,
@@ -829,89 +897,162 @@ public class Transaction {
         if (this.stale)
             throw new StaleTransactionException(this);
 
-        // Does object exist?
-        if (!this.exists(id))
-            return false;
+        // Delete object
+        return this.delete(Collections.singleton(id)) > 0;
+    }
 
-        // Handle delete cascade and recurive DeleteAction.DELETE without hogging Java stack
-        final ObjIdSet deletables = new ObjIdSet();
-        deletables.add(id);
-        boolean found = false;
-        while (!deletables.isEmpty())
-            found |= this.doDelete(deletables.iterator().next(), deletables);
+    /**
+     * Delete multiple objects. Objects that do not exist (e.g., have already been deleted) are ignored.
+     *
+     * <p>
+     * This method is equivalent to invoking {@link #delete(ObjId)} on each object, but it is more efficient when
+     * deleting many objects. Objects are deleted in batches: all of the objects in the current batch are deleted
+     * in object ID order, and the referrers of all of the objects in the batch are found using a single merged scan
+     * of each applicable reference field index. {@linkplain ReferenceField#cascadeDelete Delete cascades} and
+     * {@link DeleteAction#DELETE} referrers found during one batch comprise the next batch.
+     *
+     * <p>
+     * {@link DeleteAction#EXCEPTION} references are checked for every object in a batch before any object in that batch
+     * is deleted. References from other objects in the same batch are ignored, because those objects are deleted too.
+     * References from objects that are only deleted in some later batch are not ignored.
+     *
+     * @param ids object IDs of the objects to delete
+     * @return the total number of objects deleted, including secondary deletions
+     * @throws ReferencedObjectException if any object is referenced by some other object
+     *  through a reference field configured for {@link DeleteAction#EXCEPTION}
+     * @throws IllegalArgumentException if {@code ids} is null or contains a null element
+     * @throws StaleTransactionException if this transaction is no longer usable
+     * @see #delete(ObjId)
+     */
+    public synchronized int delete(Iterable<? extends ObjId> ids) {
+
+        // Sanity check
+        Preconditions.checkArgument(ids != null, "null ids");
+        if (this.stale)
+            throw new StaleTransactionException(this);
+
+        // Gather initial batch, ignoring objects that don't exist
+        ObjIdSortedSet batch = new ObjIdSortedSet();
+        for (ObjId id : ids) {
+            Preconditions.checkArgument(id != null, "null id");
+            if (this.exists(id))
+                batch.add(id);
+        }
+
+        // Handle delete cascade and recurive DeleteAction.DELETE one batch at a time without hogging Java stack
+        int count = 0;
+        while (!batch.isEmpty()) {
+            final ObjIdSortedSet deletables = new ObjIdSortedSet();
+            count += this.doDelete(batch, deletables);
+            batch = deletables;
+        }
 
         // Done
-        return found;
+        return count;
     }
 
-    private synchronized boolean doDelete(final ObjId id, ObjIdSet deletables) {
+    /**
+     * Delete a batch of objects.
+     *
+     * @param batch IDs of objects to delete; some may no longer exist
+     * @param deletables set to which the IDs of any secondary deletions are added
+     * @return the number of objects actually deleted
+     */
+    private synchronized int doDelete(ObjIdSortedSet batch, ObjIdSortedSet deletables) {
 
         // Loop here to handle any mutations within delete notification listener callbacks
-        ObjInfo info;
+        final ArrayList<ObjInfo> infos = new ArrayList<>(batch.size());
         while (true) {
 
-            // Get object info
-            try {
-                info = this.getObjectInfo(id, false);
-            } catch (DeletedObjectException e) {                    // possibly due to a cycle of DeleteAction.DELETE references
-                deletables.remove(id);
-                return false;
-            } catch (UnknownTypeException e) {
-                throw new InconsistentDatabaseException("encountered reference with unknown type during delete cascade: " + id, e);
+            // Get object info for those objects that still exist, in object ID order
+            infos.clear();
+            for (ObjId id : batch) {
+                try {
+                    infos.add(this.getObjectInfo(id, false));
+                } catch (DeletedObjectException e) {                // possibly due to a cycle of DeleteAction.DELETE references
+                    continue;
+                } catch (UnknownTypeException e) {
+                    throw new InconsistentDatabaseException(
+                      "encountered reference with unknown type during delete cascade: " + id, e);
+                }
             }
-
-            // Determine if any EXCEPTION reference fields refer to the object (from some other object); if so, throw exception
-            for (Map.Entry<Integer, NavigableSet<ObjId>> entry : this.findReferrers(id, DeleteAction.EXCEPTION).entrySet()) {
-                for (ObjId referrer : entry.getValue()) {
-                    if (!referrer.equals(id))
-                        throw new ReferencedObjectException(id, referrer, entry.getKey());
+            if (infos.isEmpty())
+                return 0;
+            final List<ObjId> targets = Lists.transform(infos, ObjInfo::getId);
+
+            // Determine if any EXCEPTION reference fields refer to any object (from some object not in this batch); if so, throw
+            for (Map.Entry<Integer, TreeMap<ObjId, TreeSet<ObjId>>> entry :
+              this.findReferrers(targets, DeleteAction.EXCEPTION).entrySet()) {
+                for (Map.Entry<ObjId, TreeSet<ObjId>> targetEntry : entry.getValue().entrySet()) {
+                    final ObjId id = targetEntry.getKey();
+                    for (ObjId referrer : targetEntry.getValue()) {
+                        if (!batch.contains(referrer))
+                            throw new ReferencedObjectException(id, referrer, entry.getKey());
+                    }
                 }
             }
 
-            // Do we need to issue delete notifications for the object being deleted?
-            if (info.isDeleteNotified() || this.deleteListeners == null || this.deleteListeners.isEmpty())
+            // Do we need to issue delete notifications for any of the objects being deleted?
+            if (this.deleteListeners == null || this.deleteListeners.isEmpty())
                 break;
+            boolean notified = false;
+            for (ObjInfo info : infos) {
+                if (info.isDeleteNotified())
+                    continue;
+                final ObjId id = info.getId();
 
-            // Set "delete notified" flag and update object info cache
-            ObjInfo.write(this, id, info.getVersion(), true);
-            this.objInfoCache.put(id, new ObjInfo(this, id, info.getVersion(), true, info.schema, info.objType));
+                // Set "delete notified" flag and update object info cache
+                ObjInfo.write(this, id, info.getVersion(), true);
+                this.objInfoCache.put(id, new ObjInfo(this, id, info.getVersion(), true, info.schema, info.objType));
+                notified = true;
 
-            // Issue delete notifications and retry
-            if (!this.disableListenerNotifications && this.deleteListeners != null) {
-                for (DeleteListener listener : this.deleteListeners.toArray(new DeleteListener[this.deleteListeners.size()]))
-                    listener.onDelete(this, id);
+                // Issue delete notifications
+                if (!this.disableListenerNotifications && this.deleteListeners != null) {
+                    for (DeleteListener listener : this.deleteListeners.toArray(new DeleteListener[this.deleteListeners.size()]))
+                        listener.onDelete(this, id);
+                }
             }
+
+            // If any notifications were issued, retry
+            if (!notified)
+                break;
         }
 
         // Find all objects referred to by a reference field with cascadeDelete = true and add them to deletables
-        for (ReferenceField field : info.getObjType().referenceFieldsAndSubFields.values()) {
-            if (!field.cascadeDelete)
-                continue;
-            final Iterable<ObjId> refs = field.parent != null ?
-              field.parent.iterateSubField(this, id, field) : Collections.singleton(field.getValue(this, id));
-            for (ObjId ref : refs) {
-                if (ref != null)
-                    deletables.add(ref);
+        for (ObjInfo info : infos) {
+            final ObjId id = info.getId();
+            for (ReferenceField field : info.getObjType().referenceFieldsAndSubFields.values()) {
+                if (!field.cascadeDelete)
+                    continue;
+                final Iterable<ObjId> refs = field.parent != null ?
+                  field.parent.iterateSubField(this, id, field) : Collections.singleton(field.getValue(this, id));
+                for (ObjId ref : refs) {
+                    if (ref != null)
+                        deletables.add(ref);
+                }
             }
         }
 
-        // Actually delete the object
-        this.deleteObjectData(info);
-        deletables.remove(id);
+        // Actually delete the objects, in object ID order
+        for (ObjInfo info : infos)
+            this.deleteObjectData(info);
+        final List<ObjId> targets = Lists.transform(infos, ObjInfo::getId);
 
         // Find all UNREFERENCE references and unreference them
-        for (Map.Entry<Integer, NavigableSet<ObjId>> entry : this.findReferrers(id, DeleteAction.UNREFERENCE).entrySet()) {
+        for (Map.Entry<Integer, TreeMap<ObjId, TreeSet<ObjId>>> entry :
+          this.findReferrers(targets, DeleteAction.UNREFERENCE).entrySet()) {
             final int storageId = entry.getKey();
-            final NavigableSet<ObjId> referrers = entry.getValue();
             final SimpleFieldStorageInfo<?> fieldInfo = this.schemas.verifyStorageInfo(storageId, SimpleFieldStorageInfo.class);
-            fieldInfo.unreferenceAll(this, id, referrers);
+            for (Map.Entry<ObjId, TreeSet<ObjId>> targetEntry : entry.getValue().entrySet())
+                fieldInfo.unreferenceAll(this, targetEntry.getKey(), targetEntry.getValue());
         }
 
-        // Find all DELETE references and mark the containing object for deletion (caller will call us back to actually delete)
-        this.findReferrers(id, DeleteAction.DELETE).values().forEach(deletables::addAll);
+        // Find all DELETE references and mark the containing objects for deletion (caller will call us back to actually delete)
+        for (TreeMap<ObjId, TreeSet<ObjId>> referrerMap : this.findReferrers(targets, DeleteAction.DELETE).values())
+            referrerMap.values().forEach(deletables::addAll);
 
         // Done
-        return true;
+        return infos.size();
     }
 
     /**
@@ -926,32 +1067,77 @@ public class Transaction {
         assert Thread.holdsLock(this);
         assert this.kvt.get(info.getId().getBytes()) != null;
 
-        // Delete object's simple field index entries
+        // Read object's simple field values (only needed if there are any simple or composite indexes)
         final ObjId id = info.getId();
         final ObjType type = info.getObjType();
+        final byte[] minKey = id.getBytes();
+        final byte[] maxKey = ByteUtil.getKeyAfterPrefix(minKey);
+        final HashMap<Integer, byte[]> values = new HashMap<>();
+        int maxStorageId = -1;
+        for (SimpleField<?> field : type.indexedSimpleFields)
+            maxStorageId = Math.max(maxStorageId, field.storageId);
+        for (CompositeIndex index : type.compositeIndexes.values()) {
+            for (SimpleField<?> field : index.fields)
+                maxStorageId = Math.max(maxStorageId, field.storageId);
+        }
+        if (maxStorageId != -1)
+            this.readSimpleFieldValues(id, ByteUtil.getKeyAfterPrefix(Field.buildKey(id, maxStorageId)), values);
+
+        // Delete object's simple field index entries
         type.indexedSimpleFields
-          .forEach(field -> this.kvt.remove(Transaction.buildSimpleIndexEntry(field, id, this.kvt.get(field.buildKey(id)))));
+          .forEach(field -> this.kvt.remove(Transaction.buildSimpleIndexEntry(field, id, values.get(field.storageId))));
 
         // Delete object's composite index entries
         for (CompositeIndex index : type.compositeIndexes.values())
-            this.kvt.remove(this.buildCompositeIndexEntry(id, index));
+            this.kvt.remove(Transaction.buildCompositeIndexEntry(id, index, field -> values.get(field.storageId)));
 
         // Delete object's complex field index entries
         for (ComplexField<?> field : type.complexFields.values())
             field.removeIndexEntries(this, id);
 
         // Delete object meta-data and all field content
-        final byte[] minKey = info.getId().getBytes();
-        final byte[] maxKey = ByteUtil.getKeyAfterPrefix(minKey);
         this.kvt.removeRange(minKey, maxKey);
 
         // Delete object schema version entry
         this.kvt.remove(Database.buildVersionIndexKey(id, info.getVersion()));
+        this.recordVacatedVersion(info.getVersion());
 
         // Update ObjInfo cache
         this.objInfoCache.remove(id);
     }
 
+    /**
+     * Read an object's simple field values, up to (but not including) the given key, in a key range sweep.
+     * The content of any complex field encountered along the way is skipped over rather than read.
+     */
+    private void readSimpleFieldValues(ObjId id, byte[] stopKey, Map<Integer, byte[]> values) {
+        final byte[] minKey = id.getBytes();
+        byte[] startKey = minKey;
+        while (startKey != null) {
+            final Iterator<KVPair> i = this.kvt.getRange(startKey, stopKey, false);
+            startKey = null;
+            try {
+                while (i.hasNext()) {
+                    final KVPair kv = i.next();
+                    assert new KeyRange(minKey, stopKey).contains(kv.getKey());
+                    final ByteReader reader = new ByteReader(kv.getKey());
+                    reader.skip(minKey.length);
+                    if (reader.remain() == 0)                           // object meta-data
+                        continue;
+                    final int storageId = UnsignedIntEncoder.read(reader);
+                    if (reader.remain() == 0) {                         // simple field value
+                        values.put(storageId, kv.getValue());
+                        continue;
+                    }
+                    startKey = ByteUtil.getKeyAfterPrefix(Field.buildKey(id, storageId));     // skip complex field content
+                    break;
+                }
+            } finally {
+                Database.closeIfPossible(i);
+            }
+        }
+    }
+
     /**
      * Determine if an object exists.
      *
@@ -1459,9 +1645,7 @@ public class Transaction {
                     @Override
                     @SuppressWarnings("shadow")
                     public Void caseCounterField(CounterField oldField) {
-                        final byte[] key = Field.buildKey(id, oldField.storageId);
-                        final byte[] oldValue = Transaction.this.kvt.get(key);
-                        oldValueMap.put(oldField.storageId, oldValue != null ? Transaction.this.kvt.decodeCounter(oldValue) : 0L);
+                        oldValueMap.put(oldField.storageId, Transaction.this.readCounter(oldField, id));
                         return null;
                     }
                 });
@@ -1563,8 +1747,18 @@ public class Transaction {
                     final boolean reset = entry.getValue() == null;
 
                     // Reset field value if needed
-                    if (reset)
-                        Transaction.this.kvt.remove(Field.buildKey(id, oldField.storageId));
+                    if (reset) {
+                        Transaction.this.removeCounter(oldField, id);
+                        return null;
+                    }
+
+                    // If the number of shards changed, redistribute the value among the new shards
+                    final CounterField newField = (CounterField)entry.getValue();
+                    if (newField.shards != oldField.shards) {
+                        final long value = Transaction.this.readCounter(oldField, id);
+                        Transaction.this.removeCounter(oldField, id);
+                        Transaction.this.initializeCounter(newField, id, value);
+                    }
                     return null;
                 }
             });
@@ -1593,8 +1787,7 @@ public class Transaction {
                 @Override
                 @SuppressWarnings("shadow")
                 public Void caseCounterField(CounterField newField) {
-                    final byte[] key = Field.buildKey(id, newField.storageId);
-                    Transaction.this.kvt.put(key, Transaction.this.kvt.encodeCounter(0L));
+                    Transaction.this.initializeCounter(newField, id, 0);
                     return null;
                 }
             });
@@ -1616,6 +1809,7 @@ public class Transaction {
         // Update object version index entry
         this.kvt.remove(Database.buildVersionIndexKey(id, oldVersion));
         this.kvt.put(Database.buildVersionIndexKey(id, newVersion), ByteUtil.EMPTY);
+        this.recordVacatedVersion(oldVersion);
 
     //////// Notify listeners
 
@@ -1972,7 +2166,7 @@ public class Transaction {
      * @param value encoded field value, or null for default value
      * @return index key
      */
-    private static byte[] buildSimpleIndexEntry(SimpleField<?> field, ObjId id, byte[] value) {
+    static byte[] buildSimpleIndexEntry(SimpleField<?> field, ObjId id, byte[] value) {
         if (value == null)
             value = field.fieldType.getDefaultValue();
         final ByteWriter writer = new ByteWriter(UnsignedIntEncoder.encodeLength(field.storageId) + value.length + ObjId.NUM_BYTES);
@@ -2032,11 +2226,7 @@ public class Transaction {
             throw new UnknownFieldException(info.getObjType(), storageId, "counter field");
 
         // Read field
-        final byte[] key = field.buildKey(id);
-        final byte[] value = this.kvt.get(key);
-
-        // Decode value
-        return value != null ? this.kvt.decodeCounter(value) : 0;
+        return this.readCounter(field, id);
     }
 
     /**
@@ -2075,8 +2265,7 @@ public class Transaction {
             throw new UnknownFieldException(info.getObjType(), storageId, "counter field");
 
         // Set value
-        final byte[] key = field.buildKey(id);
-        this.kvt.put(key, this.kvt.encodeCounter(value));
+        this.writeCounter(field, id, value);
     }
 
     /**
@@ -2118,8 +2307,49 @@ public class Transaction {
         if (field == null)
             throw new UnknownFieldException(info.getObjType(), storageId, "counter field");
 
-        // Adjust counter value
-        this.kvt.adjustCounter(field.buildKey(id), offset);
+        // Adjust counter value; if sharded, adjust only this transaction's shard
+        this.kvt.adjustCounter(field.buildShardKey(id, this.counterShard % field.shards), offset);
+    }
+
+    // Read a counter field's value, summing its shards if the field is sharded
+    private long readCounter(CounterField field, ObjId id) {
+        final byte[] key = field.buildKey(id);
+        if (field.shards == 1) {
+            final byte[] value = this.kvt.get(key);
+            return value != null ? this.kvt.decodeCounter(value) : 0;
+        }
+        long total = 0;
+        final Iterator<KVPair> i = this.kvt.getRange(key, ByteUtil.getKeyAfterPrefix(key), false);
+        while (i.hasNext())
+            total += this.kvt.decodeCounter(i.next().getValue());
+        Database.closeIfPossible(i);
+        return total;
+    }
+
+    // Write a counter field's value, discarding any existing shards
+    private void writeCounter(CounterField field, ObjId id, long value) {
+        if (field.shards > 1) {
+            final byte[] key = field.buildKey(id);
+            this.kvt.removeRange(ByteUtil.getNextKey(key), ByteUtil.getKeyAfterPrefix(key));
+        }
+        this.initializeCounter(field, id, value);
+    }
+
+    // Write a counter field's value into shard zero and zero into the other shards, if any, which must not already exist.
+    // All shards must exist because the effect of KVStore.adjustCounter() on a non-existent key is undefined.
+    private void initializeCounter(CounterField field, ObjId id, long value) {
+        this.kvt.put(field.buildKey(id), this.kvt.encodeCounter(value));
+        for (int shard = 1; shard < field.shards; shard++)
+            this.kvt.put(field.buildShardKey(id, shard), this.kvt.encodeCounter(0));
+    }
+
+    // Remove a counter field's value, including all of its shards
+    private void removeCounter(CounterField field, ObjId id) {
+        final byte[] key = field.buildKey(id);
+        if (field.shards > 1)
+            this.kvt.removeRange(key, ByteUtil.getKeyAfterPrefix(key));
+        else
+            this.kvt.remove(key);
     }
 
     /**
@@ -2865,9 +3095,13 @@ public class Transaction {
     /**
      * Find all objects that refer to any object in the given target set through the specified path of references.
      *
+     * <p>
+     * The returned set is a read-only, real-time view: it is computed lazily from the reference indexes, so subsequent
+     * changes in this transaction are reflected in it.
+     *
      * @param path path of one or more reference fields (represented by storage IDs) through which to reach the target objects
      * @param targetObjects target objects
-     * @return set of objects that refer to the {@code targetObjects} via {@code path}
+     * @return view of the set of objects that refer to the {@code targetObjects} via {@code path}
      * @throws UnknownFieldException if {@code path} contains a storage ID that does not correspond to a {@link ReferenceField}
      * @throws IllegalArgumentException if {@code targetObjects} or {@code path} is null
      * @throws IllegalArgumentException if {@code path} is empty
@@ -2888,16 +3122,17 @@ public class Transaction {
             final int storageId = path[i];
 
             // Gather all objects that refer to any object in our current target objects set
+            final NavigableMap<ObjId, NavigableSet<ObjId>> referrerMap = this.queryReferences(storageId);
             final ArrayList<NavigableSet<ObjId>> refsList = new ArrayList<>();
             for (ObjId id : targetObjects) {
-                final NavigableSet<ObjId> refs = this.queryReferences(storageId).get(id);
+                final NavigableSet<ObjId> refs = referrerMap.get(id);
                 if (refs != null)
                     refsList.add(refs);
             }
             if (refsList.isEmpty())
                 return NavigableSets.empty(FieldTypeRegistry.OBJ_ID);
 
-            // Recurse on the union of those objects
+            // Recurse on the union of those objects, which is merged lazily in a single pass
             targetObjects = result = NavigableSets.union(refsList);
         }
 
@@ -2948,9 +3183,14 @@ public class Transaction {
      * The returned index contains objects from all recorded schema versions for which the list element field is indexed;
      * this method does not check whether any such schema versions exist.
      *
+     * <p>
+     * This method is not supported for {@linkplain ListField#isSparse sparse} list fields, whose index entries
+     * contain element positions rather than list indexes; use {@link #queryIndex queryIndex()} instead.
+     *
      * @param storageId {@link ListField}'s element sub-field storage ID
      * @return read-only, real-time view of list element values, objects with the value in the list, and corresponding indicies
      * @throws UnknownFieldException if no {@link ListField} element sub-field corresponding to {@code storageId} exists
+     * @throws IllegalArgumentException if the {@link ListField} is {@linkplain ListField#isSparse sparse}
      * @throws StaleTransactionException if this transaction is no longer usable
      */
     public synchronized CoreIndex2<?, ObjId, Integer> queryListElementIndex(int storageId) {
@@ -3070,25 +3310,26 @@ public class Transaction {
     }
 
     /**
-     * Find all objects that refer to the given target object through the/any reference field with the specified
+     * Find all objects that refer to any of the given target objects through the/any reference field with the specified
      * {@link DeleteAction}.
      *
      * <p>
      * Because different schema versions can have different {@link DeleteAction}'s configured for the
      * same field, we have to iterate through each schema version separately.
      *
-     * @param target referred-to object
+     * <p>
+     * For each reference field, the index entries for all of the targets are found in a single merged scan of the index:
+     * because the targets are sorted, a new seek is only required when the scan encounters an index entry for an object
+     * that is not a target; index entries for adjacent targets are read without re-seeking.
+     *
+     * @param targets referred-to objects, sorted and without duplicates
      * @param onDelete {@link DeleteAction} to match
-     * @return mapping from reference field storage ID to set of objects referring to {@code target} through a field whose
-     *  {@link DeleteAction} matches {@code onDelete}
+     * @return mapping from reference field storage ID to mapping from target to the set of objects referring to that target
+     *  through a field whose {@link DeleteAction} matches {@code onDelete}
      */
-    @SuppressWarnings("unchecked")
-    private TreeMap<Integer, NavigableSet<ObjId>> findReferrers(ObjId target, DeleteAction onDelete) {
+    private TreeMap<Integer, TreeMap<ObjId, TreeSet<ObjId>>> findReferrers(List<ObjId> targets, DeleteAction onDelete) {
         assert Thread.holdsLock(this);
 
-        // Get target object type storage ID
-        final int targetStorageId = target.getStorageId();
-
         // Determine which schema versions actually have objects that exist; if there's only one we can slightly optimize below
         final ArrayList<Map.Entry<Integer, NavigableSet<ObjId>>> versionList = new ArrayList<>(5);
         for (Map.Entry<Integer, NavigableSet<ObjId>> entry : this.queryVersion().asMap().entrySet())
@@ -3096,10 +3337,10 @@ public class Transaction {
         final boolean multipleVersions = versionList.size() > 1;
 
         // Search for objects one schema version at a time, and group them by reference field
-        final TreeMap<Integer, Object> result = new TreeMap<>();
+        final TreeMap<Integer, TreeMap<ObjId, TreeSet<ObjId>>> result = new TreeMap<>();
         for (Map.Entry<Integer, NavigableSet<ObjId>> versionListEntry : versionList) {
             final int schemaVersionNumber = versionListEntry.getKey();
-            final NavigableSet<ObjId> schemaVersionRefs = versionListEntry.getValue();
+            final NavigableSet<ObjId> schemaVersionRefs = multipleVersions ? versionListEntry.getValue() : null;
 
             // Get corresponding Schema object
             final Schema schemaVersion = this.schemas.versions.get(schemaVersionNumber);
@@ -3112,49 +3353,92 @@ public class Transaction {
                 final ReferenceField field = fieldRangeEntry.getKey();
                 final KeyRanges keyRanges = fieldRangeEntry.getValue();
 
-                // Do a quick check to see whether this field can possibly refer to the target object
+                // Do a quick check to see which targets this field can possibly refer to
                 final SortedSet<Integer> targetTypes = field.getObjectTypes();
-                if (targetTypes != null && !targetTypes.contains(targetStorageId))
+                final List<ObjId> fieldTargets = targetTypes != null ?
+                  targets.stream().filter(target -> targetTypes.contains(target.getStorageId())).collect(Collectors.toList()) :
+                  targets;
+                if (fieldTargets.isEmpty())
                     continue;
 
-                // Build the key prefix for the target object ID in this field's index
-                final int fieldStorageId = field.storageId;
-                final ByteWriter writer = new ByteWriter(UnsignedIntEncoder.encodeLength(fieldStorageId) + ObjId.NUM_BYTES);
-                UnsignedIntEncoder.write(writer, fieldStorageId);
-                target.writeTo(writer);
-                final byte[] prefix = writer.getBytes();
+                // Scan the index to get all objects referring to the targets through this field (in any schema version)
+                this.scanReferrers(field.storageId, fieldTargets, (target, referrer) -> {
 
-                // Query the index to get all objects referring to the target object through this field (in any schema version)
-                final IndexSet<ObjId> indexSet = new IndexSet<>(this, FieldTypeRegistry.OBJ_ID, true, prefix);
+                    // Restrict referrers to only those object types where the field's DeleteAction matches (if necessary)
+                    if (keyRanges != null && !keyRanges.contains(referrer.getBytes()))
+                        return;
 
-                // Now restrict those referrers to only those object types where the field's DeleteAction matches (if necessary)
-                NavigableSet<ObjId> referrers = keyRanges != null ? indexSet.filterKeys(keyRanges) : indexSet;
-
-                // Anything there?
-                if (referrers.isEmpty())
-                    continue;
+                    // Restrict referrers to the current schema version (if necessary)
+                    if (schemaVersionRefs != null && !schemaVersionRefs.contains(referrer))
+                        return;
 
-                // Add these referrers, restricted to the current schema version, to our list of referrers for this field
-                if (multipleVersions) {
-                    ((ArrayList<NavigableSet<ObjId>>)result
-                      .computeIfAbsent(fieldStorageId, i -> new ArrayList<NavigableSet<ObjId>>(versionList.size())))
-                      .add(NavigableSets.intersection(schemaVersionRefs, referrers));
-                } else
-                    result.put(fieldStorageId, referrers);              // no schema version restriction necessary; no list needed
+                    // Add referrer
+                    result.computeIfAbsent(field.storageId, i -> new TreeMap<>())
+                      .computeIfAbsent(target, i -> new TreeSet<>())
+                      .add(referrer);
+                });
             }
         }
 
-        // If there were multiple schema versions, for each reference field, take the union of the sets from each schema version
-        if (multipleVersions) {
-            for (Map.Entry<Integer, Object> entry : result.entrySet()) {
-                final ArrayList<NavigableSet<ObjId>> list = (ArrayList<NavigableSet<ObjId>>)entry.getValue();
-                final NavigableSet<ObjId> union = list.size() == 1 ? list.get(0) : NavigableSets.union(list);
-                entry.setValue(union);
+        // Return referrers grouped by reference field and target
+        return result;
+    }
+
+    /**
+     * Scan the index of the specified reference field for entries referring to any of the given targets,
+     * using a single merged scan.
+     *
+     * @param storageId reference field storage ID
+     * @param targets referred-to objects, sorted and without duplicates
+     * @param consumer receives each (target, referrer) pair found; duplicates are possible for complex sub-fields
+     */
+    private void scanReferrers(int storageId, List<ObjId> targets, BiConsumer<ObjId, ObjId> consumer) {
+
+        // Build index key prefix for a target
+        final int prefixLength = UnsignedIntEncoder.encodeLength(storageId);
+        final Function<ObjId, byte[]> prefixFunction = target -> {
+            final ByteWriter writer = new ByteWriter(prefixLength + ObjId.NUM_BYTES);
+            UnsignedIntEncoder.write(writer, storageId);
+            target.writeTo(writer);
+            return writer.getBytes();
+        };
+
+        // Scan the index from the first target through the last, re-seeking to skip over non-targets
+        final byte[] maxKey = ByteUtil.getKeyAfterPrefix(prefixFunction.apply(targets.get(targets.size() - 1)));
+        int index = 0;
+        Iterator<KVPair> i = this.kvt.getRange(prefixFunction.apply(targets.get(0)), maxKey, false);
+        try {
+            while (i.hasNext()) {
+
+                // Decode index entry (the key may contain additional trailing content for complex sub-fields)
+                final KVPair pair = i.next();
+                final ByteReader reader = new ByteReader(pair.getKey());
+                reader.skip(prefixLength);
+                final ObjId indexTarget = new ObjId(reader);
+                final ObjId referrer = new ObjId(reader);
+
+                // Advance to the first target greater than or equal to the index entry's target
+                int diff = indexTarget.compareTo(targets.get(index));
+                if (diff > 0) {
+                    final int pos = Collections.binarySearch(targets.subList(index, targets.size()), indexTarget);
+                    index += pos >= 0 ? pos : ~pos;
+                    if (index == targets.size())
+                        break;
+                    diff = indexTarget.compareTo(targets.get(index));
+                }
+
+                // If this entry is for a target, report it; otherwise, seek forward to the next target
+                if (diff == 0)
+                    consumer.accept(indexTarget, referrer);
+                else {
+                    assert diff < 0;
+                    Database.closeIfPossible(i);
+                    i = this.kvt.getRange(prefixFunction.apply(targets.get(index)), maxKey, false);
+                }
             }
+        } finally {
+            Database.closeIfPossible(i);
         }
-
-        // Return referrer sets grouped by reference field
-        return (TreeMap<Integer, NavigableSet<ObjId>>)(Object)result;
     }
 
     private byte[] buildCompositeIndexEntry(ObjId id, CompositeIndex index) {
@@ -3166,10 +3450,15 @@ public class Transaction {
     }
 
     private static byte[] buildCompositeIndexEntry(Transaction tx, ObjId id, CompositeIndex index) {
+        return Transaction.buildCompositeIndexEntry(id, index,
+          tx != null ? field -> tx.kvt.get(field.buildKey(id)) : field -> null);
+    }
+
+    static byte[] buildCompositeIndexEntry(ObjId id, CompositeIndex index, Function<SimpleField<?>, byte[]> values) {
         final ByteWriter writer = new ByteWriter();
         UnsignedIntEncoder.write(writer, index.storageId);
         for (SimpleField<?> field : index.fields) {
-            final byte[] value = tx != null ? tx.kvt.get(field.buildKey(id)) : null;
+            final byte[] value = values.apply(field);
             writer.write(value != null ? value : field.fieldType.getDefaultValue());
         }
         id.writeTo(writer);
@@ -0,0 +1,534 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.jsimpledb.util.ByteReader;
+import org.jsimpledb.util.ByteUtil;
+import org.jsimpledb.util.UnsignedIntEncoder;
+
+/**
+ * Per-transaction report of key/value store accesses, attributed to the schema items that own the keys.
+ *
+ * <p>
+ * When {@linkplain Database#setTransactionProfiling transaction profiling} is enabled, every key/value operation
+ * performed by a {@link Transaction} is classified using the database key layout into a {@link Target}: an object type
+ * (object meta-data), a field of an object type, a simple or composite index, or database meta-data. For each target,
+ * the number of read operations, key/value pairs read, distinct keys read, write operations, and the time spent in
+ * the key/value store are tracked. This makes problems like N+1 access patterns, unexpected index scans, and large
+ * read sets (which tend to cause conflicts) easy to spot.
+ *
+ * <p>
+ * Range reads are attributed per key/value pair returned; {@link org.jsimpledb.kv.KVStore#removeRange removeRange()}
+ * operations are attributed according to the lower bound of the range.
+ *
+ * <p>
+ * Instances are thread safe.
+ *
+ * @see Transaction#getProfile
+ */
+@ThreadSafe
+public class TransactionProfile {
+
+    private static final Target UNKNOWN = new Target(Kind.UNKNOWN, 0, 0, "unknown");
+    private static final Target META_DATA = new Target(Kind.META_DATA, 0, 0, "meta-data");
+
+    @GuardedBy("this")
+    private final HashMap<Target, Stats> statsMap = new HashMap<>();
+    @GuardedBy("this")
+    private final TreeSet<byte[]> readKeys = new TreeSet<>(ByteUtil.COMPARATOR);
+    @GuardedBy("this")
+    private Schemas schemas;
+
+    TransactionProfile() {
+    }
+
+// Accessors
+
+    /**
+     * Get a snapshot of the statistics gathered so far, sorted by decreasing time spent.
+     *
+     * @return mapping from target to statistics
+     */
+    public synchronized Map<Target, Stats> getStats() {
+        final ArrayList<Map.Entry<Target, Stats>> list = new ArrayList<>(this.statsMap.entrySet());
+        Collections.sort(list, (e1, e2) -> Long.compare(e2.getValue().nanos, e1.getValue().nanos));
+        final LinkedHashMap<Target, Stats> map = new LinkedHashMap<>(list.size());
+        for (Map.Entry<Target, Stats> entry : list)
+            map.put(entry.getKey(), entry.getValue().copy());
+        return map;
+    }
+
+    /**
+     * Get the number of read operations performed.
+     *
+     * @return total read operations
+     */
+    public synchronized long getTotalReads() {
+        long total = 0;
+        for (Stats stats : this.statsMap.values())
+            total += stats.reads;
+        return total;
+    }
+
+    /**
+     * Get the number of write operations performed, including range removals.
+     *
+     * @return total write operations
+     */
+    public synchronized long getTotalWrites() {
+        long total = 0;
+        for (Stats stats : this.statsMap.values())
+            total += stats.writes + stats.rangeRemoves;
+        return total;
+    }
+
+    /**
+     * Get the total time spent in the key/value store.
+     *
+     * @return total time in nanoseconds
+     */
+    public synchronized long getTotalNanos() {
+        long total = 0;
+        for (Stats stats : this.statsMap.values())
+            total += stats.nanos;
+        return total;
+    }
+
+    /**
+     * Get the number of distinct keys read, i.e., the size of the transaction's read set.
+     *
+     * <p>
+     * Keys passed to {@link org.jsimpledb.kv.KVStore#get get()} are included even if no value was found.
+     *
+     * @return number of distinct keys read
+     */
+    public synchronized int getReadSetSize() {
+        return this.readKeys.size();
+    }
+
+// Recording
+
+    synchronized void setSchemas(Schemas schemas) {
+        this.schemas = schemas;
+    }
+
+    synchronized void recordGet(byte[] key, boolean found, long nanos) {
+        final Stats stats = this.getStats(key);
+        stats.reads++;
+        stats.nanos += nanos;
+        if (found)
+            stats.keysRead++;
+        this.addReadKey(stats, key);
+    }
+
+    synchronized void recordSeek(byte[] key, boolean found, long nanos) {
+        final Stats stats = this.getStats(key);
+        stats.reads++;
+        stats.nanos += nanos;
+        if (found) {
+            stats.keysRead++;
+            this.addReadKey(stats, key);
+        }
+    }
+
+    synchronized void recordRangeRead(byte[] minKey, long nanos) {
+        final Stats stats = this.getStats(minKey);
+        stats.reads++;
+        stats.nanos += nanos;
+    }
+
+    synchronized void recordNanos(byte[] key, long nanos) {
+        this.getStats(key).nanos += nanos;
+    }
+
+    synchronized void recordRangePair(byte[] key, long nanos) {
+        final Stats stats = this.getStats(key);
+        stats.keysRead++;
+        stats.nanos += nanos;
+        this.addReadKey(stats, key);
+    }
+
+    synchronized void recordWrite(byte[] key, long nanos) {
+        final Stats stats = this.getStats(key);
+        stats.writes++;
+        stats.nanos += nanos;
+    }
+
+    synchronized void recordRemoveRange(byte[] minKey, long nanos) {
+        final Stats stats = this.getStats(minKey);
+        stats.rangeRemoves++;
+        stats.nanos += nanos;
+    }
+
+    private void addReadKey(Stats stats, byte[] key) {
+        if (this.readKeys.add(key.clone()))
+            stats.distinctKeysRead++;
+    }
+
+    private Stats getStats(byte[] key) {
+        final Target probe = TransactionProfile.classify(this.schemas, key);
+        Stats stats = this.statsMap.get(probe);
+        if (stats == null) {
+            stats = new Stats();
+            this.statsMap.put(TransactionProfile.describe(this.schemas, probe), stats);
+        }
+        return stats;
+    }
+
+// Classification
+
+    /**
+     * Classify a key according to the key layout of the given schemas.
+     *
+     * <p>
+     * The returned {@link Target} has a null description unless it is {@link Kind#META_DATA} or {@link Kind#UNKNOWN}.
+     *
+     * @param schemas schema versions, or null if not yet known
+     * @param key key to classify
+     * @return key's target
+     */
+    static Target classify(Schemas schemas, byte[] key) {
+        if (key == null || key.length == 0)
+            return UNKNOWN;
+        if (key[0] == Database.METADATA_PREFIX_BYTE)
+            return META_DATA;
+        if (schemas == null)
+            return UNKNOWN;
+        try {
+            final int storageId = UnsignedIntEncoder.read(new ByteReader(key));
+            final StorageInfo info = schemas.storageInfos.get(storageId);
+            if (info instanceof ObjTypeStorageInfo) {
+                if (key.length <= ObjId.NUM_BYTES)
+                    return new Target(Kind.OBJECT, storageId, 0, null);
+                final int fieldStorageId = UnsignedIntEncoder.read(new ByteReader(key, ObjId.NUM_BYTES));
+                return new Target(Kind.FIELD, fieldStorageId, storageId, null);
+            }
+            if (info instanceof SimpleFieldStorageInfo)
+                return new Target(Kind.INDEX, storageId, 0, null);
+            if (info instanceof CompositeIndexStorageInfo)
+                return new Target(Kind.COMPOSITE_INDEX, storageId, 0, null);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // fall through
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Add a description to a {@link Target} returned by {@link #classify classify()}, using the names from the given schemas.
+     *
+     * @param schemas schema versions
+     * @param target target
+     * @return described target
+     */
+    static Target describe(Schemas schemas, Target target) {
+        if (target.description != null)
+            return target;
+        String name = null;
+        for (Schema schema : schemas.getVersions().values()) {
+            switch (target.kind) {
+            case OBJECT:
+            {
+                final ObjType objType = schema.objTypeMap.get(target.storageId);
+                if (objType != null)
+                    name = objType.getName();
+                break;
+            }
+            case FIELD:
+            {
+                final ObjType objType = schema.objTypeMap.get(target.objTypeStorageId);
+                final Field<?> field = objType != null ? objType.getFields().get(target.storageId) : null;
+                if (field != null)
+                    name = objType.getName() + "." + field.getName();
+                break;
+            }
+            case INDEX:
+                for (ObjType objType : schema.objTypeMap.values()) {
+                    final Field<?> field;
+                    try {
+                        field = objType.getField(target.storageId, true);
+                    } catch (UnknownFieldException e) {
+                        continue;
+                    }
+                    final ComplexField<?> parent = field instanceof SimpleField ? ((SimpleField<?>)field).parent : null;
+                    name = objType.getName() + "." + (parent != null ? parent.getName() + "." : "") + field.getName();
+                    break;
+                }
+                break;
+            case COMPOSITE_INDEX:
+                for (ObjType objType : schema.objTypeMap.values()) {
+                    final CompositeIndex index = objType.getCompositeIndexes().get(target.storageId);
+                    if (index != null) {
+                        name = objType.getName() + "." + index.getName();
+                        break;
+                    }
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        final String prefix;
+        switch (target.kind) {
+        case OBJECT:
+            prefix = "object ";
+            break;
+        case FIELD:
+            prefix = "field ";
+            break;
+        case INDEX:
+            prefix = "index ";
+            break;
+        default:
+            prefix = "composite index ";
+            break;
+        }
+        return new Target(target.kind, target.storageId, target.objTypeStorageId,
+          prefix + (name != null ? name : "#" + target.storageId));
+    }
+
+// Object
+
+    /**
+     * Generate a multi-line, human-readable report of the statistics gathered by this instance.
+     */
+    @Override
+    public synchronized String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(String.format("reads=%d writes=%d readSet=%d time=%.1fus%n",
+          this.getTotalReads(), this.getTotalWrites(), this.getReadSetSize(), this.getTotalNanos() / 1000.0));
+        for (Map.Entry<Target, Stats> entry : this.getStats().entrySet()) {
+            final Stats stats = entry.getValue();
+            buf.append(String.format("%-40s reads=%d keysRead=%d distinctKeys=%d writes=%d removeRanges=%d time=%.1fus%n",
+              entry.getKey().getDescription(), stats.reads, stats.keysRead, stats.distinctKeysRead,
+              stats.writes, stats.rangeRemoves, stats.nanos / 1000.0));
+        }
+        return buf.toString().trim();
+    }
+
+// Kind
+
+    /**
+     * The kinds of {@link Target}s to which key/value accesses are attributed.
+     */
+    public enum Kind {
+
+        /**
+         * Database meta-data, e.g., recorded schemas and object version indexes.
+         */
+        META_DATA,
+
+        /**
+         * Object meta-data, i.e., the key consisting of only the object's {@link ObjId}, or a range over all objects of a type.
+         */
+        OBJECT,
+
+        /**
+         * The content of a field in an object.
+         */
+        FIELD,
+
+        /**
+         * A simple field index, including indexes on complex sub-fields.
+         */
+        INDEX,
+
+        /**
+         * A composite index.
+         */
+        COMPOSITE_INDEX,
+
+        /**
+         * A key that does not correspond to any known storage ID.
+         */
+        UNKNOWN
+    }
+
+// Target
+
+    /**
+     * Identifies the schema item that owns a key/value store key.
+     *
+     * <p>
+     * Instances are immutable; equality is based on {@link #getKind}, {@link #getStorageId}, and {@link #getObjTypeStorageId}.
+     */
+    public static final class Target {
+
+        private final Kind kind;
+        private final int storageId;
+        private final int objTypeStorageId;
+        private final String description;
+
+        Target(Kind kind, int storageId, int objTypeStorageId, String description) {
+            Preconditions.checkArgument(kind != null, "null kind");
+            this.kind = kind;
+            this.storageId = storageId;
+            this.objTypeStorageId = objTypeStorageId;
+            this.description = description;
+        }
+
+        /**
+         * Get the kind of this target.
+         *
+         * @return target kind
+         */
+        public Kind getKind() {
+            return this.kind;
+        }
+
+        /**
+         * Get the storage ID of the object type, field, or index.
+         *
+         * @return storage ID, or zero for {@link Kind#META_DATA} and {@link Kind#UNKNOWN}
+         */
+        public int getStorageId() {
+            return this.storageId;
+        }
+
+        /**
+         * Get the storage ID of the object type containing the field.
+         *
+         * @return object type storage ID for {@link Kind#FIELD}, otherwise zero
+         */
+        public int getObjTypeStorageId() {
+            return this.objTypeStorageId;
+        }
+
+        /**
+         * Get a human-readable description of this target, e.g., {@code "field Person.name"}.
+         *
+         * @return description of this target
+         */
+        public String getDescription() {
+            return this.description;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this)
+                return true;
+            if (obj == null || obj.getClass() != this.getClass())
+                return false;
+            final Target that = (Target)obj;
+            return this.kind == that.kind && this.storageId == that.storageId && this.objTypeStorageId == that.objTypeStorageId;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.kind.hashCode() ^ (this.storageId * 31) ^ this.objTypeStorageId;
+        }
+
+        @Override
+        public String toString() {
+            return this.description;
+        }
+    }
+
+// Stats
+
+    /**
+     * Statistics gathered for one {@link Target}.
+     *
+     * <p>
+     * Instances returned by {@link TransactionProfile#getStats} are snapshots and do not change.
+     */
+    public static final class Stats {
+
+        private long reads;
+        private long keysRead;
+        private long distinctKeysRead;
+        private long writes;
+        private long rangeRemoves;
+        private long nanos;
+
+        Stats() {
+        }
+
+        /**
+         * Get the number of read operations, i.e., {@code get()}, {@code getAtLeast()}, {@code getAtMost()},
+         * and {@code getRange()} invocations.
+         *
+         * @return number of read operations
+         */
+        public long getReads() {
+            return this.reads;
+        }
+
+        /**
+         * Get the number of key/value pairs read.
+         *
+         * @return number of key/value pairs read
+         */
+        public long getKeysRead() {
+            return this.keysRead;
+        }
+
+        /**
+         * Get the number of distinct keys added to the transaction's read set.
+         *
+         * @return number of distinct keys read
+         */
+        public long getDistinctKeysRead() {
+            return this.distinctKeysRead;
+        }
+
+        /**
+         * Get the number of {@code put()}, {@code remove()}, and {@code adjustCounter()} operations.
+         *
+         * @return number of write operations
+         */
+        public long getWrites() {
+            return this.writes;
+        }
+
+        /**
+         * Get the number of {@code removeRange()} operations.
+         *
+         * @return number of range removals
+         */
+        public long getRangeRemoves() {
+            return this.rangeRemoves;
+        }
+
+        /**
+         * Get the time spent in the key/value store.
+         *
+         * @return time in nanoseconds
+         */
+        public long getNanos() {
+            return this.nanos;
+        }
+
+        Stats copy() {
+            final Stats copy = new Stats();
+            copy.reads = this.reads;
+            copy.keysRead = this.keysRead;
+            copy.distinctKeysRead = this.distinctKeysRead;
+            copy.writes = this.writes;
+            copy.rangeRemoves = this.rangeRemoves;
+            copy.nanos = this.nanos;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats[reads=" + this.reads + ",keysRead=" + this.keysRead + ",distinctKeysRead=" + this.distinctKeysRead
+              + ",writes=" + this.writes + ",rangeRemoves=" + this.rangeRemoves + ",nanos=" + this.nanos + "]";
+        }
+    }
+}
+
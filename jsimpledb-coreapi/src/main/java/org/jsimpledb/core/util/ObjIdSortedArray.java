@@ -0,0 +1,304 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.util.BoundType;
+import org.jsimpledb.util.Bounds;
+
+/**
+ * Sorted array storage shared by {@link ObjIdSortedSet} and {@link ObjIdSortedMap} instances and their views.
+ *
+ * <p>
+ * Keys are stored as {@code long} values with the sign bit flipped, so that signed {@code long} ordering matches
+ * {@link ObjId} ordering (which is unsigned {@code long} ordering of {@link ObjId#asLong}).
+ */
+@NotThreadSafe
+final class ObjIdSortedArray implements Cloneable {
+
+    private static final int MIN_LENGTH = 16;
+
+    private long[] keys;                                    // sorted encoded keys; only the first "size" are valid
+    private Object[] values;                                // will be null if we are being used to implement ObjIdSortedSet
+    private int size;
+    private int modcount;
+
+    ObjIdSortedArray(int capacity, boolean withValues) {
+        Preconditions.checkArgument(capacity >= 0, "capacity < 0");
+        capacity = Math.max(MIN_LENGTH, capacity);
+        this.keys = new long[capacity];
+        this.values = withValues ? new Object[capacity] : null;
+    }
+
+// Encoding
+
+    static long encode(ObjId id) {
+        return id.asLong() ^ Long.MIN_VALUE;
+    }
+
+    static ObjId decode(long key) {
+        return new ObjId(key ^ Long.MIN_VALUE);
+    }
+
+// Accessors
+
+    boolean hasValues() {
+        return this.values != null;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int modcount() {
+        return this.modcount;
+    }
+
+    long getKey(int index) {
+        return this.keys[index];
+    }
+
+    Object getValue(int index) {
+        return this.values != null ? this.values[index] : null;
+    }
+
+    Object setValue(int index, Object value) {
+        final Object previous = this.values[index];
+        this.values[index] = value;
+        return previous;
+    }
+
+    /**
+     * Search for a key.
+     *
+     * @param key encoded key
+     * @return index of {@code key} if found, otherwise {@code (-(insertion point) - 1)}
+     */
+    int find(long key) {
+        return Arrays.binarySearch(this.keys, 0, this.size, key);
+    }
+
+    /**
+     * Get the index range corresponding to the given bounds.
+     *
+     * @param bounds bounds in {@link ObjId} (i.e., non-reversed) order
+     * @return two element array containing the minimum index (inclusive) and maximum index (exclusive)
+     */
+    int[] getRange(Bounds<ObjId> bounds) {
+        int minIndex = 0;
+        int maxIndex = this.size;
+        switch (bounds.getLowerBoundType()) {
+        case INCLUSIVE:
+        case EXCLUSIVE:
+        {
+            final int index = this.find(ObjIdSortedArray.encode(bounds.getLowerBound()));
+            minIndex = index < 0 ? ~index : bounds.getLowerBoundType() == BoundType.INCLUSIVE ? index : index + 1;
+            break;
+        }
+        default:
+            break;
+        }
+        switch (bounds.getUpperBoundType()) {
+        case INCLUSIVE:
+        case EXCLUSIVE:
+        {
+            final int index = this.find(ObjIdSortedArray.encode(bounds.getUpperBound()));
+            maxIndex = index < 0 ? ~index : bounds.getUpperBoundType() == BoundType.INCLUSIVE ? index + 1 : index;
+            break;
+        }
+        default:
+            break;
+        }
+        return new int[] { minIndex, Math.max(minIndex, maxIndex) };
+    }
+
+// Mutators
+
+    /**
+     * Insert a new key.
+     *
+     * @param index insertion point, as returned (inverted) by {@link #find find()}
+     * @param key encoded key
+     * @param value associated value (ignored if this instance has no values)
+     */
+    void insert(int index, long key, Object value) {
+        assert index >= 0 && index <= this.size;
+        assert index == this.size || this.keys[index] > key;
+        assert index == 0 || this.keys[index - 1] < key;
+        if (this.size == this.keys.length)
+            this.resize(this.size + Math.max(this.size >> 1, 1));
+        System.arraycopy(this.keys, index, this.keys, index + 1, this.size - index);
+        this.keys[index] = key;
+        if (this.values != null) {
+            System.arraycopy(this.values, index, this.values, index + 1, this.size - index);
+            this.values[index] = value;
+        }
+        this.size++;
+        this.modcount++;
+    }
+
+    /**
+     * Merge in keys in bulk. Only applicable to instances without values.
+     *
+     * @param newKeys encoded keys, in any order and possibly containing duplicates; this array will be modified
+     * @param count number of keys in {@code newKeys}
+     * @return the number of keys actually added
+     */
+    int insertAll(long[] newKeys, int count) {
+        assert this.values == null;
+
+        // Sort and de-duplicate new keys
+        Arrays.sort(newKeys, 0, count);
+        int numNew = 0;
+        for (int i = 0; i < count; i++) {
+            if (numNew == 0 || newKeys[i] != newKeys[numNew - 1])
+                newKeys[numNew++] = newKeys[i];
+        }
+
+        // Merge, starting from the end
+        final int oldSize = this.size;
+        if (oldSize + numNew > this.keys.length)
+            this.resize(oldSize + numNew);
+        int i = oldSize - 1;
+        int j = numNew - 1;
+        int k = oldSize + numNew - 1;
+        while (j >= 0) {
+            if (i >= 0 && this.keys[i] >= newKeys[j]) {
+                if (this.keys[i] == newKeys[j])
+                    j--;
+                this.keys[k--] = this.keys[i--];
+            } else
+                this.keys[k--] = newKeys[j--];
+        }
+
+        // Close the gap left by any duplicates
+        final int gap = k - i;
+        if (gap > 0)
+            System.arraycopy(this.keys, k + 1, this.keys, i + 1, oldSize + numNew - (k + 1));
+        this.size = oldSize + numNew - gap;
+        if (this.size != oldSize)
+            this.modcount++;
+        return this.size - oldSize;
+    }
+
+    /**
+     * Remove a range of keys.
+     *
+     * @param minIndex minimum index (inclusive)
+     * @param maxIndex maximum index (exclusive)
+     */
+    void remove(int minIndex, int maxIndex) {
+        assert minIndex >= 0 && minIndex <= maxIndex && maxIndex <= this.size;
+        final int count = maxIndex - minIndex;
+        if (count == 0)
+            return;
+        System.arraycopy(this.keys, maxIndex, this.keys, minIndex, this.size - maxIndex);
+        if (this.values != null) {
+            System.arraycopy(this.values, maxIndex, this.values, minIndex, this.size - maxIndex);
+            Arrays.fill(this.values, this.size - count, this.size, null);
+        }
+        this.size -= count;
+        this.modcount++;
+        if (this.size < this.keys.length >> 2 && this.keys.length > MIN_LENGTH)
+            this.resize(Math.max(MIN_LENGTH, this.size << 1));
+    }
+
+    private void resize(int length) {
+        this.keys = Arrays.copyOf(this.keys, length);
+        if (this.values != null)
+            this.values = Arrays.copyOf(this.values, length);
+    }
+
+// Cloneable
+
+    @Override
+    public ObjIdSortedArray clone() {
+        final ObjIdSortedArray clone;
+        try {
+            clone = (ObjIdSortedArray)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        clone.keys = clone.keys.clone();
+        if (clone.values != null)
+            clone.values = clone.values.clone();
+        return clone;
+    }
+
+// Iter
+
+    /**
+     * Iterates over an index range, possibly in reverse, and supports removal.
+     *
+     * @param <E> element type
+     */
+    abstract class Iter<E> implements Iterator<E> {
+
+        private final boolean reverse;
+
+        private int minIndex;
+        private int maxIndex;
+        private int nextIndex;
+        private int removeIndex = -1;
+        private int expectedModcount;
+
+        Iter(int[] range, boolean reverse) {
+            this.minIndex = range[0];
+            this.maxIndex = range[1];
+            this.reverse = reverse;
+            this.nextIndex = reverse ? this.maxIndex - 1 : this.minIndex;
+            this.expectedModcount = ObjIdSortedArray.this.modcount;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.reverse ? this.nextIndex >= this.minIndex : this.nextIndex < this.maxIndex;
+        }
+
+        @Override
+        public E next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            if (ObjIdSortedArray.this.modcount != this.expectedModcount)
+                throw new ConcurrentModificationException();
+            this.removeIndex = this.nextIndex;
+            this.nextIndex += this.reverse ? -1 : 1;
+            return this.getElement(this.removeIndex);
+        }
+
+        @Override
+        public void remove() {
+            if (this.removeIndex == -1)
+                throw new IllegalStateException();
+            if (ObjIdSortedArray.this.modcount != this.expectedModcount)
+                throw new ConcurrentModificationException();
+            ObjIdSortedArray.this.remove(this.removeIndex, this.removeIndex + 1);
+            if (!this.reverse)
+                this.nextIndex--;
+            this.maxIndex--;
+            this.removeIndex = -1;
+            this.expectedModcount = ObjIdSortedArray.this.modcount;
+        }
+
+        /**
+         * Get the element at the given index.
+         *
+         * @param index array index
+         * @return element
+         */
+        protected abstract E getElement(int index);
+    }
+}
+
@@ -0,0 +1,267 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.util.AbstractNavigableMap;
+import org.jsimpledb.util.Bounds;
+
+/**
+ * A sorted map with {@link ObjId} keys.
+ *
+ * <p>
+ * This is the sorted counterpart to {@link ObjIdMap}. Keys are stored in a sorted {@code long[]} array, so
+ * lookups require a binary search and no per-entry objects are retained. Adding keys in increasing order is efficient;
+ * adding keys in random order requires shifting array elements and so is linear time per key.
+ *
+ * <p>
+ * Instances do not accept null keys and are not thread safe. Sub-map views are supported; the views of an instance
+ * share its storage.
+ *
+ * @param <V> value type
+ */
+@NotThreadSafe
+public class ObjIdSortedMap<V> extends AbstractNavigableMap<ObjId, V> implements Cloneable {
+
+    private /*final*/ ObjIdSortedArray array;
+    private final boolean reversed;
+
+// Constructors
+
+    /**
+     * Constructs an empty instance.
+     */
+    public ObjIdSortedMap() {
+        this(0);
+    }
+
+    /**
+     * Constructs an instance with the given initial capacity.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public ObjIdSortedMap(int capacity) {
+        this(new ObjIdSortedArray(capacity, true), new Bounds<>(), false);
+    }
+
+    /**
+     * Constructs an instance initialized from the given map.
+     *
+     * @param map initial contents for this instance
+     * @throws NullPointerException if {@code map} is null
+     * @throws IllegalArgumentException if {@code map} contains a null key
+     */
+    public ObjIdSortedMap(Map<ObjId, ? extends V> map) {
+        this(map.size());
+        for (Map.Entry<ObjId, ? extends V> entry : map.entrySet())
+            this.put(entry.getKey(), entry.getValue());
+    }
+
+    // Internal constructor
+    ObjIdSortedMap(ObjIdSortedArray array, Bounds<ObjId> bounds, boolean reversed) {
+        super(bounds);
+        this.array = array;
+        this.reversed = reversed;
+    }
+
+// Methods
+
+    @Override
+    public Comparator<? super ObjId> comparator() {
+        return this.reversed ? Comparator.<ObjId>reverseOrder() : null;
+    }
+
+    @Override
+    public int size() {
+        final int[] range = this.getRange();
+        return range[1] - range[0];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object obj) {
+        return this.find(obj) >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object obj) {
+        final int index = this.find(obj);
+        return index >= 0 ? (V)this.array.getValue(index) : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(ObjId id, V value) {
+        Preconditions.checkArgument(id != null, "null id");
+        Preconditions.checkArgument(this.bounds.isWithinBounds(this.comparator(), id), "key is out of bounds");
+        final long key = ObjIdSortedArray.encode(id);
+        final int index = this.array.find(key);
+        if (index >= 0)
+            return (V)this.array.setValue(index, value);
+        this.array.insert(~index, key, value);
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object obj) {
+        final int index = this.find(obj);
+        if (index < 0)
+            return null;
+        final V value = (V)this.array.getValue(index);
+        this.array.remove(index, index + 1);
+        return value;
+    }
+
+    @Override
+    public void clear() {
+        final int[] range = this.getRange();
+        this.array.remove(range[0], range[1]);
+    }
+
+    @Override
+    public ObjIdSortedSet keySet() {
+        return this.navigableKeySet();
+    }
+
+    @Override
+    public ObjIdSortedSet navigableKeySet() {
+        return new ObjIdSortedSet(this.array, this.bounds, this.reversed);
+    }
+
+    @Override
+    public ObjIdSortedSet descendingKeySet() {
+        return this.descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public ObjIdSortedMap<V> descendingMap() {
+        return this.createSubMap(true, this.bounds.reverse());
+    }
+
+    @Override
+    public Set<Map.Entry<ObjId, V>> entrySet() {
+        return new AbstractSet<Map.Entry<ObjId, V>>() {
+
+            @Override
+            public Iterator<Map.Entry<ObjId, V>> iterator() {
+                final ObjIdSortedArray sortedArray = ObjIdSortedMap.this.array;
+                return sortedArray.new Iter<Map.Entry<ObjId, V>>(ObjIdSortedMap.this.getRange(), ObjIdSortedMap.this.reversed) {
+                    @Override
+                    protected Map.Entry<ObjId, V> getElement(int index) {
+                        return new Entry(ObjIdSortedArray.decode(sortedArray.getKey(index)), index);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ObjIdSortedMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                ObjIdSortedMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    protected ObjIdSortedMap<V> createSubMap(boolean reverse, Bounds<ObjId> newBounds) {
+        return new ObjIdSortedMap<V>(this.array, newBounds, this.reversed ^ reverse);
+    }
+
+    // Find the index of the given key, or negative if not found or out of bounds
+    private int find(Object obj) {
+        if (!(obj instanceof ObjId))
+            return -1;
+        final ObjId id = (ObjId)obj;
+        if (!this.bounds.isWithinBounds(this.comparator(), id))
+            return -1;
+        return this.array.find(ObjIdSortedArray.encode(id));
+    }
+
+    // Get the index range corresponding to our bounds
+    private int[] getRange() {
+        return this.array.getRange(this.reversed ? this.bounds.reverse() : this.bounds);
+    }
+
+// Cloneable
+
+    /**
+     * Clone this instance.
+     *
+     * <p>
+     * If this instance is a sub-map view, the returned clone contains only the entries within this view,
+     * but has the same bounds and ordering.
+     *
+     * <p>
+     * This is a shallow copy: the values are not themselves cloned.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public ObjIdSortedMap<V> clone() {
+        final ObjIdSortedMap<V> clone;
+        try {
+            clone = (ObjIdSortedMap<V>)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        clone.array = clone.array.clone();
+        final int[] range = this.getRange();
+        clone.array.remove(range[1], clone.array.size());
+        clone.array.remove(0, range[0]);
+        return clone;
+    }
+
+// Entry
+
+    private class Entry extends AbstractMap.SimpleEntry<ObjId, V> {
+
+        private static final long serialVersionUID = 2371485104816359274L;
+
+        private final int modcount;
+        private final int index;
+
+        @SuppressWarnings("unchecked")
+        Entry(ObjId id, int index) {
+            super(id, (V)ObjIdSortedMap.this.array.getValue(index));
+            this.modcount = ObjIdSortedMap.this.array.modcount();
+            this.index = index;
+        }
+
+        // Write through to the map, locating the key again if the map has been structurally modified
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            final ObjIdSortedArray sortedArray = ObjIdSortedMap.this.array;
+            final int i = sortedArray.modcount() == this.modcount ?
+              this.index : sortedArray.find(ObjIdSortedArray.encode(this.getKey()));
+            if (i < 0)
+                throw new IllegalStateException("entry has been removed");
+            super.setValue(value);
+            return (V)sortedArray.setValue(i, value);
+        }
+    }
+}
+
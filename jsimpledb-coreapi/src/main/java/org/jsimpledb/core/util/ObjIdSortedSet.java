@@ -0,0 +1,229 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.util.AbstractNavigableSet;
+import org.jsimpledb.util.Bounds;
+
+/**
+ * A sorted set of {@link ObjId}s.
+ *
+ * <p>
+ * This is the sorted counterpart to {@link ObjIdSet}. Elements are stored in a sorted {@code long[]} array, so
+ * lookups require a binary search and no per-element objects are created. Adding elements in increasing order,
+ * or in bulk via {@link #addAll addAll()}, is efficient; adding elements one at a time in random order requires
+ * shifting array elements and so is linear time per element.
+ *
+ * <p>
+ * Instances do not accept null values and are not thread safe. Sub-set views are supported; the views of an instance
+ * share its storage.
+ */
+@NotThreadSafe
+public class ObjIdSortedSet extends AbstractNavigableSet<ObjId> implements Cloneable {
+
+    private /*final*/ ObjIdSortedArray array;
+    private final boolean reversed;
+
+// Constructors
+
+    /**
+     * Constructs an empty instance.
+     */
+    public ObjIdSortedSet() {
+        this(0);
+    }
+
+    /**
+     * Constructs an instance with the given initial capacity.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public ObjIdSortedSet(int capacity) {
+        this(new ObjIdSortedArray(capacity, false), new Bounds<>(), false);
+    }
+
+    /**
+     * Constructs an instance initialized with the given ID's.
+     *
+     * @param ids initial contents for this instance
+     * @throws IllegalArgumentException if {@code ids} is null
+     * @throws NullPointerException if any ID in {@code ids} is null
+     */
+    public ObjIdSortedSet(Iterable<? extends ObjId> ids) {
+        this(0);
+        Preconditions.checkArgument(ids != null, "null ids");
+        this.addAll(ids);
+    }
+
+    // Internal constructor
+    ObjIdSortedSet(ObjIdSortedArray array, Bounds<ObjId> bounds, boolean reversed) {
+        super(bounds);
+        this.array = array;
+        this.reversed = reversed;
+    }
+
+// Methods
+
+    @Override
+    public Comparator<? super ObjId> comparator() {
+        return this.reversed ? Comparator.<ObjId>reverseOrder() : null;
+    }
+
+    @Override
+    public Iterator<ObjId> iterator() {
+        return this.array.new Iter<ObjId>(this.getRange(), this.reversed) {
+            @Override
+            protected ObjId getElement(int index) {
+                return ObjIdSortedArray.decode(ObjIdSortedSet.this.array.getKey(index));
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        final int[] range = this.getRange();
+        return range[1] - range[0];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public boolean contains(Object obj) {
+        if (!(obj instanceof ObjId))
+            return false;
+        final ObjId id = (ObjId)obj;
+        return this.bounds.isWithinBounds(this.comparator(), id) && this.array.find(ObjIdSortedArray.encode(id)) >= 0;
+    }
+
+    @Override
+    public ObjId first() {
+        final int[] range = this.getRange();
+        if (range[0] == range[1])
+            throw new NoSuchElementException();
+        return ObjIdSortedArray.decode(this.array.getKey(this.reversed ? range[1] - 1 : range[0]));
+    }
+
+    @Override
+    public ObjId last() {
+        final int[] range = this.getRange();
+        if (range[0] == range[1])
+            throw new NoSuchElementException();
+        return ObjIdSortedArray.decode(this.array.getKey(this.reversed ? range[0] : range[1] - 1));
+    }
+
+    @Override
+    public boolean add(ObjId id) {
+        this.checkAdd(id);
+        final long key = ObjIdSortedArray.encode(id);
+        final int index = this.array.find(key);
+        if (index >= 0)
+            return false;
+        this.array.insert(~index, key, null);
+        return true;
+    }
+
+    /**
+     * Add all of the given {@link ObjId}s.
+     *
+     * <p>
+     * The {@link ObjId}s are added in bulk: they are gathered, sorted, and then merged with this instance.
+     *
+     * @param ids {@link ObjId}s to add
+     * @return true if this instance changed
+     * @throws NullPointerException if {@code ids} is null or contains a null element
+     */
+    @Override
+    public boolean addAll(Collection<? extends ObjId> ids) {
+        return this.addAll((Iterable<? extends ObjId>)ids);
+    }
+
+    private boolean addAll(Iterable<? extends ObjId> ids) {
+        long[] keys = new long[ids instanceof Collection ? ((Collection<?>)ids).size() : 16];
+        int count = 0;
+        for (ObjId id : ids) {
+            this.checkAdd(id);
+            if (count == keys.length)
+                keys = Arrays.copyOf(keys, count + Math.max(count >> 1, 16));
+            keys[count++] = ObjIdSortedArray.encode(id);
+        }
+        return this.array.insertAll(keys, count) > 0;
+    }
+
+    @Override
+    public boolean remove(Object obj) {
+        if (!this.contains(obj))
+            return false;
+        final int index = this.array.find(ObjIdSortedArray.encode((ObjId)obj));
+        this.array.remove(index, index + 1);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        final int[] range = this.getRange();
+        this.array.remove(range[0], range[1]);
+    }
+
+    @Override
+    protected NavigableSet<ObjId> createSubSet(boolean reverse, Bounds<ObjId> newBounds) {
+        return new ObjIdSortedSet(this.array, newBounds, this.reversed ^ reverse);
+    }
+
+    private void checkAdd(ObjId id) {
+        if (id == null)
+            throw new NullPointerException("null id");
+        if (this.array.hasValues())
+            throw new UnsupportedOperationException("can't add to a map's key set");
+        if (!this.bounds.isWithinBounds(this.comparator(), id))
+            throw new IllegalArgumentException("value " + id + " is out of bounds");
+    }
+
+    // Get the index range corresponding to our bounds
+    private int[] getRange() {
+        return this.array.getRange(this.reversed ? this.bounds.reverse() : this.bounds);
+    }
+
+// Cloneable
+
+    /**
+     * Clone this instance.
+     *
+     * <p>
+     * If this instance is a sub-set view, the returned clone contains only the elements within this view,
+     * but has the same bounds and ordering.
+     */
+    @Override
+    public ObjIdSortedSet clone() {
+        final ObjIdSortedSet clone;
+        try {
+            clone = (ObjIdSortedSet)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        clone.array = clone.array.clone();
+        final int[] range = this.getRange();
+        clone.array.remove(range[1], clone.array.size());
+        clone.array.remove(0, range[0]);
+        return clone;
+    }
+}
+
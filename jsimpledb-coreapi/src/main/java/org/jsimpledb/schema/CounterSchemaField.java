@@ -5,14 +5,41 @@
 
 package org.jsimpledb.schema;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
+import org.jsimpledb.core.InvalidSchemaException;
+import org.jsimpledb.util.Diffs;
+
 /**
  * A counter field in a {@link SchemaObjectType}.
  */
 public class CounterSchemaField extends SchemaField {
 
+    private int shards = 1;
+
+    /**
+     * Get the number of shards across which this counter's value is spread.
+     *
+     * <p>
+     * A counter with more than one shard stores its value as several sub-values which are summed when read;
+     * each transaction adjusts only one of them, so concurrent adjustments do not conflict with each other.
+     * Default is one, i.e., not sharded.
+     *
+     * @return number of shards, always at least one
+     */
+    public int getShards() {
+        return this.shards;
+    }
+    public void setShards(int shards) {
+        this.verifyNotLockedDown();
+        this.shards = shards;
+    }
+
 // SchemaFieldSwitch
 
     @Override
@@ -20,12 +47,43 @@ public class CounterSchemaField extends SchemaField {
         return target.caseCounterSchemaField(this);
     }
 
+// Validation
+
+    @Override
+    void validate() {
+        super.validate();
+        if (this.shards < 1)
+            throw new InvalidSchemaException("invalid " + this + ": invalid number of shards " + this.shards);
+    }
+
+// DiffGenerating
+
+    public Diffs differencesFrom(CounterSchemaField that) {
+        final Diffs diffs = new Diffs(super.differencesFrom(that));
+        if (this.shards != that.shards)
+            diffs.add("changed number of shards from " + that.shards + " to " + this.shards);
+        return diffs;
+    }
+
+// XML Reading
+
+    @Override
+    void readAttributes(XMLStreamReader reader, int formatVersion) throws XMLStreamException {
+        super.readAttributes(reader, formatVersion);
+        final Integer shardsAttr = this.getIntAttr(reader, XMLConstants.SHARDS_ATTRIBUTE, false);
+        this.setShards(shardsAttr != null ? shardsAttr : 1);
+    }
+
 // XML Writing
 
     @Override
     void writeXML(XMLStreamWriter writer) throws XMLStreamException {
         writer.writeEmptyElement(XMLConstants.COUNTER_FIELD_TAG.getNamespaceURI(), XMLConstants.COUNTER_FIELD_TAG.getLocalPart());
         this.writeAttributes(writer);
+        if (this.shards != 1) {
+            writer.writeAttribute(XMLConstants.SHARDS_ATTRIBUTE.getNamespaceURI(),
+              XMLConstants.SHARDS_ATTRIBUTE.getLocalPart(), "" + this.shards);
+        }
     }
 
 // Compatibility
@@ -34,7 +92,15 @@ public class CounterSchemaField extends SchemaField {
     boolean isCompatibleWith(SchemaField field) {
         if (field.getClass() != this.getClass())
             return false;
-        return true;
+        final CounterSchemaField that = (CounterSchemaField)field;
+        return this.shards == that.shards;
+    }
+
+    @Override
+    void writeCompatibilityHashData(DataOutputStream output) throws IOException {
+        super.writeCompatibilityHashData(output);
+        if (this.shards != 1)                               // preserve hash of schemas predating sharded counters
+            output.writeInt(this.shards);
     }
 
 // Object
@@ -44,6 +110,21 @@ public class CounterSchemaField extends SchemaField {
         return "counter " + super.toString();
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        final CounterSchemaField that = (CounterSchemaField)obj;
+        return this.shards == that.shards;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode() ^ this.shards;
+    }
+
 // Cloneable
 
     @Override
@@ -5,7 +5,13 @@
 
 package org.jsimpledb.schema;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.jsimpledb.util.DiffGenerating;
 import org.jsimpledb.util.Diffs;
@@ -15,6 +21,40 @@ import org.jsimpledb.util.Diffs;
  */
 public class ListSchemaField extends CollectionSchemaField implements DiffGenerating<ListSchemaField> {
 
+    private boolean sparse;
+
+    /**
+     * Determine whether this list field uses sparse element storage.
+     *
+     * @return true if list elements are stored under sparse positions, false if stored under consecutive list indexes
+     * @see org.jsimpledb.core.ListField#isSparse
+     */
+    public boolean isSparse() {
+        return this.sparse;
+    }
+
+    /**
+     * Configure whether this list field uses sparse element storage.
+     *
+     * <p>
+     * With sparse storage, inserting or removing elements only writes the affected elements' keys, but positional access
+     * scans from the start of the list, so every element preceding the accessed index is added to the transaction's read set.
+     * Element positions are signed {@code long} values in the range {@code -2}<sup>61</sup> to {@code 2}<sup>61</sup>
+     * (inclusive); positions outside that range are reported as inconsistencies.
+     *
+     * <p>
+     * Sparse and non-sparse list fields use different key encodings, so changing this setting makes the field
+     * incompatible with previous schema versions.
+     *
+     * @param sparse true for sparse positions, false for consecutive list indexes
+     * @throws UnsupportedOperationException if this instance is locked down
+     * @see org.jsimpledb.core.ListField#isSparse
+     */
+    public void setSparse(boolean sparse) {
+        this.verifyNotLockedDown();
+        this.sparse = sparse;
+    }
+
 // SchemaFieldSwitch
 
     @Override
@@ -22,6 +62,34 @@ public class ListSchemaField extends CollectionSchemaField implements DiffGenera
         return target.caseListSchemaField(this);
     }
 
+// Compatibility
+
+    // Sparse and non-sparse list fields use different key encodings
+    @Override
+    boolean isCompatibleWith(SchemaField field) {
+        if (!super.isCompatibleWith(field))
+            return false;
+        final ListSchemaField that = (ListSchemaField)field;
+        return this.sparse == that.sparse;
+    }
+
+    @Override
+    void writeCompatibilityHashData(DataOutputStream output) throws IOException {
+        super.writeCompatibilityHashData(output);
+        if (this.sparse)                                                    // preserve hash of non-sparse list fields
+            output.writeBoolean(this.sparse);
+    }
+
+// XML Reading
+
+    @Override
+    void readAttributes(XMLStreamReader reader, int formatVersion) throws XMLStreamException {
+        super.readAttributes(reader, formatVersion);
+        final Boolean sparseAttr = this.getBooleanAttr(reader, XMLConstants.SPARSE_ATTRIBUTE, false);
+        if (sparseAttr != null)
+            this.setSparse(sparseAttr);
+    }
+
 // XML Writing
 
     @Override
@@ -29,18 +97,45 @@ public class ListSchemaField extends CollectionSchemaField implements DiffGenera
         return XMLConstants.LIST_FIELD_TAG;
     }
 
+    @Override
+    void writeAttributes(XMLStreamWriter writer, boolean includeName) throws XMLStreamException {
+        super.writeAttributes(writer, includeName);
+        if (this.sparse) {
+            writer.writeAttribute(XMLConstants.SPARSE_ATTRIBUTE.getNamespaceURI(),
+              XMLConstants.SPARSE_ATTRIBUTE.getLocalPart(), "" + this.sparse);
+        }
+    }
+
 // DiffGenerating
 
     @Override
     public Diffs differencesFrom(ListSchemaField that) {
-        return super.differencesFrom(that);
+        final Diffs diffs = new Diffs(super.differencesFrom(that));
+        if (this.sparse != that.sparse)
+            diffs.add("changed sparse storage from " + that.sparse + " to " + this.sparse);
+        return diffs;
     }
 
 // Object
 
     @Override
     public String toString() {
-        return "list " + super.toString();
+        return (this.sparse ? "sparse " : "") + "list " + super.toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        final ListSchemaField that = (ListSchemaField)obj;
+        return this.sparse == that.sparse;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode() ^ (this.sparse ? 1 : 0);
     }
 
 // Cloneable
@@ -50,4 +145,3 @@ public class ListSchemaField extends CollectionSchemaField implements DiffGenera
         return (ListSchemaField)super.clone();
     }
 }
-
@@ -227,7 +227,7 @@ public class SchemaObjectType extends AbstractSchemaItem implements DiffGenerati
                     }
                     @Override
                     public Diffs caseCounterSchemaField(CounterSchemaField field) {
-                        return new Diffs();
+                        return field.differencesFrom((CounterSchemaField)thatField);
                     }
                 });
                 if (!fieldDiffs.isEmpty())
@@ -36,6 +36,8 @@ public final class XMLConstants {
     public static final QName INDEXED_ATTRIBUTE = new QName("indexed");
     public static final QName NAME_ATTRIBUTE = new QName("name");
     public static final QName ON_DELETE_ATTRIBUTE = new QName("onDelete");
+    public static final QName SHARDS_ATTRIBUTE = new QName("shards");
+    public static final QName SPARSE_ATTRIBUTE = new QName("sparse");
     public static final QName STORAGE_ID_ATTRIBUTE = new QName("storageId");
     public static final QName TYPE_ATTRIBUTE = new QName("type");
 
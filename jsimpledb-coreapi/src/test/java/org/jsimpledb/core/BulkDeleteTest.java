@@ -0,0 +1,170 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.NavigableSet;
+
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.schema.SchemaModel;
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BulkDeleteTest extends CoreAPITestSupport {
+
+    private static final String XML =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<Schema formatVersion=\"2\">\n"
+      + "  <ObjectType name=\"Node\" storageId=\"1\">\n"
+      + "    <ReferenceField name=\"parent\" storageId=\"2\" onDelete=\"DELETE\"/>\n"
+      + "    <SimpleField name=\"value\" type=\"int\" storageId=\"3\" indexed=\"true\"/>\n"
+      + "    <SimpleField name=\"name\" type=\"java.lang.String\" storageId=\"4\"/>\n"
+      + "    <SetField name=\"friends\" storageId=\"5\">\n"
+      + "      <ReferenceField storageId=\"6\" onDelete=\"UNREFERENCE\"/>\n"
+      + "    </SetField>\n"
+      + "    <ReferenceField name=\"child\" storageId=\"7\" cascadeDelete=\"true\"/>\n"
+      + "    <CompositeIndex name=\"valueName\" storageId=\"8\">\n"
+      + "      <IndexedField storageId=\"3\"/>\n"
+      + "      <IndexedField storageId=\"4\"/>\n"
+      + "    </CompositeIndex>\n"
+      + "  </ObjectType>\n"
+      + "  <ObjectType name=\"Guard\" storageId=\"10\">\n"
+      + "    <ReferenceField name=\"node\" storageId=\"11\" onDelete=\"EXCEPTION\"/>\n"
+      + "  </ObjectType>\n"
+      + "</Schema>\n";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDeleteTree() throws Exception {
+
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+        final SchemaModel schema = SchemaModel.fromXML(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        final Transaction tx = db.createTransaction(schema, 1, true);
+
+        // Build a random tree of nodes under root, plus some unrelated nodes
+        final ObjId root = tx.create(1);
+        final ArrayList<ObjId> tree = new ArrayList<>();
+        final ArrayList<ObjId> others = new ArrayList<>();
+        tree.add(root);
+        for (int i = 0; i < 100; i++) {
+            final ObjId id = tx.create(1);
+            tx.writeSimpleField(id, 2, tree.get(this.random.nextInt(tree.size())), true);
+            tx.writeSimpleField(id, 3, this.random.nextInt(10), true);
+            tx.writeSimpleField(id, 4, "node" + i, true);
+            tree.add(id);
+        }
+        for (int i = 0; i < 20; i++) {
+            final ObjId id = tx.create(1);
+            tx.writeSimpleField(id, 3, i, true);
+            others.add(id);
+        }
+
+        // Add some cascade targets, which are deleted along with the tree
+        final ObjId cascade1 = tx.create(1);
+        final ObjId cascade2 = tx.create(1);
+        tx.writeSimpleField(tree.get(17), 7, cascade1, true);
+        tx.writeSimpleField(tree.get(42), 7, cascade2, true);
+
+        // Add UNREFERENCE references from unrelated nodes into the tree and vice versa
+        for (ObjId id : others) {
+            final NavigableSet<ObjId> friends = (NavigableSet<ObjId>)tx.readSetField(id, 5, true);
+            for (int i = 0; i < 5; i++)
+                friends.add(tree.get(this.random.nextInt(tree.size())));
+            friends.add(others.get(this.random.nextInt(others.size())));
+            ((NavigableSet<ObjId>)tx.readSetField(tree.get(this.random.nextInt(tree.size())), 5, true)).add(id);
+        }
+
+        // Delete tree
+        Assert.assertTrue(tx.delete(root));
+        Assert.assertFalse(tx.delete(root));
+
+        // Verify everything in the tree is gone
+        for (ObjId id : tree)
+            Assert.assertFalse(tx.exists(id));
+        Assert.assertFalse(tx.exists(cascade1));
+        Assert.assertFalse(tx.exists(cascade2));
+        for (ObjId id : others)
+            Assert.assertTrue(tx.exists(id));
+
+        // Verify indexes
+        TestSupport.checkSet(tx.getAll(1), new HashSet<>(others));
+        TestSupport.checkMap(tx.queryIndex(2).asMap(), buildMap(null, buildSet(others.toArray())));
+        Assert.assertEquals(tx.queryIndex(3).asMap().size(), others.size());
+        Assert.assertEquals(tx.queryCompositeIndex2(8).asSet().size(), others.size());
+        Assert.assertTrue(tx.queryIndex(7).asMap().keySet().stream().allMatch(ref -> ref == null));
+        for (Object target : tx.queryIndex(6).asMap().keySet())
+            Assert.assertTrue(others.contains(target), "found stale reference to " + target);
+        for (ObjId id : others) {
+            for (ObjId friend : (NavigableSet<ObjId>)tx.readSetField(id, 5, true))
+                Assert.assertTrue(others.contains(friend));
+        }
+
+        tx.commit();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDeleteMultiple() throws Exception {
+
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+        final SchemaModel schema = SchemaModel.fromXML(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        final Transaction tx = db.createTransaction(schema, 1, true);
+
+        // Create two chains of nodes
+        final ArrayList<ObjId> ids = new ArrayList<>();
+        final ObjId root1 = tx.create(1);
+        final ObjId root2 = tx.create(1);
+        ObjId parent1 = root1;
+        ObjId parent2 = root2;
+        for (int i = 0; i < 10; i++) {
+            final ObjId id1 = tx.create(1);
+            final ObjId id2 = tx.create(1);
+            tx.writeSimpleField(id1, 2, parent1, true);
+            tx.writeSimpleField(id2, 2, parent2, true);
+            parent1 = id1;
+            parent2 = id2;
+            ids.add(id1);
+            ids.add(id2);
+        }
+        final ObjId extra = tx.create(1);
+        tx.delete(extra);
+
+        // Delete both chains at once, including an already-deleted object and a duplicate
+        Assert.assertEquals(tx.delete(buildList(root1, root2, extra, root1)), 22);
+        Assert.assertTrue(tx.getAll(1).isEmpty());
+        Assert.assertTrue(tx.queryIndex(2).asMap().isEmpty());
+        Assert.assertEquals(tx.delete(buildList(root1, root2)), 0);
+
+        // A guard prevents deletion
+        final ObjId node = tx.create(1);
+        final ObjId child = tx.create(1);
+        tx.writeSimpleField(child, 2, node, true);
+        final ObjId guard = tx.create(10);
+        tx.writeSimpleField(guard, 11, child, true);
+        try {
+            tx.delete(buildList(node));
+            assert false : "expected ReferencedObjectException";
+        } catch (ReferencedObjectException e) {
+            this.log.info("got expected " + e);
+            Assert.assertEquals(e.getId(), child);
+            Assert.assertEquals(e.getReferrer(), guard);
+        }
+        Assert.assertTrue(tx.exists(child));
+
+        // A guard being deleted in the same batch does not prevent deletion
+        Assert.assertEquals(tx.delete(buildList(child, guard)), 2);
+        Assert.assertFalse(tx.exists(child));
+        Assert.assertFalse(tx.exists(guard));
+        Assert.assertTrue(tx.queryIndex(11).asMap().isEmpty());
+
+        tx.rollback();
+    }
+}
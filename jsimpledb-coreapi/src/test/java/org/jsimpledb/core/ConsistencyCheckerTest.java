@@ -0,0 +1,231 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import com.google.common.primitives.Bytes;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.jsimpledb.kv.KVTransaction;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.kv.simple.SimpleKVTransaction;
+import org.jsimpledb.schema.SchemaModel;
+import org.jsimpledb.util.ByteUtil;
+import org.jsimpledb.util.LongEncoder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ConsistencyCheckerTest extends CoreAPITestSupport {
+
+    private static final int NUM_OBJECTS = 20;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConsistencyChecker() throws Exception {
+
+        final SchemaModel schema = SchemaModel.fromXML(new ByteArrayInputStream((
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<Schema formatVersion=\"2\">\n"
+          + "  <ObjectType name=\"Person\" storageId=\"10\">\n"
+          + "    <SimpleField name=\"name\" type=\"java.lang.String\" storageId=\"11\" indexed=\"true\"/>\n"
+          + "    <SetField name=\"tags\" storageId=\"12\">\n"
+          + "      <SimpleField type=\"java.lang.String\" storageId=\"13\" indexed=\"true\"/>\n"
+          + "    </SetField>\n"
+          + "    <ListField name=\"scores\" storageId=\"14\">\n"
+          + "      <SimpleField type=\"int\" storageId=\"15\" indexed=\"true\"/>\n"
+          + "    </ListField>\n"
+          + "    <MapField name=\"attrs\" storageId=\"16\">\n"
+          + "      <SimpleField type=\"java.lang.String\" storageId=\"17\" indexed=\"true\"/>\n"
+          + "      <SimpleField type=\"int\" storageId=\"18\" indexed=\"true\"/>\n"
+          + "    </MapField>\n"
+          + "    <SimpleField name=\"age\" type=\"int\" storageId=\"19\"/>\n"
+          + "    <CounterField name=\"visits\" storageId=\"21\" shards=\"3\"/>\n"
+          + "    <SimpleField name=\"notes\" type=\"java.lang.String\" storageId=\"22\"/>\n"
+          + "    <ListField name=\"events\" storageId=\"23\" sparse=\"true\">\n"
+          + "      <SimpleField type=\"java.lang.String\" storageId=\"24\" indexed=\"true\"/>\n"
+          + "    </ListField>\n"
+          + "    <CompositeIndex storageId=\"20\" name=\"nameAge\">\n"
+          + "      <IndexedField storageId=\"11\"/>\n"
+          + "      <IndexedField storageId=\"19\"/>\n"
+          + "    </CompositeIndex>\n"
+          + "  </ObjectType>\n"
+          + "</Schema>\n"
+          ).getBytes("UTF-8")));
+
+        final Database db = new Database(new SimpleKVDatabase());
+
+        // Empty database
+        final ConsistencyChecker checker = new ConsistencyChecker(db);
+        Assert.assertEquals(this.check(checker).size(), 0);
+
+        // Populate
+        Transaction tx = db.createTransaction(schema, 1, true);
+        final ArrayList<ObjId> ids = new ArrayList<>();
+        for (int i = 0; i < NUM_OBJECTS; i++) {
+            final ObjId id = tx.create(10);
+            ids.add(id);
+            tx.writeSimpleField(id, 11, "name" + (i % 5), false);
+            ((NavigableSet<String>)tx.readSetField(id, 12, false)).add("tag" + i);
+            ((List<Integer>)tx.readListField(id, 14, false)).add(i);
+            ((List<Integer>)tx.readListField(id, 14, false)).add(i * 2);
+            ((Map<String, Integer>)tx.readMapField(id, 16, false)).put("key" + i, i);
+            tx.writeSimpleField(id, 19, i, false);
+            tx.adjustCounterField(id, 21, i, false);
+            ((List<String>)tx.readListField(id, 23, false)).add("event" + i);
+        }
+        tx.commit();
+
+        // Check consistent database
+        checker.setThreads(4);
+        checker.setSplits(4);
+        checker.setMaxKeysPerTransaction(7);
+        Assert.assertEquals(this.check(checker).size(), 0);
+        Assert.assertEquals(checker.getChunksCompleted(), checker.getTotalChunks());
+        final long totalKeys = checker.getKeysChecked();
+        Assert.assertTrue(totalKeys > NUM_OBJECTS * 10);
+
+        // Introduce inconsistencies
+        tx = db.createTransaction(schema, 1, false);
+        final KVTransaction kvt = tx.getKVTransaction();
+        final Schema schema1 = tx.getSchema();
+        final SimpleField<?> nameField = (SimpleField<?>)schema1.getObjType(10).getField(11);
+        kvt.remove(Transaction.buildSimpleIndexEntry(nameField, ids.get(0), kvt.get(nameField.buildKey(ids.get(0)))));
+        kvt.put(Transaction.buildSimpleIndexEntry(nameField, ids.get(1), nameField.encode("bogus")), ByteUtil.EMPTY);
+        kvt.put(ByteUtil.parse("63"), ByteUtil.EMPTY);
+        kvt.remove(Database.buildVersionIndexKey(ids.get(2), 1));
+        kvt.put(Field.buildKey(new ObjId(10), 19), ByteUtil.parse("80000001"));
+        kvt.put(Field.buildKey(ids.get(3), 22), ByteUtil.parse("41"));
+        final ListField<?> eventsField = (ListField<?>)schema1.getObjType(10).getField(23);
+        kvt.put(Bytes.concat(Field.buildKey(ids.get(4), 23), LongEncoder.encode(Long.MAX_VALUE)),
+          eventsField.elementField.encode("event"));
+        tx.commit();
+
+        // Check inconsistent database
+        final List<ConsistencyChecker.Issue> issues = this.check(checker);
+        Assert.assertEquals(issues.size(), 7, "issues: " + issues);
+        Assert.assertEquals(checker.getIssuesFound(), 7);
+        this.assertIssue(issues, "missing index entry for object " + ids.get(0));
+        this.assertIssue(issues, "does not match object " + ids.get(1));
+        this.assertIssue(issues, "extraneous key");
+        this.assertIssue(issues, "missing schema version index entry for object " + ids.get(2));
+        this.assertIssue(issues, "field data for non-existent object");
+        this.assertIssue(issues, "invalid encoded");
+        this.assertIssue(issues, "sparse list position " + Long.MAX_VALUE + " is out of range");
+
+        // Interrupt a check after the first issue, then resume it
+        final SimpleKVDatabase stateDatabase = new SimpleKVDatabase();
+        checker.setStateDatabase(stateDatabase);
+        checker.setThreads(1);
+        try {
+            checker.check(issue -> {
+                throw new IllegalStateException("stop");
+            });
+            assert false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(this.check(checker).size(), 7);
+        Assert.assertTrue(checker.getKeysChecked() < totalKeys);
+        final KVTransaction stx = stateDatabase.createTransaction();
+        Assert.assertNull(stx.getAtLeast(ByteUtil.EMPTY, null));
+        stx.rollback();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRetry() throws Exception {
+
+        final SchemaModel schema = SchemaModel.fromXML(new ByteArrayInputStream((
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<Schema formatVersion=\"2\">\n"
+          + "  <ObjectType name=\"Person\" storageId=\"10\">\n"
+          + "    <SimpleField name=\"name\" type=\"java.lang.String\" storageId=\"11\" indexed=\"true\"/>\n"
+          + "    <SetField name=\"tags\" storageId=\"12\">\n"
+          + "      <SimpleField type=\"java.lang.String\" storageId=\"13\"/>\n"
+          + "    </SetField>\n"
+          + "  </ObjectType>\n"
+          + "</Schema>\n"
+          ).getBytes("UTF-8")));
+
+        final RetryingKVDatabase kvdb = new RetryingKVDatabase();
+        final Database db = new Database(kvdb);
+        final Transaction tx = db.createTransaction(schema, 1, true);
+        for (int i = 0; i < NUM_OBJECTS; i++) {
+            final ObjId id = tx.create(10);
+            tx.writeSimpleField(id, 11, "name" + i, false);
+            for (int j = 0; j < 3; j++)
+                ((NavigableSet<String>)tx.readSetField(id, 12, false)).add("tag" + j);
+        }
+        tx.commit();
+
+        // Force a retry at each possible point in the check, including in the middle of an object
+        final ConsistencyChecker checker = new ConsistencyChecker(db);
+        checker.setThreads(1);
+        checker.setSplits(1);
+        checker.setMaxKeysPerTransaction(NUM_OBJECTS * 3);
+        kvdb.failAt(Integer.MAX_VALUE);
+        Assert.assertEquals(this.check(checker).size(), 0);
+        final int numAccesses = kvdb.getAccesses();
+        int numRetries = 0;
+        for (int failAt = 1; failAt <= numAccesses; failAt++) {
+            kvdb.failAt(failAt);
+            try {
+                Assert.assertEquals(this.check(checker).size(), 0, "retry at access #" + failAt);
+            } catch (RetryTransactionException e) {
+                continue;                                                   // retry occurred while reading schemas
+            }
+            numRetries++;
+        }
+        Assert.assertTrue(numRetries > NUM_OBJECTS * 4, "numRetries = " + numRetries);
+    }
+
+    private List<ConsistencyChecker.Issue> check(ConsistencyChecker checker) throws InterruptedException {
+        final ArrayList<ConsistencyChecker.Issue> issues = new ArrayList<>();
+        Assert.assertEquals(checker.check(issues::add), checker.getIssuesFound());
+        for (ConsistencyChecker.Issue issue : issues)
+            this.log.info("found issue: " + issue);
+        return issues;
+    }
+
+    private void assertIssue(List<ConsistencyChecker.Issue> issues, String description) {
+        for (ConsistencyChecker.Issue issue : issues) {
+            if (issue.getDescription().contains(description))
+                return;
+        }
+        throw new AssertionError("no issue matching \"" + description + "\" found in " + issues);
+    }
+
+// RetryingKVDatabase
+
+    @SuppressWarnings("serial")
+    private static class RetryingKVDatabase extends SimpleKVDatabase {
+
+        private int failAt;
+        private int accesses;
+
+        synchronized void failAt(int failAt) {
+            this.failAt = failAt;
+            this.accesses = 0;
+        }
+
+        synchronized int getAccesses() {
+            return this.accesses;
+        }
+
+        @Override
+        protected void checkState(SimpleKVTransaction tx) {
+            super.checkState(tx);
+            if (++this.accesses == this.failAt)
+                throw new RetryTransactionException(tx, "simulated conflict");
+        }
+    }
+}
+
@@ -0,0 +1,83 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NavigableSet;
+
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.schema.SchemaModel;
+import org.jsimpledb.util.NavigableSetPlanner;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class IndexStatisticsTest extends CoreAPITestSupport {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIndexStatistics() throws Exception {
+
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+
+        final SchemaModel schema = SchemaModel.fromXML(new ByteArrayInputStream((
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<Schema formatVersion=\"2\">\n"
+          + "  <ObjectType name=\"Foo\" storageId=\"1\">\n"
+          + "    <SimpleField name=\"color\" type=\"int\" storageId=\"2\" indexed=\"true\"/>\n"
+          + "    <SimpleField name=\"serial\" type=\"int\" storageId=\"3\" indexed=\"true\"/>\n"
+          + "  </ObjectType>\n"
+          + "</Schema>\n"
+          ).getBytes("UTF-8")));
+
+        final Transaction tx = db.createTransaction(schema, 1, true);
+
+        // Empty index
+        IndexStatistics stats = IndexStatistics.sample((CoreIndex<Integer, ObjId>)tx.queryIndex(2), 100);
+        Assert.assertEquals(stats.getEntryCount(), 0);
+        Assert.assertEquals(stats.getValueCount(), 0);
+        Assert.assertTrue(stats.isExact());
+        Assert.assertEquals(stats.estimateTargetsPerValue(), 0);
+
+        // Create objects: few colors, unique serial numbers
+        final ArrayList<ObjId> ids = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            final ObjId id = tx.create(1);
+            tx.writeSimpleField(id, 2, i % 3, true);
+            tx.writeSimpleField(id, 3, i, true);
+            ids.add(id);
+        }
+
+        final CoreIndex<Integer, ObjId> colorIndex = (CoreIndex<Integer, ObjId>)tx.queryIndex(2);
+        final CoreIndex<Integer, ObjId> serialIndex = (CoreIndex<Integer, ObjId>)tx.queryIndex(3);
+
+        stats = IndexStatistics.sample(colorIndex, 100);
+        Assert.assertEquals(stats.getEntryCount(), 60);
+        Assert.assertEquals(stats.getValueCount(), 3);
+        Assert.assertTrue(stats.isExact());
+        Assert.assertEquals(stats.estimateTargetsPerValue(), 20);
+
+        stats = IndexStatistics.sample(serialIndex, 10);
+        Assert.assertEquals(stats.getEntryCount(), 10);
+        Assert.assertEquals(stats.getValueCount(), 10);
+        Assert.assertFalse(stats.isExact());
+        Assert.assertEquals(stats.estimateTargetsPerValue(), 1);
+
+        // Use statistics to plan an intersection
+        final NavigableSetPlanner planner = new NavigableSetPlanner();
+        final NavigableSet<ObjId> color1 = colorIndex.asMap().get(1);
+        final NavigableSet<ObjId> serial7 = serialIndex.asMap().get(7);
+        planner.setEstimate(color1, IndexStatistics.sample(colorIndex, 100).estimateTargetsPerValue());
+        planner.setEstimate(serial7, IndexStatistics.sample(serialIndex, 100).estimateTargetsPerValue());
+        Assert.assertEquals(new ArrayList<>(planner.intersection(Arrays.asList(color1, serial7))), Arrays.asList(ids.get(7)));
+        Assert.assertTrue(planner.intersection(Arrays.asList(color1, serialIndex.asMap().get(8))).isEmpty());
+
+        tx.rollback();
+    }
+}
+
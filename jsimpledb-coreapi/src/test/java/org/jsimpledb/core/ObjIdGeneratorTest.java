@@ -0,0 +1,141 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.kv.util.NavigableMapKVStore;
+import org.jsimpledb.schema.SchemaModel;
+import org.jsimpledb.util.ByteReader;
+import org.jsimpledb.util.UnsignedIntEncoder;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ObjIdGeneratorTest extends CoreAPITestSupport {
+
+    private static final int NUM_BENCHMARK_IDS = 1000000;
+    private static final int NUM_BENCHMARK_OBJECTS = 50000;
+
+    private static final String XML =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<Schema formatVersion=\"2\">\n"
+      + "  <ObjectType name=\"Foo\" storageId=\"1\">\n"
+      + "    <SimpleField name=\"value\" type=\"int\" storageId=\"2\"/>\n"
+      + "  </ObjectType>\n"
+      + "</Schema>\n";
+
+    @Test
+    public void testStorageIdAndSuffix() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            final int storageId = this.randomStorageId();
+            final long suffix = this.random.nextLong();
+            final ObjId id = new ObjId(storageId, suffix);
+            final int suffixBits = ObjId.getSuffixBits(storageId);
+            Assert.assertEquals(id.getStorageId(), storageId);
+            Assert.assertEquals(UnsignedIntEncoder.read(new ByteReader(id.getBytes())), storageId);
+            Assert.assertEquals(id.asLong() & ((1L << suffixBits) - 1), suffix & ((1L << suffixBits) - 1));
+            Assert.assertEquals(suffixBits, (ObjId.NUM_BYTES - UnsignedIntEncoder.encodeLength(storageId)) * 8);
+            Assert.assertEquals(new ObjId(id.asLong()), id);
+        }
+    }
+
+    @Test(dataProvider = "generators")
+    public void testGenerator(ObjIdGenerator generator) throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            final int storageId = this.randomStorageId();
+            Assert.assertEquals(generator.generateId(storageId).getStorageId(), storageId);
+        }
+    }
+
+    @Test
+    public void testTimeOrdered() throws Exception {
+        final TimeOrderedObjIdGenerator generator = new TimeOrderedObjIdGenerator(32, 1000L * 3600);
+        final List<ObjId> ids = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            ids.add(generator.generateId(1));
+
+        // Apart from (unlikely) sequence number wrap-around or an hour boundary, IDs should be ascending
+        int descents = 0;
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i).compareTo(ids.get(i - 1)) <= 0)
+                descents++;
+        }
+        Assert.assertTrue(descents <= 2, "too many descents: " + descents);
+    }
+
+    @Test(dataProvider = "generators")
+    public void testBulkLoad(ObjIdGenerator generator) throws Exception {
+        final SchemaModel schema = SchemaModel.fromXML(new ByteArrayInputStream(XML.getBytes("UTF-8")));
+        final Database db = new Database(new SimpleKVDatabase());
+        db.setObjIdGenerator(generator);
+        Assert.assertSame(db.getObjIdGenerator(), generator);
+
+        // Measure raw generation throughput
+        long startTime = System.nanoTime();
+        for (int i = 0; i < NUM_BENCHMARK_IDS; i++)
+            generator.generateId(1);
+        long elapsed = System.nanoTime() - startTime;
+        final double idsPerSecond = NUM_BENCHMARK_IDS * 1e9 / elapsed;
+
+        // Measure bulk load throughput into an in-memory store, and how often new objects are appended
+        final SnapshotTransaction tx = db.createSnapshotTransaction(new NavigableMapKVStore(), schema, 1, true);
+        final ArrayList<ObjId> ids = new ArrayList<>(NUM_BENCHMARK_OBJECTS);
+        ObjId maxId = null;
+        int appends = 0;
+        startTime = System.nanoTime();
+        for (int i = 0; i < NUM_BENCHMARK_OBJECTS; i++) {
+            final ObjId id = tx.create(1);
+            tx.writeSimpleField(id, 2, i, false);
+            if (maxId == null || id.compareTo(maxId) > 0) {
+                maxId = id;
+                appends++;
+            }
+            ids.add(id);
+        }
+        elapsed = System.nanoTime() - startTime;
+        this.log.info(String.format("%s: %.0f IDs/sec generated, %.0f objects/sec loaded, %.1f%% appended",
+          generator.getClass().getSimpleName(), idsPerSecond, NUM_BENCHMARK_OBJECTS * 1e9 / elapsed,
+          appends * 100.0 / NUM_BENCHMARK_OBJECTS));
+
+        // Verify
+        Assert.assertEquals(tx.getAll(1).size(), NUM_BENCHMARK_OBJECTS);
+        Collections.shuffle(ids, this.random);
+        for (int i = 0; i < 100; i++)
+            Assert.assertTrue(tx.exists(ids.get(i)));
+        if (generator instanceof TimeOrderedObjIdGenerator)
+            Assert.assertTrue(appends > NUM_BENCHMARK_OBJECTS / 2, "only " + appends + " appends");
+    }
+
+    @DataProvider(name = "generators")
+    public Object[][] genGenerators() {
+        return new Object[][] {
+            { new DefaultObjIdGenerator() },
+            { new FastObjIdGenerator() },
+            { new TimeOrderedObjIdGenerator() },
+        };
+    }
+
+    private int randomStorageId() {
+        switch (this.random.nextInt(5)) {
+        case 0:
+            return 1 + this.random.nextInt(0xfa);
+        case 1:
+            return 0xfb + this.random.nextInt(0x100);
+        case 2:
+            return 0x1fb + this.random.nextInt(0x10000);
+        case 3:
+            return 0x101fb + this.random.nextInt(0x1000000);
+        default:
+            return 1 + this.random.nextInt(Integer.MAX_VALUE);
+        }
+    }
+}
+
@@ -0,0 +1,96 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.io.ByteArrayInputStream;
+
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.schema.SchemaModel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SchemaGarbageCollectionTest extends CoreAPITestSupport {
+
+    @Test
+    public void testSchemaGarbageCollection() throws Exception {
+
+        final SchemaModel schema1 = this.buildSchema("");
+        final SchemaModel schema2 = this.buildSchema("    <SimpleField name=\"i\" type=\"int\" storageId=\"2\"/>\n");
+        final SchemaModel schema3 = this.buildSchema("    <SimpleField name=\"s\" type=\"java.lang.String\" storageId=\"3\"/>\n");
+
+        final Database db = new Database(new SimpleKVDatabase());
+        Assert.assertFalse(db.isSchemaGarbageCollection());
+
+    // Version 1
+
+        Transaction tx = db.createTransaction(schema1, 1, true);
+        final ObjId id1 = tx.create(1);
+        final ObjId id2 = tx.create(1);
+        final ObjId id3 = tx.create(1);
+        tx.commit();
+
+    // Version 2 - no garbage collection
+
+        tx = db.createTransaction(schema2, 2, true);
+        tx.updateSchemaVersion(id1);
+        tx.commit();
+        this.checkVersions(db, schema2, 1, 2);
+
+    // Version 2 - garbage collection, but objects remain
+
+        db.setSchemaGarbageCollection(true);
+        tx = db.createTransaction(schema2, 2, false);
+        tx.updateSchemaVersion(id2);
+        tx.commit();
+        this.checkVersions(db, schema2, 1, 2);
+
+    // Version 2 - last object removed, but transaction rolled back
+
+        tx = db.createTransaction(schema2, 2, false);
+        tx.delete(id3);
+        tx.rollback();
+        this.checkVersions(db, schema2, 1, 2);
+
+    // Version 2 - last object removed
+
+        tx = db.createTransaction(schema2, 2, false);
+        tx.delete(id3);
+        tx.commit();
+        this.checkVersions(db, schema2, 2);
+
+    // Version 3 - a transaction never removes its own version
+
+        tx = db.createTransaction(schema3, 3, true);
+        tx.delete(id1);
+        final ObjId id4 = tx.create(1);
+        tx.commit();
+        this.checkVersions(db, schema3, 2, 3);
+
+        tx = db.createTransaction(schema3, 3, false);
+        tx.updateSchemaVersion(id2);
+        tx.delete(id4);
+        tx.commit();
+        this.checkVersions(db, schema3, 3);
+    }
+
+    private void checkVersions(Database db, SchemaModel schema, Integer... versions) {
+        final Transaction tx = db.createTransaction(schema, versions[versions.length - 1], false);
+        Assert.assertEquals(tx.getSchemas().versions.keySet(), buildSet((Object[])versions));
+        tx.rollback();
+    }
+
+    private SchemaModel buildSchema(String fields) throws Exception {
+        return SchemaModel.fromXML(new ByteArrayInputStream((
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<Schema formatVersion=\"2\">\n"
+          + "  <ObjectType name=\"Foo\" storageId=\"1\">\n"
+          + fields
+          + "  </ObjectType>\n"
+          + "</Schema>\n"
+          ).getBytes("UTF-8")));
+    }
+}
+
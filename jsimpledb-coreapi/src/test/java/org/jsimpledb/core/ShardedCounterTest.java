@@ -0,0 +1,137 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.kv.KVTransaction;
+import org.jsimpledb.kv.KeyRange;
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.schema.CounterSchemaField;
+import org.jsimpledb.schema.SchemaModel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ShardedCounterTest extends CoreAPITestSupport {
+
+    @Test
+    public void testShardedCounter() throws Exception {
+
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+        final SchemaModel schema1 = this.buildSchema(4);
+
+        // Verify schema
+        final CounterSchemaField schemaField = (CounterSchemaField)schema1.getSchemaObjectTypes().get(10).getSchemaFields().get(20);
+        Assert.assertEquals(schemaField.getShards(), 4);
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        schema1.toXML(buf, false);
+        Assert.assertEquals(SchemaModel.fromXML(new ByteArrayInputStream(buf.toByteArray())), schema1);
+        Assert.assertFalse(schema1.isCompatibleWith(this.buildSchema(1)));
+        Assert.assertNotEquals(schema1.compatibilityHash(), this.buildSchema(1).compatibilityHash());
+
+        // Create object; all shards should exist
+        Transaction tx = db.createTransaction(schema1, 1, true);
+        final ObjId id = tx.create(10);
+        Assert.assertEquals(tx.getSchema().getObjType(10).counterFields.get(20).getShards(), 4);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), 0L);
+        Assert.assertEquals(this.countKeys(tx, id), 4);
+        tx.commit();
+
+        // Adjust from many transactions; different transactions should use different shards
+        long expected = 0;
+        for (int i = 0; i < 50; i++) {
+            tx = db.createTransaction(schema1, 1, false);
+            final long offset = this.random.nextInt(100) - 25;
+            tx.adjustCounterField(id, 20, offset, true);
+            tx.adjustCounterField(id, 20, 1, true);
+            expected += offset + 1;
+            tx.commit();
+        }
+        tx = db.createTransaction(schema1, 1, false);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), expected);
+        Assert.assertEquals(this.countKeys(tx, id), 4);
+        int nonzeroShards = 0;
+        final KVTransaction kvt = tx.getKVTransaction();
+        for (Iterator<KVPair> i = this.getShards(tx, id); i.hasNext(); ) {
+            if (kvt.decodeCounter(i.next().getValue()) != 0)
+                nonzeroShards++;
+        }
+        Assert.assertTrue(nonzeroShards > 1, "only " + nonzeroShards + " shard(s) used");
+
+        // Write value
+        tx.writeCounterField(id, 20, 1234, true);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), 1234L);
+        Assert.assertEquals(this.countKeys(tx, id), 4);
+        tx.adjustCounterField(id, 20, -34, true);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), 1200L);
+
+        // Copy object
+        final SnapshotTransaction stx = tx.createSnapshotTransaction();
+        tx.copy(id, id, stx, true, false);
+        Assert.assertEquals(stx.readCounterField(id, 20, true), 1200L);
+        Assert.assertEquals(this.countKeys(stx, id), 4);
+        tx.commit();
+
+        // Upgrade to unsharded
+        final SchemaModel schema2 = this.buildSchema(1);
+        tx = db.createTransaction(schema2, 2, true);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), 1200L);
+        Assert.assertEquals(this.countKeys(tx, id), 1);
+        tx.adjustCounterField(id, 20, 1, true);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), 1201L);
+        tx.commit();
+
+        // Upgrade to sharded again
+        final SchemaModel schema3 = this.buildSchema(3);
+        tx = db.createTransaction(schema3, 3, true);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), 1201L);
+        Assert.assertEquals(this.countKeys(tx, id), 3);
+        tx.adjustCounterField(id, 20, 1, true);
+        Assert.assertEquals(tx.readCounterField(id, 20, true), 1202L);
+
+        // Delete object
+        tx.delete(id);
+        Assert.assertEquals(this.countKeys(tx, id), 0);
+        tx.commit();
+    }
+
+    @Test
+    public void testInvalidShards() throws Exception {
+        try {
+            new Database(new SimpleKVDatabase()).createTransaction(this.buildSchema(0), 1, true);
+            assert false;
+        } catch (InvalidSchemaException e) {
+            this.log.debug("got expected " + e);
+        }
+    }
+
+    private SchemaModel buildSchema(int shards) throws Exception {
+        final String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<Schema formatVersion=\"1\">\n"
+          + "  <ObjectType name=\"Foo\" storageId=\"10\">\n"
+          + "    <CounterField name=\"counter\" storageId=\"20\"" + (shards != 1 ? " shards=\"" + shards + "\"" : "") + "/>\n"
+          + "  </ObjectType>\n"
+          + "</Schema>";
+        return SchemaModel.fromXML(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    private int countKeys(Transaction tx, ObjId id) {
+        int count = 0;
+        for (Iterator<KVPair> i = this.getShards(tx, id); i.hasNext(); i.next())
+            count++;
+        return count;
+    }
+
+    private Iterator<KVPair> getShards(Transaction tx, ObjId id) {
+        final KeyRange range = KeyRange.forPrefix(Field.buildKey(id, 20));
+        return tx.getKVTransaction().getRange(range.getMin(), range.getMax(), false);
+    }
+}
+
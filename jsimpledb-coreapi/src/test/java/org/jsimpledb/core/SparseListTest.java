@@ -0,0 +1,216 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.TreeSet;
+
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.schema.ListSchemaField;
+import org.jsimpledb.schema.SchemaModel;
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SparseListTest extends CoreAPITestSupport {
+
+    private static final String XML_TEMPLATE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<Schema formatVersion=\"2\">\n"
+      + "  <ObjectType name=\"Foo\" storageId=\"1\">\n"
+      + "    <ListField name=\"list\" storageId=\"2\"@SPARSE@>\n"
+      + "      <SimpleField type=\"int\" storageId=\"3\" indexed=\"true\"/>\n"
+      + "    </ListField>\n"
+      + "    <ListField name=\"refs\" storageId=\"4\" sparse=\"true\">\n"
+      + "      <ReferenceField storageId=\"5\" onDelete=\"UNREFERENCE\"/>\n"
+      + "    </ListField>\n"
+      + "  </ObjectType>\n"
+      + "</Schema>\n";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSparseList() throws Exception {
+
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+        final SchemaModel schema = this.buildSchema(true);
+
+        Transaction tx = db.createTransaction(schema, 1, true);
+        final ObjId id1 = tx.create(1);
+        final List<Integer> list = (List<Integer>)tx.readListField(id1, 2, true);
+        Assert.assertTrue(list instanceof JSSparseList);
+        final ArrayList<Integer> expected = new ArrayList<>();
+
+        // Repeatedly insert at the same spot to force re-spacing
+        list.add(0);
+        list.add(1000);
+        expected.add(0);
+        expected.add(1000);
+        for (int i = 1; i < 50; i++) {
+            list.add(i, i);
+            expected.add(i, i);
+        }
+        for (int i = 0; i < 50; i++) {
+            list.add(0, -i);
+            expected.add(0, -i);
+        }
+        this.check(tx, list, expected);
+
+        // Random operations
+        for (int i = 0; i < 500; i++) {
+            final int size = expected.size();
+            final int index = this.random.nextInt(size + 1);
+            final int value = this.random.nextInt(50);
+            final int choice = this.random.nextInt(10);
+            if (choice < 3) {
+                list.add(index, value);
+                expected.add(index, value);
+            } else if (choice < 5 && index < size) {
+                Assert.assertEquals(list.remove(index), expected.remove(index));
+            } else if (choice < 6 && index < size) {
+                Assert.assertEquals(list.set(index, value), expected.set(index, value));
+            } else if (choice < 7) {
+                final int count = this.random.nextInt(5);
+                final ArrayList<Integer> values = new ArrayList<>();
+                for (int j = 0; j < count; j++)
+                    values.add(this.random.nextInt(50));
+                list.addAll(index, values);
+                expected.addAll(index, values);
+            } else if (choice < 8) {
+                final int end = index + this.random.nextInt(size - index + 1);
+                list.subList(index, end).clear();
+                expected.subList(index, end).clear();
+            } else if (choice < 9) {
+                final ListIterator<Integer> li = list.listIterator(index);
+                final ListIterator<Integer> ei = expected.listIterator(index);
+                while (li.hasNext()) {
+                    Assert.assertEquals(li.nextIndex(), ei.nextIndex());
+                    final int next = li.next();
+                    Assert.assertEquals(next, (int)ei.next());
+                    if (next % 7 == 0) {
+                        li.remove();
+                        ei.remove();
+                    } else if (next % 7 == 1) {
+                        li.add(value);
+                        ei.add(value);
+                    } else if (next % 7 == 2) {
+                        li.set(value);
+                        ei.set(value);
+                    }
+                }
+                Assert.assertFalse(ei.hasNext());
+                while (li.hasPrevious()) {
+                    Assert.assertEquals(li.previousIndex(), ei.previousIndex());
+                    Assert.assertEquals(li.previous(), ei.previous());
+                }
+                Assert.assertFalse(ei.hasPrevious());
+            } else {
+                final Iterator<Integer> li = list.iterator();
+                final Iterator<Integer> ei = expected.iterator();
+                while (li.hasNext()) {
+                    final int next = li.next();
+                    Assert.assertEquals(next, (int)ei.next());
+                    if (next == value) {
+                        li.remove();
+                        ei.remove();
+                    }
+                }
+                Assert.assertFalse(ei.hasNext());
+            }
+            if (i % 50 == 0)
+                this.check(tx, list, expected);
+        }
+        this.check(tx, list, expected);
+
+        list.clear();
+        expected.clear();
+        this.check(tx, list, expected);
+        Assert.assertTrue(list.isEmpty());
+
+        tx.commit();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSparseUnreference() throws Exception {
+
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+        final SchemaModel schema = this.buildSchema(false);
+
+        final Transaction tx = db.createTransaction(schema, 1, true);
+        final ObjId id1 = tx.create(1);
+        final ObjId id2 = tx.create(1);
+        final ObjId id3 = tx.create(1);
+        final List<ObjId> refs = (List<ObjId>)tx.readListField(id1, 4, true);
+        refs.addAll(buildList(id2, id3, id2, id1, id2));
+
+        TestSupport.checkMap(tx.queryIndex(5).asMap(), buildMap(id1, buildSet(id1), id2, buildSet(id1), id3, buildSet(id1)));
+
+        tx.delete(id2);
+
+        Assert.assertEquals(refs, buildList(id3, id1));
+        TestSupport.checkMap(tx.queryIndex(5).asMap(), buildMap(id1, buildSet(id1), id3, buildSet(id1)));
+
+        tx.delete(id1);
+        TestSupport.checkMap(tx.queryIndex(5).asMap(), buildMap());
+
+        tx.commit();
+    }
+
+    @Test
+    public void testSparseSchema() throws Exception {
+
+        // XML round trip
+        final SchemaModel schema1 = this.buildSchema(true);
+        Assert.assertTrue(((ListSchemaField)schema1.getSchemaObjectTypes().get(1).getSchemaFields().get(2)).isSparse());
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        schema1.toXML(buf, true);
+        final SchemaModel schema1b = SchemaModel.fromXML(new ByteArrayInputStream(buf.toByteArray()));
+        Assert.assertEquals(schema1b, schema1);
+        Assert.assertEquals(schema1b.compatibilityHash(), schema1.compatibilityHash());
+
+        // Non-sparse lists are unaffected
+        final SchemaModel schema2 = this.buildSchema(false);
+        Assert.assertFalse(((ListSchemaField)schema2.getSchemaObjectTypes().get(1).getSchemaFields().get(2)).isSparse());
+        Assert.assertNotEquals(schema2, schema1);
+        Assert.assertFalse(schema2.isCompatibleWith(schema1));
+
+        // Changing sparseness requires a new storage ID
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+        Transaction tx = db.createTransaction(schema1, 1, true);
+        tx.commit();
+        try {
+            db.createTransaction(schema2, 2, true);
+            assert false : "expected InvalidSchemaException";
+        } catch (InvalidSchemaException e) {
+            this.log.info("got expected " + e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void check(Transaction tx, List<Integer> list, List<Integer> expected) {
+        Assert.assertEquals(list.size(), expected.size());
+        Assert.assertEquals(list.isEmpty(), expected.isEmpty());
+        Assert.assertEquals(new ArrayList<>(list), expected);
+        for (int i = 0; i < expected.size(); i++)
+            Assert.assertEquals(list.get(i), expected.get(i));
+        Assert.assertEquals(list, expected);
+        Assert.assertEquals(tx.queryIndex(3).asMap().keySet(), new TreeSet<>(expected));
+    }
+
+    private SchemaModel buildSchema(boolean sparse) throws Exception {
+        return SchemaModel.fromXML(new ByteArrayInputStream(
+          XML_TEMPLATE.replaceAll("@SPARSE@", sparse ? " sparse=\"true\"" : "").getBytes("UTF-8")));
+    }
+}
+
@@ -0,0 +1,107 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.NavigableSet;
+
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.schema.SchemaModel;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TransactionProfileTest extends CoreAPITestSupport {
+
+    private static final int NUM_OBJECTS = 5;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProfile() throws Exception {
+
+        final SimpleKVDatabase kvstore = new SimpleKVDatabase();
+        final Database db = new Database(kvstore);
+
+        final SchemaModel schema = SchemaModel.fromXML(new ByteArrayInputStream((
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<Schema formatVersion=\"2\">\n"
+          + "  <ObjectType name=\"Person\" storageId=\"10\">\n"
+          + "    <SimpleField name=\"name\" type=\"java.lang.String\" storageId=\"11\" indexed=\"true\"/>\n"
+          + "    <SetField name=\"tags\" storageId=\"12\">\n"
+          + "      <SimpleField type=\"java.lang.String\" storageId=\"13\" indexed=\"true\"/>\n"
+          + "    </SetField>\n"
+          + "    <SimpleField name=\"age\" type=\"int\" storageId=\"14\"/>\n"
+          + "    <CompositeIndex storageId=\"20\" name=\"nameAge\">\n"
+          + "      <IndexedField storageId=\"11\"/>\n"
+          + "      <IndexedField storageId=\"14\"/>\n"
+          + "    </CompositeIndex>\n"
+          + "  </ObjectType>\n"
+          + "</Schema>\n"
+          ).getBytes("UTF-8")));
+
+        // Profiling disabled
+        Transaction tx = db.createTransaction(schema, 1, true);
+        Assert.assertNull(tx.getProfile());
+        for (int i = 0; i < NUM_OBJECTS; i++) {
+            final ObjId id = tx.create(10);
+            tx.writeSimpleField(id, 11, "name" + i, false);
+            ((NavigableSet<String>)tx.readSetField(id, 12, false)).add("tag" + i);
+        }
+        tx.commit();
+
+        // Profiling enabled
+        db.setTransactionProfiling(true);
+        tx = db.createTransaction(schema, 1, false);
+        final TransactionProfile profile = tx.getProfile();
+        Assert.assertNotNull(profile);
+        Assert.assertTrue(tx.getKVTransaction() instanceof org.jsimpledb.kv.simple.SimpleKVTransaction);
+        Assert.assertTrue(this.find(profile, "meta-data").getReads() > 0);
+
+        // N+1 reads
+        final ArrayList<ObjId> ids = new ArrayList<>(tx.getAll(10));
+        Assert.assertEquals(ids.size(), NUM_OBJECTS);
+        for (ObjId id : ids)
+            tx.readSimpleField(id, 11, false);
+        Assert.assertEquals(this.find(profile, "object Person").getDistinctKeysRead(), NUM_OBJECTS);
+        final TransactionProfile.Stats nameStats = this.find(profile, "field Person.name");
+        Assert.assertEquals(nameStats.getReads(), NUM_OBJECTS);
+        Assert.assertEquals(nameStats.getDistinctKeysRead(), NUM_OBJECTS);
+        Assert.assertEquals(nameStats.getWrites(), 0);
+
+        // Index reads
+        Assert.assertEquals(tx.queryIndex(11).asMap().size(), NUM_OBJECTS);
+        Assert.assertEquals(this.find(profile, "index Person.name").getKeysRead(), NUM_OBJECTS);
+        Assert.assertEquals(tx.queryIndex(13).asMap().size(), NUM_OBJECTS);
+        Assert.assertEquals(this.find(profile, "index Person.tags.element").getKeysRead(), NUM_OBJECTS);
+
+        // Writes
+        tx.writeSimpleField(ids.get(0), 14, 42, false);
+        Assert.assertEquals(this.find(profile, "field Person.age").getWrites(), 1);
+        Assert.assertEquals(this.find(profile, "composite index Person.nameAge").getWrites(), 2);
+        Assert.assertTrue(profile.getTotalWrites() >= 3);
+        Assert.assertTrue(profile.getReadSetSize() >= 3 * NUM_OBJECTS);
+        Assert.assertTrue(profile.toString().contains("field Person.name"));
+        Assert.assertEquals(db.describeKey(ids.get(0).getBytes()), "object Person");
+        Assert.assertEquals(db.describeKey(tx.getSchema().getObjType(10).getField(14).buildKey(ids.get(0))), "field Person.age");
+        tx.commit();
+
+        // Profiling disabled again
+        db.setTransactionProfiling(false);
+        tx = db.createTransaction(schema, 1, false);
+        Assert.assertNull(tx.getProfile());
+        tx.rollback();
+    }
+
+    private TransactionProfile.Stats find(TransactionProfile profile, String description) {
+        for (Map.Entry<TransactionProfile.Target, TransactionProfile.Stats> entry : profile.getStats().entrySet()) {
+            if (entry.getKey().getDescription().equals(description))
+                return entry.getValue();
+        }
+        throw new AssertionError("no stats for \"" + description + "\" in profile:\n" + profile);
+    }
+}
+
@@ -0,0 +1,102 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core.util;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.jsimpledb.core.CoreAPITestSupport;
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ObjIdSortedMapTest extends CoreAPITestSupport {
+
+    @Test
+    public void testObjIdSortedMap() throws Exception {
+
+        final ObjIdSortedMap<Integer> actual = new ObjIdSortedMap<>();
+        final TreeMap<ObjId, Integer> expected = new TreeMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            final ObjId id = this.randomId();
+            final int action = this.random.nextInt(100);
+            final Integer value = this.random.nextInt(4);
+            boolean expectedResult = false;
+            boolean actualResult = false;
+            if (action < 3) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 6) {
+                final int pos = this.random.nextInt(10);
+                final Iterator<ObjId> iter = actual.keySet().iterator();
+                final ObjId id2 = Iterators.get(iter, pos, null);
+                if (id2 != null) {
+                    iter.remove();
+                    expected.remove(id2);
+                }
+            } else if (action < 10) {
+                final Map.Entry<ObjId, Integer> entry = actual.ceilingEntry(id);
+                if (entry != null) {
+                    entry.setValue(value);
+                    expected.put(entry.getKey(), value);
+                }
+            } else if (action < 15) {
+                final ObjId id2 = this.randomId();
+                final ObjId min = id.compareTo(id2) <= 0 ? id : id2;
+                final ObjId max = id.compareTo(id2) <= 0 ? id2 : id;
+                NavigableMap<ObjId, Integer> actualView = actual.subMap(min, true, max, false);
+                NavigableMap<ObjId, Integer> expectedView = expected.subMap(min, true, max, false);
+                if (this.random.nextBoolean()) {
+                    actualView = actualView.descendingMap();
+                    expectedView = expectedView.descendingMap();
+                }
+                Assert.assertEquals(Lists.newArrayList(actualView.entrySet()), Lists.newArrayList(expectedView.entrySet()));
+                Assert.assertEquals(actualView.firstEntry(), expectedView.firstEntry());
+                Assert.assertEquals(actualView.lastEntry(), expectedView.lastEntry());
+                if (this.random.nextBoolean()) {
+                    Assert.assertEquals(actualView.pollFirstEntry(), expectedView.pollFirstEntry());
+                } else {
+                    actualView.clear();
+                    expectedView.clear();
+                }
+            } else if (action < 45) {
+                actualResult = value.equals(actual.put(id, value));
+                expectedResult = value.equals(expected.put(id, value));
+            } else if (action < 75) {
+                actualResult = value.equals(actual.remove(id));
+                expectedResult = value.equals(expected.remove(id));
+            } else if (action < 80) {
+                TestSupport.checkMap(actual.clone(), expected);
+            } else if (action < 90) {
+                Assert.assertEquals(actual.floorKey(id), expected.floorKey(id));
+                Assert.assertEquals(actual.higherEntry(id), expected.higherEntry(id));
+            } else {
+                actualResult = actual.containsKey(id);
+                expectedResult = expected.containsKey(id);
+            }
+            TestSupport.checkMap(actual, expected);
+            Assert.assertEquals(Lists.newArrayList(actual.entrySet()), Lists.newArrayList(expected.entrySet()));
+            Assert.assertEquals(actualResult, expectedResult, "wrong result: actual=" + actual + " expected=" + expected);
+        }
+    }
+
+    // Generate IDs whose long values span both positive and negative values
+    private ObjId randomId() {
+        int shift = 0;
+        while (shift < 31 && this.random.nextBoolean())
+            shift++;
+        final long prefix = this.random.nextBoolean() ? 0x0100000000000000L : 0xfa00000000000000L;
+        return new ObjId(prefix | this.random.nextInt(3 << shift));
+    }
+}
+
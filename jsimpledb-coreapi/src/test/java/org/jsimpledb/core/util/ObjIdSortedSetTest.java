@@ -0,0 +1,120 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.core.util;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.jsimpledb.core.CoreAPITestSupport;
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.test.TestSupport;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ObjIdSortedSetTest extends CoreAPITestSupport {
+
+    @Test
+    public void testObjIdOrdering() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            final ObjId id1 = this.randomId();
+            final ObjId id2 = this.randomId();
+            Assert.assertEquals(Integer.signum(id1.compareTo(id2)), Integer.signum(ByteUtil.compare(id1.getBytes(), id2.getBytes())),
+              "wrong ordering for " + id1 + " and " + id2);
+        }
+    }
+
+    @Test
+    public void testObjIdSortedSet() throws Exception {
+
+        final ObjIdSortedSet actual = new ObjIdSortedSet();
+        final TreeSet<ObjId> expected = new TreeSet<>();
+
+        for (int i = 0; i < 5000; i++) {
+            final ObjId id = this.randomId();
+            final int action = this.random.nextInt(100);
+            boolean expectedResult = false;
+            boolean actualResult = false;
+            if (action < 3) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 6) {
+                final int pos = this.random.nextInt(10);
+                final Iterator<ObjId> iter = this.random.nextBoolean() ? actual.iterator() : actual.descendingIterator();
+                final ObjId id2 = Iterators.get(iter, pos, null);
+                if (id2 != null) {
+                    iter.remove();
+                    expected.remove(id2);
+                }
+            } else if (action < 10) {
+                final ArrayList<ObjId> ids = new ArrayList<>();
+                for (int j = this.random.nextInt(20); j > 0; j--)
+                    ids.add(this.random.nextInt(4) == 0 && !expected.isEmpty() ? expected.first() : this.randomId());
+                actualResult = actual.addAll(ids);
+                expectedResult = expected.addAll(ids);
+            } else if (action < 15) {
+                final ObjId id2 = this.randomId();
+                final ObjId min = id.compareTo(id2) <= 0 ? id : id2;
+                final ObjId max = id.compareTo(id2) <= 0 ? id2 : id;
+                final boolean minInclusive = this.random.nextBoolean();
+                final boolean maxInclusive = this.random.nextBoolean();
+                NavigableSet<ObjId> actualView = actual.subSet(min, minInclusive, max, maxInclusive);
+                NavigableSet<ObjId> expectedView = expected.subSet(min, minInclusive, max, maxInclusive);
+                if (this.random.nextBoolean()) {
+                    actualView = actualView.descendingSet();
+                    expectedView = expectedView.descendingSet();
+                }
+                Assert.assertEquals(Lists.newArrayList(actualView), Lists.newArrayList(expectedView));
+                Assert.assertEquals(actualView.ceiling(id), expectedView.ceiling(id));
+                Assert.assertEquals(actualView.lower(id2), expectedView.lower(id2));
+                if (this.random.nextInt(4) == 0) {
+                    actualView.clear();
+                    expectedView.clear();
+                } else if (this.random.nextBoolean()) {
+                    Assert.assertEquals(actualView.pollFirst(), expectedView.pollFirst());
+                } else if (actualView.contains(id2)) {
+                    actualResult = actualView.remove(id2);
+                    expectedResult = expectedView.remove(id2);
+                }
+            } else if (action < 45) {
+                actualResult = actual.add(id);
+                expectedResult = expected.add(id);
+            } else if (action < 75) {
+                actualResult = actual.remove(id);
+                expectedResult = expected.remove(id);
+            } else if (action < 80) {
+                final ObjIdSortedSet clone = actual.clone();
+                TestSupport.checkSet(clone, expected);
+                clone.add(id);
+            } else if (action < 90) {
+                Assert.assertEquals(actual.floor(id), expected.floor(id));
+                Assert.assertEquals(actual.higher(id), expected.higher(id));
+            } else {
+                actualResult = actual.contains(id);
+                expectedResult = expected.contains(id);
+            }
+            TestSupport.checkSet(actual, expected);
+            Assert.assertEquals(Lists.newArrayList(actual), Lists.newArrayList(expected));
+            Assert.assertEquals(Lists.newArrayList(actual.descendingIterator()), Lists.newArrayList(expected.descendingIterator()));
+            Assert.assertEquals(actualResult, expectedResult, "wrong result: actual=" + actual + " expected=" + expected);
+        }
+    }
+
+    // Generate IDs whose long values span both positive and negative values
+    private ObjId randomId() {
+        int shift = 0;
+        while (shift < 31 && this.random.nextBoolean())
+            shift++;
+        final long prefix = this.random.nextBoolean() ? 0x0100000000000000L : 0xfa00000000000000L;
+        return new ObjId(prefix | this.random.nextInt(3 << shift));
+    }
+}
+
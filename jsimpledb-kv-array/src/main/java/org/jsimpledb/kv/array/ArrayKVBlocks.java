@@ -0,0 +1,128 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.array;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads compressed value data written by an {@link ArrayKVWriter}, caching recently decompressed blocks.
+ *
+ * <p>
+ * Instances are thread safe.
+ */
+class ArrayKVBlocks {
+
+    /**
+     * Default maximum number of decompressed blocks to cache.
+     */
+    static final int DEFAULT_CACHE_SIZE = 64;
+
+    // Note: for thread safety, perform only absolute gets
+    private final ByteBuffer blks;
+    private final ByteBuffer vals;
+    private final int numBlocks;
+    private final int length;
+    private final Cache<Integer, byte[]> cache;
+
+    ArrayKVBlocks(ByteBuffer blks, ByteBuffer vals, int cacheSize) {
+        Preconditions.checkArgument(blks.capacity() % 8 == 0, "block index size is not a multiple of 8");
+        Preconditions.checkArgument(cacheSize >= 0, "negative cacheSize");
+        this.blks = blks.duplicate();
+        this.vals = vals.duplicate();
+        this.blks.limit(this.blks.capacity());
+        this.vals.limit(this.vals.capacity());
+        this.numBlocks = this.blks.capacity() / 8;
+        this.length = this.numBlocks > 0 ? this.blks.getInt((this.numBlocks - 1) * 8) : 0;
+        if (this.numBlocks > 0 && this.blks.getInt((this.numBlocks - 1) * 8 + 4) != this.vals.capacity())
+            throw new ArrayKVException("value block index is inconsistent with value data length");
+        this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).<Integer, byte[]>build();
+    }
+
+    /**
+     * Get the total length of the uncompressed value data.
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Read uncompressed value data.
+     *
+     * @param offset offset in the uncompressed value data
+     * @param len number of bytes to read
+     * @return uncompressed data
+     */
+    public byte[] read(int offset, int len) {
+        Preconditions.checkArgument(offset >= 0 && len >= 0 && offset + len <= this.length, "invalid range");
+        final byte[] dest = new byte[len];
+        int off = 0;
+        for (int block = this.findBlock(offset); off < len; block++) {
+            final int blockStart = block > 0 ? this.blks.getInt((block - 1) * 8) : 0;
+            final byte[] data = this.getBlock(block);
+            final int blockOffset = offset + off - blockStart;
+            final int count = Math.min(len - off, data.length - blockOffset);
+            System.arraycopy(data, blockOffset, dest, off, count);
+            off += count;
+        }
+        return dest;
+    }
+
+    // Find the block containing the given offset, i.e., the first block whose end is greater than the offset
+    private int findBlock(int offset) {
+        int min = 0;
+        int max = this.numBlocks;
+        while (min < max) {
+            final int mid = (min + max) >>> 1;
+            if (this.blks.getInt(mid * 8) <= offset)
+                min = mid + 1;
+            else
+                max = mid;
+        }
+        return min;
+    }
+
+    private byte[] getBlock(int block) {
+        byte[] data = this.cache.getIfPresent(block);
+        if (data == null) {
+            data = this.decompress(block);
+            this.cache.put(block, data);
+        }
+        return data;
+    }
+
+    private byte[] decompress(int block) {
+        final int start = block > 0 ? this.blks.getInt((block - 1) * 8) : 0;
+        final int end = this.blks.getInt(block * 8);
+        final int fileStart = block > 0 ? this.blks.getInt((block - 1) * 8 + 4) : 0;
+        final int fileEnd = this.blks.getInt(block * 8 + 4);
+        final byte[] input = new byte[fileEnd - fileStart];
+        ((ByteBuffer)this.vals.duplicate().position(fileStart)).get(input);
+        final byte[] output = new byte[end - start];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int pos = 0;
+            while (pos < output.length) {
+                final int count = inflater.inflate(output, pos, output.length - pos);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new ArrayKVException("truncated compressed value data in block #" + block);
+                pos += count;
+            }
+        } catch (DataFormatException e) {
+            throw new ArrayKVException("invalid compressed value data in block #" + block, e);
+        } finally {
+            inflater.end();
+        }
+        return output;
+    }
+}
+
@@ -24,9 +24,11 @@ class ArrayKVFinder {
     private final ByteBuffer indx;
     private final ByteBuffer keys;
     private final ByteBuffer vals;
+    private final ArrayKVBlocks blocks;                     // null if value data is not compressed
     private final int size;
+    private final int valsLength;
 
-    ArrayKVFinder(ByteBuffer indx, ByteBuffer keys, ByteBuffer vals) {
+    ArrayKVFinder(ByteBuffer indx, ByteBuffer keys, ByteBuffer vals, ArrayKVBlocks blocks) {
         Preconditions.checkArgument(indx.capacity() % 8 == 0, "index size is not a multiple of 8");
         this.indx = indx.duplicate();
         this.keys = keys.duplicate();
@@ -34,7 +36,9 @@ class ArrayKVFinder {
         this.indx.limit(this.indx.capacity());
         this.keys.limit(this.keys.capacity());
         this.vals.limit(this.vals.capacity());
+        this.blocks = blocks;
         this.size = this.indx.capacity() / 8;
+        this.valsLength = this.blocks != null ? this.blocks.getLength() : this.vals.capacity();
     }
 
     /**
@@ -127,8 +131,10 @@ class ArrayKVFinder {
         Preconditions.checkArgument(index >= 0, "index < 0");
         Preconditions.checkArgument(index < this.size, "index >= size");
         final int dataOffset = this.indx.getInt(index * 8 + 4);
-        final int nextOffset = (index + 1) < this.size ? this.indx.getInt((index + 1) * 8 + 4) : this.vals.capacity();
+        final int nextOffset = (index + 1) < this.size ? this.indx.getInt((index + 1) * 8 + 4) : this.valsLength;
         final int length = nextOffset - dataOffset;
+        if (this.blocks != null)
+            return this.blocks.read(dataOffset, length);
         return this.get(this.vals, dataOffset, new byte[length], 0, length);
     }
 
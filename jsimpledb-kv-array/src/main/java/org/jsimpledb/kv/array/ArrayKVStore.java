@@ -28,6 +28,10 @@ import org.jsimpledb.util.ByteUtil;
  * queried key. Key data is prefix-compressed.
  *
  * <p>
+ * Value data may optionally be compressed in blocks; see {@link ArrayKVWriter}. A small cache of recently
+ * decompressed blocks is maintained so that sequential and localized reads need not decompress repeatedly.
+ *
+ * <p>
  * Key and value data must not exceed 2GB (each separately).
  */
 public class ArrayKVStore extends AbstractKVStore {
@@ -45,12 +49,29 @@ public class ArrayKVStore extends AbstractKVStore {
      * @throws IllegalArgumentException if {@code indx} size is not a correct multiple
      */
     public ArrayKVStore(ByteBuffer indx, ByteBuffer keys, ByteBuffer vals) {
+        this(indx, keys, vals, null);
+    }
+
+    /**
+     * Constructor for possibly compressed value data.
+     *
+     * @param indx buffer containing index data written by a {@link ArrayKVWriter}
+     * @param keys buffer containing key data written by a {@link ArrayKVWriter}
+     * @param vals buffer containing value data written by a {@link ArrayKVWriter}
+     * @param blks buffer containing value block index data written by a {@link ArrayKVWriter},
+     *  or null if value data is not compressed
+     * @throws IllegalArgumentException if {@code indx}, {@code keys}, or {@code vals} is null
+     * @throws IllegalArgumentException if {@code indx} or {@code blks} size is not a correct multiple
+     * @throws ArrayKVException if {@code blks} is inconsistent with {@code vals}
+     */
+    public ArrayKVStore(ByteBuffer indx, ByteBuffer keys, ByteBuffer vals, ByteBuffer blks) {
         Preconditions.checkArgument(indx != null, "null indx");
         Preconditions.checkArgument(keys != null, "null keys");
         Preconditions.checkArgument(vals != null, "null vals");
         Preconditions.checkArgument(indx.capacity() % 8 == 0, "index size is not a multiple of 8");
         this.size = indx.capacity() / 8;
-        this.finder = new ArrayKVFinder(indx, keys, vals);
+        this.finder = new ArrayKVFinder(indx, keys, vals,
+          blks != null ? new ArrayKVBlocks(blks, vals, ArrayKVBlocks.DEFAULT_CACHE_SIZE) : null);
     }
 
     @Override
@@ -126,6 +147,20 @@ public class ArrayKVStore extends AbstractKVStore {
         };
     }
 
+    /**
+     * Get the number of key/value pairs in this instance.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the key at the specified index.
+     */
+    byte[] getKey(int index) {
+        return this.finder.readKey(index);
+    }
+
     @Override
     public void put(byte[] key, byte[] value) {
         throw new UnsupportedOperationException();
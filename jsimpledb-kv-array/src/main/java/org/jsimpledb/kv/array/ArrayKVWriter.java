@@ -10,25 +10,48 @@ import com.google.common.base.Preconditions;
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 
 import org.jsimpledb.kv.KVPair;
 import org.jsimpledb.kv.KVStore;
 import org.jsimpledb.kv.KeyRange;
+import org.jsimpledb.kv.KeyRanges;
 import org.jsimpledb.kv.mvcc.Mutations;
+import org.jsimpledb.kv.mvcc.Writes;
 import org.jsimpledb.util.ByteUtil;
 
 /**
  * Writes {@link ArrayKVStore} index, key, and value data, given a sorted sequence of key/value pairs.
  *
  * <p>
- * Key and value data must not exceed 2GB (each separately).
+ * Value data may optionally be compressed. In that case, the value data is divided into blocks of
+ * {@value #VALUE_BLOCK_SIZE} bytes (except that {@link #flush} always ends the current block), each of which is compressed
+ * separately using {@link Deflater}, and an additional block index file is written. The block index contains one
+ * eight byte entry per block: the offset of the end of the block in the uncompressed value data, followed by the
+ * offset of the end of the block in the value data file. Offsets in the array index always refer to uncompressed data.
+ *
+ * <p>
+ * Key and value data must not exceed 2GB (each separately, both before and after compression).
  */
 public class ArrayKVWriter implements Closeable {
 
+    /**
+     * Size of uncompressed value data blocks when value compression is enabled.
+     */
+    public static final int VALUE_BLOCK_SIZE = 32 * 1024;
+
     private static final int BUFFER_SIZE = 1024 * 1024;
 
     // Flags used by writeMerged()
@@ -36,12 +59,24 @@ public class ArrayKVWriter implements Closeable {
     private static final int MERGE_PUT = 0x02;
     private static final int MERGE_ADJUST = 0x04;
 
+    // Parameters used by parallel writeMerged()
+    private static final int PARTITION_BATCH_SIZE = 1024;
+    private static final int MAX_PARTITION_BATCHES = 16;
+
     private final BufferedOutputStream indxOutput;
     private final BufferedOutputStream keysOutput;
     private final BufferedOutputStream valsOutput;
+    private final BufferedOutputStream blksOutput;
+    private final Deflater deflater;
+    private final byte[] block;
 
     private int keysLength;
     private int valsLength;
+    private int valsFileLength;
+    private int blksLength;
+    private int blockStart;
+    private int blockLength;
+    private byte[] compressed;
 
     private int nextIndex;
     private byte[] prevKey;
@@ -52,17 +87,43 @@ public class ArrayKVWriter implements Closeable {
     /**
      * Constructor.
      *
+     * <p>
+     * Equivalent to {@link #ArrayKVWriter(OutputStream, OutputStream, OutputStream, OutputStream)
+     * ArrayKVWriter(indxOutput, keysOutput, valsOutput, null)}.
+     *
      * @param indxOutput index file output
      * @param keysOutput key data file output
      * @param valsOutput value data file output
      */
     public ArrayKVWriter(OutputStream indxOutput, OutputStream keysOutput, OutputStream valsOutput) {
+        this(indxOutput, keysOutput, valsOutput, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param indxOutput index file output
+     * @param keysOutput key data file output
+     * @param valsOutput value data file output
+     * @param blksOutput value block index file output, or null to not compress value data
+     */
+    public ArrayKVWriter(OutputStream indxOutput, OutputStream keysOutput, OutputStream valsOutput, OutputStream blksOutput) {
         Preconditions.checkArgument(indxOutput != null, "null indxOutput");
         Preconditions.checkArgument(keysOutput != null, "null keysOutput");
         Preconditions.checkArgument(valsOutput != null, "null valsOutput");
         this.indxOutput = new BufferedOutputStream(indxOutput, BUFFER_SIZE);
         this.keysOutput = new BufferedOutputStream(keysOutput, BUFFER_SIZE);
         this.valsOutput = new BufferedOutputStream(valsOutput, BUFFER_SIZE);
+        if (blksOutput != null) {
+            this.blksOutput = new BufferedOutputStream(blksOutput);
+            this.deflater = new Deflater(Deflater.BEST_SPEED);
+            this.block = new byte[VALUE_BLOCK_SIZE];
+            this.compressed = new byte[VALUE_BLOCK_SIZE];
+        } else {
+            this.blksOutput = null;
+            this.deflater = null;
+            this.block = null;
+        }
     }
 
     /**
@@ -84,14 +145,27 @@ public class ArrayKVWriter implements Closeable {
     }
 
     /**
-     * Get the number of bytes written so far to the value data file.
+     * Get the number of bytes of value data written so far.
+     *
+     * <p>
+     * If value data is being compressed, this is the uncompressed length, including any data
+     * not yet written as part of a compressed block.
      *
-     * @return length of the value data file
+     * @return length of the (uncompressed) value data
      */
     public int getValsLength() {
         return this.valsLength;
     }
 
+    /**
+     * Get the number of bytes written so far to the value block index file.
+     *
+     * @return length of the value block index file, or zero if value data is not being compressed
+     */
+    public int getBlksLength() {
+        return this.blksLength;
+    }
+
     /**
      * Write out the next key/value pair.
      *
@@ -147,7 +221,19 @@ public class ArrayKVWriter implements Closeable {
         this.writeIndxValue(this.valsLength);
 
         // Write value data
-        this.valsOutput.write(val);
+        if (this.block == null)
+            this.valsOutput.write(val);
+        else {
+            int off = 0;
+            while (off < val.length) {
+                final int len = Math.min(val.length - off, this.block.length - this.blockLength);
+                System.arraycopy(val, off, this.block, this.blockLength, len);
+                this.blockLength += len;
+                off += len;
+                if (this.blockLength == this.block.length)
+                    this.writeBlock();
+            }
+        }
         this.valsLength += val.length;
 
         // Update state
@@ -171,7 +257,6 @@ public class ArrayKVWriter implements Closeable {
      * @throws IllegalStateException if either the key or data file would grow larger than 2<sup>31</sup>-1 bytes
      * @throws IOException if an I/O error occurrs
      */
-    @SuppressWarnings("fallthrough")
     public void writeMerged(KVStore kvstore, Iterator<KVPair> kvIterator, Mutations mutations) throws IOException {
 
         // Sanity checks
@@ -179,12 +264,83 @@ public class ArrayKVWriter implements Closeable {
         Preconditions.checkArgument(kvIterator != null, "null kvIterator");
         Preconditions.checkArgument(mutations != null, "null mutations");
 
+        // Merge and write
+        ArrayKVWriter.merge(kvstore, kvIterator, mutations, this::writeKV);
+    }
+
+    /**
+     * Merge the key/value pairs in the given {@link KVStore} with the specified mutations and write out the merged
+     * combination, using multiple threads.
+     *
+     * <p>
+     * The key space is divided into partitions at the given split keys, and each partition is merged by a separate task
+     * submitted to {@code executor}, while the current thread writes out the merged partitions in order. The result is the
+     * same as {@link #writeMerged(KVStore, Iterator, Mutations) writeMerged(kvstore, kvstore.getRange(null, null, false),
+     * writes)}; only the merging is parallelized. Each partition task buffers a bounded number of merged key/value pairs
+     * ahead of the writer, so memory usage does not grow with the size of the partitions.
+     *
+     * <p>
+     * The {@link KVStore} must support concurrent reads; neither it nor {@code writes} may be modified during this operation.
+     *
+     * @param kvstore key/value pairs to merge, also used to encode and decode counter values
+     * @param writes mutations to apply
+     * @param splitKeys partition boundary keys, in strictly increasing order
+     * @param executor executor for the partition merge tasks
+     * @throws IllegalArgumentException if any parameter is null
+     * @throws IllegalArgumentException if {@code splitKeys} contains a null key or is not strictly increasing
+     * @throws IllegalStateException if either the key or data file would grow larger than 2<sup>31</sup>-1 bytes
+     * @throws IOException if an I/O error occurrs
+     */
+    public void writeMerged(KVStore kvstore, Writes writes, List<byte[]> splitKeys, ExecutorService executor)
+      throws IOException {
+
+        // Sanity checks
+        Preconditions.checkArgument(kvstore != null, "null kvstore");
+        Preconditions.checkArgument(writes != null, "null writes");
+        Preconditions.checkArgument(splitKeys != null, "null splitKeys");
+        Preconditions.checkArgument(executor != null, "null executor");
+        byte[] prevSplitKey = null;
+        for (byte[] splitKey : splitKeys) {
+            Preconditions.checkArgument(splitKey != null, "null split key");
+            Preconditions.checkArgument(prevSplitKey == null || ByteUtil.compare(splitKey, prevSplitKey) > 0,
+              "split keys are not strictly increasing");
+            prevSplitKey = splitKey;
+        }
+
+        // Start partition merge tasks, then write out each partition's merged key/value pairs in order
+        final int numPartitions = splitKeys.size() + 1;
+        final ArrayList<Future<?>> futures = new ArrayList<>(numPartitions);
+        try {
+            final ArrayList<Partition> partitions = new ArrayList<>(numPartitions);
+            for (int i = 0; i < numPartitions; i++) {
+                final byte[] minKey = i > 0 ? splitKeys.get(i - 1) : null;
+                final byte[] maxKey = i < splitKeys.size() ? splitKeys.get(i) : null;
+                final Partition partition = new Partition(kvstore, writes, minKey, maxKey);
+                futures.add(executor.submit(partition));
+                partitions.add(partition);
+            }
+            for (Partition partition : partitions) {
+                for (List<KVPair> batch = partition.take(); !batch.isEmpty(); batch = partition.take()) {
+                    for (KVPair kv : batch)
+                        this.writeKV(kv.getKey(), kv.getValue());
+                }
+            }
+        } finally {
+            for (Future<?> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    @SuppressWarnings("fallthrough")
+    private static void merge(KVStore kvstore, Iterator<KVPair> kvIterator, Mutations mutations, PairOutput output)
+      throws IOException {
+
         // Initialize iterators
         final Iterator<? extends KeyRange> removeIterator = mutations.getRemoveRanges().iterator();
         final Iterator<? extends Map.Entry<byte[], byte[]>> putIterator = mutations.getPutPairs().iterator();
         final Iterator<? extends Map.Entry<byte[], Long>> adjustIterator = mutations.getAdjustPairs().iterator();
 
-        // Merge iterators and write the merged result to the ArrayKVWriter
+        // Merge iterators and write the merged result to the output
         KVPair kv = kvIterator.hasNext() ? kvIterator.next() : null;
         KeyRange remove = removeIterator.hasNext() ? removeIterator.next() : null;
         Map.Entry<byte[], byte[]> put = putIterator.hasNext() ? putIterator.next() : null;
@@ -230,11 +386,11 @@ public class ArrayKVWriter implements Closeable {
                 break;
             case MERGE_KV:
                 if (!removed)
-                    this.writeKV(kv.getKey(), kv.getValue());
+                    output.writeKV(kv.getKey(), kv.getValue());
                 break;
             case MERGE_PUT:
             case MERGE_PUT | MERGE_KV:
-                this.writeKV(put.getKey(), put.getValue());
+                output.writeKV(put.getKey(), put.getValue());
                 break;
             case MERGE_ADJUST:                                          // adjusted a non-existent value; ignore
                 break;
@@ -253,7 +409,7 @@ public class ArrayKVWriter implements Closeable {
                     break;
                 }
                 final byte[] value = kvstore.encodeCounter(counter + adjust.getValue());
-                this.writeKV(key, value);
+                output.writeKV(key, value);
                 break;
             }
             default:
@@ -282,7 +438,11 @@ public class ArrayKVWriter implements Closeable {
         }
 
         // Close iterators
-        for (Iterator<?> i : new Iterator<?>[] { removeIterator, putIterator, adjustIterator }) {
+        ArrayKVWriter.closeIterators(removeIterator, putIterator, adjustIterator);
+    }
+
+    private static void closeIterators(Iterator<?>... iterators) {
+        for (Iterator<?> i : iterators) {
             if (i instanceof AutoCloseable) {
                 try {
                     ((AutoCloseable)i).close();
@@ -294,25 +454,61 @@ public class ArrayKVWriter implements Closeable {
     }
 
     private void writeIndxValue(int offset) throws IOException {
-        this.indxOutput.write(offset >> 24);
-        this.indxOutput.write(offset >> 16);
-        this.indxOutput.write(offset >> 8);
-        this.indxOutput.write(offset);
+        ArrayKVWriter.writeInt(this.indxOutput, offset);
+    }
+
+    // Compress and write out the current value data block
+    private void writeBlock() throws IOException {
+        assert this.blockLength > 0;
+        this.deflater.reset();
+        this.deflater.setInput(this.block, 0, this.blockLength);
+        this.deflater.finish();
+        int length = 0;
+        while (!this.deflater.finished()) {
+            if (length == this.compressed.length)
+                this.compressed = Arrays.copyOf(this.compressed, this.compressed.length * 2);
+            length += this.deflater.deflate(this.compressed, length, this.compressed.length - length);
+        }
+        Preconditions.checkState(this.valsFileLength + length > 0, "too much compressed value data");
+        this.valsOutput.write(this.compressed, 0, length);
+        this.valsFileLength += length;
+        this.blockStart += this.blockLength;
+        this.blockLength = 0;
+        ArrayKVWriter.writeInt(this.blksOutput, this.blockStart);
+        ArrayKVWriter.writeInt(this.blksOutput, this.valsFileLength);
+        this.blksLength += 8;
+    }
+
+    private static void writeInt(OutputStream output, int value) throws IOException {
+        output.write(value >> 24);
+        output.write(value >> 16);
+        output.write(value >> 8);
+        output.write(value);
     }
 
     /**
-     * Flush all three outputs.
+     * Flush all outputs.
+     *
+     * <p>
+     * If value data is being compressed, this also ends the current block.
      *
      * @throws IOException if an I/O error occurrs
      */
     public void flush() throws IOException {
+        if (this.blockLength > 0)
+            this.writeBlock();
         this.indxOutput.flush();
         this.keysOutput.flush();
         this.valsOutput.flush();
+        if (this.blksOutput != null)
+            this.blksOutput.flush();
     }
 
     /**
-     * Close all three outputs.
+     * Close all outputs.
+     *
+     * <p>
+     * If value data is being compressed, any partial final block is written out first.
      *
      * @throws IOException if an I/O error occurrs
      */
@@ -321,9 +517,18 @@ public class ArrayKVWriter implements Closeable {
         if (this.closed)
             return;
         this.closed = true;
-        this.indxOutput.close();
-        this.keysOutput.close();
-        this.valsOutput.close();
+        try {
+            if (this.blockLength > 0)
+                this.writeBlock();
+        } finally {
+            this.indxOutput.close();
+            this.keysOutput.close();
+            this.valsOutput.close();
+            if (this.blksOutput != null) {
+                this.blksOutput.close();
+                this.deflater.end();
+            }
+        }
     }
 
     // Copy array if we have to, otherwise just overwrite the previous copy if the array length hasn't chagned
@@ -334,5 +539,128 @@ public class ArrayKVWriter implements Closeable {
         System.arraycopy(src, 0, dest, 0, src.length);
         return dest;
     }
+
+// PairOutput
+
+    @FunctionalInterface
+    private interface PairOutput {
+        void writeKV(byte[] key, byte[] val) throws IOException;
+    }
+
+// Partition
+
+    /**
+     * Merges one key range partition for the parallel version of {@link #writeMerged writeMerged()}.
+     *
+     * <p>
+     * Merged key/value pairs are handed off to the writer thread in batches; an empty batch marks the end of the partition.
+     */
+    private static class Partition implements Callable<Void>, PairOutput {
+
+        private final ArrayBlockingQueue<List<KVPair>> queue = new ArrayBlockingQueue<>(MAX_PARTITION_BATCHES);
+        private final KVStore kvstore;
+        private final Writes writes;
+        private final byte[] minKey;
+        private final byte[] maxKey;
+
+        private ArrayList<KVPair> batch = new ArrayList<>(PARTITION_BATCH_SIZE);
+        private volatile Throwable error;
+
+        Partition(KVStore kvstore, Writes writes, byte[] minKey, byte[] maxKey) {
+            this.kvstore = kvstore;
+            this.writes = writes;
+            this.minKey = minKey;
+            this.maxKey = maxKey;
+        }
+
+        /**
+         * Get the next batch of merged key/value pairs.
+         *
+         * @return next batch, or empty list if there are no more
+         * @throws IOException if the merge failed or the current thread is interrupted
+         */
+        List<KVPair> take() throws IOException {
+            final List<KVPair> nextBatch;
+            try {
+                nextBatch = this.queue.take();
+            } catch (InterruptedException e) {
+                throw (IOException)new InterruptedIOException("thread was interrupted while merging").initCause(e);
+            }
+            final Throwable t = this.error;
+            if (nextBatch.isEmpty() && t != null) {
+                if (t instanceof IOException)
+                    throw new IOException(t.getMessage(), t);
+                if (t instanceof RuntimeException)
+                    throw (RuntimeException)t;
+                if (t instanceof Error)
+                    throw (Error)t;
+                throw new IOException("exception during merge", t);
+            }
+            return nextBatch;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            try {
+
+                // Restrict mutations to this partition's key range
+                final KeyRanges removes = this.writes.getRemoves().clone();
+                removes.intersect(new KeyRange(this.minKey != null ? this.minKey : ByteUtil.EMPTY, this.maxKey));
+                final NavigableMap<byte[], byte[]> puts = Partition.subMap(this.writes.getPuts(), this.minKey, this.maxKey);
+                final NavigableMap<byte[], Long> adjusts = Partition.subMap(this.writes.getAdjusts(), this.minKey, this.maxKey);
+                final Mutations mutations = new Mutations() {
+                    @Override
+                    public Iterable<KeyRange> getRemoveRanges() {
+                        return removes;
+                    }
+                    @Override
+                    public Iterable<Map.Entry<byte[], byte[]>> getPutPairs() {
+                        return puts.entrySet();
+                    }
+                    @Override
+                    public Iterable<Map.Entry<byte[], Long>> getAdjustPairs() {
+                        return adjusts.entrySet();
+                    }
+                };
+
+                // Merge
+                final Iterator<KVPair> kvIterator = this.kvstore.getRange(this.minKey, this.maxKey, false);
+                try {
+                    ArrayKVWriter.merge(this.kvstore, kvIterator, mutations, this);
+                } finally {
+                    ArrayKVWriter.closeIterators(kvIterator);
+                }
+                if (!this.batch.isEmpty())
+                    this.queue.put(this.batch);
+            } catch (InterruptedIOException e) {
+                throw (InterruptedException)new InterruptedException().initCause(e);
+            } catch (Throwable t) {
+                this.error = t;
+            }
+            this.queue.put(new ArrayList<>(0));
+            return null;
+        }
+
+        @Override
+        public void writeKV(byte[] key, byte[] val) throws IOException {
+            this.batch.add(new KVPair(key, val));
+            if (this.batch.size() < PARTITION_BATCH_SIZE)
+                return;
+            try {
+                this.queue.put(this.batch);
+            } catch (InterruptedException e) {
+                throw (IOException)new InterruptedIOException("thread was interrupted while merging").initCause(e);
+            }
+            this.batch = new ArrayList<>(PARTITION_BATCH_SIZE);
+        }
+
+        private static <V> NavigableMap<byte[], V> subMap(NavigableMap<byte[], V> map, byte[] minKey, byte[] maxKey) {
+            if (minKey != null)
+                map = map.tailMap(minKey, true);
+            if (maxKey != null)
+                map = map.headMap(maxKey, false);
+            return map;
+        }
+    }
 }
 
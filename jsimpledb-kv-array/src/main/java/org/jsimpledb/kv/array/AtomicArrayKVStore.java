@@ -6,17 +6,22 @@
 package org.jsimpledb.kv.array;
 
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 import com.google.common.util.concurrent.ForwardingFuture;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
@@ -24,15 +29,20 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -74,6 +84,21 @@ import org.slf4j.LoggerFactory;
  * the mutation log file (if any) is read to reconstruct the in-memory change set.
  *
  * <p>
+ * <b>Mutation Log</b>
+ *
+ * <p>
+ * Each mutation log record is checksummed, so that a partially written or corrupt record at the end of the log
+ * is detected and discarded on restart. When multiple threads invoke {@link #mutate mutate()} with {@code sync} true
+ * concurrently, their appended records are made durable by a shared {@code fsync()} where possible, and the store
+ * is not locked while syncing.
+ *
+ * <p>
+ * To bound the time required to restart, the in-memory change set is periodically written to a checkpoint file
+ * whenever the mutation log has grown by more than the {@linkplain #setCheckpointInterval checkpoint interval}
+ * since the previous checkpoint; on restart, only the portion of the mutation log following the most recent checkpoint
+ * is read. Compaction makes any existing checkpoint obsolete.
+ *
+ * <p>
  * <b>Compaction</b>
  *
  * <p>
@@ -86,6 +111,11 @@ import org.slf4j.LoggerFactory;
  *  </ul>
  *
  * <p>
+ * Large compactions are divided into key range partitions that are merged in parallel by up to
+ * {@linkplain #setCompactThreads a configurable number of threads}; the merged partitions are written in order
+ * to a single set of array files.
+ *
+ * <p>
  * In order to prevent compaction from getting hopelessly behind when there is high write volume, a
  * {@linkplain #setCompactHighWater compaction space high-water mark} is also used. When the size of the mutation log file
  * exceeds the half-way point between the low-water and high-water marks, new write attempts start being artificially delayed,
@@ -99,6 +129,15 @@ import org.slf4j.LoggerFactory;
  * by the in-memory change set.
  *
  * <p>
+ * <b>Value Compression</b>
+ *
+ * <p>
+ * If {@linkplain #setCompressValues value compression} is enabled, compaction writes value data in compressed blocks
+ * (see {@link ArrayKVWriter}), along with an additional block index file. Whether a generation's value data is compressed
+ * is determined by the presence of this file, so the setting may be changed at any time; it takes effect with the
+ * next compaction.
+ *
+ * <p>
  * <b>Hot Backups</b>
  *
  * <p>
@@ -132,14 +171,23 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
      */
     public static final int DEFAULT_COMPACTION_HIGH_WATER = 1024 * 1024 * 1024;
 
+    /**
+     * Default checkpoint interval in bytes ({@value #DEFAULT_CHECKPOINT_INTERVAL} bytes).
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 16 * 1024 * 1024;
+
     private static final int MIN_MMAP_LENGTH = 1024 * 1024;
+    private static final int MIN_COMPACTION_PARTITION_SIZE = 16 * 1024;
 
     private static final String GENERATION_FILE_NAME = "gen";
     private static final String LOCK_FILE_NAME = "lockfile";
     private static final String INDX_FILE_NAME_BASE = "indx.";
     private static final String KEYS_FILE_NAME_BASE = "keys.";
     private static final String VALS_FILE_NAME_BASE = "vals.";
+    private static final String BLKS_FILE_NAME_BASE = "blks.";
     private static final String MODS_FILE_NAME_BASE = "mods.";
+    private static final String CKPT_FILE_NAME_BASE = "ckpt.";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
 
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -160,6 +208,12 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
     private int compactLowWater = DEFAULT_COMPACTION_LOW_WATER;
     @GuardedBy("lock")
     private int compactHighWater = DEFAULT_COMPACTION_HIGH_WATER;
+    @GuardedBy("lock")
+    private int compactThreads = Runtime.getRuntime().availableProcessors();
+    @GuardedBy("lock")
+    private boolean compressValues;
+    @GuardedBy("lock")
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
 
     // Runtime state
     @GuardedBy("lock")
@@ -179,10 +233,20 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
     @GuardedBy("lock")
     private File valsFile;
     @GuardedBy("lock")
+    private File blksFile;                                              // null if value data is not compressed
+    @GuardedBy("lock")
     private File modsFile;
     @GuardedBy("lock")
     private FileOutputStream modsFileOutput;
     @GuardedBy("lock")
+    private ModsFileSyncer modsFileSyncer;
+    @GuardedBy("lock")
+    private File ckptFile;
+    @GuardedBy("lock")
+    private long checkpointModsFileLength;                              // mods file length at last checkpoint
+    @GuardedBy("lock")
+    private boolean checkpointScheduled;
+    @GuardedBy("lock")
     private FileChannel directoryChannel;                               // not used on Windows
     @GuardedBy("lock")
     private long modsFileLength;
@@ -195,6 +259,8 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
     @GuardedBy("lock")
     private ByteBuffer vals;
     @GuardedBy("lock")
+    private ByteBuffer blks;
+    @GuardedBy("lock")
     private ArrayKVStore kvstore;
     @GuardedBy("lock")
     private MutableView mods;
@@ -323,6 +389,72 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
         }
     }
 
+    /**
+     * Configure the maximum number of threads used to merge key range partitions in parallel during compaction.
+     *
+     * <p>
+     * Compactions involving fewer than {@value #MIN_COMPACTION_PARTITION_SIZE} key/value pairs per thread use fewer threads.
+     * A value of one disables parallel merging. The default is the number of available processors.
+     *
+     * @param compactThreads maximum compaction merge threads
+     * @throws IllegalArgumentException if {@code compactThreads} is less than one
+     * @throws IllegalStateException if this instance is already {@link #start}ed
+     */
+    public void setCompactThreads(int compactThreads) {
+        Preconditions.checkArgument(compactThreads > 0, "compactThreads < 1");
+        this.writeLock.lock();
+        try {
+            Preconditions.checkState(this.kvstore == null, "already started");
+            this.compactThreads = compactThreads;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Configure the checkpoint interval in bytes.
+     *
+     * <p>
+     * A checkpoint of the in-memory change set is written whenever the mutation log file has grown by more than this many
+     * bytes since the previous checkpoint (or compaction). On restart, at most this many bytes of the mutation log file
+     * need to be read, in addition to the checkpoint itself.
+     *
+     * @param checkpointInterval checkpoint interval in bytes, or zero to disable checkpoints
+     * @throws IllegalArgumentException if {@code checkpointInterval} is negative
+     * @throws IllegalStateException if this instance is already {@link #start}ed
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        Preconditions.checkArgument(checkpointInterval >= 0, "negative value");
+        this.writeLock.lock();
+        try {
+            Preconditions.checkState(this.kvstore == null, "already started");
+            this.checkpointInterval = checkpointInterval;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Configure whether to compress value data.
+     *
+     * <p>
+     * This setting affects array files written by compaction; existing array files are read correctly either way.
+     * It may be changed at any time, including while this instance is running; it takes effect with the next compaction.
+     *
+     * <p>
+     * Default false.
+     *
+     * @param compressValues true to compress value data, false to store it uncompressed
+     */
+    public void setCompressValues(boolean compressValues) {
+        this.writeLock.lock();
+        try {
+            this.compressValues = compressValues;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
 // Lifecycle
 
     @Override
@@ -350,14 +482,20 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             assert this.indxFile == null;
             assert this.keysFile == null;
             assert this.valsFile == null;
+            assert this.blksFile == null;
             assert this.modsFile == null;
             assert this.modsFileOutput == null;
+            assert this.modsFileSyncer == null;
+            assert this.ckptFile == null;
+            assert this.checkpointModsFileLength == 0;
+            assert !this.checkpointScheduled;
             assert this.directoryChannel == null;
             assert this.modsFileLength == 0;
             assert this.modsFileSyncPoint == 0;
             assert this.indx == null;
             assert this.keys == null;
             assert this.vals == null;
+            assert this.blks == null;
             assert this.kvstore == null;
             assert this.mods == null;
             assert this.firstModTimestamp == 0;
@@ -421,7 +559,8 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                         final String name = file.getName();
                         if (name.startsWith(INDX_FILE_NAME_BASE)
                           || name.startsWith(KEYS_FILE_NAME_BASE)
-                          || name.startsWith(VALS_FILE_NAME_BASE)) {
+                          || name.startsWith(VALS_FILE_NAME_BASE)
+                          || name.startsWith(BLKS_FILE_NAME_BASE)) {
                             throw new ArrayKVException("database file inconsistency: found "
                               + name + " but not " + GENERATION_FILE_NAME + " in " + this.directory);
                         }
@@ -469,11 +608,15 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             this.indxFile = new File(this.directory, INDX_FILE_NAME_BASE + this.generation);
             this.keysFile = new File(this.directory, KEYS_FILE_NAME_BASE + this.generation);
             this.valsFile = new File(this.directory, VALS_FILE_NAME_BASE + this.generation);
+            this.blksFile = new File(this.directory, BLKS_FILE_NAME_BASE + this.generation);
             this.modsFile = new File(this.directory, MODS_FILE_NAME_BASE + this.generation);
+            this.ckptFile = new File(this.directory, CKPT_FILE_NAME_BASE + this.generation);
+            if (!this.blksFile.exists())
+                this.blksFile = null;
 
             // Scan directory for unexpected files
             final List<File> expectedFiles = Arrays.asList(this.lockFile, this.generationFile,
-              this.indxFile, this.keysFile, this.valsFile, this.modsFile);
+              this.indxFile, this.keysFile, this.valsFile, this.blksFile, this.modsFile, this.ckptFile);
             try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.directory.toPath())) {
                 for (Path path : paths) {
                     final File file = path.toFile();
@@ -492,32 +635,72 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             try (FileInputStream input = new FileInputStream(this.valsFile)) {
                 this.vals = AtomicArrayKVStore.getBuffer(this.valsFile, input.getChannel());
             }
+            if (this.blksFile != null) {
+                try (FileInputStream input = new FileInputStream(this.blksFile)) {
+                    this.blks = AtomicArrayKVStore.getBuffer(this.blksFile, input.getChannel());
+                }
+            }
 
             // Set up underlying k/v store and uncompacted modifications
-            this.kvstore = new ArrayKVStore(this.indx, this.keys, this.vals);
+            this.kvstore = new ArrayKVStore(this.indx, this.keys, this.vals, this.blks);
             this.mods = new MutableView(this.kvstore, null, new Writes());
 
             // Setup modifications file
             this.modsFileOutput = new FileOutputStream(this.modsFile, true);
             this.modsFileLength = this.modsFileOutput.getChannel().size();
-            this.modsFileSyncPoint = this.modsFileLength;
+
+            // Read and apply checkpoint of uncompacted modifications, if any
+            long replayOffset = 0;
+            if (this.ckptFile.exists()) {
+                try (InputStream input = new BufferedInputStream(new FileInputStream(this.ckptFile))) {
+                    final MutationLog.Checkpoint checkpoint = MutationLog.readCheckpoint(input, this.ckptFile.length());
+                    if (checkpoint.getModsFileLength() > this.modsFileLength) {
+                        throw new IllegalArgumentException("checkpoint offset " + checkpoint.getModsFileLength()
+                          + " exceeds length " + this.modsFileLength + " of " + this.modsFile);
+                    }
+                    checkpoint.getWrites().applyTo(this.mods);
+                    replayOffset = checkpoint.getModsFileLength();
+                    this.log.info("read checkpoint of uncompacted modifications from " + this.ckptFile);
+                } catch (Exception e) {
+                    this.log.warn("discarding invalid checkpoint " + this.ckptFile + ": " + e);
+                    Files.delete(this.ckptFile.toPath());
+                }
+            }
+            this.checkpointModsFileLength = replayOffset;
 
             // Read and apply pre-existing uncompacted modifications from modifications file
-            if (this.modsFileLength > 0) {
-                this.log.info("reading " + this.modsFileLength + " bytes of uncompacted modifications from " + this.modsFile);
-                try (FileInputStream input = new FileInputStream(this.modsFile)) {
-                    while (input.available() > 0) {
+            if (this.modsFileLength > replayOffset) {
+                this.log.info("reading " + (this.modsFileLength - replayOffset)
+                  + " bytes of uncompacted modifications from " + this.modsFile);
+                long validLength = replayOffset;
+                try (CountingInputStream input = new CountingInputStream(
+                  new BufferedInputStream(new FileInputStream(this.modsFile)))) {
+                    ByteStreams.skipFully(input, replayOffset);
+                    while (true) {
                         final Writes writes;
                         try {
-                            writes = Writes.deserialize(input, true);
+                            if ((writes = MutationLog.readRecord(input, this.modsFileLength - input.getCount())) == null)
+                                break;
                         } catch (Exception e) {
-                            break;                                                      // probably a partial write
+                            this.log.warn("discarding " + (this.modsFileLength - validLength) + " bytes of partially written"
+                              + " or corrupt modifications at offset " + validLength + " in " + this.modsFile + ": " + e);
+                            break;
                         }
                         writes.applyTo(this.mods);
+                        validLength = input.getCount();
                     }
                 }
-                this.firstModTimestamp = System.nanoTime() | 1;                     // avoid zero value which is special
+
+                // Truncate any partial or corrupt data, otherwise subsequently appended modifications would be unreadable
+                if (validLength < this.modsFileLength) {
+                    this.modsFileOutput.getChannel().truncate(validLength);
+                    this.modsFileLength = validLength;
+                }
             }
+            if (this.modsFileLength > 0)
+                this.firstModTimestamp = System.nanoTime() | 1;                     // avoid zero value which is special
+            this.modsFileSyncPoint = this.modsFileLength;
+            this.modsFileSyncer = new ModsFileSyncer(this.modsFileOutput.getChannel(), 0);
 
             // Schedule compaction if necessary
             this.scheduleCompactionIfNecessary();
@@ -617,14 +800,20 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
         this.indxFile = null;
         this.keysFile = null;
         this.valsFile = null;
+        this.blksFile = null;
         this.modsFile = null;
         this.modsFileOutput = null;
+        this.modsFileSyncer = null;
+        this.ckptFile = null;
+        this.checkpointModsFileLength = 0;
+        this.checkpointScheduled = false;
         this.directoryChannel = null;
         this.modsFileLength = 0;
         this.modsFileSyncPoint = 0;
         this.indx = null;
         this.keys = null;
         this.vals = null;
+        this.blks = null;
         this.kvstore = null;
         this.mods = null;
         this.firstModTimestamp = 0;
@@ -771,6 +960,8 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
     @Override
     public void mutate(Mutations mutations, final boolean sync) {
         Preconditions.checkArgument(mutations != null, "null mutations");
+        final ModsFileSyncer syncer;
+        final long syncLength;
         this.writeLock.lock();
         try {
 
@@ -837,11 +1028,12 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             // Append mutations to uncompacted mods file
             try {
                 final BufferedOutputStream buf = new BufferedOutputStream(this.modsFileOutput);
-                writes.serialize(buf);
+                MutationLog.writeRecord(buf, writes);
                 buf.flush();
             } catch (IOException e) {
                 try {
                     this.modsFileOutput.getChannel().truncate(this.modsFileLength);              // undo append
+                    this.modsFileSyncer = new ModsFileSyncer(this.modsFileOutput.getChannel(), 0);
                 } catch (IOException e2) {
                     this.log.error("error truncating log file (ignoring)", e2);
                 }
@@ -884,8 +1076,9 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             if (this.firstModTimestamp == 0)
                 this.firstModTimestamp = System.nanoTime() | 1;                 // avoid zero value which is special
 
-            // Schedule compaction if necessary
+            // Schedule compaction and/or checkpoint if necessary
             this.scheduleCompactionIfNecessary();
+            this.scheduleCheckpointIfNecessary();
 
             // If we're not syncing, we're done
             if (!sync)
@@ -893,20 +1086,19 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
 
             // Update sync point, so compaction knows to also sync these mods when it copies them
             this.modsFileSyncPoint = this.modsFileLength;
-
-            // Downgrade lock
-            this.readLock.lock();
+            syncer = this.modsFileSyncer;
+            syncLength = this.modsFileLength;
         } finally {
             this.writeLock.unlock();
         }
 
-        // Sync the mods file while holding only the read lock
+        // Sync the mods file without holding any lock, sharing the fsync() with other threads when possible
         try {
-            this.modsFileOutput.getChannel().force(false);
+            syncer.sync(syncLength);
+        } catch (ClosedChannelException e) {
+            this.log.debug("mods file was closed by compaction or shutdown while syncing (ignoring)");
         } catch (IOException e) {
             this.log.error("error syncing log file (ignoring)", e);
-        } finally {
-            this.readLock.unlock();
         }
     }
 
@@ -972,8 +1164,10 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             this.log.debug("started hot copy into " + target);
 
             // Copy index, keys, and values files using hard links (if possible) as these files are read-only
-            final ArrayList<File> regularCopyFiles = new ArrayList<>(5);
-            for (File file : new File[] { this.indxFile, this.keysFile, this.valsFile }) {
+            final ArrayList<File> regularCopyFiles = new ArrayList<>(6);
+            for (File file : new File[] { this.indxFile, this.keysFile, this.valsFile, this.blksFile }) {
+                if (file == null)
+                    continue;
                 try {
                     Files.createLink(dir.resolve(file.getName()), file.toPath());
                 } catch (IOException | UnsupportedOperationException e) {
@@ -982,6 +1176,8 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             }
 
             // Copy remaining files without using hard links
+            if (this.ckptFile.exists())
+                regularCopyFiles.add(this.ckptFile);                 // copy before mods file, which only grows
             regularCopyFiles.add(this.modsFile);                     // it's ok if we copy a partial write
             regularCopyFiles.add(this.generationFile);               // copy this one last
             for (File file : regularCopyFiles) {
@@ -1020,6 +1216,97 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
         }
     }
 
+// Checkpoints
+
+    private void scheduleCheckpointIfNecessary() {
+
+        // Should hold write lock now
+        assert this.lock.isWriteLockedByCurrentThread();
+
+        // Is a checkpoint needed?
+        if (this.checkpointInterval == 0
+          || this.checkpointScheduled
+          || this.modsFileLength - this.checkpointModsFileLength <= this.checkpointInterval
+          || this.mods.getKVStore() != this.kvstore)                    // compaction in progress will obsolete checkpoint
+            return;
+
+        // Schedule checkpoint
+        try {
+            this.scheduledExecutorService.submit(this::checkpoint);
+        } catch (RejectedExecutionException e) {
+            this.log.warn("can't schedule checkpoint: " + e);
+            return;
+        }
+        this.checkpointScheduled = true;
+    }
+
+    private void checkpoint() {
+        File tempFile = null;
+        try {
+
+            // Snapshot the uncompacted modifications
+            final Writes writes;
+            final long coveredLength;
+            final ModsFileSyncer syncer;
+            final File newCkptFile;
+            this.readLock.lock();
+            try {
+                if (this.kvstore == null || this.mods.getKVStore() != this.kvstore)   // stopped, or compaction started
+                    return;
+                synchronized (this.mods) {
+                    writes = this.mods.getWrites().immutableSnapshot();
+                }
+                coveredLength = this.modsFileLength;
+                syncer = this.modsFileSyncer;
+                newCkptFile = this.ckptFile;
+            } finally {
+                this.readLock.unlock();
+            }
+
+            // The corresponding prefix of the mods file must be durable before the checkpoint can be
+            syncer.sync(coveredLength);
+
+            // Write checkpoint to a temporary file
+            tempFile = new File(this.directory, newCkptFile.getName() + TEMP_FILE_SUFFIX);
+            try (FileOutputStream output = new FileOutputStream(tempFile)) {
+                final BufferedOutputStream buf = new BufferedOutputStream(output);
+                MutationLog.writeCheckpoint(buf, coveredLength, writes);
+                buf.flush();
+                output.getChannel().force(false);
+            }
+
+            // Install checkpoint, unless the mods file has been compacted or truncated in the meantime
+            this.writeLock.lock();
+            try {
+                if (this.modsFileSyncer != syncer)
+                    return;
+                Files.move(tempFile.toPath(), newCkptFile.toPath(),
+                  StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                tempFile = null;
+                if (this.directoryChannel != null)
+                    this.directoryChannel.force(false);
+                this.checkpointModsFileLength = coveredLength;
+            } finally {
+                this.writeLock.unlock();
+            }
+            if (this.log.isDebugEnabled())
+                this.log.debug("wrote checkpoint " + newCkptFile + " covering " + coveredLength + " bytes of modifications");
+        } catch (ClosedChannelException e) {
+            this.log.debug("mods file was closed by compaction or shutdown during checkpoint (ignoring)");
+        } catch (IOException e) {
+            this.log.error("error writing checkpoint (ignoring)", e);
+        } finally {
+            if (tempFile != null && tempFile.exists())
+                this.deleteWarnException(tempFile);
+            this.writeLock.lock();
+            try {
+                this.checkpointScheduled = false;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+    }
+
 // Compaction
 
     /**
@@ -1146,6 +1433,7 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             final Writes writesToCompact;
             final long previousModsFileLength;
             final long previousModsFileSyncPoint;
+            final boolean compress;
             this.writeLock.lock();
             try {
 
@@ -1175,11 +1463,15 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                     assert this.kvstore != null;
                     assert this.modsFileLength > 0;
 
-                    // Discard outstanding mods
+                    // Discard outstanding mods and checkpoint
+                    if (this.ckptFile.exists())
+                        Files.delete(this.ckptFile.toPath());
                     this.modsFileOutput.getChannel().truncate(0);
                     this.modsFileLength = 0;
                     this.modsFileSyncPoint = 0;
                     this.modsFileOutput.getChannel().force(false);
+                    this.modsFileSyncer = new ModsFileSyncer(this.modsFileOutput.getChannel(), 0);
+                    this.checkpointModsFileLength = 0;
                     return;
                 }
 
@@ -1187,6 +1479,7 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                 this.mods = new MutableView(this.mods, null, new Writes());
                 previousModsFileLength = this.modsFileLength;
                 previousModsFileSyncPoint = this.modsFileSyncPoint;
+                compress = this.compressValues;
             } finally {
                 this.writeLock.unlock();
             }
@@ -1200,10 +1493,12 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
             final File newIndxFile = new File(this.directory, INDX_FILE_NAME_BASE + newGeneration);
             final File newKeysFile = new File(this.directory, KEYS_FILE_NAME_BASE + newGeneration);
             final File newValsFile = new File(this.directory, VALS_FILE_NAME_BASE + newGeneration);
+            final File newBlksFile = compress ? new File(this.directory, BLKS_FILE_NAME_BASE + newGeneration) : null;
             final File newModsFile = new File(this.directory, MODS_FILE_NAME_BASE + newGeneration);
             ByteBuffer newIndx = null;
             ByteBuffer newKeys = null;
             ByteBuffer newVals = null;
+            ByteBuffer newBlks = null;
             FileOutputStream newModsFileOutput = null;
             boolean success = false;
             try {
@@ -1213,13 +1508,33 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                   final FileOutputStream indxOutput = new FileOutputStream(newIndxFile);
                   final FileOutputStream keysOutput = new FileOutputStream(newKeysFile);
                   final FileOutputStream valsOutput = new FileOutputStream(newValsFile);
-                  final ArrayKVWriter arrayWriter = new ArrayKVWriter(indxOutput, keysOutput, valsOutput)) {
-
-                    // Write out merged key/value pairs
-                    arrayWriter.writeMerged(this.kvstore, this.kvstore.getRange(null, null, false), writesToCompact);
+                  final FileOutputStream blksOutput = newBlksFile != null ? new FileOutputStream(newBlksFile) : null;
+                  final ArrayKVWriter arrayWriter = new ArrayKVWriter(indxOutput, keysOutput, valsOutput, blksOutput)) {
+
+                    // Write out merged key/value pairs, merging key range partitions in parallel if worthwhile
+                    final List<byte[]> splitKeys = this.chooseCompactionSplitKeys(writesToCompact);
+                    if (splitKeys.isEmpty())
+                        arrayWriter.writeMerged(this.kvstore, this.kvstore.getRange(null, null, false), writesToCompact);
+                    else {
+                        if (this.log.isDebugEnabled())
+                            this.log.debug("merging " + (splitKeys.size() + 1) + " partitions in parallel");
+                        final ExecutorService mergeExecutor = Executors.newFixedThreadPool(splitKeys.size() + 1, action -> {
+                            final Thread thread = new Thread(action);
+                            thread.setName("Compaction merger for " + this);
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                        try {
+                            arrayWriter.writeMerged(this.kvstore, writesToCompact, splitKeys, mergeExecutor);
+                        } finally {
+                            mergeExecutor.shutdownNow();
+                        }
+                    }
 
                     // Sync file data
                     arrayWriter.flush();
+                    if (blksOutput != null)
+                        blksOutput.getChannel().force(false);
                     valsOutput.getChannel().force(false);
                     keysOutput.getChannel().force(false);
                     indxOutput.getChannel().force(false);
@@ -1238,6 +1553,11 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                 try (FileInputStream input = new FileInputStream(newValsFile)) {
                     newVals = AtomicArrayKVStore.getBuffer(newValsFile, input.getChannel());
                 }
+                if (newBlksFile != null) {
+                    try (FileInputStream input = new FileInputStream(newBlksFile)) {
+                        newBlks = AtomicArrayKVStore.getBuffer(newBlksFile, input.getChannel());
+                    }
+                }
 
                 // Create new, empty mods file
                 newModsFileOutput = new FileOutputStream(newModsFile, true);
@@ -1332,7 +1652,9 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                         final File oldIndxFile = this.indxFile;
                         final File oldKeysFile = this.keysFile;
                         final File oldValsFile = this.valsFile;
+                        final File oldBlksFile = this.blksFile;
                         final File oldModsFile = this.modsFile;
+                        final File oldCkptFile = this.ckptFile;
                         final FileOutputStream oldModsFileOutput = this.modsFileOutput;
 
                         // Change to the new generation
@@ -1340,15 +1662,20 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                         this.indx = newIndx;
                         this.keys = newKeys;
                         this.vals = newVals;
+                        this.blks = newBlks;
                         this.indxFile = newIndxFile;
                         this.keysFile = newKeysFile;
                         this.valsFile = newValsFile;
+                        this.blksFile = newBlksFile;
                         this.modsFile = newModsFile;
                         this.modsFileOutput = newModsFileOutput;
                         newModsFileOutput = null;
                         this.modsFileLength = newModsFileLength;
                         this.modsFileSyncPoint = newModsFileSyncPoint;
-                        this.kvstore = new ArrayKVStore(this.indx, this.keys, this.vals);
+                        this.modsFileSyncer = new ModsFileSyncer(this.modsFileOutput.getChannel(), newModsFileSyncPoint);
+                        this.ckptFile = new File(this.directory, CKPT_FILE_NAME_BASE + newGeneration);
+                        this.checkpointModsFileLength = 0;
+                        this.kvstore = new ArrayKVStore(this.indx, this.keys, this.vals, this.blks);
                         this.mods = new MutableView(this.kvstore, null, this.mods.getWrites());
                         if (additionalModsLength == 0)
                             this.firstModTimestamp = 0;
@@ -1373,7 +1700,11 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                         this.deleteWarnException(oldIndxFile);
                         this.deleteWarnException(oldKeysFile);
                         this.deleteWarnException(oldValsFile);
+                        if (oldBlksFile != null)
+                            this.deleteWarnException(oldBlksFile);
                         this.deleteWarnException(oldModsFile);
+                        if (oldCkptFile.exists())
+                            this.deleteWarnException(oldCkptFile);
                     }
                 } finally {
                     try {
@@ -1402,6 +1733,8 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
                             this.deleteWarnException(newIndxFile);
                             this.deleteWarnException(newKeysFile);
                             this.deleteWarnException(newValsFile);
+                            if (newBlksFile != null)
+                                this.deleteWarnException(newBlksFile);
                         }
                     } finally {
                         this.writeLock.unlock();
@@ -1423,6 +1756,44 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
         }
     }
 
+    /**
+     * Choose the keys that divide a compaction into partitions to be merged in parallel.
+     *
+     * <p>
+     * Split keys are sampled at evenly spaced positions from whichever of the current array or the uncompacted puts is
+     * larger, which gives partitions of roughly equal size without having to look at the data in advance.
+     *
+     * @param writes uncompacted modifications being compacted
+     * @return split keys in increasing order, or empty list to merge sequentially
+     */
+    private List<byte[]> chooseCompactionSplitKeys(Writes writes) {
+        final int numPairs = this.kvstore.size();
+        final NavigableMap<byte[], byte[]> puts = writes.getPuts();
+        final int numPuts = puts.size();
+        final int numPartitions = (int)Math.min(this.compactThreads,
+          ((long)numPairs + numPuts) / MIN_COMPACTION_PARTITION_SIZE);
+        if (numPartitions <= 1)
+            return Collections.<byte[]>emptyList();
+        final ArrayList<byte[]> splitKeys = new ArrayList<>(numPartitions - 1);
+        if (numPairs >= numPuts) {
+            for (int i = 1; i < numPartitions; i++)
+                splitKeys.add(this.kvstore.getKey((int)((long)numPairs * i / numPartitions)));
+        } else {
+            final Iterator<byte[]> i = puts.keySet().iterator();
+            int index = -1;
+            byte[] key = null;
+            for (int j = 1; j < numPartitions; j++) {
+                final int target = (int)((long)numPuts * j / numPartitions);
+                while (index < target) {
+                    key = i.next();
+                    index++;
+                }
+                splitKeys.add(key);
+            }
+        }
+        return splitKeys;
+    }
+
     private boolean isWindows() {
         return System.getProperty("os.name", "generic").toLowerCase(Locale.ENGLISH).contains("win");
     }
@@ -1573,6 +1944,73 @@ public class AtomicArrayKVStore extends AbstractKVStore implements AtomicKVStore
         }
     }
 
+// ModsFileSyncer
+
+    /**
+     * Performs "group" {@code fsync()}'s of a mods file. A thread needing its appended data to be durable waits for any
+     * {@code fsync()} already in progress; if that did not cover the thread's data, the next {@code fsync()} will cover
+     * the data appended by all threads waiting at that time.
+     *
+     * <p>
+     * A new instance is created whenever the mods file is replaced or truncated.
+     */
+    private static final class ModsFileSyncer {
+
+        private final FileChannel channel;
+
+        @GuardedBy("this")
+        private long syncedLength;
+        @GuardedBy("this")
+        private boolean syncing;
+
+        ModsFileSyncer(FileChannel channel, long syncedLength) {
+            this.channel = channel;
+            this.syncedLength = syncedLength;
+        }
+
+        /**
+         * Ensure the first {@code length} bytes of the file are durable.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        void sync(long length) throws IOException {
+            boolean interrupted = false;
+            try {
+
+                // Wait for any in-progress fsync(); if it covered our data we're done, otherwise we do the next one
+                synchronized (this) {
+                    while (this.syncing && this.syncedLength < length) {
+                        try {
+                            this.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (this.syncedLength >= length)
+                        return;
+                    this.syncing = true;
+                }
+
+                // Sync everything written so far
+                long newSyncedLength = 0;
+                try {
+                    final long size = this.channel.size();
+                    this.channel.force(false);
+                    newSyncedLength = size;
+                } finally {
+                    synchronized (this) {
+                        this.syncing = false;
+                        this.syncedLength = Math.max(this.syncedLength, newSyncedLength);
+                        this.notifyAll();
+                    }
+                }
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+
 // Object
 
     /**
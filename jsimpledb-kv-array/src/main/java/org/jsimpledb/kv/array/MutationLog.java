@@ -0,0 +1,178 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.array;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.jsimpledb.kv.mvcc.Writes;
+
+/**
+ * Reads and writes {@link AtomicArrayKVStore} mutation log records and checkpoints.
+ *
+ * <p>
+ * Each mutation log record consists of a {@code 0xff} marker byte, the four byte length of the serialized {@link Writes},
+ * the serialized {@link Writes}, and a four byte CRC-32 checksum of the serialized {@link Writes}. Older versions wrote
+ * the serialized {@link Writes} only; such records are still readable because a serialized {@link Writes} never begins
+ * with {@code 0xff}.
+ *
+ * <p>
+ * A checkpoint consists of the eight byte length of the mutation log prefix it reflects, followed by a single
+ * mutation log record containing the accumulated mutations from that prefix.
+ */
+final class MutationLog {
+
+    private static final int RECORD_MARKER = 0xff;
+    private static final int RECORD_OVERHEAD = 9;
+
+    private MutationLog() {
+    }
+
+    /**
+     * Write a checksummed mutation log record.
+     *
+     * @param output destination
+     * @param writes mutations
+     * @throws IllegalStateException if {@code writes} is too large
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeRecord(OutputStream output, Writes writes) throws IOException {
+        final long length = writes.serializedLength();
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalStateException("mutations are too large to log");
+        final DataOutputStream data = new DataOutputStream(output);
+        data.write(RECORD_MARKER);
+        data.writeInt((int)length);
+        final CheckedOutputStream checked = new CheckedOutputStream(output, new CRC32());
+        writes.serialize(checked);
+        data.writeInt((int)checked.getChecksum().getValue());
+    }
+
+    /**
+     * Read a mutation log record, in either the checksummed or the older format.
+     *
+     * <p>
+     * The given input must support {@link InputStream#mark mark()}. A checksummed record is read fully and its
+     * checksum verified before any attempt is made to deserialize it, and its length is checked against {@code remain}
+     * before any buffer is allocated, so a corrupt length or payload can't cause large allocations or bogus mutations.
+     *
+     * @param input source
+     * @param remain the number of bytes remaining in {@code input}
+     * @return mutations read, or null if {@code input} is at EOF
+     * @throws IOException if a truncated record or I/O error is encountered
+     * @throws IllegalArgumentException if a corrupt record is encountered
+     */
+    public static Writes readRecord(InputStream input, long remain) throws IOException {
+        assert input.markSupported();
+
+        // Check for EOF and older format
+        input.mark(1);
+        final int marker = input.read();
+        if (marker == -1)
+            return null;
+        if (marker != RECORD_MARKER) {
+            input.reset();
+            return Writes.deserialize(input, true);
+        }
+
+        // Read checksummed record
+        final DataInputStream data = new DataInputStream(input);
+        final int length = data.readInt();
+        if (length < 0)
+            throw new IllegalArgumentException("invalid record length " + length);
+        if (length > remain - RECORD_OVERHEAD)
+            throw new EOFException("truncated record: length " + length + " exceeds remaining " + remain + " bytes");
+        final byte[] buf = new byte[length];
+        data.readFully(buf);
+        final int expected = data.readInt();
+        final CRC32 crc = new CRC32();
+        crc.update(buf);
+        final int actual = (int)crc.getValue();
+        if (actual != expected)
+            throw new IllegalArgumentException(String.format("record checksum mismatch: 0x%08x != 0x%08x", actual, expected));
+
+        // Deserialize verified record
+        final ByteArrayInputStream bufInput = new ByteArrayInputStream(buf);
+        final Writes writes = Writes.deserialize(bufInput, true);
+        if (bufInput.available() > 0)
+            throw new IllegalArgumentException("record length mismatch");
+        return writes;
+    }
+
+    /**
+     * Write a checkpoint.
+     *
+     * @param output destination
+     * @param modsFileLength length of the mutation log prefix reflected by {@code writes}
+     * @param writes accumulated mutations
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeCheckpoint(OutputStream output, long modsFileLength, Writes writes) throws IOException {
+        new DataOutputStream(output).writeLong(modsFileLength);
+        MutationLog.writeRecord(output, writes);
+    }
+
+    /**
+     * Read a checkpoint.
+     *
+     * @param input source; must support {@link InputStream#mark mark()}
+     * @param remain the number of bytes remaining in {@code input}
+     * @return checkpoint read
+     * @throws IOException if a truncated checkpoint or I/O error is encountered
+     * @throws IllegalArgumentException if a corrupt checkpoint is encountered
+     */
+    public static Checkpoint readCheckpoint(InputStream input, long remain) throws IOException {
+        final long modsFileLength = new DataInputStream(input).readLong();
+        if (modsFileLength < 0)
+            throw new IllegalArgumentException("invalid checkpoint offset " + modsFileLength);
+        input.mark(1);
+        if (input.read() != RECORD_MARKER)
+            throw new IllegalArgumentException("invalid checkpoint record");
+        input.reset();
+        final Writes writes = MutationLog.readRecord(input, remain - Long.BYTES);
+        if (writes == null)
+            throw new EOFException("truncated checkpoint");
+        return new Checkpoint(modsFileLength, writes);
+    }
+
+// Checkpoint
+
+    /**
+     * A checkpoint read by {@link MutationLog#readCheckpoint readCheckpoint()}.
+     */
+    public static final class Checkpoint {
+
+        private final long modsFileLength;
+        private final Writes writes;
+
+        Checkpoint(long modsFileLength, Writes writes) {
+            this.modsFileLength = modsFileLength;
+            this.writes = writes;
+        }
+
+        /**
+         * Get the length of the mutation log prefix reflected by this checkpoint.
+         */
+        public long getModsFileLength() {
+            return this.modsFileLength;
+        }
+
+        /**
+         * Get the accumulated mutations.
+         */
+        public Writes getWrites() {
+            return this.writes;
+        }
+    }
+}
+
@@ -32,13 +32,14 @@ public class ArrayKVStoreTest extends AtomicKVStoreTest {
             final ByteArrayOutputStream indxOutput = new ByteArrayOutputStream();
             final ByteArrayOutputStream keysOutput = new ByteArrayOutputStream();
             final ByteArrayOutputStream valsOutput = new ByteArrayOutputStream();
+            final ByteArrayOutputStream blksOutput = this.random.nextBoolean() ? new ByteArrayOutputStream() : null;
             final byte[] keybuf = new byte[maxKeyLen];
             final byte[] maxkey = new byte[maxKeyLen];
             Arrays.fill(maxkey, (byte)0xff);
             int keylen = 0;
             byte[] key;
             final NavigableMapKVStore reference = new NavigableMapKVStore();
-            final ArrayKVWriter writer = new ArrayKVWriter(indxOutput, keysOutput, valsOutput);
+            final ArrayKVWriter writer = new ArrayKVWriter(indxOutput, keysOutput, valsOutput, blksOutput);
             while (true) {
 
                 // Create key
@@ -47,7 +48,8 @@ public class ArrayKVStoreTest extends AtomicKVStoreTest {
 
                 // Add key/value pair (maybe)
                 if (this.random.nextInt(5) != 3) {
-                    byte[] val = new byte[this.random.nextInt(32)];
+                    byte[] val = new byte[blksOutput != null && this.random.nextInt(200) == 0 ?
+                      this.random.nextInt(3 * ArrayKVWriter.VALUE_BLOCK_SIZE) : this.random.nextInt(32)];
                     if (val.length > 0)
                         this.random.nextBytes(val);
                     //this.log.info("NEXT KV: " + ByteUtil.toString(key) + " VALUE " + ByteUtil.toString(val));
@@ -55,6 +57,10 @@ public class ArrayKVStoreTest extends AtomicKVStoreTest {
                     reference.put(key, val);
                 }
 
+                // Flush (maybe), which ends the current compressed block
+                if (this.random.nextInt(100) == 0)
+                    writer.flush();
+
                 // Advance key somewhat randomly
                 final int newlen = this.random.nextInt(keybuf.length - 1) + 1;
                 if (newlen > keylen) {
@@ -76,7 +82,8 @@ public class ArrayKVStoreTest extends AtomicKVStoreTest {
             final ArrayKVStore kvstore = new ArrayKVStore(
               ByteBuffer.wrap(indxOutput.toByteArray()),
               ByteBuffer.wrap(keysOutput.toByteArray()),
-              ByteBuffer.wrap(valsOutput.toByteArray()));
+              ByteBuffer.wrap(valsOutput.toByteArray()),
+              blksOutput != null ? ByteBuffer.wrap(blksOutput.toByteArray()) : null);
 
             // Debug
             //this.log.info("INDX:" + this.format(indxOutput.toByteArray()));
@@ -5,9 +5,25 @@
 
 package org.jsimpledb.kv.array;
 
+import com.google.common.collect.Lists;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.kv.mvcc.Writes;
 import org.jsimpledb.kv.test.AtomicKVStoreTest;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
 
 public class AtomicArrayKVStoreTest extends AtomicKVStoreTest {
 
@@ -17,4 +33,212 @@ public class AtomicArrayKVStoreTest extends AtomicKVStoreTest {
         kvstore.setDirectory(dir);
         return kvstore;
     }
+
+    @Test
+    public void testParallelCompaction() throws Exception {
+        final File dir = this.createTempDirectory();
+        final AtomicArrayKVStore kvstore = this.createAtomicKVStore(dir);
+        kvstore.setCompactThreads(4);
+        kvstore.start();
+        try {
+            final TreeMap<byte[], byte[]> expected = new TreeMap<>(ByteUtil.COMPARATOR);
+
+            // Initial load is split using the uncompacted puts, subsequent compactions using the array keys
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 40000; i++) {
+                    final byte[] key = ByteUtil.parse(String.format("%08x", this.random.nextInt(100000)));
+                    if (round > 0 && this.random.nextInt(4) == 0) {
+                        kvstore.remove(key);
+                        expected.remove(key);
+                    } else {
+                        final byte[] value = ByteUtil.parse(String.format("%04x", i & 0xffff));
+                        kvstore.put(key, value);
+                        expected.put(key, value);
+                    }
+                }
+                kvstore.scheduleCompaction().get();
+                Assert.assertEquals(Lists.newArrayList(kvstore.getRange(null, null, false)).toString(),
+                  this.toPairs(expected).toString(), "wrong content after round " + round);
+            }
+        } finally {
+            kvstore.stop();
+            this.deleteDirectoryHierarchy(dir);
+        }
+    }
+
+    @Test
+    public void testCompressedValues() throws Exception {
+        final File dir = this.createTempDirectory();
+        try {
+            final TreeMap<byte[], byte[]> expected = new TreeMap<>(ByteUtil.COMPARATOR);
+            for (int round = 0; round < 4; round++) {
+                final boolean compress = round < 3;
+                final AtomicArrayKVStore kvstore = this.createAtomicKVStore(dir);
+                kvstore.setCompressValues(compress);
+                kvstore.start();
+                try {
+
+                    // Verify content survived restart
+                    Assert.assertEquals(Lists.newArrayList(kvstore.getRange(null, null, false)).toString(),
+                      this.toPairs(expected).toString(), "wrong content before round " + round);
+
+                    // Add compressible values, some spanning multiple blocks
+                    for (int i = 0; i < 2000; i++) {
+                        final byte[] key = ByteUtil.parse(String.format("%04x", this.random.nextInt(5000)));
+                        final int length = this.random.nextInt(20) == 0 ?
+                          this.random.nextInt(3 * ArrayKVWriter.VALUE_BLOCK_SIZE) : this.random.nextInt(100);
+                        final byte[] value = new byte[length];
+                        for (int j = 0; j < length; j++)
+                            value[j] = (byte)("abcd".charAt(this.random.nextInt(4)));
+                        kvstore.put(key, value);
+                        expected.put(key, value);
+                    }
+                    kvstore.scheduleCompaction().get();
+
+                    // Verify content and files
+                    Assert.assertEquals(Lists.newArrayList(kvstore.getRange(null, null, false)).toString(),
+                      this.toPairs(expected).toString(), "wrong content after round " + round);
+                    Assert.assertEquals(dir.list((d, name) -> name.startsWith("blks.")).length, compress ? 1 : 0);
+
+                    // Change the setting while running; it should take effect with the next compaction
+                    kvstore.setCompressValues(!compress);
+                    final byte[] key = ByteUtil.parse(String.format("%04x", this.random.nextInt(5000)));
+                    final byte[] value = new byte[this.random.nextInt(100)];
+                    kvstore.put(key, value);
+                    expected.put(key, value);
+                    kvstore.scheduleCompaction().get();
+                    Assert.assertEquals(Lists.newArrayList(kvstore.getRange(null, null, false)).toString(),
+                      this.toPairs(expected).toString(), "wrong content after toggle in round " + round);
+                    Assert.assertEquals(dir.list((d, name) -> name.startsWith("blks.")).length, compress ? 0 : 1);
+                } finally {
+                    kvstore.stop();
+                }
+            }
+        } finally {
+            this.deleteDirectoryHierarchy(dir);
+        }
+    }
+
+    @Test
+    public void testMutationLog() throws Exception {
+        final File dir = this.createTempDirectory();
+        try {
+            final TreeMap<byte[], byte[]> expected = new TreeMap<>(ByteUtil.COMPARATOR);
+
+            // Write modifications from several threads, with compaction effectively disabled
+            final AtomicArrayKVStore kvstore1 = this.createLogOnlyKVStore(dir);
+            kvstore1.start();
+            final ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                final ArrayList<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    final int thread = i;
+                    futures.add(executor.submit(() -> {
+                        for (int j = 0; j < 250; j++) {
+                            final Writes writes = new Writes();
+                            writes.getPuts().put(ByteUtil.parse(String.format("%02x%04x", thread, j)), new byte[50]);
+                            kvstore1.mutate(writes, true);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures)
+                    future.get();
+            } finally {
+                executor.shutdownNow();
+            }
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 250; j++)
+                    expected.put(ByteUtil.parse(String.format("%02x%04x", i, j)), new byte[50]);
+            }
+
+            // Wait for checkpoint
+            final File ckptFile = new File(dir, "ckpt.0");
+            for (int i = 0; i < 100 && !ckptFile.exists(); i++)
+                Thread.sleep(50);
+            Assert.assertTrue(ckptFile.exists(), "no checkpoint written");
+            kvstore1.stop();
+
+            // Append a partial record and verify it's discarded on restart
+            final File modsFile = new File(dir, "mods.0");
+            final long modsFileLength = modsFile.length();
+            try (FileOutputStream output = new FileOutputStream(modsFile, true)) {
+                output.write(new byte[] { (byte)0xff, 0x00, 0x00, 0x10 });
+            }
+            AtomicArrayKVStore kvstore = this.createLogOnlyKVStore(dir);
+            kvstore.start();
+            this.verifyContent(kvstore, expected);
+            Assert.assertEquals(modsFile.length(), modsFileLength);
+
+            // Append a record with a bogus length and verify it's discarded on restart without allocating it
+            kvstore.stop();
+            try (FileOutputStream output = new FileOutputStream(modsFile, true)) {
+                output.write(new byte[] { (byte)0xff, 0x7f, (byte)0xff, (byte)0xff, (byte)0xf0, 0x01, 0x02, 0x03, 0x04 });
+            }
+            kvstore = this.createLogOnlyKVStore(dir);
+            kvstore.start();
+            this.verifyContent(kvstore, expected);
+            Assert.assertEquals(modsFile.length(), modsFileLength);
+
+            // Add a modification, corrupt it, and verify it's discarded on restart
+            kvstore.put(ByteUtil.parse("ffff"), ByteUtil.parse("1234"));
+            kvstore.stop();
+            this.flipBit(modsFile, -6);
+            kvstore = this.createLogOnlyKVStore(dir);
+            kvstore.start();
+            this.verifyContent(kvstore, expected);
+            Assert.assertEquals(modsFile.length(), modsFileLength);
+
+            // Verify an invalid checkpoint is ignored, and the entire mods file is read instead
+            kvstore.stop();
+            this.flipBit(ckptFile, -1);
+            kvstore = this.createLogOnlyKVStore(dir);
+            kvstore.start();
+            this.verifyContent(kvstore, expected);
+            Assert.assertFalse(ckptFile.exists());
+
+            // Verify compaction discards checkpoint
+            kvstore.stop();
+            kvstore = new AtomicArrayKVStore();
+            kvstore.setDirectory(dir);
+            kvstore.start();
+            kvstore.scheduleCompaction().get();
+            this.verifyContent(kvstore, expected);
+            Assert.assertEquals(dir.list((d, name) -> name.startsWith("ckpt.")).length, 0);
+            kvstore.stop();
+        } finally {
+            this.deleteDirectoryHierarchy(dir);
+        }
+    }
+
+    // Flip a bit in the byte at the given offset from the end of the file
+    private void flipBit(File file, int offset) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long position = raf.length() + offset;
+            raf.seek(position);
+            final int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0x01);
+        }
+    }
+
+    private AtomicArrayKVStore createLogOnlyKVStore(File dir) throws Exception {
+        final AtomicArrayKVStore kvstore = this.createAtomicKVStore(dir);
+        kvstore.setCompactLowWater(Integer.MAX_VALUE);
+        kvstore.setCompactHighWater(Integer.MAX_VALUE);
+        kvstore.setCompactMaxDelay(Integer.MAX_VALUE / 1000);
+        kvstore.setCheckpointInterval(4096);
+        return kvstore;
+    }
+
+    private void verifyContent(AtomicArrayKVStore kvstore, TreeMap<byte[], byte[]> expected) {
+        Assert.assertEquals(Lists.newArrayList(kvstore.getRange(null, null, false)).toString(), this.toPairs(expected).toString());
+    }
+
+    private List<KVPair> toPairs(TreeMap<byte[], byte[]> map) {
+        final ArrayList<KVPair> list = new ArrayList<>(map.size());
+        for (Map.Entry<byte[], byte[]> entry : map.entrySet())
+            list.add(new KVPair(entry.getKey(), entry.getValue()));
+        return list;
+    }
 }
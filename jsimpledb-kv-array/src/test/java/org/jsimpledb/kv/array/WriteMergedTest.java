@@ -9,6 +9,11 @@ import com.google.common.collect.Lists;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.jsimpledb.kv.mvcc.MutableView;
 import org.jsimpledb.kv.util.NavigableMapKVStore;
@@ -56,5 +61,78 @@ public class WriteMergedTest extends TestSupport {
           Lists.newArrayList(actual.getRange(null, null, false)).toString(),
           Lists.newArrayList(kvstore.getRange(null, null, false)).toString());
     }
+
+    @Test
+    private void testParallelWriteMerged() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int count = 0; count < 20; count++) {
+
+                // Setup k/v store
+                final NavigableMapKVStore kvstore = new NavigableMapKVStore();
+                final int numPairs = this.random.nextInt(5000);
+                for (int i = 0; i < numPairs; i++)
+                    kvstore.put(this.randomKey(), kvstore.encodeCounter(this.random.nextInt(100)));
+
+                // Setup mutations
+                final MutableView view = new MutableView(kvstore);
+                final int numMutations = this.random.nextInt(5000);
+                for (int i = 0; i < numMutations; i++) {
+                    final int choice = this.random.nextInt(10);
+                    if (choice < 5)
+                        view.put(this.randomKey(), this.random.nextBoolean() ? this.randomKey() : kvstore.encodeCounter(i));
+                    else if (choice < 7)
+                        view.adjustCounter(this.randomKey(), this.random.nextInt(10) - 5);
+                    else if (choice < 9)
+                        view.remove(this.randomKey());
+                    else {
+                        final byte[] key1 = this.randomKey();
+                        final byte[] key2 = this.randomKey();
+                        final int diff = ByteUtil.compare(key1, key2);
+                        if (diff < 0)
+                            view.removeRange(key1, key2);
+                        else if (diff > 0)
+                            view.removeRange(key2, key1);
+                    }
+                }
+
+                // Choose split keys
+                final TreeSet<byte[]> splitKeySet = new TreeSet<>(ByteUtil.COMPARATOR);
+                final int numSplitKeys = this.random.nextInt(8);
+                for (int i = 0; i < numSplitKeys; i++)
+                    splitKeySet.add(this.randomKey());
+                final ArrayList<byte[]> splitKeys = new ArrayList<>(splitKeySet);
+
+                // Merge sequentially and in parallel, and compare
+                final ByteArrayOutputStream[] expected = this.merge(null, kvstore, view, splitKeys);
+                final ByteArrayOutputStream[] actual = this.merge(executor, kvstore, view, splitKeys);
+                for (int i = 0; i < expected.length; i++)
+                    Assert.assertTrue(Arrays.equals(actual[i].toByteArray(), expected[i].toByteArray()), "output #" + i + " differs");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ByteArrayOutputStream[] merge(ExecutorService executor,
+      NavigableMapKVStore kvstore, MutableView view, ArrayList<byte[]> splitKeys) throws Exception {
+        final ByteArrayOutputStream indxBuf = new ByteArrayOutputStream();
+        final ByteArrayOutputStream keysBuf = new ByteArrayOutputStream();
+        final ByteArrayOutputStream valsBuf = new ByteArrayOutputStream();
+        try (final ArrayKVWriter writer = new ArrayKVWriter(indxBuf, keysBuf, valsBuf)) {
+            if (executor != null)
+                writer.writeMerged(kvstore, view.getWrites(), splitKeys, executor);
+            else
+                writer.writeMerged(kvstore, kvstore.getRange(null, null, false), view.getWrites());
+        }
+        return new ByteArrayOutputStream[] { indxBuf, keysBuf, valsBuf };
+    }
+
+    private byte[] randomKey() {
+        final byte[] key = new byte[1 + this.random.nextInt(3)];
+        for (int i = 0; i < key.length; i++)
+            key[i] = (byte)this.random.nextInt(48);
+        return key;
+    }
 }
 
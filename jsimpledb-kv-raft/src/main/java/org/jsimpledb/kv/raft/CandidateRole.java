@@ -13,7 +13,9 @@ import org.jsimpledb.kv.raft.msg.AppendRequest;
 import org.jsimpledb.kv.raft.msg.CommitResponse;
 import org.jsimpledb.kv.raft.msg.GrantVote;
 import org.jsimpledb.kv.raft.msg.InstallSnapshot;
+import org.jsimpledb.kv.raft.msg.ReadIndexResponse;
 import org.jsimpledb.kv.raft.msg.RequestVote;
+import org.jsimpledb.kv.raft.msg.TimeoutNow;
 
 /**
  * Raft candidate role.
@@ -22,6 +24,7 @@ public class CandidateRole extends NonLeaderRole {
 
     @GuardedBy("raft")
     private final HashSet<String> votes = new HashSet<>();
+    private final boolean leadershipTransfer;
     private final Service checkElectionResultService = new Service(this, "check election result") {
         @Override
         public void run() {
@@ -32,7 +35,12 @@ public class CandidateRole extends NonLeaderRole {
 // Constructors
 
     CandidateRole(RaftKVDatabase raft) {
+        this(raft, false);
+    }
+
+    CandidateRole(RaftKVDatabase raft, boolean leadershipTransfer) {
         super(raft, true);
+        this.leadershipTransfer = leadershipTransfer;
     }
 
 // Status
@@ -44,18 +52,26 @@ public class CandidateRole extends NonLeaderRole {
      */
     public int getVotesRequired() {
         synchronized (this.raft) {
-            return this.raft.currentConfig.size() / 2 + 1;
+            return this.raft.countClusterMembers() / 2 + 1;
         }
     }
 
     /**
      * Get the number of votes received so far. Includes this node's vote.
      *
+     * <p>
+     * Only votes from current cluster members are counted; in particular, votes from learners are ignored.
+     *
      * @return received votes
      */
     public int getVotesReceived() {
         synchronized (this.raft) {
-            return this.votes.size() + (this.raft.isClusterMember() ? 1 : 0);
+            int numVotes = this.raft.isClusterMember() ? 1 : 0;
+            for (String voter : this.votes) {
+                if (this.raft.isClusterMember(voter))
+                    numVotes++;
+            }
+            return numVotes;
         }
     }
 
@@ -70,14 +86,15 @@ public class CandidateRole extends NonLeaderRole {
         if (!this.raft.advanceTerm(this.raft.currentTerm + 1))
             return;
 
-        // Request votes from other peers
+        // Request votes from other peers (but not learners)
         final HashSet<String> voters = new HashSet<>(this.raft.currentConfig.keySet());
         voters.remove(this.raft.identity);
+        voters.removeIf(peer -> !this.raft.isClusterMember(peer));
         if (this.log.isDebugEnabled())
             this.debug("entering candidate role in term " + this.raft.currentTerm + "; requesting votes from " + voters);
         for (String voter : voters) {
             this.raft.sendMessage(new RequestVote(this.raft.clusterId, this.raft.identity, voter,
-              this.raft.currentTerm, this.raft.getLastLogTerm(), this.raft.getLastLogIndex()));
+              this.raft.currentTerm, this.raft.getLastLogTerm(), this.raft.getLastLogIndex(), this.leadershipTransfer));
         }
 
         // Check election result - needed in case we are the only node in the cluster
@@ -102,7 +119,7 @@ public class CandidateRole extends NonLeaderRole {
         assert Thread.holdsLock(this.raft);
 
         // Tally votes
-        final int allVotes = this.raft.currentConfig.size();
+        final int allVotes = this.raft.countClusterMembers();
         final int numVotes = this.getVotesReceived();
         final int votesRequired = this.getVotesRequired();
         if (this.log.isDebugEnabled())
@@ -147,6 +164,12 @@ public class CandidateRole extends NonLeaderRole {
         this.failUnexpectedMessage(msg);                    // we could not have ever sent a CommitRequest in this term
     }
 
+    @Override
+    void caseReadIndexResponse(ReadIndexResponse msg) {
+        assert Thread.holdsLock(this.raft);
+        this.failUnexpectedMessage(msg);                    // we could not have ever sent a ReadIndexRequest in this term
+    }
+
     @Override
     void caseInstallSnapshot(InstallSnapshot msg) {
         assert Thread.holdsLock(this.raft);
@@ -162,6 +185,15 @@ public class CandidateRole extends NonLeaderRole {
             this.debug("ignoring " + msg + " rec'd while in " + this);
     }
 
+    @Override
+    void caseTimeoutNow(TimeoutNow msg) {
+        assert Thread.holdsLock(this.raft);
+
+        // Ignore - we are already holding an election
+        if (this.log.isDebugEnabled())
+            this.debug("ignoring " + msg + " rec'd while in " + this);
+    }
+
     @Override
     void caseGrantVote(GrantVote msg) {
         assert Thread.holdsLock(this.raft);
@@ -182,6 +214,7 @@ public class CandidateRole extends NonLeaderRole {
         synchronized (this.raft) {
             return this.toStringPrefix()
               + ",votes=" + this.votes
+              + (this.leadershipTransfer ? ",leadershipTransfer" : "")
               + "]";
         }
     }
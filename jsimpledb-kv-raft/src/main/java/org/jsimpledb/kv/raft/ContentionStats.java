@@ -0,0 +1,127 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+/**
+ * Lock contention statistics for a {@link RaftKVDatabase}.
+ *
+ * <p>
+ * A {@link RaftKVDatabase} guards its Raft state with a single lock. The lock statistics cover the
+ * most frequent acquirers of that lock, namely the internal service thread, incoming network messages,
+ * and transaction creation. The apply statistics cover committed log entries written into the
+ * underlying key/value store, which happens on a dedicated thread without holding the lock.
+ *
+ * <p>
+ * All times are in nanoseconds. Statistics are reset when the database is {@linkplain RaftKVDatabase#start started}.
+ *
+ * <p>
+ * Instances are immutable.
+ *
+ * @see RaftKVDatabase#getContentionStats
+ */
+public final class ContentionStats {
+
+    private final long lockAcquisitions;
+    private final long totalLockWaitTime;
+    private final long maxLockWaitTime;
+    private final long totalLockHoldTime;
+    private final long maxLockHoldTime;
+    private final long logEntriesApplied;
+    private final long totalApplyTime;
+
+    ContentionStats(long lockAcquisitions, long totalLockWaitTime, long maxLockWaitTime,
+      long totalLockHoldTime, long maxLockHoldTime, long logEntriesApplied, long totalApplyTime) {
+        this.lockAcquisitions = lockAcquisitions;
+        this.totalLockWaitTime = totalLockWaitTime;
+        this.maxLockWaitTime = maxLockWaitTime;
+        this.totalLockHoldTime = totalLockHoldTime;
+        this.maxLockHoldTime = maxLockHoldTime;
+        this.logEntriesApplied = logEntriesApplied;
+        this.totalApplyTime = totalApplyTime;
+    }
+
+    /**
+     * Get the number of times the lock was acquired.
+     *
+     * @return number of lock acquisitions
+     */
+    public long getLockAcquisitions() {
+        return this.lockAcquisitions;
+    }
+
+    /**
+     * Get the total time spent waiting to acquire the lock.
+     *
+     * @return total lock wait time in nanoseconds
+     */
+    public long getTotalLockWaitTime() {
+        return this.totalLockWaitTime;
+    }
+
+    /**
+     * Get the longest time spent waiting to acquire the lock.
+     *
+     * @return maximum lock wait time in nanoseconds
+     */
+    public long getMaxLockWaitTime() {
+        return this.maxLockWaitTime;
+    }
+
+    /**
+     * Get the total time the lock was held.
+     *
+     * @return total lock hold time in nanoseconds
+     */
+    public long getTotalLockHoldTime() {
+        return this.totalLockHoldTime;
+    }
+
+    /**
+     * Get the longest time the lock was held.
+     *
+     * @return maximum lock hold time in nanoseconds
+     */
+    public long getMaxLockHoldTime() {
+        return this.maxLockHoldTime;
+    }
+
+    /**
+     * Get the number of committed log entries applied to the key/value store.
+     *
+     * @return number of log entries applied
+     */
+    public long getLogEntriesApplied() {
+        return this.logEntriesApplied;
+    }
+
+    /**
+     * Get the total time spent applying committed log entries to the key/value store.
+     *
+     * <p>
+     * This work is performed without holding the lock.
+     *
+     * @return total apply time in nanoseconds
+     */
+    public long getTotalApplyTime() {
+        return this.totalApplyTime;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[acquisitions=" + this.lockAcquisitions
+          + ",waitTime=" + this.totalLockWaitTime
+          + ",maxWaitTime=" + this.maxLockWaitTime
+          + ",holdTime=" + this.totalLockHoldTime
+          + ",maxHoldTime=" + this.maxLockHoldTime
+          + ",applied=" + this.logEntriesApplied
+          + ",applyTime=" + this.totalApplyTime
+          + "]";
+    }
+}
+
@@ -0,0 +1,87 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+/**
+ * Accumulates {@link ContentionStats} for a {@link RaftKVDatabase}.
+ *
+ * <p>
+ * All methods must be invoked while holding the database lock.
+ */
+class ContentionTracker {
+
+    private final RaftKVDatabase raft;
+
+    private long lockAcquisitions;
+    private long totalLockWaitTime;
+    private long maxLockWaitTime;
+    private long totalLockHoldTime;
+    private long maxLockHoldTime;
+    private long logEntriesApplied;
+    private long totalApplyTime;
+
+    ContentionTracker(RaftKVDatabase raft) {
+        this.raft = raft;
+    }
+
+    /**
+     * Record a lock acquisition.
+     *
+     * @param waitStartTime value of {@link System#nanoTime} just prior to attempting to acquire the lock
+     * @return value of {@link System#nanoTime} at acquisition, to be passed to {@link #lockReleased}
+     */
+    long lockAcquired(long waitStartTime) {
+        assert Thread.holdsLock(this.raft);
+        final long now = System.nanoTime();
+        final long waitTime = now - waitStartTime;
+        this.lockAcquisitions++;
+        this.totalLockWaitTime += waitTime;
+        this.maxLockWaitTime = Math.max(this.maxLockWaitTime, waitTime);
+        return now;
+    }
+
+    /**
+     * Record that the lock is about to be released.
+     *
+     * @param acquireTime value returned from the corresponding {@link #lockAcquired} invocation
+     */
+    void lockReleased(long acquireTime) {
+        assert Thread.holdsLock(this.raft);
+        final long holdTime = System.nanoTime() - acquireTime;
+        this.totalLockHoldTime += holdTime;
+        this.maxLockHoldTime = Math.max(this.maxLockHoldTime, holdTime);
+    }
+
+    /**
+     * Record the application of committed log entries to the key/value store.
+     *
+     * @param count number of log entries applied
+     * @param applyTime time taken in nanoseconds
+     */
+    void logEntriesApplied(int count, long applyTime) {
+        assert Thread.holdsLock(this.raft);
+        this.logEntriesApplied += count;
+        this.totalApplyTime += applyTime;
+    }
+
+    void reset() {
+        assert Thread.holdsLock(this.raft);
+        this.lockAcquisitions = 0;
+        this.totalLockWaitTime = 0;
+        this.maxLockWaitTime = 0;
+        this.totalLockHoldTime = 0;
+        this.maxLockHoldTime = 0;
+        this.logEntriesApplied = 0;
+        this.totalApplyTime = 0;
+    }
+
+    ContentionStats getStats() {
+        assert Thread.holdsLock(this.raft);
+        return new ContentionStats(this.lockAcquisitions, this.totalLockWaitTime, this.maxLockWaitTime,
+          this.totalLockHoldTime, this.maxLockHoldTime, this.logEntriesApplied, this.totalApplyTime);
+    }
+}
+
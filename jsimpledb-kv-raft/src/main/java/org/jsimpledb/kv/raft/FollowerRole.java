@@ -29,10 +29,14 @@ import org.jsimpledb.kv.raft.msg.CommitRequest;
 import org.jsimpledb.kv.raft.msg.CommitResponse;
 import org.jsimpledb.kv.raft.msg.GrantVote;
 import org.jsimpledb.kv.raft.msg.InstallSnapshot;
+import org.jsimpledb.kv.raft.msg.InstallSnapshotResponse;
 import org.jsimpledb.kv.raft.msg.Message;
 import org.jsimpledb.kv.raft.msg.PingRequest;
 import org.jsimpledb.kv.raft.msg.PingResponse;
+import org.jsimpledb.kv.raft.msg.ReadIndexRequest;
+import org.jsimpledb.kv.raft.msg.ReadIndexResponse;
 import org.jsimpledb.kv.raft.msg.RequestVote;
+import org.jsimpledb.kv.raft.msg.TimeoutNow;
 
 /**
  * Raft follower role.
@@ -55,12 +59,25 @@ public class FollowerRole extends NonLeaderRole {
     private final HashMap<Long, Timestamp> commitLeaderLeaseTimeoutMap              // tx's waiting for leaderLeaseTimeout's
       = new HashMap<>();
     @GuardedBy("raft")
+    private final HashSet<RaftKVTransaction> readIndexBatch = new HashSet<>();      // tx's covered by outstanding ReadIndexRequest
+    @GuardedBy("raft")
+    private final HashMap<Long, ReadIndexResponse> readIndexMap = new HashMap<>();  // tx's waiting for log to reach read index
+    @GuardedBy("raft")
+    private long readIndexRequestId;                                                // outstanding ReadIndexRequest, or zero
+    @GuardedBy("raft")
     private Timestamp lastLeaderMessageTime;                                        // time of most recent rec'd AppendRequest
     @GuardedBy("raft")
     private Timestamp leaderLeaseTimeout;                                           // latest rec'd leader lease timeout
     @GuardedBy("raft")
     private HashMap<String, Timestamp> probeTimestamps;                             // used only when probing majority
 
+    private final Timer readIndexTimer = new Timer(this.raft, "read index timer", new Service(this, "read index timeout") {
+        @Override
+        public void run() {
+            FollowerRole.this.checkReadIndexTimeout();
+        }
+    });
+
 // Constructors
 
     FollowerRole(RaftKVDatabase raft) {
@@ -125,6 +142,11 @@ public class FollowerRole extends NonLeaderRole {
         }
     }
 
+    SnapshotReceive getSnapshotReceive() {
+        assert Thread.holdsLock(this.raft);
+        return this.snapshotReceive;
+    }
+
     /**
      * Determine the number of nodes (including this node) that this node has successfully probed when probing
      * for a majority of nodes with {@link PingRequest}s prior to reverting to a candidate.
@@ -197,6 +219,8 @@ public class FollowerRole extends NonLeaderRole {
 
         // Cleanup pending requests and commit writes
         this.pendingRequests.clear();
+        this.abandonReadIndexRequest();
+        this.readIndexMap.clear();
         this.pendingWrites.values().forEach(PendingWrite::cleanup);
         this.pendingWrites.clear();
 
@@ -251,13 +275,13 @@ public class FollowerRole extends NonLeaderRole {
         if (this.probeTimestamps == null) {
             if (this.log.isDebugEnabled())
                 this.debug("follower election timeout: attempting to probe a majority before becoming candidate");
-            this.probeTimestamps = new HashMap<>(this.raft.currentConfig.size() - 1);
+            this.probeTimestamps = new HashMap<>(this.raft.countClusterMembers() - 1);
         }
 
-        // Send out a(nother) round of probes to all other nodes
+        // Send out a(nother) round of probes to all other nodes (learners don't count toward a majority)
         final Timestamp now = new Timestamp();
         for (String peer : this.raft.currentConfig.keySet()) {
-            if (peer.equals(this.raft.identity))
+            if (peer.equals(this.raft.identity) || !this.raft.isClusterMember(peer))
                 continue;
             this.raft.sendMessage(new PingRequest(this.raft.clusterId, this.raft.identity, peer, this.raft.currentTerm, now));
         }
@@ -331,9 +355,10 @@ public class FollowerRole extends NonLeaderRole {
             }
 
             // Otherwise, we can only handle an initial config change that is adding the local node
-            if (configChange == null || !configChange[0].equals(this.raft.identity) || configChange[1] == null) {
+            if (configChange == null || !configChange[0].equals(this.raft.identity)
+              || configChange[1] == null || RaftKVDatabase.isLearnerAddress(configChange[1])) {
                 throw new RetryTransactionException(tx, "unconfigured system: an initial configuration change adding"
-                  + " the local node (\"" + this.raft.identity + "\") as the first member of a new cluster is required");
+                  + " the local node (\"" + this.raft.identity + "\") as the first voting member of a new cluster is required");
             }
 
             // Create a new cluster if needed
@@ -386,6 +411,12 @@ public class FollowerRole extends NonLeaderRole {
             return;
         }
 
+        // Read-only transactions don't need to send their reads to the leader; they only need a read index
+        if (readOnly) {
+            this.checkReadyReadOnlyTransaction(tx);
+            return;
+        }
+
         // If we don't have a leader yet, or leader's queue is full, we must wait
         if (this.leader == null || this.raft.isTransmitting(this.leaderAddress)) {
             if (this.log.isTraceEnabled()) {
@@ -396,7 +427,6 @@ public class FollowerRole extends NonLeaderRole {
         }
 
         // Serialize reads into buffer
-        assert !readOnly || tx.getConsistency().isGuaranteesUpToDateReads();
         final Reads reads = tx.view.getReads();
         final long readsDataSize = reads.serializedLength();
         if (readsDataSize != (int)readsDataSize)
@@ -414,12 +444,13 @@ public class FollowerRole extends NonLeaderRole {
         ByteBuffer mutationData = null;
         if (!readOnly) {
 
-            // Serialize mutations into a temporary file (but do not close or durably persist yet)
+            // Serialize mutations into a temporary file (but do not close or durably persist yet); the file name must be
+            // unique, because a file left over from a previous role for the same transaction may still be pending deletion
             final Writes writes = tx.view.getWrites();          // synchronization not req'd here because tx is COMMIT_READY
-            final File file = new File(this.raft.logDir,
-              String.format("%s%019d%s", RaftKVDatabase.TX_FILE_PREFIX, tx.txId, RaftKVDatabase.TEMP_FILE_SUFFIX));
             final FileWriter fileWriter;
             try {
+                final File file = File.createTempFile(String.format("%s%019d-", RaftKVDatabase.TX_FILE_PREFIX, tx.txId),
+                  RaftKVDatabase.TEMP_FILE_SUFFIX, this.raft.logDir);
                 fileWriter = new FileWriter(file, this.raft.disableSync);
             } catch (IOException e) {
                 throw new KVTransactionException(tx, "error saving transaction mutations to temporary file", e);
@@ -457,14 +488,119 @@ public class FollowerRole extends NonLeaderRole {
           this.raft.currentTerm, tx.txId, tx.baseTerm, tx.baseIndex, readsData, mutationData);
         if (this.log.isTraceEnabled())
             this.trace("sending " + msg + " to \"" + this.leader + "\" for " + tx);
+        tx.commitRequestTime = System.nanoTime();
         if (!this.raft.sendMessage(msg))
             throw new RetryTransactionException(tx, "error sending commit request to leader");
     }
 
+    /**
+     * Check a linearizable read-only transaction that is ready to be committed.
+     *
+     * <p>
+     * Instead of sending a {@link CommitRequest} for each such transaction, we send a single {@link ReadIndexRequest}
+     * on behalf of all of them. The leader replies with its current commit index (the <i>read index</i>); each
+     * transaction may then commit locally once it has been rebased onto a log entry at or after the read index and
+     * that log entry is committed. Only one {@link ReadIndexRequest} is outstanding at a time; transactions that
+     * become ready in the meantime are included in the next request.
+     *
+     * @param tx the transaction
+     */
+    private void checkReadyReadOnlyTransaction(RaftKVTransaction tx) {
+
+        // Sanity check
+        assert Thread.holdsLock(this.raft);
+        assert tx.getState().equals(TxState.COMMIT_READY);
+        assert tx.getConsistency().isGuaranteesUpToDateReads();
+
+        // Do we already have a read index for this transaction? If so, wait until the transaction is rebased up to it
+        final ReadIndexResponse response = this.readIndexMap.get(tx.txId);
+        if (response != null) {
+            if (tx.baseIndex < response.getReadIndex()) {
+                if (this.log.isTraceEnabled()) {
+                    this.trace("leaving alone ready tx " + tx + " because base index " + tx.baseIndex
+                      + " < read index " + response.getReadIndex());
+                }
+                return;
+            }
+            this.readIndexMap.remove(tx.txId);
+            this.advanceReadyTransaction(tx, tx.baseTerm, tx.baseIndex);
+
+            // Track leader lease timeout we must wait for, if any
+            if (response.getReadLeaderLeaseTimeout() != null)
+                this.commitLeaderLeaseTimeoutMap.put(tx.txId, response.getReadLeaderLeaseTimeout());
+            return;
+        }
+
+        // Is there already a request outstanding? If so, wait for the response
+        if (this.readIndexRequestId != 0) {
+            if (this.log.isTraceEnabled()) {
+                this.trace("leaving alone ready tx " + tx + " because "
+                  + (this.readIndexBatch.contains(tx) ? "read index request already sent" : "a read index request is pending"));
+            }
+            return;
+        }
+
+        // If we don't have a leader yet, or leader's queue is full, we must wait
+        if (this.leader == null || this.raft.isTransmitting(this.leaderAddress)) {
+            if (this.log.isTraceEnabled()) {
+                this.trace("leaving alone ready tx " + tx + " because leader "
+                  + (this.leader == null ? "is not known yet" : "\"" + this.leader + "\" is not writable yet"));
+            }
+            return;
+        }
+
+        // Gather up all read-only transactions waiting for a read index; this will include the given transaction
+        this.raft.openTransactions.values().stream()
+          .filter(rtx -> rtx.getState().equals(TxState.COMMIT_READY)
+            && rtx.getConsistency().isGuaranteesUpToDateReads()
+            && !rtx.addsLogEntry()
+            && !this.readIndexMap.containsKey(rtx.txId))
+          .forEach(this.readIndexBatch::add);
+        assert this.readIndexBatch.contains(tx);
+
+        // Pick a new, random request ID
+        long requestId;
+        do
+            requestId = this.raft.random.nextLong();
+        while (requestId == 0);
+        this.readIndexRequestId = requestId;
+
+        // Send request to leader; if the request or its response gets lost, we'll try again when the timer expires
+        this.readIndexTimer.timeoutAfter(this.raft.heartbeatTimeout);
+        final ReadIndexRequest msg = new ReadIndexRequest(this.raft.clusterId, this.raft.identity, this.leader,
+          this.raft.currentTerm, requestId);
+        if (this.log.isTraceEnabled())
+            this.trace("sending " + msg + " to \"" + this.leader + "\" for " + this.readIndexBatch.size() + " transaction(s)");
+        this.raft.sendMessage(msg);
+    }
+
+    // Check for a timeout of the outstanding ReadIndexRequest
+    private void checkReadIndexTimeout() {
+        assert Thread.holdsLock(this.raft);
+        if (this.readIndexTimer.pollForTimeout()) {
+            if (this.log.isDebugEnabled())
+                this.debug("no response to read index request " + this.readIndexRequestId + " received; retrying");
+            this.abandonReadIndexRequest();
+        }
+    }
+
+    // Forget about the outstanding ReadIndexRequest, if any; its transactions will be included in the next request
+    private void abandonReadIndexRequest() {
+        assert Thread.holdsLock(this.raft);
+        this.readIndexTimer.cancel();
+        if (this.readIndexRequestId == 0)
+            return;
+        this.readIndexRequestId = 0;
+        this.readIndexBatch.clear();
+        this.raft.requestService(this.checkReadyTransactionsService);
+    }
+
     @Override
     void cleanupForTransaction(RaftKVTransaction tx) {
         assert Thread.holdsLock(this.raft);
         this.pendingRequests.remove(tx);
+        this.readIndexBatch.remove(tx);
+        this.readIndexMap.remove(tx.txId);
         final PendingWrite pendingWrite = this.pendingWrites.remove(tx.txId);
         if (pendingWrite != null)
             pendingWrite.cleanup();
@@ -477,8 +613,10 @@ public class FollowerRole extends NonLeaderRole {
     boolean mayAdvanceCurrentTerm(Message msg) {
         assert Thread.holdsLock(this.raft);
 
-        // Deny vote if we have heard from our leader within the minimum election timeout (dissertation, section 4.2.3)
+        // Deny vote if we have heard from our leader within the minimum election timeout (dissertation, section 4.2.3),
+        // unless the leader is transferring its leadership to the candidate (dissertation, section 3.10)
         if (msg instanceof RequestVote
+          && !((RequestVote)msg).isLeadershipTransfer()
           && this.lastLeaderMessageTime != null
           && this.lastLeaderMessageTime.offsetFromNow() > -this.raft.minElectionTimeout)
             return false;
@@ -512,6 +650,7 @@ public class FollowerRole extends NonLeaderRole {
             this.leader = msg.getSenderId();
             this.leaderAddress = this.raft.returnAddress;
             this.leaderLeaseTimeout = null;
+            this.abandonReadIndexRequest();
             if (this.log.isDebugEnabled())
                 this.debug("updated leader to \"" + this.leader + "\" at " + this.leaderAddress);
             this.raft.requestService(this.checkReadyTransactionsService);     // allows COMMIT_READY transactions to be sent
@@ -670,9 +809,12 @@ public class FollowerRole extends NonLeaderRole {
                 // Success?
                 success = logEntry != null;
 
-                // Rebase transactions
-                if (success)
+                // Rebase transactions; this may bring some read-only transactions up to their read index
+                if (success) {
                     this.rebaseTransactions();
+                    if (!this.readIndexMap.isEmpty())
+                        this.raft.requestService(this.checkReadyTransactionsService);
+                }
 
                 // Update last log entry index
                 lastLogIndex = this.raft.getLastLogIndex();
@@ -731,6 +873,7 @@ public class FollowerRole extends NonLeaderRole {
                 this.debug("rec'd " + msg + " for " + tx + " not expecting a response; ignoring");
             return;
         }
+        this.raft.metricsTracker.record(RaftMetrics.Stage.COMMIT_REQUEST, tx.commitRequestTime);
 
         // Check result
         if (this.log.isTraceEnabled())
@@ -747,6 +890,32 @@ public class FollowerRole extends NonLeaderRole {
             this.raft.fail(tx, new RetryTransactionException(tx, msg.getErrorMessage()));
     }
 
+    @Override
+    void caseReadIndexResponse(ReadIndexResponse msg) {
+        assert Thread.holdsLock(this.raft);
+
+        // Is this the response we're waiting for?
+        if (msg.getRequestId() != this.readIndexRequestId || !msg.getSenderId().equals(this.leader)) {
+            if (this.log.isDebugEnabled())
+                this.debug("rec'd " + msg + " but not expecting a response; ignoring");
+            return;
+        }
+        if (this.log.isTraceEnabled())
+            this.trace("rec'd " + msg + " for " + this.readIndexBatch.size() + " transaction(s)");
+
+        // Record the read index and required leader lease timeout (if any) for each transaction in the batch
+        for (RaftKVTransaction tx : this.readIndexBatch) {
+            assert tx.getState().equals(TxState.COMMIT_READY);
+            this.readIndexMap.put(tx.txId, msg);
+        }
+
+        // Request is complete
+        this.readIndexTimer.cancel();
+        this.readIndexRequestId = 0;
+        this.readIndexBatch.clear();
+        this.raft.requestService(this.checkReadyTransactionsService);
+    }
+
     @Override
     void caseInstallSnapshot(InstallSnapshot msg) {
         assert Thread.holdsLock(this.raft);
@@ -755,6 +924,13 @@ public class FollowerRole extends NonLeaderRole {
         if (this.electionTimer.isRunning())
             this.restartElectionTimer();
 
+        // We can't install a snapshot while committed log entries are being applied; the leader will retry
+        if (this.raft.applyingIndex != 0) {
+            if (this.log.isDebugEnabled())
+                this.debug("rec'd " + msg + " while applying log entries through " + this.raft.applyingIndex + "; ignoring");
+            return;
+        }
+
         // Sanity check that our log is not going backwards
         if (msg.getSnapshotIndex() < this.raft.commitIndex) {
             this.warn("rec'd " + msg + " with retrograde index " + msg.getSnapshotIndex()
@@ -769,10 +945,13 @@ public class FollowerRole extends NonLeaderRole {
             // Does the message not match?
             if (!this.snapshotReceive.matches(msg)) {
 
-                // If the message is NOT the first one in a new install, ignore it
+                // If the message is NOT the first one in a new install, ignore it; if it's part of the same install,
+                // let the leader know where we are so it can resume from there
                 if (msg.getPairIndex() != 0) {
                     if (this.log.isDebugEnabled())
                         this.debug("rec'd " + msg + " which doesn't match in-progress " + this.snapshotReceive + "; ignoring");
+                    if (this.snapshotReceive.isSameSnapshot(msg))
+                        this.sendInstallSnapshotResponse(msg, this.snapshotReceive.getPairIndex(), false);
                     return;
                 }
 
@@ -785,6 +964,14 @@ public class FollowerRole extends NonLeaderRole {
             }
         } else {
 
+            // If we already installed this snapshot, our acknowledgement must have been lost, so resend it
+            if (msg.getSnapshotTerm() == this.raft.lastAppliedTerm && msg.getSnapshotIndex() == this.raft.lastAppliedIndex) {
+                if (this.log.isDebugEnabled())
+                    this.debug("rec'd " + msg + " for snapshot install already completed; acknowledging");
+                this.sendInstallSnapshotResponse(msg, msg.getPairIndex(), true);
+                return;
+            }
+
             // If the message is NOT the first one in a new install, ignore it
             if (msg.getPairIndex() != 0) {
                 if (this.log.isDebugEnabled())
@@ -816,7 +1003,7 @@ public class FollowerRole extends NonLeaderRole {
         if (this.log.isDebugEnabled())
             this.debug("applying " + msg + " to " + this.snapshotReceive);
         try {
-            this.snapshotReceive.applyNextChunk(msg.getData());
+            this.snapshotReceive.applyNextChunk(msg.isCompressed() ? Util.decompress(msg.getData()) : msg.getData());
         } catch (Exception e) {
             this.error("error applying snapshot to key/value store; aborting snapshot install", e);
             this.snapshotReceive = null;
@@ -834,15 +1021,24 @@ public class FollowerRole extends NonLeaderRole {
                 this.debug("snapshot install from \"" + msg.getSenderId() + "\" of "
                   + index + "t" + term + " with config " + snapshotConfig + " complete");
             }
+            final long pairIndex = this.snapshotReceive.getPairIndex();
             this.snapshotReceive = null;
             this.raft.flipFlopStateMachine(term, index, snapshotConfig);
             this.updateElectionTimer();
+            this.sendInstallSnapshotResponse(msg, pairIndex, true);
 
             // Fail any rebasable transactions
             new ArrayList<>(this.raft.openTransactions.values()).stream()
               .filter(this::shouldRebase)
               .forEach(tx -> this.raft.fail(tx, new RetryTransactionException(tx, "rec'd snapshot install from leader")));
-        }
+        } else
+            this.sendInstallSnapshotResponse(msg, this.snapshotReceive.getPairIndex(), false);
+    }
+
+    private void sendInstallSnapshotResponse(InstallSnapshot msg, long pairIndex, boolean complete) {
+        assert Thread.holdsLock(this.raft);
+        this.raft.sendMessage(new InstallSnapshotResponse(this.raft.clusterId, this.raft.identity, msg.getSenderId(),
+          this.raft.currentTerm, msg.getSnapshotTerm(), msg.getSnapshotIndex(), pairIndex, complete));
     }
 
     @Override
@@ -886,6 +1082,41 @@ public class FollowerRole extends NonLeaderRole {
         this.raft.sendMessage(new GrantVote(this.raft.clusterId, this.raft.identity, peer, this.raft.currentTerm));
     }
 
+    @Override
+    void caseTimeoutNow(TimeoutNow msg) {
+        assert Thread.holdsLock(this.raft);
+
+        // Only our leader can transfer its leadership to us
+        final String peer = msg.getSenderId();
+        if (this.leader != null && !this.leader.equals(peer)) {
+            this.warn("rec'd " + msg + " from \"" + peer + "\" but our leader is \"" + this.leader + "\"; ignoring");
+            return;
+        }
+
+        // Learners can't become leader
+        if (!this.raft.isClusterMember()) {
+            if (this.log.isDebugEnabled())
+                this.debug("rec'd " + msg + " but we are not a voting member of the cluster; ignoring");
+            return;
+        }
+
+        // We should only start an election if we are sure to win it, i.e., our log matches the leader's; the leader will retry
+        if (this.snapshotReceive != null
+          || msg.getLastLogTerm() != this.raft.getLastLogTerm()
+          || msg.getLastLogIndex() != this.raft.getLastLogIndex()) {
+            if (this.log.isDebugEnabled()) {
+                this.debug("rec'd " + msg + " but our log " + this.raft.getLastLogIndex() + "t" + this.raft.getLastLogTerm()
+                  + (this.snapshotReceive != null ? " (receiving snapshot)" : "") + " does not match the leader's; ignoring");
+            }
+            return;
+        }
+
+        // Start an election immediately
+        if (this.log.isDebugEnabled())
+            this.debug("rec'd " + msg + "; starting election to take over leadership from \"" + peer + "\"");
+        this.raft.changeRole(new CandidateRole(this.raft, true));
+    }
+
     @Override
     void caseGrantVote(GrantVote msg) {
         assert Thread.holdsLock(this.raft);
@@ -919,7 +1150,7 @@ public class FollowerRole extends NonLeaderRole {
 
         // Get the number of nodes successfully probed so far (including ourselves), and the minimum number required (a majority)
         final int numProbed = this.calculateProbedNodes();
-        final int numRequired = this.raft.currentConfig.size() / 2 + 1;
+        final int numRequired = this.raft.countClusterMembers() / 2 + 1;
         if (this.log.isTraceEnabled())
             this.trace("now we have probed " + numProbed + "/" + numRequired + " required nodes");
 
@@ -1011,14 +1242,19 @@ public class FollowerRole extends NonLeaderRole {
         switch (tx.getState()) {
         case COMMIT_READY:
             assert !this.commitLeaderLeaseTimeoutMap.containsKey(tx.txId);
+            assert !this.readIndexBatch.contains(tx) || !this.readIndexMap.containsKey(tx.txId);
             break;
         case COMMIT_WAITING:
             assert !this.pendingRequests.contains(tx);
+            assert !this.readIndexBatch.contains(tx);
+            assert !this.readIndexMap.containsKey(tx.txId);
             break;
         default:
             assert !this.pendingWrites.containsKey(tx.txId);
             assert !this.pendingRequests.contains(tx);
             assert !this.commitLeaderLeaseTimeoutMap.containsKey(tx.txId);
+            assert !this.readIndexBatch.contains(tx);
+            assert !this.readIndexMap.containsKey(tx.txId);
             break;
         }
     }
@@ -24,6 +24,7 @@ import net.jcip.annotations.GuardedBy;
 import org.dellroad.stuff.io.ByteBufferInputStream;
 import org.jsimpledb.kv.KVTransactionException;
 import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.mvcc.MutableView;
 import org.jsimpledb.kv.mvcc.Reads;
 import org.jsimpledb.kv.mvcc.Writes;
 import org.jsimpledb.kv.raft.msg.AppendRequest;
@@ -32,8 +33,13 @@ import org.jsimpledb.kv.raft.msg.CommitRequest;
 import org.jsimpledb.kv.raft.msg.CommitResponse;
 import org.jsimpledb.kv.raft.msg.GrantVote;
 import org.jsimpledb.kv.raft.msg.InstallSnapshot;
+import org.jsimpledb.kv.raft.msg.InstallSnapshotResponse;
 import org.jsimpledb.kv.raft.msg.Message;
+import org.jsimpledb.kv.raft.msg.ReadIndexRequest;
+import org.jsimpledb.kv.raft.msg.ReadIndexResponse;
 import org.jsimpledb.kv.raft.msg.RequestVote;
+import org.jsimpledb.kv.raft.msg.TimeoutNow;
+import org.jsimpledb.kv.util.NavigableMapKVStore;
 
 /**
  * Raft leader role.
@@ -51,6 +57,20 @@ public class LeaderRole extends Role {
     @GuardedBy("raft")
     private Timestamp leaseTimeout;
 
+    // Follower leader timestamps prior to this time may predate an aborted leadership transfer and don't count toward our lease
+    @GuardedBy("raft")
+    private Timestamp leaseResumeTime;
+
+    // Read-write transactions waiting to be coalesced into a single log entry
+    @GuardedBy("raft")
+    private final ArrayList<PendingCommit> pendingCommits = new ArrayList<>();
+
+    // In-progress leadership transfer, if any
+    @GuardedBy("raft")
+    private Follower transferTarget;
+    @GuardedBy("raft")
+    private boolean timeoutNowSent;
+
     // Service tasks
     private final Service updateLeaderCommitIndexService = new Service(this, "update leader commitIndex") {
         @Override
@@ -82,6 +102,31 @@ public class LeaderRole extends Role {
             LeaderRole.this.scrubTimestamps();
         }
     });
+    private final Service flushPendingCommitsService = new Service(this, "flush pending commits") {
+        @Override
+        public void run() {
+            LeaderRole.this.flushPendingCommits();
+        }
+    };
+    private final Timer commitBatchTimer = new Timer(this.raft, "commit batch", this.flushPendingCommitsService);
+    private final Service checkLeadershipTransferService = new Service(this, "check leadership transfer") {
+        @Override
+        public void run() {
+            LeaderRole.this.checkLeadershipTransfer();
+        }
+    };
+    private final Timer transferTimer = new Timer(this.raft, "leadership transfer", new Service(this, "transfer timeout") {
+        @Override
+        public void run() {
+            LeaderRole.this.checkLeadershipTransferTimeout();
+        }
+    });
+    private final Timer preferredLeaderTimer = new Timer(this.raft, "preferred leader", new Service(this, "preferred leader") {
+        @Override
+        public void run() {
+            LeaderRole.this.checkPreferredLeader();
+        }
+    });
 
 // Constructors
 
@@ -126,7 +171,8 @@ public class LeaderRole extends Role {
      * In that case this method returns null.
      *
      * <p>
-     * This method may also return null if a previous lease timeout has gotten very stale (e.g., isolated leader).
+     * This method may also return null if a previous lease timeout has gotten very stale (e.g., isolated leader),
+     * or while a {@linkplain #transferLeadership leadership transfer} is in progress.
      *
      * @return this leader's lease timeout, or null if none is established yet
      */
@@ -149,6 +195,54 @@ public class LeaderRole extends Role {
         }
     }
 
+    /**
+     * Transfer leadership to the specified follower.
+     *
+     * <p>
+     * Unlike {@link #stepDown}, this does not leave the cluster without a leader for an election timeout,
+     * and the new leader is predictable. This leader stops appending new log entries, brings the follower's
+     * log up to date, and then tells the follower to start an election immediately, which it will win.
+     * Transactions that become ready to commit in the meantime are delayed (local transactions) or retried
+     * (transactions from followers).
+     *
+     * <p>
+     * This method returns immediately. The transfer is abandoned, and this leader resumes normal operation,
+     * if it has not completed within the {@linkplain RaftKVDatabase#getMaxElectionTimeout maximum election timeout}.
+     *
+     * @param identity identity of the follower to become leader
+     * @throws IllegalStateException if this role is no longer active
+     * @throws IllegalStateException if a leadership transfer is already in progress
+     * @throws IllegalArgumentException if {@code identity} is null
+     * @throws IllegalArgumentException if {@code identity} is not a follower that is a voting member of the cluster
+     * @see RaftKVDatabase#setPreferredLeader
+     */
+    public void transferLeadership(String identity) {
+        Preconditions.checkArgument(identity != null, "null identity");
+        synchronized (this.raft) {
+            Preconditions.checkState(this.raft.role == this, "role is no longer active");
+            Preconditions.checkState(this.transferTarget == null,
+              "leadership transfer to \"" + (this.transferTarget != null ? this.transferTarget.getIdentity() : null)
+              + "\" is already in progress");
+            final Follower follower = this.followerMap.get(identity);
+            Preconditions.checkArgument(follower != null && this.raft.isClusterMember(identity),
+              "\"" + identity + "\" is not a follower that is a voting member of the cluster");
+            this.debug("transferring leadership to \"" + identity + "\" due to invocation of transferLeadership()");
+            this.startLeadershipTransfer(follower);
+        }
+    }
+
+    /**
+     * Get the follower to which leadership is currently being transferred, if any.
+     *
+     * @return identity of the follower to which leadership is being transferred, or null if no transfer is in progress
+     * @see #transferLeadership
+     */
+    public String getLeadershipTransferTarget() {
+        synchronized (this.raft) {
+            return this.transferTarget != null ? this.transferTarget.getIdentity() : null;
+        }
+    }
+
 // Lifecycle
 
     @Override
@@ -183,6 +277,9 @@ public class LeaderRole extends Role {
 
         // Start timestamp scrub timer
         this.timestampScrubTimer.timeoutAfter(TIMESTAMP_SCRUB_INTERVAL);
+
+        // Start preferred leader timer
+        this.preferredLeaderTimer.timeoutAfter(this.raft.maxElectionTimeout);
     }
 
     @Override
@@ -192,6 +289,14 @@ public class LeaderRole extends Role {
           .forEach(Follower::cleanup);
         this.checkApplyTimer.cancel();
         this.timestampScrubTimer.cancel();
+        this.commitBatchTimer.cancel();
+        this.transferTimer.cancel();
+        this.preferredLeaderTimer.cancel();
+        for (PendingCommit pendingCommit : this.pendingCommits) {
+            if (pendingCommit.tx == null)                   // local transactions will be handled by the next role
+                pendingCommit.fail("leader stepped down before transaction could be committed");
+        }
+        this.pendingCommits.clear();
         super.shutdown();
     }
 
@@ -297,7 +402,7 @@ public class LeaderRole extends Role {
         assert Thread.holdsLock(this.raft);
 
         // Find highest index for which a majority of cluster members have ack'd the corresponding log entry from my term
-        final int totalCount = this.raft.currentConfig.size();                          // total possible nodes
+        final int totalCount = this.raft.countClusterMembers();                         // total possible nodes
         final int requiredCount = totalCount / 2 + 1;                                   // require a majority
         final int startingCount = this.raft.isClusterMember() ? 1 : 0;                  // count myself, if member
         long maxCommitIndex = this.raft.commitIndex;
@@ -332,6 +437,10 @@ public class LeaderRole extends Role {
                 this.debug("advancing commit index from " + this.raft.commitIndex + " -> " + maxCommitIndex + " based on "
                   + commitCount + "/" + totalCount + " nodes having received " + this.raft.getLogEntryAtIndex(maxCommitIndex));
             }
+            for (long index = this.raft.commitIndex + 1; index <= maxCommitIndex; index++) {
+                this.raft.metricsTracker.recordMicros(RaftMetrics.Stage.FOLLOWER_ACK,
+                  this.raft.getLogEntryAtIndex(index).getAge() * 1000L);
+            }
             this.raft.commitIndex = maxCommitIndex;
 
             // Perform various service
@@ -358,7 +467,7 @@ public class LeaderRole extends Role {
         // Count the number of followers (who are also cluster members) that have a copy of the log entry at the specified index
         int nodesWithLogEntry = 0;
         for (Follower follower : this.followerMap.values()) {
-            if (follower.hasLogEntry(index))
+            if (this.raft.isClusterMember(follower.getIdentity()) && follower.hasLogEntry(index))
                 nodesWithLogEntry++;
         }
 
@@ -384,14 +493,22 @@ public class LeaderRole extends Role {
         if (numFollowers == 0)
             return;
 
+        // During a leadership transfer, the target may be elected at any time, so we have no lease
+        if (this.transferTarget != null)
+            return;
+
         // Get all cluster member leader timestamps, sorted in increasing order
-        final Timestamp[] leaderTimestamps = new Timestamp[this.raft.currentConfig.size()];
+        final Timestamp[] leaderTimestamps = new Timestamp[this.raft.countClusterMembers()];
         int index = 0;
         if (this.raft.isClusterMember())
             leaderTimestamps[index++] = new Timestamp();                        // this represents my own vote
         for (Follower follower : this.followerMap.values()) {
-            if (this.raft.isClusterMember(follower.getIdentity()))
-                leaderTimestamps[index++] = follower.getLeaderTimestamp();      // note follower timestamps could be null
+            if (!this.raft.isClusterMember(follower.getIdentity()))
+                continue;
+            Timestamp leaderTimestamp = follower.getLeaderTimestamp();          // note follower timestamps could be null
+            if (leaderTimestamp != null && this.leaseResumeTime != null && leaderTimestamp.compareTo(this.leaseResumeTime) < 0)
+                leaderTimestamp = null;
+            leaderTimestamps[index++] = leaderTimestamp;
         }
         Arrays.sort(leaderTimestamps, Timestamp.NULL_FIRST_SORT);
 
@@ -406,7 +523,10 @@ public class LeaderRole extends Role {
         // The minimum leaderTimeout shared by a majority of nodes is at index (leaderTimestamps.length - 1) / 2.
         // We then add the minimum election timeout, then subtract a little for clock drift.
         //
-        final Timestamp newLeaseTimeout = leaderTimestamps[(leaderTimestamps.length + 1) / 2]
+        final Timestamp majorityTimestamp = leaderTimestamps[(leaderTimestamps.length - 1) / 2];
+        if (majorityTimestamp == null)                                          // not heard from a majority yet
+            return;
+        final Timestamp newLeaseTimeout = majorityTimestamp
           .offset((int)(this.raft.minElectionTimeout * (1.0f - RaftKVDatabase.MAX_CLOCK_DRIFT) - 1));
         if (Timestamp.NULL_FIRST_SORT.compare(newLeaseTimeout, this.leaseTimeout) > 0) {
             assert newLeaseTimeout != null;
@@ -427,6 +547,17 @@ public class LeaderRole extends Role {
         }
     }
 
+    /**
+     * Determine whether our lease guarantees that no other leader could have been elected as of the given time.
+     *
+     * <p>
+     * This is never the case while a leadership transfer is in progress.
+     */
+    private boolean isLeaseValid(Timestamp time) {
+        assert Thread.holdsLock(this.raft);
+        return this.transferTarget == null && this.leaseTimeout != null && this.leaseTimeout.compareTo(time) > 0;
+    }
+
     /**
      * Scrub timestamps to avoid roll-over.
      *
@@ -464,6 +595,11 @@ public class LeaderRole extends Role {
                 this.debug("scrubbing leader lease timestamp " + this.leaseTimeout);
             this.leaseTimeout = null;
         }
+        if (this.leaseResumeTime != null && this.leaseResumeTime.isRolloverDanger()) {
+            if (this.log.isDebugEnabled())
+                this.debug("scrubbing leader lease resume timestamp " + this.leaseResumeTime);
+            this.leaseResumeTime = null;
+        }
     }
 
     /**
@@ -506,7 +642,7 @@ public class LeaderRole extends Role {
 
         // Add new followers
         for (String peer : adds) {
-            final String address = this.raft.currentConfig.get(peer);
+            final String address = RaftKVDatabase.getPeerAddress(this.raft.currentConfig.get(peer));
             final Follower follower = new Follower(this.raft, peer, address, this.raft.getLastLogIndex());
             if (this.log.isDebugEnabled())
                 this.debug("adding new follower \"" + peer + "\" at " + address);
@@ -543,6 +679,7 @@ public class LeaderRole extends Role {
      *  <li>After sending a {@link CommitResponse} with a non-null {@linkplain CommitResponse#getCommitLeaderLeaseTimeout
      *      commit leader lease timeout} (all followers) to probe for updated leader timestamps</li>
      *  <li>After starting, aborting, or completing a snapshot install for a follower</li>
+     *  <li>After receiving an {@link InstallSnapshotResponse} that acknowledged one or more snapshot install chunks</li>
      * </ul>
      */
     private void updateFollower(Follower follower) {
@@ -568,37 +705,58 @@ public class LeaderRole extends Role {
         // Handle any in-progress snapshot install
         if ((snapshotTransmit = follower.getSnapshotTransmit()) != null) {
 
-            // Send the next chunk in transmission, if any
-            final long pairIndex = snapshotTransmit.getPairIndex();
-            final ByteBuffer chunk = snapshotTransmit.getNextChunk();
-            boolean synced = true;
-            if (chunk != null) {
-
-                // Send next chunk
-                final InstallSnapshot msg = new InstallSnapshot(this.raft.clusterId, this.raft.identity, peer,
-                  this.raft.currentTerm, snapshotTransmit.getSnapshotTerm(), snapshotTransmit.getSnapshotIndex(), pairIndex,
-                  pairIndex == 0 ? snapshotTransmit.getSnapshotConfig() : null, !snapshotTransmit.hasMoreChunks(), chunk);
-                if (this.raft.sendMessage(msg)) {
-                    follower.setSnapshotTimestamp(new Timestamp());
-                    return;
+            // If chunks have gone unacknowledged for too long, assume they were lost and resume from the last acknowledged chunk
+            if (snapshotTransmit.getInFlightCount() > 0 && snapshotTransmit.getInFlightAge() >= 2 * this.raft.heartbeatTimeout) {
+                if (this.log.isDebugEnabled()) {
+                    this.debug("snapshot install chunks for " + follower + " unacknowledged after "
+                      + snapshotTransmit.getInFlightAge() + "ms; resuming from pair index " + snapshotTransmit.getAckedPairIndex());
                 }
-                if (this.log.isDebugEnabled())
-                    this.debug("canceling snapshot install for " + follower + " due to failure to send " + msg);
+                snapshotTransmit.rewind();
+            }
 
-                // Message failed -> snapshot is fatally wounded, so cancel it
-                synced = false;
+            // Send the next chunk in transmission, if any, unless too many chunks are awaiting acknowledgement
+            if (snapshotTransmit.hasMoreChunks()) {
+                if (snapshotTransmit.getInFlightCount() < this.raft.maxSnapshotChunksInFlight) {
+                    final SnapshotTransmit.Chunk chunk = snapshotTransmit.getNextChunk();
+                    final long pairIndex = chunk.getPairIndex();
+                    final InstallSnapshot msg = new InstallSnapshot(this.raft.clusterId, this.raft.identity, peer,
+                      this.raft.currentTerm, snapshotTransmit.getSnapshotTerm(), snapshotTransmit.getSnapshotIndex(), pairIndex,
+                      pairIndex == 0 ? snapshotTransmit.getSnapshotConfig() : null, chunk.isLastChunk(), chunk.isCompressed(),
+                      chunk.getData());
+                    if (this.raft.sendMessage(msg)) {
+                        follower.setSnapshotTimestamp(new Timestamp());
+                        return;
+                    }
+
+                    // Message failed -> resume from the last acknowledged chunk when we try again
+                    if (this.log.isDebugEnabled()) {
+                        this.debug("failed to send " + msg + " for snapshot install to " + follower
+                          + "; will resume from pair index " + snapshotTransmit.getAckedPairIndex());
+                    }
+                    snapshotTransmit.rewind();
+                }
+
+                // Check back later in case acknowledgements don't arrive
+                follower.getUpdateTimer().timeoutAfter(this.raft.heartbeatTimeout);
+                return;
             }
-            if (synced) {
-                if (this.log.isDebugEnabled())
-                    this.debug("completed snapshot install for out-of-date " + follower);
+
+            // Wait for the follower to acknowledge all chunks
+            if (!snapshotTransmit.isComplete()) {
+                if (this.log.isTraceEnabled())
+                    this.trace("no update for \"" + peer + "\": waiting for snapshot install acknowledgement");
+                follower.getUpdateTimer().timeoutAfter(this.raft.heartbeatTimeout);
+                return;
             }
+            if (this.log.isDebugEnabled())
+                this.debug("completed snapshot install for out-of-date " + follower);
 
-            // Snapshot transmit is complete (or failed)
+            // Snapshot transmit is complete
             follower.cancelSnapshotTransmit();
 
             // Trigger an immediate regular update
             follower.setNextIndex(snapshotTransmit.getSnapshotIndex() + 1);
-            follower.setSynced(synced);
+            follower.setSynced(true);
             follower.updateNow();
             this.raft.requestService(new UpdateFollowerService(follower));
             return;
@@ -635,7 +793,7 @@ public class LeaderRole extends Role {
         if (nextIndex <= this.raft.lastAppliedIndex) {
             final MostRecentView view = new MostRecentView(this.raft, true);
             follower.setSnapshotTransmit(new SnapshotTransmit(view.getTerm(),
-              view.getIndex(), view.getConfig(), view.getSnapshot(), view.getView()));
+              view.getIndex(), view.getConfig(), view.getSnapshot(), view.getView(), this.raft.snapshotCompression));
             if (this.log.isDebugEnabled())
                 this.debug("started snapshot install for out-of-date " + follower);
             this.raft.requestService(new UpdateFollowerService(follower));
@@ -726,6 +884,122 @@ public class LeaderRole extends Role {
         }
     }
 
+// Leadership transfer
+
+    private void startLeadershipTransfer(Follower follower) {
+        assert Thread.holdsLock(this.raft);
+        assert this.transferTarget == null;
+
+        // Get any coalesced transactions into the log first; no new log entries will be appended during the transfer
+        this.flushPendingCommits();
+
+        // Start transfer
+        this.transferTarget = follower;
+        this.timeoutNowSent = false;
+
+        // Once the target receives TimeoutNow it can be elected immediately, so our lease can no longer be relied upon
+        this.leaseTimeout = null;
+        this.transferTimer.timeoutAfter(this.raft.maxElectionTimeout);
+        follower.updateNow();
+        this.raft.requestService(new UpdateFollowerService(follower));
+        this.raft.requestService(this.checkLeadershipTransferService);
+    }
+
+    /**
+     * Check whether the target of an in-progress leadership transfer is ready for a {@link TimeoutNow} and send it if so.
+     *
+     * <p>
+     * This should be invoked:
+     * <ul>
+     *  <li>After a leadership transfer starts</li>
+     *  <li>After the target follower's {@linkplain Follower#getMatchIndex match index} has advanced</li>
+     * </ul>
+     */
+    private void checkLeadershipTransfer() {
+        assert Thread.holdsLock(this.raft);
+
+        // Anything to do?
+        final Follower follower = this.transferTarget;
+        if (follower == null || this.timeoutNowSent)
+            return;
+
+        // Is the follower still eligible?
+        final String peer = follower.getIdentity();
+        if (this.followerMap.get(peer) != follower || !this.raft.isClusterMember(peer)) {
+            this.abortLeadershipTransfer("\"" + peer + "\" is no longer a voting member of the cluster");
+            return;
+        }
+
+        // Wait for the follower's log to catch up with ours
+        if (follower.getSnapshotTransmit() != null || follower.getMatchIndex() < this.raft.getLastLogIndex()) {
+            if (this.log.isTraceEnabled())
+                this.trace("leadership transfer: waiting for " + follower + " to catch up to " + this.raft.getLastLogIndex());
+            return;
+        }
+
+        // Tell the follower to start an election
+        if (this.log.isDebugEnabled())
+            this.debug("leadership transfer: " + follower + " is up to date; telling it to start an election");
+        this.timeoutNowSent = this.raft.sendMessage(new TimeoutNow(this.raft.clusterId, this.raft.identity, peer,
+          this.raft.currentTerm, this.raft.getLastLogTerm(), this.raft.getLastLogIndex()));
+    }
+
+    private void checkLeadershipTransferTimeout() {
+        assert Thread.holdsLock(this.raft);
+        if (this.transferTimer.pollForTimeout())
+            this.abortLeadershipTransfer("not completed after " + this.raft.maxElectionTimeout + "ms");
+    }
+
+    private void abortLeadershipTransfer(String reason) {
+        assert Thread.holdsLock(this.raft);
+        assert this.transferTarget != null;
+        if (this.log.isDebugEnabled())
+            this.debug("aborting leadership transfer to \"" + this.transferTarget.getIdentity() + "\": " + reason);
+        this.transferTarget = null;
+        this.timeoutNowSent = false;
+        this.transferTimer.cancel();
+
+        // Re-establish our lease, but only from followers' responses to requests we send from now on
+        this.leaseResumeTime = new Timestamp();
+        this.updateAllSynchronizedFollowersNow();
+
+        // Resume committing transactions
+        this.raft.requestService(this.checkReadyTransactionsService);
+    }
+
+    /**
+     * Transfer leadership to the {@linkplain RaftKVDatabase#setPreferredLeader preferred leader}, if any, when it is ready.
+     *
+     * <p>
+     * This should be invoked periodically.
+     */
+    private void checkPreferredLeader() {
+        assert Thread.holdsLock(this.raft);
+
+        // Check periodically
+        if (!this.preferredLeaderTimer.pollForTimeout())
+            return;
+        this.preferredLeaderTimer.timeoutAfter(this.raft.maxElectionTimeout);
+
+        // Is there a preferred leader other than us, and no transfer already in progress?
+        final String preferredLeader = this.raft.preferredLeader;
+        if (preferredLeader == null || preferredLeader.equals(this.raft.identity) || this.transferTarget != null)
+            return;
+
+        // Only transfer to a voting member that is keeping up with our log; we don't want to stall waiting for it
+        final Follower follower = this.followerMap.get(preferredLeader);
+        if (follower == null
+          || !this.raft.isClusterMember(preferredLeader)
+          || !follower.isSynced()
+          || follower.getSnapshotTransmit() != null)
+            return;
+
+        // Transfer leadership
+        if (this.log.isDebugEnabled())
+            this.debug("transferring leadership to preferred leader " + follower);
+        this.startLeadershipTransfer(follower);
+    }
+
 // Transactions
 
     @Override
@@ -735,6 +1009,10 @@ public class LeaderRole extends Role {
         assert Thread.holdsLock(this.raft);
         assert tx.getState().equals(TxState.COMMIT_READY);
 
+        // Already waiting to be coalesced?
+        if (this.pendingCommits.stream().anyMatch(pendingCommit -> pendingCommit.tx == tx))
+            return;
+
         // Check for conflicts
         final String error = this.checkConflicts(tx.baseTerm, tx.baseIndex, tx.view.getReads(),
           this.raft.dumpConflicts ? "local txId=" + tx.txId : null);
@@ -744,9 +1022,13 @@ public class LeaderRole extends Role {
             throw new RetryTransactionException(tx, error);
         }
 
+        // If we are transferring leadership, wait; if the transfer succeeds, our follower role will handle the transaction
+        if (this.transferTarget != null)
+            return;
+
         // Handle read-only vs. read-write transaction
         if (readOnly) {
-            if (this.leaseTimeout != null && this.leaseTimeout.offsetFromNow() > 0)
+            if (this.isLeaseValid(new Timestamp()))
                 this.advanceReadyTransaction(tx, tx.baseTerm, tx.baseIndex);
             else
                 this.advanceReadyTransaction(tx, this.raft.getLastLogTerm(), this.raft.getLastLogIndex());
@@ -757,6 +1039,12 @@ public class LeaderRole extends Role {
             if (tx.getConfigChange() != null && !this.mayApplyNewConfigChange())
                 return;
 
+            // Coalesce with other transactions, if configured
+            if (tx.getConfigChange() == null && this.raft.commitBatchWindow > 0) {
+                this.addPendingCommit(new PendingCommit(tx));
+                return;
+            }
+
             // Commit transaction as a new log entry
             final LogEntry logEntry;
             try {
@@ -777,6 +1065,12 @@ public class LeaderRole extends Role {
         }
     }
 
+    @Override
+    void cleanupForTransaction(RaftKVTransaction tx) {
+        assert Thread.holdsLock(this.raft);
+        this.pendingCommits.removeIf(pendingCommit -> pendingCommit.tx == tx);
+    }
+
     // Determine whether it's safe to append a log entry with a configuration change
     private boolean mayApplyNewConfigChange() {
         assert Thread.holdsLock(this.raft);
@@ -796,6 +1090,108 @@ public class LeaderRole extends Role {
         return true;
     }
 
+// Commit coalescing
+
+    /**
+     * Add a read-write transaction to the batch of transactions waiting to be coalesced into a single log entry.
+     *
+     * <p>
+     * The batch is flushed after the {@linkplain RaftKVDatabase#setCommitBatchWindow commit batch window}
+     * expires, or sooner if the batch reaches the {@linkplain RaftKVDatabase#setMaxCommitBatchSize maximum size}.
+     */
+    private void addPendingCommit(PendingCommit pendingCommit) {
+        assert Thread.holdsLock(this.raft);
+        if (this.log.isTraceEnabled())
+            this.trace("adding " + pendingCommit + " to commit batch (size " + this.pendingCommits.size() + ")");
+        this.pendingCommits.add(pendingCommit);
+        if (this.pendingCommits.size() >= this.raft.maxCommitBatchSize)
+            this.raft.requestService(this.flushPendingCommitsService);
+        else if (!this.commitBatchTimer.isRunning())
+            this.commitBatchTimer.timeoutAfter(this.raft.commitBatchWindow);
+    }
+
+    /**
+     * Append all pending read-write transactions to the Raft log as a single log entry.
+     *
+     * <p>
+     * Each transaction is checked for conflicts against the log entries appended since it was based, and against
+     * the writes of the transactions ahead of it in the batch; the latter are serialized before it. Transactions that
+     * conflict are retried. The combined writes of the remaining transactions are appended as a single log entry,
+     * which becomes the commit term and index of each of them.
+     *
+     * <p>
+     * This should be invoked:
+     * <ul>
+     *  <li>After the commit batch timer expires</li>
+     *  <li>After the number of pending transactions reaches the maximum batch size</li>
+     * </ul>
+     */
+    private void flushPendingCommits() {
+        assert Thread.holdsLock(this.raft);
+
+        // Grab batch
+        this.commitBatchTimer.cancel();
+        if (this.pendingCommits.isEmpty())
+            return;
+        final ArrayList<PendingCommit> batch = new ArrayList<>(this.pendingCommits);
+        this.pendingCommits.clear();
+
+        // Check for conflicts and combine writes
+        final ArrayList<PendingCommit> accepted = new ArrayList<>(batch.size());
+        final MutableView combined = new MutableView(new NavigableMapKVStore(), null, new Writes());
+        for (PendingCommit pendingCommit : batch) {
+            if (pendingCommit.tx != null && !pendingCommit.tx.getState().equals(TxState.COMMIT_READY))
+                continue;
+            String error = null;
+            if (pendingCommit.reads != null) {                                  // remote commit requests may omit reads
+                error = this.checkConflicts(pendingCommit.getBaseTerm(), pendingCommit.getBaseIndex(), pendingCommit.reads,
+                  this.raft.dumpConflicts ? pendingCommit.getDescription() : null);
+            }
+            if (error == null && pendingCommit.reads != null && pendingCommit.reads.isConflict(combined.getWrites())) {
+                this.trackConflicts(pendingCommit.reads, combined.getWrites());
+                error = "writes of transaction(s) coalesced ahead of transaction conflict with transaction reads";
+            }
+            if (error != null) {
+                if (this.log.isDebugEnabled())
+                    this.debug(pendingCommit + " failed due to conflict: " + error);
+                pendingCommit.fail(error);
+                continue;
+            }
+            pendingCommit.data.getWrites().applyTo(combined);
+            accepted.add(pendingCommit);
+        }
+        if (accepted.isEmpty())
+            return;
+
+        // Commit mutations as a new log entry; if there's only one transaction, we can use its data directly
+        final boolean single = accepted.size() == 1;
+        final LogEntry logEntry;
+        NewLogEntry newLogEntry = null;
+        try {
+            newLogEntry = new NewLogEntry(this.raft, single ?
+              accepted.get(0).data : new LogEntry.Data(combined.getWrites(), null));
+            logEntry = this.applyNewLogEntry(newLogEntry);
+        } catch (Exception e) {
+            if (!(e instanceof IllegalStateException))
+                this.error("error appending new log entry for " + accepted.size() + " coalesced transaction(s)", e);
+            final String error = e.getMessage() != null ? e.getMessage() : "" + e;
+            accepted.forEach(pendingCommit -> pendingCommit.fail(error));
+            return;
+        } finally {
+            if (newLogEntry != null)
+                newLogEntry.cleanup(this.raft);
+        }
+        if (this.log.isDebugEnabled())
+            this.debug("added log entry " + logEntry + " for " + accepted.size() + " coalesced transaction(s)");
+
+        // Update transactions and notify followers
+        for (PendingCommit pendingCommit : accepted)
+            pendingCommit.succeed(logEntry, single);
+
+        // Rebase transactions
+        this.rebaseTransactions();
+    }
+
 // Message
 
     @Override
@@ -840,8 +1236,10 @@ public class LeaderRole extends Role {
         if (msg.getMatchIndex() > follower.getMatchIndex()) {
             follower.setMatchIndex(msg.getMatchIndex());
             this.raft.requestService(this.updateLeaderCommitIndexService);
-            if (!this.raft.isClusterMember(follower.getIdentity()))
+            if (!this.raft.currentConfig.containsKey(follower.getIdentity()))
                 this.raft.requestService(this.updateKnownFollowersService);
+            if (follower == this.transferTarget)
+                this.raft.requestService(this.checkLeadershipTransferService);
         }
 
         // Check result and update follower's next index
@@ -887,10 +1285,10 @@ public class LeaderRole extends Role {
 
         // Decode reads, if any, and check for conflicts
         final ByteBuffer readsData = msg.getReadsData();
+        Reads reads = null;
         if (readsData != null) {
 
             // Decode reads
-            final Reads reads;
             try {
                 reads = new Reads(new ByteBufferInputStream(msg.getReadsData()));
             } catch (Exception e) {
@@ -924,7 +1322,7 @@ public class LeaderRole extends Role {
             // are committed they are invisible to the transaction, and if they aren't ever committed then
             // whatever log entries replace them will necessarily have been created sometime after now.
             final CommitResponse response;
-            if (this.leaseTimeout != null && this.leaseTimeout.compareTo(minimumLeaseTimeout) > 0) {
+            if (this.isLeaseValid(minimumLeaseTimeout)) {
 
                 // No other leader could have been elected yet as of right now, so the transaction can commit immediately
                 response = new CommitResponse(this.raft.clusterId, this.raft.identity, msg.getSenderId(),
@@ -947,6 +1345,23 @@ public class LeaderRole extends Role {
         } else {
             assert newLogEntry != null;
 
+            // If we are transferring leadership, the follower must retry the transaction with the new leader
+            if (this.transferTarget != null) {
+                if (this.log.isDebugEnabled())
+                    this.debug("rejecting " + msg + " during leadership transfer to " + this.transferTarget);
+                this.raft.sendMessage(new CommitResponse(this.raft.clusterId, this.raft.identity, msg.getSenderId(),
+                  this.raft.currentTerm, msg.getTxId(), "leadership transfer in progress"));
+                return;
+            }
+
+            // Coalesce with other transactions, if configured; we require a known address so we can respond later
+            if (newLogEntry.getData().getConfigChange() == null
+              && this.raft.commitBatchWindow > 0
+              && this.raft.currentConfig.containsKey(msg.getSenderId())) {
+                this.addPendingCommit(new PendingCommit(follower, msg, reads, newLogEntry.getData()));
+                return;
+            }
+
             // If the client is requesting a config change, we could check for an outstanding config change now and if so
             // delay our response until it completes, but that's not worth the trouble. Instead, applyNewLogEntry() will
             // throw an exception and the client will just just have to retry the transaction.
@@ -979,18 +1394,87 @@ public class LeaderRole extends Role {
         }
     }
 
+    @Override
+    void caseReadIndexRequest(ReadIndexRequest msg) {
+        assert Thread.holdsLock(this.raft);
+
+        // Find follower
+        final Follower follower = this.findFollower(msg);
+        if (follower == null)
+            return;
+
+        // Determine the read index. Our commit index includes every log entry committed prior to now, but only once we have
+        // committed a log entry from our own term; until then, use our last log entry, which can't get committed before then.
+        final long readIndex = this.raft.getLogTermAtIndex(this.raft.commitIndex) == this.raft.currentTerm ?
+          this.raft.commitIndex : this.raft.getLastLogIndex();
+        final long readTerm = this.raft.getLogTermAtIndex(readIndex);
+
+        // As with read-only commit requests, if our lease has not yet been established then another leader could have been
+        // elected in the meantime, so the follower must also wait until it sees that our lease timeout has advanced past now.
+        final Timestamp minimumLeaseTimeout = new Timestamp();
+        final ReadIndexResponse response;
+        if (this.isLeaseValid(minimumLeaseTimeout)) {
+            response = new ReadIndexResponse(this.raft.clusterId, this.raft.identity, msg.getSenderId(),
+              this.raft.currentTerm, msg.getRequestId(), readTerm, readIndex, null);
+        } else {
+
+            // Remember that this follower is now going to be waiting for this particular leaseTimeout
+            follower.getCommitLeaseTimeouts().add(minimumLeaseTimeout);
+
+            // Send immediate probes to all (up-to-date) followers in an attempt to increase our leaseTimeout quickly
+            this.updateAllSynchronizedFollowersNow();
+
+            // Build response
+            response = new ReadIndexResponse(this.raft.clusterId, this.raft.identity, msg.getSenderId(),
+              this.raft.currentTerm, msg.getRequestId(), readTerm, readIndex, minimumLeaseTimeout);
+        }
+
+        // Send response
+        this.raft.sendMessage(response);
+    }
+
     @Override
     void caseCommitResponse(CommitResponse msg) {
         assert Thread.holdsLock(this.raft);
         this.failDuplicateLeader(msg);
     }
 
+    @Override
+    void caseReadIndexResponse(ReadIndexResponse msg) {
+        assert Thread.holdsLock(this.raft);
+        this.failDuplicateLeader(msg);
+    }
+
     @Override
     void caseInstallSnapshot(InstallSnapshot msg) {
         assert Thread.holdsLock(this.raft);
         this.failDuplicateLeader(msg);
     }
 
+    @Override
+    void caseInstallSnapshotResponse(InstallSnapshotResponse msg) {
+        assert Thread.holdsLock(this.raft);
+
+        // Find follower
+        final Follower follower = this.findFollower(msg);
+        if (follower == null)
+            return;
+
+        // Ignore if response does not correspond to the in-progress snapshot install, if any
+        final SnapshotTransmit snapshotTransmit = follower.getSnapshotTransmit();
+        if (snapshotTransmit == null
+          || snapshotTransmit.getSnapshotTerm() != msg.getSnapshotTerm()
+          || snapshotTransmit.getSnapshotIndex() != msg.getSnapshotIndex()) {
+            if (this.log.isTraceEnabled())
+                this.trace("rec'd " + msg + " not matching in-progress snapshot install for " + follower + "; ignoring");
+            return;
+        }
+
+        // Record acknowledgement and send more chunks if possible
+        if (snapshotTransmit.acknowledge(msg.getPairIndex(), msg.isComplete()))
+            this.raft.requestService(new UpdateFollowerService(follower));
+    }
+
     @Override
     void caseRequestVote(RequestVote msg) {
         assert Thread.holdsLock(this.raft);
@@ -1009,6 +1493,12 @@ public class LeaderRole extends Role {
             this.debug("ignoring " + msg + " rec'd while in " + this);
     }
 
+    @Override
+    void caseTimeoutNow(TimeoutNow msg) {
+        assert Thread.holdsLock(this.raft);
+        this.failDuplicateLeader(msg);
+    }
+
     private void failDuplicateLeader(Message msg) {
         assert Thread.holdsLock(this.raft);
 
@@ -1028,6 +1518,8 @@ public class LeaderRole extends Role {
         synchronized (this.raft) {
             return this.toStringPrefix()
               + ",followerMap=" + this.followerMap
+              + (!this.pendingCommits.isEmpty() ? ",pendingCommits=" + this.pendingCommits.size() : "")
+              + (this.transferTarget != null ? ",transferTarget=\"" + this.transferTarget.getIdentity() + "\"" : "")
               + "]";
         }
     }
@@ -1037,7 +1529,7 @@ public class LeaderRole extends Role {
     @Override
     boolean checkState() {
         assert Thread.holdsLock(this.raft);
-        assert this.checkApplyTimer.isRunning() == !this.raft.raftLog.isEmpty();
+        assert this.checkApplyTimer.isRunning() || this.raft.raftLog.isEmpty();
         for (Follower follower : this.followerMap.values()) {
             assert follower.getNextIndex() <= this.raft.getLastLogIndex() + 1;
             assert follower.getMatchIndex() <= this.raft.getLastLogIndex() + 1;
@@ -1045,6 +1537,10 @@ public class LeaderRole extends Role {
             assert follower.getUpdateTimer().isRunning() || follower.getSnapshotTransmit() != null;
         }
         assert this.timestampScrubTimer.isRunning();
+        assert this.preferredLeaderTimer.isRunning();
+        assert this.transferTarget == null || this.transferTimer.isRunning();
+        assert this.transferTarget == null || this.leaseTimeout == null;
+        assert this.transferTarget != null || !this.timeoutNowSent;
         return true;
     }
 
@@ -1079,6 +1575,7 @@ public class LeaderRole extends Role {
      *
      * @throws IllegalStateException if a config change would not be safe at the current time
      * @throws IllegalArgumentException if the config change attempts to remove the last node
+     *  or the last voting member
      */
     private LogEntry applyNewLogEntry(NewLogEntry newLogEntry) throws Exception {
         assert Thread.holdsLock(this.raft);
@@ -1097,6 +1594,16 @@ public class LeaderRole extends Role {
                 if (configChange[0].equals(lastNode))
                     throw new IllegalArgumentException("can't remove the last node in a cluster (\"" + lastNode + "\")");
             }
+
+            // Disallow a configuration change that removes, or converts into a learner, the last voting member in a cluster
+            final HashMap<String, String> newConfig = new HashMap<>(this.raft.currentConfig);
+            if (configChange[1] != null)
+                newConfig.put(configChange[0], configChange[1]);
+            else
+                newConfig.remove(configChange[0]);
+            if (RaftKVDatabase.countClusterMembers(newConfig) == 0)
+                throw new IllegalArgumentException("can't remove the last voting member in a cluster (\""
+                  + configChange[0] + "\")");
         }
 
         // Append new log entry to the Raft log
@@ -1106,8 +1613,10 @@ public class LeaderRole extends Role {
         if (configChange != null)
             this.raft.requestService(this.updateKnownFollowersService);
 
-        // Update commit index (this is only needed if config has changed, or in the single node case)
-        if (configChange != null || this.followerMap.isEmpty())
+        // Update commit index (this is only needed if config has changed, or in the single voting node case)
+        if (configChange != null
+          || this.followerMap.isEmpty()
+          || (this.raft.countClusterMembers() == 1 && this.raft.isClusterMember()))
             this.raft.requestService(this.updateLeaderCommitIndexService);
 
         // Immediately update all up-to-date followers
@@ -1131,6 +1640,15 @@ public class LeaderRole extends Role {
      */
     private String checkConflicts(long baseTerm, long baseIndex, Reads reads, String dumpDescription) {
         assert Thread.holdsLock(this.raft);
+        final long startTime = System.nanoTime();
+        try {
+            return this.doCheckConflicts(baseTerm, baseIndex, reads, dumpDescription);
+        } finally {
+            this.raft.metricsTracker.record(RaftMetrics.Stage.CONFLICT_CHECK, startTime);
+        }
+    }
+
+    private String doCheckConflicts(long baseTerm, long baseIndex, Reads reads, String dumpDescription) {
 
         // Validate the index of the log entry on which the transaction is based
         final long minIndex = this.raft.lastAppliedIndex;
@@ -1153,6 +1671,7 @@ public class LeaderRole extends Role {
             if (reads.isConflict(logEntry.getWrites())) {
                 if (dumpDescription != null)
                     this.dumpConflicts(reads, logEntry, dumpDescription);
+                this.trackConflicts(reads, logEntry.getWrites());
                 return "writes of committed transaction at index " + index
                   + " conflict with transaction reads from transaction base index " + baseIndex;
             }
@@ -1169,5 +1688,80 @@ public class LeaderRole extends Role {
             this.warn("rec'd " + msg + " from unknown follower \"" + msg.getSenderId() + "\", ignoring");
         return follower;
     }
+
+// PendingCommit
+
+    /**
+     * A read-write transaction, either local or from a follower, waiting to be coalesced into a single log entry.
+     */
+    private class PendingCommit {
+
+        final RaftKVTransaction tx;                         // local transaction, or null if remote
+        final Follower follower;                            // remote follower, or null if local
+        final CommitRequest msg;                            // remote commit request, or null if local
+        final Reads reads;                                  // transaction reads, or null if none
+        final LogEntry.Data data;                           // transaction writes
+
+        PendingCommit(RaftKVTransaction tx) {
+            this.tx = tx;
+            this.follower = null;
+            this.msg = null;
+            this.reads = tx.view.getReads();
+            this.data = new LogEntry.Data(tx.view.getWrites(), null);
+        }
+
+        PendingCommit(Follower follower, CommitRequest msg, Reads reads, LogEntry.Data data) {
+            this.tx = null;
+            this.follower = follower;
+            this.msg = msg;
+            this.reads = reads;
+            this.data = data;
+        }
+
+        long getBaseTerm() {
+            return this.tx != null ? this.tx.baseTerm : this.msg.getBaseTerm();
+        }
+
+        long getBaseIndex() {
+            return this.tx != null ? this.tx.baseIndex : this.msg.getBaseIndex();
+        }
+
+        String getDescription() {
+            return this.tx != null ? "local txId=" + this.tx.txId : this.msg.getSenderId() + " txId=" + this.msg.getTxId();
+        }
+
+        void fail(String error) {
+            assert Thread.holdsLock(LeaderRole.this.raft);
+            final RaftKVDatabase raft = LeaderRole.this.raft;
+            if (this.tx != null)
+                raft.fail(this.tx, new RetryTransactionException(this.tx, error));
+            else {
+                raft.sendMessage(new CommitResponse(raft.clusterId, raft.identity, this.msg.getSenderId(),
+                  raft.currentTerm, this.msg.getTxId(), error));
+            }
+        }
+
+        void succeed(LogEntry logEntry, boolean single) {
+            assert Thread.holdsLock(LeaderRole.this.raft);
+            final RaftKVDatabase raft = LeaderRole.this.raft;
+            if (this.tx != null) {
+                LeaderRole.this.advanceReadyTransaction(this.tx, logEntry.getTerm(), logEntry.getIndex());
+                return;
+            }
+
+            // Follower transaction data optimization (only possible if the log entry contains exactly the follower's data)
+            if (single)
+                this.follower.getSkipDataLogEntries().add(logEntry);
+
+            // Send response
+            raft.sendMessage(new CommitResponse(raft.clusterId, raft.identity, this.msg.getSenderId(),
+              raft.currentTerm, this.msg.getTxId(), logEntry.getTerm(), logEntry.getIndex()));
+        }
+
+        @Override
+        public String toString() {
+            return "pending commit for " + this.getDescription();
+        }
+    }
 }
 
@@ -0,0 +1,89 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.jsimpledb.kv.util.Histogram;
+
+/**
+ * Accumulates the latency histograms and retry counts in {@link RaftMetrics} for a {@link RaftKVDatabase}.
+ *
+ * <p>
+ * Some latencies are recorded without holding the database lock; latency {@link Histogram}s are thread safe,
+ * and retry counts are synchronized on this instance.
+ */
+class MetricsTracker {
+
+    static final int MAX_RETRY_REASONS = 100;
+    static final String OTHER_RETRY_REASON = "(other)";
+
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("[0-9]+");
+    private static final Pattern QUOTED_PATTERN = Pattern.compile("\"[^\"]*\"");
+
+    private final EnumMap<RaftMetrics.Stage, Histogram> latencies = new EnumMap<>(RaftMetrics.Stage.class);
+    private final TreeMap<String, Long> retryCounts = new TreeMap<>();
+
+    MetricsTracker() {
+        for (RaftMetrics.Stage stage : RaftMetrics.Stage.values())
+            this.latencies.put(stage, new Histogram());
+    }
+
+    /**
+     * Record a latency sample.
+     *
+     * @param stage pipeline stage
+     * @param startTime value of {@link System#nanoTime} at the start of the stage
+     */
+    void record(RaftMetrics.Stage stage, long startTime) {
+        this.recordMicros(stage, (System.nanoTime() - startTime) / 1000);
+    }
+
+    /**
+     * Record a latency sample.
+     *
+     * @param stage pipeline stage
+     * @param micros latency in microseconds
+     */
+    void recordMicros(RaftMetrics.Stage stage, long micros) {
+        this.latencies.get(stage).record(micros);
+    }
+
+    /**
+     * Record a transaction retry.
+     *
+     * @param message the retry exception message
+     */
+    synchronized void retry(String message) {
+        String reason = message != null ? message : "";
+        reason = QUOTED_PATTERN.matcher(reason).replaceAll("\"*\"");
+        reason = NUMBER_PATTERN.matcher(reason).replaceAll("#");
+        if (!this.retryCounts.containsKey(reason) && this.retryCounts.size() >= MAX_RETRY_REASONS)
+            reason = OTHER_RETRY_REASON;
+        this.retryCounts.merge(reason, 1L, Long::sum);
+    }
+
+    synchronized void reset() {
+        for (Histogram latency : this.latencies.values())
+            latency.reset();
+        this.retryCounts.clear();
+    }
+
+    Map<RaftMetrics.Stage, Histogram> getLatencies() {
+        final EnumMap<RaftMetrics.Stage, Histogram> map = new EnumMap<>(RaftMetrics.Stage.class);
+        for (Map.Entry<RaftMetrics.Stage, Histogram> entry : this.latencies.entrySet())
+            map.put(entry.getKey(), new Histogram(entry.getValue()));
+        return map;
+    }
+
+    synchronized Map<String, Long> getRetryCounts() {
+        return new TreeMap<>(this.retryCounts);
+    }
+}
+
@@ -13,6 +13,7 @@ import org.jsimpledb.kv.KVStore;
 import org.jsimpledb.kv.mvcc.MutableView;
 import org.jsimpledb.kv.mvcc.Writes;
 import org.jsimpledb.kv.util.PrefixKVStore;
+import org.jsimpledb.util.LongEncoder;
 
 /**
  * A view of the database based on the most recent log entry, if any, otherwise directly on the committed key/value store.
@@ -33,6 +34,15 @@ class MostRecentView {
         // Grab a snapshot of the key/value store
         this.snapshot = raft.kv.snapshot();
 
+        // If committed log entries are being applied concurrently, the snapshot may already include some of them
+        long snapshotIndex = raft.lastAppliedIndex;
+        if (raft.applyingIndex != 0) {
+            final byte[] value = this.snapshot.get(RaftKVDatabase.LAST_APPLIED_INDEX_KEY);
+            if (value != null)
+                snapshotIndex = LongEncoder.decode(value);
+            assert snapshotIndex >= raft.lastAppliedIndex && snapshotIndex <= raft.applyingIndex;
+        }
+
         // Create a view of just the state machine keys and values and successively layer unapplied log entries
         // If we require a committed view, then stop when we get to the first uncomitted log entry
         KVStore kview = PrefixKVStore.create(snapshot, raft.getStateMachinePrefix());
@@ -43,7 +53,7 @@ class MostRecentView {
             if (committed && logEntry.getIndex() > raft.commitIndex)
                 break;
             final Writes writes = logEntry.getWrites();
-            if (!writes.isEmpty())
+            if (logEntry.getIndex() > snapshotIndex && !writes.isEmpty())
                 kview = new MutableView(kview, null, writes);
             logEntry.applyConfigChange(this.config);
             viewIndex = logEntry.getIndex();
@@ -86,6 +86,7 @@ class NewLogEntry {
     }
 
     private static File writeDataToFile(LogEntry.Data data, RaftKVDatabase raft, boolean disableSync) throws IOException {
+        final long startTime = System.nanoTime();
         final File tempFile = raft.getTempFile();
         boolean success = false;
         try (FileWriter output = new FileWriter(tempFile, disableSync)) {
@@ -95,6 +96,7 @@ class NewLogEntry {
             if (!success)
                 raft.deleteFile(tempFile, "new log entry temp file");
         }
+        raft.metricsTracker.record(RaftMetrics.Stage.LOG_WRITE, startTime);
         return tempFile;
     }
 }
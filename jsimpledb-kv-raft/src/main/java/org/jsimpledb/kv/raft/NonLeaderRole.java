@@ -9,6 +9,8 @@ import com.google.common.base.Preconditions;
 
 import org.jsimpledb.kv.raft.msg.AppendResponse;
 import org.jsimpledb.kv.raft.msg.CommitRequest;
+import org.jsimpledb.kv.raft.msg.InstallSnapshotResponse;
+import org.jsimpledb.kv.raft.msg.ReadIndexRequest;
 
 /**
  * Support superclass for the {@linkplain FollowerRole follower} and {@linkplain CandidateRole candidate} roles,
@@ -119,5 +121,17 @@ public abstract class NonLeaderRole extends Role {
         assert Thread.holdsLock(this.raft);
         this.failUnexpectedMessage(msg);
     }
+
+    @Override
+    void caseInstallSnapshotResponse(InstallSnapshotResponse msg) {
+        assert Thread.holdsLock(this.raft);
+        this.failUnexpectedMessage(msg);
+    }
+
+    @Override
+    void caseReadIndexRequest(ReadIndexRequest msg) {
+        assert Thread.holdsLock(this.raft);
+        this.failUnexpectedMessage(msg);
+    }
 }
 
@@ -36,10 +36,12 @@ import java.util.NoSuchElementException;
 import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
@@ -49,12 +51,17 @@ import org.dellroad.stuff.io.ByteBufferInputStream;
 import org.dellroad.stuff.java.TimedWait;
 import org.dellroad.stuff.net.Network;
 import org.dellroad.stuff.net.TCPNetwork;
+import org.jsimpledb.kv.CloseableKVStore;
 import org.jsimpledb.kv.KVDatabase;
 import org.jsimpledb.kv.KVPair;
 import org.jsimpledb.kv.KVTransactionException;
 import org.jsimpledb.kv.KeyRange;
 import org.jsimpledb.kv.RetryTransactionException;
 import org.jsimpledb.kv.mvcc.AtomicKVStore;
+import org.jsimpledb.kv.mvcc.Commit;
+import org.jsimpledb.kv.mvcc.CommitNotifier;
+import org.jsimpledb.kv.mvcc.ConflictTracker;
+import org.jsimpledb.kv.mvcc.Mutations;
 import org.jsimpledb.kv.mvcc.Writes;
 import org.jsimpledb.kv.raft.msg.AppendRequest;
 import org.jsimpledb.kv.raft.msg.AppendResponse;
@@ -62,12 +69,17 @@ import org.jsimpledb.kv.raft.msg.CommitRequest;
 import org.jsimpledb.kv.raft.msg.CommitResponse;
 import org.jsimpledb.kv.raft.msg.GrantVote;
 import org.jsimpledb.kv.raft.msg.InstallSnapshot;
+import org.jsimpledb.kv.raft.msg.InstallSnapshotResponse;
 import org.jsimpledb.kv.raft.msg.Message;
 import org.jsimpledb.kv.raft.msg.MessageSwitch;
 import org.jsimpledb.kv.raft.msg.PingRequest;
 import org.jsimpledb.kv.raft.msg.PingResponse;
+import org.jsimpledb.kv.raft.msg.ReadIndexRequest;
+import org.jsimpledb.kv.raft.msg.ReadIndexResponse;
 import org.jsimpledb.kv.raft.msg.RequestVote;
+import org.jsimpledb.kv.raft.msg.TimeoutNow;
 import org.jsimpledb.kv.util.KeyWatchTracker;
+import org.jsimpledb.kv.util.PrefixKVStore;
 import org.jsimpledb.util.ByteUtil;
 import org.jsimpledb.util.LongEncoder;
 import org.jsimpledb.util.ThrowableUtil;
@@ -228,6 +240,21 @@ import org.slf4j.LoggerFactory;
  *  <li>Only one configuration change may take place at a time.</li>
  * </ul>
  *
+ * <p><b>Learners</b></p>
+ *
+ * <p>
+ * A node may be added to the cluster configuration as a non-voting <i>learner</i> via
+ * {@link RaftKVTransaction#configChange(String, String, boolean) RaftKVTransaction.configChange()}. The leader sends
+ * learners {@link AppendRequest}s and snapshots just like any other follower, so learners can serve
+ * {@link Consistency#EVENTUAL}, {@link Consistency#EVENTUAL_COMMITTED}, and {@link Consistency#UNCOMMITTED} transactions
+ * locally. However, learners are not considered {@linkplain #isClusterMember cluster members}: they do not count toward
+ * the majority required to commit log entries or to establish a leader lease, their votes are not counted, and they
+ * never start elections. This allows read capacity to be added to a cluster without slowing down writes.
+ *
+ * <p>
+ * Learners are recorded in the cluster configuration by prefixing their network address with {@code "learner:"};
+ * {@link #getCurrentConfig} strips this prefix, while {@link #isLearner(String)} reports it.
+ *
  * <p><b>Follower Probes</b></p>
  *
  * <p>
@@ -250,6 +277,13 @@ import org.slf4j.LoggerFactory;
  * {@linkplain RaftKVTransaction#watchKey Key watches} and {@linkplain RaftKVTransaction#mutableSnapshot mutable snapshots}
  * are supported.
  *
+ * <p><b>Commit Notifications</b></p>
+ *
+ * <p>
+ * Committed transactions may be monitored asynchronously, in commit order, by registering a
+ * {@link org.jsimpledb.kv.mvcc.CommitListener} with this instance's {@linkplain #getCommitNotifier commit notifier}.
+ * Every node delivers all transactions committed by the cluster, as their log entries are applied locally.
+ *
  * <p><b>Spring Isolation Levels</b></p>
  *
  * <p>
@@ -350,6 +384,21 @@ public class RaftKVDatabase implements KVDatabase {
      */
     public static final int DEFAULT_COMMIT_TIMEOUT = 5000;                              // 5 seconds
 
+    /**
+     * Default maximum number of transactions coalesced into a single log entry ({@value DEFAULT_MAX_COMMIT_BATCH_SIZE}).
+     *
+     * @see #setMaxCommitBatchSize
+     */
+    public static final int DEFAULT_MAX_COMMIT_BATCH_SIZE = 64;
+
+    /**
+     * Default maximum number of unacknowledged snapshot install chunks in flight to a follower
+     * ({@value DEFAULT_MAX_SNAPSHOT_CHUNKS_IN_FLIGHT}).
+     *
+     * @see #setMaxSnapshotChunksInFlight
+     */
+    public static final int DEFAULT_MAX_SNAPSHOT_CHUNKS_IN_FLIGHT = 32;
+
     /**
      * Default TCP port ({@value #DEFAULT_TCP_PORT}) used to communicate with peers.
      */
@@ -373,6 +422,9 @@ public class RaftKVDatabase implements KVDatabase {
     static final String TEMP_FILE_SUFFIX = ".tmp";
     static final Pattern TEMP_FILE_PATTERN = Pattern.compile(".*" + Pattern.quote(TEMP_FILE_SUFFIX));
 
+    // Cluster config address prefix indicating a non-voting learner
+    static final String LEARNER_ADDRESS_PREFIX = "learner:";
+
     // Keys for persistent Raft state
     static final byte[] CLUSTER_ID_KEY = ByteUtil.parse("0001");
     static final byte[] CURRENT_TERM_KEY = ByteUtil.parse("0002");
@@ -399,9 +451,15 @@ public class RaftKVDatabase implements KVDatabase {
     long maxUnappliedLogMemory = DEFAULT_MAX_UNAPPLIED_LOG_MEMORY;
     int maxUnappliedLogEntries = DEFAULT_MAX_UNAPPLIED_LOG_ENTRIES;
     int maxFollowerAckHeartbeats = DEFAULT_MAX_FOLLOWER_ACK_HEARTBEATS;
+    int commitBatchWindow;
+    int maxCommitBatchSize = DEFAULT_MAX_COMMIT_BATCH_SIZE;
+    int maxSnapshotChunksInFlight = DEFAULT_MAX_SNAPSHOT_CHUNKS_IN_FLIGHT;
+    boolean snapshotCompression;
     boolean followerProbingEnabled;
+    String preferredLeader;
     boolean disableSync;
     boolean dumpConflicts;
+    volatile ConflictTracker conflictTracker;
     File logDir;
 
     // Raft runtime state
@@ -426,10 +484,15 @@ public class RaftKVDatabase implements KVDatabase {
     String returnAddress;                                               // return address for message currently being processed
     IOThread ioThread;                                                  // performs background I/O tasks
     ScheduledExecutorService serviceExecutor;                           // does stuff for us asynchronously
+    ExecutorService applyExecutor;                                      // applies committed log entries without the lock
+    long applyingIndex;                                                 // max index of log entries being applied, else zero
+    final ContentionTracker contentionTracker = new ContentionTracker(this);    // lock contention statistics
+    final MetricsTracker metricsTracker = new MetricsTracker();                 // latency histograms and retry counts
     final HashSet<String> transmitting = new HashSet<>();               // network addresses whose output queues are not empty
     final HashMap<Long, RaftKVTransaction> openTransactions = new HashMap<>();  // transactions open on this instance
     final LinkedHashSet<Service> pendingService = new LinkedHashSet<>();        // pending work for serviceExecutor
     KeyWatchTracker keyWatchTracker;                                    // instantiated on demand
+    final CommitNotifier commitNotifier = new CommitNotifier("Raft Commit Notify");    // delivers applied log entries
     boolean performingService;                                          // true when serviceExecutor does not need to be woken up
     boolean shuttingDown;                                               // prevents new transactions from being created
     Throwable lastInternalError;                                        // most recent exception in service executor
@@ -748,6 +811,136 @@ public class RaftKVDatabase implements KVDatabase {
         return this.commitTimeout;
     }
 
+    /**
+     * Configure the commit batch window.
+     *
+     * <p>
+     * When this instance is the leader, read-write transactions that arrive within this window (whether local or
+     * from followers) are coalesced into a single Raft log entry containing all of their combined mutations.
+     * This amortizes the per-log entry overhead (log file creation and {@code fsync()}, follower
+     * {@link AppendRequest}s, and state machine application) across many small concurrent transactions,
+     * at the cost of up to this much additional commit latency.
+     *
+     * <p>
+     * Each transaction is still checked for conflicts individually, both against prior log entries and against
+     * the transactions ahead of it in the same batch; conflicting transactions fail with a {@link RetryTransactionException}.
+     * Transactions containing a {@linkplain RaftKVTransaction#configChange config change} are never coalesced.
+     *
+     * <p>
+     * This value may be changed while this instance is already running.
+     *
+     * <p>
+     * Default is zero, which disables coalescing.
+     *
+     * @param window commit batch window in milliseconds, or zero to disable
+     * @throws IllegalArgumentException if {@code window} is negative
+     * @see #setMaxCommitBatchSize
+     */
+    public synchronized void setCommitBatchWindow(int window) {
+        Preconditions.checkArgument(window >= 0, "window < 0");
+        this.commitBatchWindow = window;
+    }
+
+    /**
+     * Get the configured commit batch window.
+     *
+     * @return commit batch window in milliseconds, or zero if disabled
+     */
+    public synchronized int getCommitBatchWindow() {
+        return this.commitBatchWindow;
+    }
+
+    /**
+     * Configure the maximum number of transactions that may be coalesced into a single log entry.
+     *
+     * <p>
+     * When this many transactions are waiting, the batch is committed immediately, without waiting for
+     * the {@linkplain #setCommitBatchWindow commit batch window} to expire.
+     *
+     * <p>
+     * This value may be changed while this instance is already running.
+     *
+     * <p>
+     * Default is {@link #DEFAULT_MAX_COMMIT_BATCH_SIZE}.
+     *
+     * @param maxCommitBatchSize maximum number of transactions per log entry
+     * @throws IllegalArgumentException if {@code maxCommitBatchSize <= 0}
+     * @see #setCommitBatchWindow
+     */
+    public synchronized void setMaxCommitBatchSize(int maxCommitBatchSize) {
+        Preconditions.checkArgument(maxCommitBatchSize > 0, "maxCommitBatchSize <= 0");
+        this.maxCommitBatchSize = maxCommitBatchSize;
+    }
+
+    /**
+     * Get the configured maximum number of transactions that may be coalesced into a single log entry.
+     *
+     * @return maximum number of transactions per log entry
+     */
+    public synchronized int getMaxCommitBatchSize() {
+        return this.maxCommitBatchSize;
+    }
+
+    /**
+     * Configure the maximum number of snapshot install chunks that may be sent to a follower without having
+     * been acknowledged.
+     *
+     * <p>
+     * When a follower is too far behind to be updated from the log, the leader sends it a copy of the entire key/value
+     * store in chunks. Followers acknowledge each chunk after applying it; this setting limits how far ahead of the follower
+     * the leader may get. If chunks go unacknowledged for too long, or a chunk cannot be sent, the leader resumes
+     * the transfer from the last acknowledged chunk rather than starting over.
+     *
+     * <p>
+     * This value may be changed while this instance is already running.
+     *
+     * <p>
+     * Default is {@link #DEFAULT_MAX_SNAPSHOT_CHUNKS_IN_FLIGHT}.
+     *
+     * @param maxSnapshotChunksInFlight maximum number of unacknowledged chunks
+     * @throws IllegalArgumentException if {@code maxSnapshotChunksInFlight <= 0}
+     */
+    public synchronized void setMaxSnapshotChunksInFlight(int maxSnapshotChunksInFlight) {
+        Preconditions.checkArgument(maxSnapshotChunksInFlight > 0, "maxSnapshotChunksInFlight <= 0");
+        this.maxSnapshotChunksInFlight = maxSnapshotChunksInFlight;
+    }
+
+    /**
+     * Get the configured maximum number of unacknowledged snapshot install chunks in flight to a follower.
+     *
+     * @return maximum number of unacknowledged chunks
+     */
+    public synchronized int getMaxSnapshotChunksInFlight() {
+        return this.maxSnapshotChunksInFlight;
+    }
+
+    /**
+     * Configure whether to compress the key/value data sent to followers during snapshot installs.
+     *
+     * <p>
+     * Compression trades leader CPU for network bandwidth. Chunks that do not compress are sent uncompressed.
+     *
+     * <p>
+     * This value may be changed while this instance is already running; it takes effect for subsequent snapshot installs.
+     *
+     * <p>
+     * Default is false.
+     *
+     * @param snapshotCompression true to compress snapshot data
+     */
+    public synchronized void setSnapshotCompression(boolean snapshotCompression) {
+        this.snapshotCompression = snapshotCompression;
+    }
+
+    /**
+     * Determine whether snapshot install data is compressed.
+     *
+     * @return true if snapshot data is compressed
+     */
+    public synchronized boolean isSnapshotCompression() {
+        return this.snapshotCompression;
+    }
+
     /**
      * Configure whether followers should be required to probe for network connectivity with a majority of the
      * cluster after an election timeout prior to becoming a candidate.
@@ -773,6 +966,35 @@ public class RaftKVDatabase implements KVDatabase {
         return this.followerProbingEnabled;
     }
 
+    /**
+     * Configure the preferred leader for the cluster.
+     *
+     * <p>
+     * When this instance is the leader, it periodically checks whether the preferred leader is a voting member of the cluster
+     * that is up to date with the leader's log, and if so {@linkplain LeaderRole#transferLeadership transfers leadership}
+     * to it. For this to work reliably, the same preferred leader should be configured on every node.
+     *
+     * <p>
+     * This value may be changed at any time.
+     *
+     * <p>
+     * Default is null, i.e., no preferred leader.
+     *
+     * @param preferredLeader identity of the preferred leader, or null for none
+     */
+    public synchronized void setPreferredLeader(String preferredLeader) {
+        this.preferredLeader = preferredLeader;
+    }
+
+    /**
+     * Get the configured preferred leader for the cluster.
+     *
+     * @return identity of the preferred leader, or null if none is configured
+     */
+    public synchronized String getPreferredLeader() {
+        return this.preferredLeader;
+    }
+
     /**
      * Disable filesystem data sync.
      *
@@ -822,6 +1044,31 @@ public class RaftKVDatabase implements KVDatabase {
         return this.dumpConflicts;
     }
 
+    /**
+     * Configure a {@link ConflictTracker} to record commits, retries, and the key ranges of conflicts detected by this instance.
+     *
+     * <p>
+     * Conflicts are recorded wherever they are detected: when rebasing local transactions, and, on the leader,
+     * when checking transactions committed by any node. Commits and retries are recorded only for local transactions.
+     *
+     * <p>
+     * This may be changed at any time. Default is null.
+     *
+     * @param conflictTracker conflict tracker, or null for none
+     */
+    public void setConflictTracker(ConflictTracker conflictTracker) {
+        this.conflictTracker = conflictTracker;
+    }
+
+    /**
+     * Get the {@link ConflictTracker} that records conflicts detected by this instance, if any.
+     *
+     * @return conflict tracker, or null if none is configured
+     */
+    public ConflictTracker getConflictTracker() {
+        return this.conflictTracker;
+    }
+
 // Status
 
     /**
@@ -848,13 +1095,22 @@ public class RaftKVDatabase implements KVDatabase {
      * If this system is unconfigured, an empty map is returned (and vice-versa).
      *
      * <p>
+     * The returned map includes {@linkplain #isLearner(String) learners}; their addresses are returned without
+     * the learner prefix.
+     *
+     * <p>
      * The returned map is a copy; changes have no effect on this instance.
      *
      * @return current configuration mapping from node identity to network address,
      *  or empty if this node is not started or unconfigured
      */
     public synchronized Map<String, String> getCurrentConfig() {
-        return this.currentConfig != null ? new TreeMap<>(this.currentConfig) : new TreeMap<>();
+        final TreeMap<String, String> config = new TreeMap<>();
+        if (this.currentConfig != null) {
+            for (Map.Entry<String, String> entry : this.currentConfig.entrySet())
+                config.put(entry.getKey(), RaftKVDatabase.getPeerAddress(entry.getValue()));
+        }
+        return config;
     }
 
     /**
@@ -874,6 +1130,9 @@ public class RaftKVDatabase implements KVDatabase {
      * Determine whether this node thinks that it is part of its cluster, as determined by its
      * {@linkplain #getCurrentConfig current configuration}.
      *
+     * <p>
+     * {@linkplain #isLearner() Learners} are not considered cluster members.
+     *
      * @return true if this instance is started and part of the cluster, otherwise false
      */
     public synchronized boolean isClusterMember() {
@@ -884,11 +1143,67 @@ public class RaftKVDatabase implements KVDatabase {
      * Determine whether this node thinks that the specified node is part of the cluster, as determined by its
      * {@linkplain #getCurrentConfig current configuration}.
      *
+     * <p>
+     * {@linkplain #isLearner(String) Learners} are not considered cluster members.
+     *
      * @param node node identity
      * @return true if this instance is started and the specified node is part of the cluster, otherwise false
      */
     public synchronized boolean isClusterMember(String node) {
-        return this.currentConfig != null ? this.currentConfig.containsKey(node) : false;
+        final String address = this.currentConfig != null ? this.currentConfig.get(node) : null;
+        return address != null && !RaftKVDatabase.isLearnerAddress(address);
+    }
+
+    /**
+     * Determine whether this node thinks that it is a non-voting learner in its cluster, as determined by its
+     * {@linkplain #getCurrentConfig current configuration}.
+     *
+     * @return true if this instance is started and a learner in the cluster, otherwise false
+     * @see RaftKVTransaction#configChange(String, String, boolean)
+     */
+    public synchronized boolean isLearner() {
+        return this.isLearner(this.identity);
+    }
+
+    /**
+     * Determine whether this node thinks that the specified node is a non-voting learner in the cluster, as determined by its
+     * {@linkplain #getCurrentConfig current configuration}.
+     *
+     * @param node node identity
+     * @return true if this instance is started and the specified node is a learner in the cluster, otherwise false
+     * @see RaftKVTransaction#configChange(String, String, boolean)
+     */
+    public synchronized boolean isLearner(String node) {
+        final String address = this.currentConfig != null ? this.currentConfig.get(node) : null;
+        return address != null && RaftKVDatabase.isLearnerAddress(address);
+    }
+
+    /**
+     * Get the number of voting members in the current cluster configuration.
+     */
+    int countClusterMembers() {
+        assert Thread.holdsLock(this);
+        return RaftKVDatabase.countClusterMembers(this.currentConfig);
+    }
+
+    static int countClusterMembers(Map<String, String> config) {
+        int count = 0;
+        for (String address : config.values()) {
+            if (!RaftKVDatabase.isLearnerAddress(address))
+                count++;
+        }
+        return count;
+    }
+
+    static boolean isLearnerAddress(String address) {
+        return address.startsWith(LEARNER_ADDRESS_PREFIX);
+    }
+
+    /**
+     * Get the network address from the given cluster config address, stripping the learner prefix, if any.
+     */
+    static String getPeerAddress(String address) {
+        return RaftKVDatabase.isLearnerAddress(address) ? address.substring(LEARNER_ADDRESS_PREFIX.length()) : address;
     }
 
     /**
@@ -969,6 +1284,52 @@ public class RaftKVDatabase implements KVDatabase {
         return total;
     }
 
+    /**
+     * Get lock contention statistics for this instance.
+     *
+     * <p>
+     * Statistics are reset each time this instance is {@linkplain #start started}.
+     *
+     * @return lock contention statistics
+     */
+    public synchronized ContentionStats getContentionStats() {
+        return this.contentionTracker.getStats();
+    }
+
+    /**
+     * Get a snapshot of the performance metrics for this instance.
+     *
+     * <p>
+     * Latency histograms and retry counts are reset each time this instance is {@linkplain #start started}.
+     *
+     * @return current metrics
+     */
+    public synchronized RaftMetrics getMetrics() {
+        final ArrayList<RaftMetrics.FollowerMetrics> followers = new ArrayList<>();
+        RaftMetrics.SnapshotProgress snapshotReceive = null;
+        if (this.role instanceof LeaderRole) {
+            final long lastLogIndex = this.getLastLogIndex();
+            for (Follower follower : ((LeaderRole)this.role).getFollowers()) {
+                final SnapshotTransmit snapshotTransmit = follower.getSnapshotTransmit();
+                final Timestamp leaderTimestamp = follower.getLeaderTimestamp();
+                followers.add(new RaftMetrics.FollowerMetrics(follower.getIdentity(), follower.getMatchIndex(),
+                  Math.max(lastLogIndex - follower.getMatchIndex(), 0),
+                  leaderTimestamp != null ? -leaderTimestamp.offsetFromNow() : -1,
+                  snapshotTransmit != null ? new RaftMetrics.SnapshotProgress(snapshotTransmit.getSnapshotTerm(),
+                   snapshotTransmit.getSnapshotIndex(), snapshotTransmit.getPairIndex(), snapshotTransmit.getAckedPairIndex()) :
+                   null));
+            }
+        } else if (this.role instanceof FollowerRole) {
+            final SnapshotReceive snapshotReceive0 = ((FollowerRole)this.role).getSnapshotReceive();
+            if (snapshotReceive0 != null) {
+                snapshotReceive = new RaftMetrics.SnapshotProgress(snapshotReceive0.getSnapshotTerm(),
+                  snapshotReceive0.getSnapshotIndex(), snapshotReceive0.getPairIndex(), snapshotReceive0.getPairIndex());
+            }
+        }
+        return new RaftMetrics(this.metricsTracker.getLatencies(), this.metricsTracker.getRetryCounts(),
+          this.raftLog.size(), this.getUnappliedLogMemoryUsage(), followers, snapshotReceive, this.contentionTracker.getStats());
+    }
+
     /**
      * Get the set of open transactions associated with this database.
      *
@@ -1047,6 +1408,17 @@ public class RaftKVDatabase implements KVDatabase {
                 return thread;
             });
 
+            // Start up apply executor thread
+            assert this.applyExecutor == null;
+            this.applyExecutor = Executors.newSingleThreadExecutor(action -> {
+                final Thread thread = new Thread(action);
+                thread.setName("RaftKVDatabase Apply");
+                return thread;
+            });
+            this.applyingIndex = 0;
+            this.contentionTracker.reset();
+            this.metricsTracker.reset();
+
             // Start network
             this.network.start(new Network.Handler() {
                 @Override
@@ -1056,7 +1428,7 @@ public class RaftKVDatabase implements KVDatabase {
 
                 @Override
                 public void outputQueueEmpty(String address) {
-                    RaftKVDatabase.this.outputQueueEmpty(address);
+                    RaftKVDatabase.this.runLocked(() -> RaftKVDatabase.this.outputQueueEmpty(address));
                 }
             });
 
@@ -1177,6 +1549,15 @@ public class RaftKVDatabase implements KVDatabase {
             Thread.currentThread().interrupt();
         }
 
+        // Shut down the apply executor and wait for any log entries being applied
+        this.applyExecutor.shutdown();
+        try {
+            if (!this.applyExecutor.awaitTermination(5000, TimeUnit.MILLISECONDS))
+                this.warn("log entry application not completed during shutdown");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
         // Shutdown I/O thread
         this.ioThread.shutdown();
         try {
@@ -1188,6 +1569,7 @@ public class RaftKVDatabase implements KVDatabase {
         // Final cleanup
         synchronized (this) {
             this.serviceExecutor = null;
+            this.applyExecutor = null;
             this.ioThread = null;
             this.cleanup();
         }
@@ -1222,6 +1604,11 @@ public class RaftKVDatabase implements KVDatabase {
             }
             this.serviceExecutor = null;
         }
+        if (this.applyExecutor != null) {
+            this.applyExecutor.shutdownNow();
+            this.applyExecutor = null;
+        }
+        this.applyingIndex = 0;
         if (this.ioThread != null) {
             this.ioThread.shutdown();
             try {
@@ -1231,6 +1618,7 @@ public class RaftKVDatabase implements KVDatabase {
             }
             this.ioThread = null;
         }
+        this.commitNotifier.close();
         this.kv.stop();
         Util.closeIfPossible(this.logDirChannel);
         this.logDirChannel = null;
@@ -1348,6 +1736,25 @@ public class RaftKVDatabase implements KVDatabase {
 
 // Key Watches
 
+    /**
+     * Get the {@link CommitNotifier} that delivers this instance's committed transactions to registered
+     * {@link org.jsimpledb.kv.mvcc.CommitListener}s.
+     *
+     * <p>
+     * Committed transactions are captured as their log entries are applied to the local state machine, but only
+     * while at least one listener is registered. Each {@link Commit}'s {@linkplain Commit#getVersion version}
+     * is the index of the corresponding log entry; log entries without any mutations are not delivered.
+     * If this node's state machine is replaced by a snapshot installed from the leader, the transactions
+     * covered by that snapshot are not delivered. While listeners are falling behind, applying log entries
+     * to the local state machine is delayed. Commits not yet delivered when this instance is {@link #stop}ped
+     * are discarded.
+     *
+     * @return commit notifier for this instance
+     */
+    public CommitNotifier getCommitNotifier() {
+        return this.commitNotifier;
+    }
+
     synchronized ListenableFuture<Void> watchKey(RaftKVTransaction tx, byte[] key) {
         Preconditions.checkState(this.role != null, "not started");
         tx.verifyExecuting();
@@ -1429,7 +1836,11 @@ public class RaftKVDatabase implements KVDatabase {
      * @throws IllegalArgumentException if {@code consistency} is null
      * @throws IllegalStateException if this instance is not {@linkplain #start started} or in the process of shutting down
      */
-    public synchronized RaftKVTransaction createTransaction(Consistency consistency) {
+    public RaftKVTransaction createTransaction(Consistency consistency) {
+        return this.callLocked(() -> this.doCreateTransaction(consistency));
+    }
+
+    private synchronized RaftKVTransaction doCreateTransaction(Consistency consistency) {
 
         // Sanity check
         assert this.checkState();
@@ -1476,6 +1887,7 @@ public class RaftKVDatabase implements KVDatabase {
                     if (this.log.isDebugEnabled())
                         this.debug("committing transaction " + tx);
                     tx.setState(TxState.COMMIT_READY);
+                    tx.commitStartTime = System.nanoTime();
                     this.requestService(new CheckReadyTransactionService(this.role, tx));
 
                     // From this point on, throw a StaleTransactionException if accessed, instead of retry exception or whatever
@@ -1597,6 +2009,10 @@ public class RaftKVDatabase implements KVDatabase {
             this.debug("successfully committed " + tx);
         tx.commitFuture.set(null);
         tx.setState(TxState.COMPLETED);
+        this.metricsTracker.record(RaftMetrics.Stage.COMMIT, tx.commitStartTime);
+        final ConflictTracker tracker = this.conflictTracker;
+        if (tracker != null)
+            tracker.recordCommit();
         this.role.cleanupForTransaction(tx);
     }
 
@@ -1611,6 +2027,12 @@ public class RaftKVDatabase implements KVDatabase {
         // Fail transaction
         if (this.log.isDebugEnabled())
             this.debug("failing transaction " + tx + ": " + e);
+        if (e instanceof RetryTransactionException && tx.getState().compareTo(TxState.COMPLETED) < 0) {
+            this.metricsTracker.retry(e.getMessage());
+            final ConflictTracker tracker = this.conflictTracker;
+            if (tracker != null)
+                tracker.recordRetry();
+        }
         switch (tx.getState()) {
         case EXECUTING:
             assert tx.failure == null;
@@ -1645,7 +2067,7 @@ public class RaftKVDatabase implements KVDatabase {
         if (!this.pendingService.add(service) || this.performingService)
             return;
         try {
-            this.serviceExecutor.submit(this::handlePendingService);
+            this.serviceExecutor.submit(() -> this.runLocked(this::handlePendingService));
         } catch (RejectedExecutionException e) {
             if (!this.shuttingDown) {
                 this.warn("service executor task rejected, skipping", e);
@@ -1685,6 +2107,26 @@ public class RaftKVDatabase implements KVDatabase {
         }
     }
 
+    // Acquire the lock, perform the given action, and record lock contention statistics
+    private <T> T callLocked(Supplier<T> action) {
+        final long waitStartTime = System.nanoTime();
+        synchronized (this) {
+            final long acquireTime = this.contentionTracker.lockAcquired(waitStartTime);
+            try {
+                return action.get();
+            } finally {
+                this.contentionTracker.lockReleased(acquireTime);
+            }
+        }
+    }
+
+    private void runLocked(Runnable action) {
+        this.callLocked(() -> {
+            action.run();
+            return null;
+        });
+    }
+
 // Raft state
 
     /**
@@ -1900,9 +2342,11 @@ public class RaftKVDatabase implements KVDatabase {
             this.debug("adding new log entry " + logEntry + " using " + tempFile.getName());
 
         // Atomically rename file and fsync() directory to durably persist
+        final long startTime = System.nanoTime();
         Files.move(tempFile.toPath(), logEntry.getFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
         if (this.logDirChannel != null && !this.disableSync)
             this.logDirChannel.force(true);
+        this.metricsTracker.record(RaftMetrics.Stage.LOG_APPEND, startTime);
 
         // Temp file no longer exists, so don't try to delete it later
         newLogEntry.resetTempFile();
@@ -1944,7 +2388,91 @@ public class RaftKVDatabase implements KVDatabase {
         return this.raftLog.get((int)(index - this.lastAppliedIndex - 1));
     }
 
-    // Increment the index of the last applied log entry
+    /**
+     * Apply committed log entries to the key/value store.
+     *
+     * <p>
+     * This is invoked on the apply thread <b>without</b> holding the lock. Once the key/value store has been
+     * durably updated, the in-memory state is updated and the applied log entries are discarded.
+     *
+     * @param logEntries the log entries to apply, which must be at the front of the Raft log
+     * @param mutationsList the corresponding key/value store mutations
+     */
+    void applyLogEntries(List<LogEntry> logEntries, List<Mutations> mutationsList) {
+
+        // Sanity check
+        assert !Thread.holdsLock(this);
+        assert logEntries.size() == mutationsList.size();
+
+        // Get state machine prefix for commit notifications, if needed
+        byte[] stateMachinePrefix = null;
+        if (this.commitNotifier.hasListeners()) {
+            synchronized (this) {
+                stateMachinePrefix = this.getStateMachinePrefix();
+            }
+        }
+
+        // Apply updates to the key/value store; when applying the last one, durably persist
+        final long startTime = System.nanoTime();
+        final int numEntries = logEntries.size();
+        int numApplied = 0;
+        while (numApplied < numEntries) {
+            final LogEntry logEntry = logEntries.get(numApplied);
+            if (this.log.isDebugEnabled())
+                this.debug("applying committed log entry " + logEntry + " to key/value store");
+            final CloseableKVStore before = stateMachinePrefix != null && !logEntry.getWrites().isEmpty() ?
+              this.kv.snapshot() : null;
+            try {
+                this.kv.mutate(mutationsList.get(numApplied), !this.disableSync && numApplied == numEntries - 1);
+            } catch (Exception e) {
+                if (before != null)
+                    before.close();
+                if (e instanceof RuntimeException && e.getCause() instanceof IOException)
+                    e = (IOException)e.getCause();
+                this.error("error applying log entry " + logEntry + " to key/value store", e);
+                break;
+            }
+            if (before != null) {
+                this.commitNotifier.publish(new Commit(logEntry.getIndex(),
+                  PrefixKVStore.create(before, stateMachinePrefix), logEntry.getWrites(), before));
+            }
+            numApplied++;
+        }
+        final long applyTime = System.nanoTime() - startTime;
+        this.metricsTracker.recordMicros(RaftMetrics.Stage.APPLY, applyTime / 1000);
+
+        // Update in-memory state
+        synchronized (this) {
+            assert this.applyingIndex == logEntries.get(numEntries - 1).getIndex() || this.role == null;
+            this.applyingIndex = 0;
+            if (this.role == null)
+                return;
+            for (LogEntry logEntry : logEntries.subList(0, numApplied)) {
+
+                // Update applied index and config
+                assert !this.raftLog.isEmpty() && this.raftLog.get(0) == logEntry;
+                assert logEntry.getIndex() == this.lastAppliedIndex + 1;
+                this.incrementLastAppliedIndex(logEntry.getTerm());
+                logEntry.applyConfigChange(this.lastAppliedConfig);
+                assert this.currentConfig.equals(this.buildCurrentConfig());
+
+                // Delete the log entry
+                this.raftLog.remove(0);
+                this.deleteFile(logEntry.getFile(), "applied log file");
+            }
+            this.contentionTracker.logEntriesApplied(numApplied, applyTime);
+
+            // Apply any more committed log entries (unless there was an error)
+            if (numApplied == numEntries) {
+                this.requestService(this.role.checkWaitingTransactionsService);
+                this.requestService(this.role.applyCommittedLogEntriesService);
+            }
+        }
+
+        // Apply backpressure if commit listeners are falling behind; this delays applying more log entries
+        this.commitNotifier.awaitCapacity();
+    }
+
     void incrementLastAppliedIndex(long term) {
         assert Thread.holdsLock(this);
         this.appliedTerms[(int)(this.lastAppliedIndex % MAX_APPLIED_TERMS)] = this.lastAppliedTerm;
@@ -2000,12 +2528,14 @@ public class RaftKVDatabase implements KVDatabase {
             try {
 
                 // Write serialized mutation data into temporary file
+                final long startTime = System.nanoTime();
                 tempFile = this.getTempFile();
                 try (FileWriter output = new FileWriter(tempFile, this.disableSync)) {
                     final FileChannel channel = output.getFileOutputStream().getChannel();
                     for (ByteBuffer writeBuf = mutationData.asReadOnlyBuffer(); writeBuf.hasRemaining(); )
                         channel.write(writeBuf);
                 }
+                this.metricsTracker.record(RaftMetrics.Stage.LOG_WRITE, startTime);
 
                 // Deserialize mutation data and create new log entry instance
                 try (ByteBufferInputStream input = new ByteBufferInputStream(mutationData)) {
@@ -2026,7 +2556,7 @@ public class RaftKVDatabase implements KVDatabase {
 
         // Handle message
         try {
-            this.receiveMessage(sender, msg, newLogEntry);
+            this.runLocked(() -> this.receiveMessage(sender, msg, newLogEntry));
         } finally {
             if (newLogEntry != null)
                 newLogEntry.cleanup(this);
@@ -2064,7 +2594,9 @@ public class RaftKVDatabase implements KVDatabase {
         // Get peer's address; if unknown, use the return address of the message being processed (if any)
         final String peer = msg.getRecipientId();
         String address = this.currentConfig.get(peer);
-        if (address == null)
+        if (address != null)
+            address = RaftKVDatabase.getPeerAddress(address);
+        else
             address = this.returnAddress;
         if (address == null) {
             this.warn("can't send " + msg + " to unknown peer \"" + peer + "\"");
@@ -2188,6 +2720,18 @@ public class RaftKVDatabase implements KVDatabase {
                     RaftKVDatabase.this.role.caseInstallSnapshot(msg);
                 }
                 @Override
+                public void caseInstallSnapshotResponse(InstallSnapshotResponse msg) {
+                    RaftKVDatabase.this.role.caseInstallSnapshotResponse(msg);
+                }
+                @Override
+                public void caseReadIndexRequest(ReadIndexRequest msg) {
+                    RaftKVDatabase.this.role.caseReadIndexRequest(msg);
+                }
+                @Override
+                public void caseReadIndexResponse(ReadIndexResponse msg) {
+                    RaftKVDatabase.this.role.caseReadIndexResponse(msg);
+                }
+                @Override
                 public void casePingRequest(PingRequest msg) {
                     RaftKVDatabase.this.role.casePingRequest(msg);
                 }
@@ -2199,6 +2743,10 @@ public class RaftKVDatabase implements KVDatabase {
                 public void caseRequestVote(RequestVote msg) {
                     RaftKVDatabase.this.role.caseRequestVote(msg);
                 }
+                @Override
+                public void caseTimeoutNow(TimeoutNow msg) {
+                    RaftKVDatabase.this.role.caseTimeoutNow(msg);
+                }
             });
         } finally {
             this.returnAddress = null;
@@ -2523,6 +3071,8 @@ public class RaftKVDatabase implements KVDatabase {
             assert this.raftLog.isEmpty();
             assert this.logDirChannel == null;
             assert this.serviceExecutor == null;
+            assert this.applyExecutor == null;
+            assert this.applyingIndex == 0;
             assert this.keyWatchTracker == null;
             assert this.transmitting.isEmpty();
             assert this.openTransactions.isEmpty();
@@ -2535,6 +3085,8 @@ public class RaftKVDatabase implements KVDatabase {
         assert this.kv != null;
         assert this.random != null;
         assert this.serviceExecutor != null;
+        assert this.applyExecutor != null;
+        assert this.applyingIndex == 0 || (this.applyingIndex > this.lastAppliedIndex && this.applyingIndex <= this.commitIndex);
         assert this.logDirChannel != null || this.isWindows();
         assert !this.serviceExecutor.isShutdown() || this.shuttingDown;
 
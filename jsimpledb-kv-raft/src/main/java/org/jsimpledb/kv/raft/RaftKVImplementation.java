@@ -34,8 +34,14 @@ public class RaftKVImplementation extends KVImplementation {
               "Specify Raft maximum election timeout in ms (default " + RaftKVDatabase.DEFAULT_MAX_ELECTION_TIMEOUT + ")" },
             { "--raft-heartbeat-timeout",
               "Specify Raft leader heartbeat timeout in ms (default " + RaftKVDatabase.DEFAULT_HEARTBEAT_TIMEOUT + ")" },
+            { "--raft-commit-batch-window",
+              "Specify Raft leader commit batch window in ms (default zero, i.e., disabled)" },
+            { "--raft-snapshot-compression",
+              "Compress Raft snapshot install data sent to followers" },
             { "--raft-identity",
               "Specify Raft identity" },
+            { "--raft-preferred-leader identity",
+              "Specify Raft cluster preferred leader identity" },
             { "--raft-address address",
               "Specify Specify local Raft node's IP address" },
             { "--raft-port",
@@ -78,6 +84,8 @@ public class RaftKVImplementation extends KVImplementation {
         final Config config = new Config(new File(arg));
         if ((arg = this.parseCommandLineOption(options, "--raft-identity")) != null)
             config.getRaft().setIdentity(arg);
+        if ((arg = this.parseCommandLineOption(options, "--raft-preferred-leader")) != null)
+            config.getRaft().setPreferredLeader(arg);
         if ((arg = this.parseCommandLineOption(options, "--raft-address")) != null) {
             config.setAddress(TCPNetwork.parseAddressPart(arg));
             config.setPort(TCPNetwork.parsePortPart(arg, config.getPort()));
@@ -95,6 +103,10 @@ public class RaftKVImplementation extends KVImplementation {
             config.getRaft().setMaxElectionTimeout(value);
         if ((value = this.parseMillisecondsOption(options, "heartbeat-timeout")) != -1)
             config.getRaft().setHeartbeatTimeout(value);
+        if ((value = this.parseMillisecondsOption(options, "commit-batch-window")) != -1)
+            config.getRaft().setCommitBatchWindow(value);
+        if (this.parseCommandLineFlag(options, "--raft-snapshot-compression"))
+            config.getRaft().setSnapshotCompression(true);
         if ((value = this.parseMillisecondsOption(options, "fallback-check-interval")) != -1)
             config.getFallbackTarget().setCheckInterval(value);
         if ((value = this.parseMillisecondsOption(options, "fallback-check-timeout")) != -1)
@@ -122,6 +122,10 @@ public class RaftKVTransaction implements KVTransaction {
     Timer commitTimer;                                  // commit timeout timer
     @GuardedBy("raft")
     int timeout;                                        // commit timeout, or zero for none
+    @GuardedBy("raft")
+    long commitStartTime;                               // System.nanoTime() when commit() was invoked
+    @GuardedBy("raft")
+    long commitRequestTime;                             // System.nanoTime() when CommitRequest was sent to leader
 
     // Private transaction state
     private final Logger log = LoggerFactory.getLogger(this.getClass());
@@ -372,6 +376,9 @@ public class RaftKVTransaction implements KVTransaction {
      * <p>
      * Therefore, this method must be used to intialize a new cluster.
      *
+     * <p>
+     * Equivalent to {@link #configChange(String, String, boolean) configChange(identity, address, false)}.
+     *
      * @param identity the identity of the node to add or remove
      * @param address the network address of the node if adding, or null if removing
      * @throws IllegalStateException if this method has been invoked previously on this instance
@@ -379,12 +386,44 @@ public class RaftKVTransaction implements KVTransaction {
      * @throws IllegalArgumentException if {@code identity} is null
      */
     public void configChange(String identity, String address) {
+        this.configChange(identity, address, false);
+    }
+
+    /**
+     * Include a cluster configuration change when this transaction is committed, optionally adding the node
+     * as a non-voting <i>learner</i>.
+     *
+     * <p>
+     * Learners receive log entries and snapshots from the leader just like other followers, and so can serve
+     * {@link Consistency#EVENTUAL}, {@link Consistency#EVENTUAL_COMMITTED}, and {@link Consistency#UNCOMMITTED}
+     * transactions locally. However, learners never start elections, their votes are not counted, and they do not
+     * count toward the majority required to commit a log entry. Therefore, adding learners does not slow down writes.
+     *
+     * <p>
+     * An existing node may be converted between learner and voting member by invoking this method again with the
+     * same {@code identity} and {@code address}. A cluster must always contain at least one voting member; in
+     * particular, the first node in a new cluster can't be a learner.
+     *
+     * <p>
+     * See {@link #configChange(String, String)} for details on configuration changes in general.
+     *
+     * @param identity the identity of the node to add or remove
+     * @param address the network address of the node if adding, or null if removing
+     * @param learner true to add the node as a non-voting learner, false to add it as a voting member;
+     *  ignored if {@code address} is null
+     * @throws IllegalStateException if this method has been invoked previously on this instance
+     * @throws IllegalStateException if this transaction is read-only
+     * @throws IllegalArgumentException if {@code identity} is null
+     * @see RaftKVDatabase#isLearner(String)
+     */
+    public void configChange(String identity, String address, boolean learner) {
         Preconditions.checkArgument(identity != null, "null identity");
         synchronized (this.raft) {
             Preconditions.checkState(this.configChange == null, "duplicate config change; only one is supported per transaction");
             Preconditions.checkState(!this.readOnly, "transaction is read-only");
             this.verifyExecuting();
-            this.configChange = new String[] { identity, address };
+            this.configChange = new String[] {
+              identity, address != null && learner ? RaftKVDatabase.LEARNER_ADDRESS_PREFIX + address : address };
         }
     }
 
@@ -393,7 +432,8 @@ public class RaftKVTransaction implements KVTransaction {
      *
      * <p>
      * The returned array has length two and contains the {@code identity} and {@code address}
-     * parameters passed to {@link #configChange configChange()}.
+     * parameters passed to {@link #configChange configChange()}. If the node is being added as a
+     * {@linkplain #configChange(String, String, boolean) learner}, the address has a {@code "learner:"} prefix.
      *
      * <p>
      * The returned array is a copy; changes have no effect on this instance.
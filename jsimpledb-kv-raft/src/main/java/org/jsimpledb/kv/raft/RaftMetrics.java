@@ -0,0 +1,318 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jsimpledb.kv.util.Histogram;
+
+/**
+ * A point-in-time snapshot of the performance metrics of a {@link RaftKVDatabase}.
+ *
+ * <p>
+ * Latencies are tracked per {@linkplain Stage pipeline stage} using {@link Histogram}s of microsecond values.
+ * Latency histograms and retry counts accumulate from the time the database is {@linkplain RaftKVDatabase#start started};
+ * the remaining values reflect the state at the time of the snapshot.
+ *
+ * <p>
+ * Instances are immutable; the latency histograms returned are private copies.
+ *
+ * @see RaftKVDatabase#getMetrics
+ */
+public final class RaftMetrics {
+
+    private final Map<Stage, Histogram> latencies;
+    private final Map<String, Long> retryCounts;
+    private final int unappliedLogEntries;
+    private final long unappliedLogMemory;
+    private final List<FollowerMetrics> followers;
+    private final SnapshotProgress snapshotReceive;
+    private final ContentionStats contentionStats;
+
+    RaftMetrics(Map<Stage, Histogram> latencies, Map<String, Long> retryCounts, int unappliedLogEntries,
+      long unappliedLogMemory, List<FollowerMetrics> followers, SnapshotProgress snapshotReceive,
+      ContentionStats contentionStats) {
+        this.latencies = Collections.unmodifiableMap(new EnumMap<>(latencies));
+        this.retryCounts = Collections.unmodifiableMap(retryCounts);
+        this.unappliedLogEntries = unappliedLogEntries;
+        this.unappliedLogMemory = unappliedLogMemory;
+        this.followers = Collections.unmodifiableList(followers);
+        this.snapshotReceive = snapshotReceive;
+        this.contentionStats = contentionStats;
+    }
+
+    /**
+     * Get the latency histogram for the given pipeline stage.
+     *
+     * @param stage pipeline stage
+     * @return latency histogram for {@code stage} in microseconds
+     * @throws IllegalArgumentException if {@code stage} is null
+     */
+    public Histogram getLatency(Stage stage) {
+        Preconditions.checkArgument(stage != null, "null stage");
+        return this.latencies.get(stage);
+    }
+
+    /**
+     * Get the number of transactions that failed with a {@link org.jsimpledb.kv.RetryTransactionException}, grouped by reason.
+     *
+     * <p>
+     * Reasons are derived from the exception messages with numbers and quoted strings elided.
+     *
+     * @return mapping from retry reason to count, sorted by reason
+     */
+    public Map<String, Long> getRetryCounts() {
+        return this.retryCounts;
+    }
+
+    /**
+     * Get the number of log entries not yet applied to the state machine.
+     *
+     * @return unapplied log length
+     */
+    public int getUnappliedLogEntries() {
+        return this.unappliedLogEntries;
+    }
+
+    /**
+     * Get the estimated memory used by log entries not yet applied to the state machine.
+     *
+     * @return unapplied log memory usage in bytes
+     * @see RaftKVDatabase#getUnappliedLogMemoryUsage
+     */
+    public long getUnappliedLogMemory() {
+        return this.unappliedLogMemory;
+    }
+
+    /**
+     * Get per-follower replication metrics.
+     *
+     * @return follower metrics sorted by identity, or empty list if this node is not the leader
+     */
+    public List<FollowerMetrics> getFollowers() {
+        return this.followers;
+    }
+
+    /**
+     * Get the progress of the snapshot install currently being received from the leader, if any.
+     *
+     * @return snapshot receive progress, or null if this node is not receiving a snapshot
+     */
+    public SnapshotProgress getSnapshotReceive() {
+        return this.snapshotReceive;
+    }
+
+    /**
+     * Get the lock contention statistics.
+     *
+     * @return lock contention statistics
+     * @see RaftKVDatabase#getContentionStats
+     */
+    public ContentionStats getContentionStats() {
+        return this.contentionStats;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[latencies=" + this.latencies
+          + ",retries=" + this.retryCounts
+          + ",unappliedLogEntries=" + this.unappliedLogEntries
+          + ",unappliedLogMemory=" + this.unappliedLogMemory
+          + ",followers=" + this.followers
+          + (this.snapshotReceive != null ? ",snapshotReceive=" + this.snapshotReceive : "")
+          + "]";
+    }
+
+// Stage
+
+    /**
+     * The stages of the Raft commit pipeline for which latencies are tracked.
+     */
+    public enum Stage {
+
+        /**
+         * Transaction commit, from {@link RaftKVTransaction#commit} until the commit succeeds.
+         */
+        COMMIT,
+
+        /**
+         * Follower commit request round trip, from sending a {@link org.jsimpledb.kv.raft.msg.CommitRequest}
+         * to the leader until receiving the corresponding {@link org.jsimpledb.kv.raft.msg.CommitResponse}.
+         */
+        COMMIT_REQUEST,
+
+        /**
+         * Leader check of a transaction's reads for conflicts with log entries committed since its base log entry.
+         */
+        CONFLICT_CHECK,
+
+        /**
+         * Writing (and syncing) new log entry data to a temporary file.
+         */
+        LOG_WRITE,
+
+        /**
+         * Atomically appending a new log entry to the Raft log, including the directory sync.
+         */
+        LOG_APPEND,
+
+        /**
+         * Leader wait for a majority of followers to acknowledge a log entry, from appending it until it is committed.
+         */
+        FOLLOWER_ACK,
+
+        /**
+         * Applying a batch of committed log entries to the key/value store.
+         */
+        APPLY;
+    }
+
+// FollowerMetrics
+
+    /**
+     * Replication metrics for one follower, as seen by the leader.
+     */
+    public static final class FollowerMetrics {
+
+        private final String identity;
+        private final long matchIndex;
+        private final long replicationLag;
+        private final long timeSinceContact;
+        private final SnapshotProgress snapshotTransmit;
+
+        FollowerMetrics(String identity, long matchIndex, long replicationLag,
+          long timeSinceContact, SnapshotProgress snapshotTransmit) {
+            this.identity = identity;
+            this.matchIndex = matchIndex;
+            this.replicationLag = replicationLag;
+            this.timeSinceContact = timeSinceContact;
+            this.snapshotTransmit = snapshotTransmit;
+        }
+
+        /**
+         * Get the follower's identity.
+         *
+         * @return follower identity
+         */
+        public String getIdentity() {
+            return this.identity;
+        }
+
+        /**
+         * Get the index of the last log entry known to be replicated to the follower.
+         *
+         * @return follower match index
+         */
+        public long getMatchIndex() {
+            return this.matchIndex;
+        }
+
+        /**
+         * Get the number of log entries the follower is behind the leader's log.
+         *
+         * @return replication lag in log entries
+         */
+        public long getReplicationLag() {
+            return this.replicationLag;
+        }
+
+        /**
+         * Get the time since the leader last heard from the follower.
+         *
+         * @return milliseconds since last contact, or -1 if never
+         */
+        public long getTimeSinceContact() {
+            return this.timeSinceContact;
+        }
+
+        /**
+         * Get the progress of the snapshot install currently being sent to the follower, if any.
+         *
+         * @return snapshot transmit progress, or null if none
+         */
+        public SnapshotProgress getSnapshotTransmit() {
+            return this.snapshotTransmit;
+        }
+
+        @Override
+        public String toString() {
+            return "[\"" + this.identity + "\",match=" + this.matchIndex + ",lag=" + this.replicationLag
+              + ",contact=" + this.timeSinceContact + "ms"
+              + (this.snapshotTransmit != null ? ",snapshot=" + this.snapshotTransmit : "") + "]";
+        }
+    }
+
+// SnapshotProgress
+
+    /**
+     * The progress of a snapshot install.
+     */
+    public static final class SnapshotProgress {
+
+        private final long snapshotTerm;
+        private final long snapshotIndex;
+        private final long pairsTransferred;
+        private final long pairsAcknowledged;
+
+        SnapshotProgress(long snapshotTerm, long snapshotIndex, long pairsTransferred, long pairsAcknowledged) {
+            this.snapshotTerm = snapshotTerm;
+            this.snapshotIndex = snapshotIndex;
+            this.pairsTransferred = pairsTransferred;
+            this.pairsAcknowledged = pairsAcknowledged;
+        }
+
+        /**
+         * Get the term of the last log entry included in the snapshot.
+         *
+         * @return snapshot term
+         */
+        public long getSnapshotTerm() {
+            return this.snapshotTerm;
+        }
+
+        /**
+         * Get the index of the last log entry included in the snapshot.
+         *
+         * @return snapshot index
+         */
+        public long getSnapshotIndex() {
+            return this.snapshotIndex;
+        }
+
+        /**
+         * Get the number of key/value pairs transferred so far.
+         *
+         * @return key/value pairs sent or received
+         */
+        public long getPairsTransferred() {
+            return this.pairsTransferred;
+        }
+
+        /**
+         * Get the number of key/value pairs acknowledged by the receiver so far.
+         *
+         * @return key/value pairs acknowledged
+         */
+        public long getPairsAcknowledged() {
+            return this.pairsAcknowledged;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + this.snapshotIndex + "t" + this.snapshotTerm
+              + ",transferred=" + this.pairsTransferred + ",acked=" + this.pairsAcknowledged + "]";
+        }
+    }
+}
+
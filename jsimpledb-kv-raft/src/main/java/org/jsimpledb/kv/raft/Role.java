@@ -8,15 +8,16 @@ package org.jsimpledb.kv.raft;
 import com.google.common.collect.Iterables;
 import com.google.common.primitives.Bytes;
 
-import java.io.IOException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.jsimpledb.kv.KVTransactionException;
 import org.jsimpledb.kv.KeyRange;
 import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.mvcc.ConflictTracker;
 import org.jsimpledb.kv.mvcc.Mutations;
 import org.jsimpledb.kv.mvcc.Reads;
 import org.jsimpledb.kv.mvcc.Writes;
@@ -26,10 +27,14 @@ import org.jsimpledb.kv.raft.msg.CommitRequest;
 import org.jsimpledb.kv.raft.msg.CommitResponse;
 import org.jsimpledb.kv.raft.msg.GrantVote;
 import org.jsimpledb.kv.raft.msg.InstallSnapshot;
+import org.jsimpledb.kv.raft.msg.InstallSnapshotResponse;
 import org.jsimpledb.kv.raft.msg.Message;
 import org.jsimpledb.kv.raft.msg.PingRequest;
 import org.jsimpledb.kv.raft.msg.PingResponse;
+import org.jsimpledb.kv.raft.msg.ReadIndexRequest;
+import org.jsimpledb.kv.raft.msg.ReadIndexResponse;
 import org.jsimpledb.kv.raft.msg.RequestVote;
+import org.jsimpledb.kv.raft.msg.TimeoutNow;
 import org.jsimpledb.util.LongEncoder;
 import org.slf4j.Logger;
 
@@ -54,7 +59,6 @@ public abstract class Role {
         }
     };
 
-    // NOTE: use of this service requires that 'checkWaitingTransactionsService' be scheduled first!
     final Service applyCommittedLogEntriesService = new Service(this, "apply committed logs") {
         @Override
         public void run() {
@@ -130,16 +134,31 @@ public abstract class Role {
      * We invoke this service method whenever log entries are added or our {@code commitIndex} advances.
      *
      * <p>
-     * Note: checkWaitingTransactions() must have been invoked already when this method is invoked.
+     * The key/value store updates are performed by {@link RaftKVDatabase#applyLogEntries} on a separate thread,
+     * without holding the lock; if a previous batch of log entries is still being applied, this method does nothing
+     * and will be invoked again when that batch completes.
+     *
+     * <p>
+     * Any transactions waiting on log entries about to be applied are checked first, so their commit log entries
+     * can still be verified.
      */
     void applyCommittedLogEntries() {
         assert Thread.holdsLock(this.raft);
 
+        // Wait for any previous batch to complete
+        if (this.raft.applyingIndex != 0)
+            return;
+
+        // Check waiting transactions; a transaction may have started waiting since the last check
+        this.checkWaitingTransactions();
+
         // Determine how many committed log entries we can apply to the state machine at this time
         int numEntriesToApply = 0;
         while (this.raft.lastAppliedIndex + numEntriesToApply < this.raft.commitIndex
           && this.mayApplyLogEntry(this.raft.raftLog.get(numEntriesToApply)))
             numEntriesToApply++;
+        if (numEntriesToApply == 0)
+            return;
         final long maxAppliedIndex = this.raft.lastAppliedIndex + numEntriesToApply;
         assert maxAppliedIndex <= this.raft.commitIndex;
 
@@ -147,19 +166,20 @@ public abstract class Role {
         boolean assertionsEnabled = false;
         assert assertionsEnabled = true;
         if (assertionsEnabled) {
-            for (RaftKVTransaction tx : this.raft.openTransactions.values())
-                assert !tx.getState().equals(TxState.COMMIT_WAITING) || tx.getCommitIndex() > this.raft.commitIndex;
+            for (RaftKVTransaction tx : this.raft.openTransactions.values()) {
+                assert !tx.getState().equals(TxState.COMMIT_WAITING)
+                  || tx.getCommitIndex() > this.raft.commitIndex || tx.isCommitIndexCommitted();
+            }
         }
 
-        // Apply committed log entries to the state machine
-        while (this.raft.lastAppliedIndex < maxAppliedIndex) {
-
-            // Grab the first unwritten log entry
-            final LogEntry logEntry = this.raft.raftLog.get(0);
-            assert logEntry.getIndex() == this.raft.lastAppliedIndex + 1;
+        // Prepare the key/value store updates for each committed log entry
+        final ArrayList<LogEntry> logEntries = new ArrayList<>(numEntriesToApply);
+        final ArrayList<Mutations> mutationsList = new ArrayList<>(numEntriesToApply);
+        final HashMap<String, String> logEntryConfig = new HashMap<>(this.raft.lastAppliedConfig);
+        final byte[] stateMachinePrefix = this.raft.getStateMachinePrefix();
+        for (LogEntry logEntry : this.raft.raftLog.subList(0, numEntriesToApply)) {
 
             // Get the current config as of the log entry we're about to apply
-            final HashMap<String, String> logEntryConfig = new HashMap<>(this.raft.lastAppliedConfig);
             logEntry.applyConfigChange(logEntryConfig);
 
             // Prepare combined Mutations containing prefixed log entry changes plus my own
@@ -168,7 +188,6 @@ public abstract class Role {
             myWrites.getPuts().put(RaftKVDatabase.LAST_APPLIED_TERM_KEY, LongEncoder.encode(logEntry.getTerm()));
             myWrites.getPuts().put(RaftKVDatabase.LAST_APPLIED_INDEX_KEY, LongEncoder.encode(logEntry.getIndex()));
             myWrites.getPuts().put(RaftKVDatabase.LAST_APPLIED_CONFIG_KEY, this.raft.encodeConfig(logEntryConfig));
-            final byte[] stateMachinePrefix = this.raft.getStateMachinePrefix();
             final Mutations mutations = new Mutations() {
 
                 @Override
@@ -190,28 +209,20 @@ public abstract class Role {
                       entry -> new AbstractMap.SimpleEntry<>(Bytes.concat(stateMachinePrefix, entry.getKey()), entry.getValue()));
                 }
             };
+            logEntries.add(logEntry);
+            mutationsList.add(mutations);
+        }
 
-            // Apply updates to the key/value store; when applying the last one, durably persist
-            if (this.log.isDebugEnabled())
-                this.debug("applying committed log entry " + logEntry + " to key/value store");
-            try {
-                this.raft.kv.mutate(mutations, !this.raft.disableSync && this.raft.lastAppliedIndex == maxAppliedIndex);
-            } catch (Exception e) {
-                if (e instanceof RuntimeException && e.getCause() instanceof IOException)
-                    e = (IOException)e.getCause();
-                this.error("error applying log entry " + logEntry + " to key/value store", e);
-                break;
-            }
-
-            // Update in-memory state
-            assert logEntry.getIndex() == this.raft.lastAppliedIndex + 1;
-            this.raft.incrementLastAppliedIndex(logEntry.getTerm());
-            logEntry.applyConfigChange(this.raft.lastAppliedConfig);
-            assert this.raft.currentConfig.equals(this.raft.buildCurrentConfig());
-
-            // Delete the log entry
-            this.raft.raftLog.remove(0);
-            this.raft.deleteFile(logEntry.getFile(), "applied log file");
+        // Hand off to the apply thread
+        if (this.log.isDebugEnabled())
+            this.debug("applying committed log entries " + logEntries + " to key/value store");
+        this.raft.applyingIndex = maxAppliedIndex;
+        try {
+            this.raft.applyExecutor.submit(() -> this.raft.applyLogEntries(logEntries, mutationsList));
+        } catch (RejectedExecutionException e) {
+            this.raft.applyingIndex = 0;
+            if (!this.raft.shuttingDown)
+                this.warn("apply executor task rejected, skipping", e);
         }
     }
 
@@ -509,6 +520,7 @@ public abstract class Role {
                         this.debug("cannot rebase " + tx + " past " + logEntry + " due to conflicts, failing");
                     if (this.raft.dumpConflicts)
                         this.dumpConflicts(tx.view.getReads(), logEntry, "local txId=" + tx.txId);
+                    this.trackConflicts(tx.view.getReads(), logEntry.getWrites());
                     throw new RetryTransactionException(tx, "writes of committed transaction at index " + baseIndex
                       + " conflict with transaction reads from transaction base index " + tx.baseIndex);
                 }
@@ -535,6 +547,12 @@ public abstract class Role {
         }
     }
 
+    void trackConflicts(Reads reads, Mutations mutations) {
+        final ConflictTracker tracker = this.raft.conflictTracker;
+        if (tracker != null)
+            tracker.recordConflicts(reads, mutations);
+    }
+
     void dumpConflicts(Reads reads, LogEntry logEntry, String description) {
         final StringBuilder buf = new StringBuilder();
         buf.append(description + " failing due to conflicts with " + logEntry + ":");
@@ -576,7 +594,11 @@ public abstract class Role {
     abstract void caseCommitResponse(CommitResponse msg);
     abstract void caseGrantVote(GrantVote msg);
     abstract void caseInstallSnapshot(InstallSnapshot msg);
+    abstract void caseInstallSnapshotResponse(InstallSnapshotResponse msg);
+    abstract void caseReadIndexRequest(ReadIndexRequest msg);
+    abstract void caseReadIndexResponse(ReadIndexResponse msg);
     abstract void caseRequestVote(RequestVote msg);
+    abstract void caseTimeoutNow(TimeoutNow msg);
 
     void casePingRequest(PingRequest msg) {
         assert Thread.holdsLock(this.raft);
@@ -68,6 +68,10 @@ class SnapshotReceive {
         return this.snapshotConfig;
     }
 
+    public long getPairIndex() {
+        return this.pairIndex;
+    }
+
     /**
      * Apply the next chunk of key/value pairs.
      *
@@ -91,9 +95,11 @@ class SnapshotReceive {
     }
 
     public boolean matches(InstallSnapshot msg) {
-        return this.snapshotTerm == msg.getSnapshotTerm()
-          && this.snapshotIndex == msg.getSnapshotIndex()
-          && this.pairIndex == msg.getPairIndex();
+        return this.isSameSnapshot(msg) && this.pairIndex == msg.getPairIndex();
+    }
+
+    public boolean isSameSnapshot(InstallSnapshot msg) {
+        return this.snapshotTerm == msg.getSnapshotTerm() && this.snapshotIndex == msg.getSnapshotIndex();
     }
 
 // Object
@@ -10,6 +10,7 @@ import com.google.common.base.Preconditions;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -18,11 +19,18 @@ import org.jsimpledb.kv.CloseableKVStore;
 import org.jsimpledb.kv.KVPair;
 import org.jsimpledb.kv.KVStore;
 import org.jsimpledb.kv.util.KeyListEncoder;
+import org.jsimpledb.util.ByteUtil;
 
 /**
  * Represents and in-progress snapshot installation from the leader's point of view.
  *
  * <p>
+ * Chunks that have been sent but not yet acknowledged by the follower are tracked, so that the number of chunks
+ * in flight can be limited, and so that an interrupted transmission can be {@linkplain #rewind resumed} from the
+ * last acknowledged key/value pair. To support the latter, each chunk is self-contained, i.e., its first key is
+ * not encoded relative to the last key of the previous chunk.
+ *
+ * <p>
  * Instances are not thread safe.
  */
 class SnapshotTransmit implements Closeable {
@@ -33,8 +41,11 @@ class SnapshotTransmit implements Closeable {
     private final long snapshotTerm;
     private final long snapshotIndex;
     private final Map<String, String> snapshotConfig;
+    private final boolean compress;
+    private final ArrayDeque<Chunk> inFlight = new ArrayDeque<>();  // chunks sent but not yet acknowledged
 
     private CloseableKVStore snapshot;                              // snapshot view of key/value store
+    private KVStore view;
     private Iterator<KVPair> iterator;
 
     private long pairIndex;                                         // count of how many key/value pairs sent so far
@@ -42,17 +53,25 @@ class SnapshotTransmit implements Closeable {
     private byte[] previousKey;
     private boolean anyChunksSent;
 
+    private long ackedPairIndex;                                    // count of how many key/value pairs acknowledged
+    private byte[] ackedKey;                                        // last key acknowledged, or null if none
+    private boolean anyChunksAcked;
+    private int numRewinds;
+
 // Constructors
 
     SnapshotTransmit(long snapshotTerm, long snapshotIndex, Map<String, String> snapshotConfig,
-      CloseableKVStore snapshot, KVStore view) {
+      CloseableKVStore snapshot, KVStore view, boolean compress) {
         Preconditions.checkArgument(snapshotTerm > 0);
         Preconditions.checkArgument(snapshotIndex > 0);
         Preconditions.checkArgument(snapshotConfig != null);
+        Preconditions.checkArgument(view != null);
         this.snapshotTerm = snapshotTerm;
         this.snapshotIndex = snapshotIndex;
         this.snapshotConfig = snapshotConfig;
         this.snapshot = snapshot;
+        this.view = view;
+        this.compress = compress;
         this.iterator = view.getRange(null, null, false);
         this.advance();
     }
@@ -84,46 +103,142 @@ class SnapshotTransmit implements Closeable {
         return this.pairIndex;
     }
 
+    public long getAckedPairIndex() {
+        return this.ackedPairIndex;
+    }
+
+    /**
+     * Get the number of times this transmission has been {@linkplain #rewind rewound}.
+     *
+     * @return number of rewinds
+     */
+    public int getNumRewinds() {
+        return this.numRewinds;
+    }
+
     public boolean hasMoreChunks() {
-        return this.nextPair != null;
+        return this.nextPair != null || !this.anyChunksSent;
+    }
+
+    /**
+     * Get the number of chunks sent but not yet acknowledged.
+     *
+     * @return number of chunks in flight
+     */
+    public int getInFlightCount() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * Get the age of the oldest chunk sent but not yet acknowledged.
+     *
+     * @return age in milliseconds, or zero if there are no chunks in flight
+     */
+    public int getInFlightAge() {
+        return !this.inFlight.isEmpty() ? -this.inFlight.peekFirst().getSendTime().offsetFromNow() : 0;
+    }
+
+    /**
+     * Determine whether the entire snapshot has been sent and acknowledged.
+     *
+     * @return true if transmission is complete
+     */
+    public boolean isComplete() {
+        return !this.hasMoreChunks() && this.inFlight.isEmpty();
     }
 
-    public ByteBuffer getNextChunk() {
+    /**
+     * Get the next chunk of key/value pairs to send.
+     *
+     * @return next chunk, or null if there are no more chunks to send
+     */
+    public Chunk getNextChunk() {
 
         // Any more key/value pairs?
+        final long startPairIndex = this.pairIndex;
+        ByteBuffer buf;
         if (this.nextPair == null) {
 
             // In the case of a completely empty snapshot, ensure we send at least one (empty) chunk
-            if (!this.anyChunksSent) {
-                this.anyChunksSent = true;
-                return ByteBuffer.allocate(0);
-            }
-
-            // Done
-            return null;
+            if (this.anyChunksSent)
+                return null;
+            buf = ByteBuffer.allocate(0);
+        } else {
+
+            // Allocate buffer; first key in each chunk is encoded in full so chunks can be resent independently
+            this.previousKey = null;
+            buf = Util.allocateByteBuffer(Math.max(this.nextPairLength(), MAX_CHUNK_SIZE));
+
+            // Fill buffer with the next chunk of key/value pairs
+            final ByteBufferOutputStream output = new ByteBufferOutputStream(buf);
+            do {
+                final byte[] key = this.nextPair.getKey();
+                final byte[] value = this.nextPair.getValue();
+                try {
+                    KeyListEncoder.write(output, key, this.previousKey);
+                    KeyListEncoder.write(output, value, null);
+                } catch (IOException e) {
+                    throw new RuntimeException("unexpected exception");
+                }
+                this.previousKey = key;
+                this.pairIndex++;
+            } while (this.advance() && buf.remaining() >= this.nextPairLength());
+            buf.flip();
         }
 
-        // Allocate buffer
-        final ByteBuffer buf = Util.allocateByteBuffer(Math.max(this.nextPairLength(), MAX_CHUNK_SIZE));
-
-        // Fill buffer with the next chunk of key/value pairs
-        final ByteBufferOutputStream output = new ByteBufferOutputStream(buf);
-        do {
-            final byte[] key = this.nextPair.getKey();
-            final byte[] value = this.nextPair.getValue();
-            try {
-                KeyListEncoder.write(output, key, this.previousKey);
-                KeyListEncoder.write(output, value, null);
-            } catch (IOException e) {
-                throw new RuntimeException("unexpected exception");
+        // Compress if enabled and worthwhile
+        boolean compressed = false;
+        if (this.compress && buf.hasRemaining()) {
+            final ByteBuffer compressedBuf = Util.compress(buf);
+            if (compressedBuf != null) {
+                buf = compressedBuf;
+                compressed = true;
             }
-            this.previousKey = key;
-            this.pairIndex++;
-        } while (this.advance() && buf.remaining() >= this.nextPairLength());
+        }
 
         // Done
         this.anyChunksSent = true;
-        return (ByteBuffer)buf.flip();
+        final Chunk chunk = new Chunk(startPairIndex, this.pairIndex, this.previousKey, this.nextPair == null, compressed, buf);
+        this.inFlight.add(chunk);
+        return chunk;
+    }
+
+    /**
+     * Record an acknowledgement from the follower.
+     *
+     * @param ackPairIndex number of key/value pairs the follower has received and applied
+     * @param complete true if the follower has completed the snapshot install
+     * @return true if any chunks in flight were acknowledged
+     */
+    public boolean acknowledge(long ackPairIndex, boolean complete) {
+        boolean progress = false;
+        while (!this.inFlight.isEmpty()) {
+            final Chunk chunk = this.inFlight.peekFirst();
+            if (!complete && (chunk.getEndPairIndex() > ackPairIndex || chunk.getEndPairIndex() == chunk.getPairIndex()))
+                break;
+            this.inFlight.removeFirst();
+            this.ackedPairIndex = chunk.getEndPairIndex();
+            if (chunk.getLastKey() != null)
+                this.ackedKey = chunk.getLastKey();
+            this.anyChunksAcked = true;
+            progress = true;
+        }
+        return progress;
+    }
+
+    /**
+     * Discard all chunks in flight and resume transmission from the last acknowledged key/value pair.
+     */
+    public void rewind() {
+        Preconditions.checkState(this.view != null, "closed");
+        this.inFlight.clear();
+        Util.closeIfPossible(this.iterator);
+        this.iterator = this.view.getRange(this.ackedKey != null ? ByteUtil.getNextKey(this.ackedKey) : null, null, false);
+        this.pairIndex = this.ackedPairIndex;
+        this.previousKey = null;
+        this.anyChunksSent = this.anyChunksAcked;
+        this.numRewinds++;
+        this.advance();
     }
 
 // Private methods
@@ -149,8 +264,10 @@ class SnapshotTransmit implements Closeable {
         Util.closeIfPossible(this.snapshot);
         Util.closeIfPossible(this.iterator);
         this.snapshot = null;
+        this.view = null;
         this.iterator = null;
         this.nextPair = null;
+        this.inFlight.clear();
     }
 
 // Object
@@ -162,8 +279,73 @@ class SnapshotTransmit implements Closeable {
           + ",snapshotIndex=" + this.snapshotIndex
           + ",snapshotConfig=" + this.snapshotConfig
           + ",pairIndex=" + this.pairIndex
+          + ",ackedPairIndex=" + this.ackedPairIndex
+          + (!this.inFlight.isEmpty() ? ",inFlight=" + this.inFlight.size() : "")
+          + (this.numRewinds > 0 ? ",rewinds=" + this.numRewinds : "")
           + (this.snapshot == null ? ",closed" : "")
           + "]";
     }
+
+// Chunk
+
+    /**
+     * A chunk of key/value pairs sent to the follower.
+     */
+    static class Chunk {
+
+        private final Timestamp sendTime = new Timestamp();
+        private final long pairIndex;
+        private final long endPairIndex;
+        private final byte[] lastKey;
+        private final boolean lastChunk;
+        private final boolean compressed;
+        private final ByteBuffer data;
+
+        Chunk(long pairIndex, long endPairIndex, byte[] lastKey, boolean lastChunk, boolean compressed, ByteBuffer data) {
+            this.pairIndex = pairIndex;
+            this.endPairIndex = endPairIndex;
+            this.lastKey = lastKey;
+            this.lastChunk = lastChunk;
+            this.compressed = compressed;
+            this.data = data;
+        }
+
+        public Timestamp getSendTime() {
+            return this.sendTime;
+        }
+
+        /**
+         * Get the index of the first key/value pair in this chunk.
+         */
+        public long getPairIndex() {
+            return this.pairIndex;
+        }
+
+        /**
+         * Get the index of the first key/value pair after this chunk.
+         */
+        public long getEndPairIndex() {
+            return this.endPairIndex;
+        }
+
+        /**
+         * Get the last key in this chunk, or null if this chunk is empty.
+         */
+        public byte[] getLastKey() {
+            return this.lastKey;
+        }
+
+        public boolean isLastChunk() {
+            return this.lastChunk;
+        }
+
+        public boolean isCompressed() {
+            return this.compressed;
+        }
+
+        public ByteBuffer getData() {
+            return this.data;
+        }
+    }
 }
 
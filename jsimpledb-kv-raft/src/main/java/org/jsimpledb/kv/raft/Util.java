@@ -13,6 +13,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import org.slf4j.LoggerFactory;
 
@@ -59,6 +63,64 @@ final class Util {
         return capacity >= MIN_DIRECT_BUFFER_SIZE ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
     }
 
+    /**
+     * Compress data using {@link Deflater}.
+     *
+     * @param buf data to compress
+     * @return compressed data, or null if compression would not make the data any smaller
+     * @throws IllegalArgumentException if {@code buf} is null
+     */
+    public static ByteBuffer compress(ByteBuffer buf) {
+        Preconditions.checkArgument(buf != null, "null buf");
+        final byte[] input = new byte[buf.remaining()];
+        buf.duplicate().get(input);
+        final byte[] output = new byte[input.length];
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished() && length < output.length)
+                length += deflater.deflate(output, length, output.length - length);
+            return deflater.finished() && length < input.length ? ByteBuffer.wrap(output, 0, length).slice() : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress data previously compressed by {@link #compress compress()}.
+     *
+     * @param buf data to decompress
+     * @return decompressed data
+     * @throws IllegalArgumentException if {@code buf} is null
+     * @throws IllegalArgumentException if {@code buf} contains invalid data
+     */
+    public static ByteBuffer decompress(ByteBuffer buf) {
+        Preconditions.checkArgument(buf != null, "null buf");
+        final byte[] input = new byte[buf.remaining()];
+        buf.duplicate().get(input);
+        byte[] output = new byte[Math.max(input.length * 4, 64)];
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == output.length)
+                    output = Arrays.copyOf(output, output.length * 2);
+                final int count = inflater.inflate(output, length, output.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalArgumentException("truncated compressed data");
+                length += count;
+            }
+            return ByteBuffer.wrap(output, 0, length).slice();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("invalid compressed data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
     /**
      * Get the length of a file.
      *
@@ -13,6 +13,7 @@ import org.jsimpledb.cli.cmd.AbstractCommand;
 import org.jsimpledb.kv.KVDatabase;
 import org.jsimpledb.kv.raft.RaftKVDatabase;
 import org.jsimpledb.kv.raft.fallback.FallbackKVDatabase;
+import org.jsimpledb.kv.util.MetricsKVDatabase;
 
 public abstract class AbstractRaftCommand extends AbstractCommand {
 
@@ -29,7 +30,9 @@ public abstract class AbstractRaftCommand extends AbstractCommand {
 
         @Override
         public final void run(CliSession session) throws Exception {
-            final KVDatabase db = session.getKVDatabase();
+            KVDatabase db = session.getKVDatabase();
+            if (db instanceof MetricsKVDatabase)
+                db = ((MetricsKVDatabase)db).getWrappedKVDatabase();
             final RaftKVDatabase raftKV;
             if (db instanceof RaftKVDatabase)
                 raftKV = (RaftKVDatabase)db;
@@ -15,6 +15,7 @@ import org.jsimpledb.kv.raft.Consistency;
 import org.jsimpledb.kv.raft.RaftKVDatabase;
 import org.jsimpledb.kv.raft.RaftKVTransaction;
 import org.jsimpledb.kv.raft.fallback.FallbackKVTransaction;
+import org.jsimpledb.kv.util.MetricsKVTransaction;
 
 public abstract class AbstractTransactionRaftCommand extends AbstractRaftCommand {
 
@@ -28,6 +29,8 @@ public abstract class AbstractTransactionRaftCommand extends AbstractRaftCommand
         @Override
         public final void run(CliSession session, RaftKVDatabase db) throws Exception {
             KVTransaction kvt = session.getKVTransaction();
+            if (kvt instanceof MetricsKVTransaction)
+                kvt = ((MetricsKVTransaction)kvt).getWrappedKVTransaction();
             final RaftKVTransaction raftTX;
             if (kvt instanceof RaftKVTransaction)
                 raftTX = (RaftKVTransaction)kvt;
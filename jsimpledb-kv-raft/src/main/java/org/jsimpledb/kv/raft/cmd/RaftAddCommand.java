@@ -15,7 +15,7 @@ import org.jsimpledb.util.ParseContext;
 public class RaftAddCommand extends AbstractTransactionRaftCommand {
 
     public RaftAddCommand() {
-        super("raft-add identity address");
+        super("raft-add -l:learner identity address");
     }
 
     @Override
@@ -31,18 +31,22 @@ public class RaftAddCommand extends AbstractTransactionRaftCommand {
           + " new address if its address actually needs to change). This command may be run from any cluster node."
           + "\n\nThis command is also used to initialize an unconfigured node. This creates a new cluster with the"
           + " local node as the first and only member. In this usage, the local node's identity and address must be given;"
-          + " for unconfigured nodes, this is the only allowed usage of this command.";
+          + " for unconfigured nodes, this is the only allowed usage of this command."
+          + "\n\nIf the `-l' flag is given, the node is added as a non-voting learner, which receives updates from the"
+          + " leader but does not participate in elections or count toward the commit majority. Re-adding an existing"
+          + " node with or without `-l' converts it to or from a learner.";
     }
 
     @Override
     public CliSession.Action getAction(CliSession session, ParseContext ctx, boolean complete, Map<String, Object> params) {
         final String identity = (String)params.get("identity");
         final String address = (String)params.get("address");
+        final boolean learner = params.containsKey("learner");
         return new RaftTransactionAction() {
 
             @Override
             protected void run(CliSession session, RaftKVTransaction tx) throws Exception {
-                tx.configChange(identity, address);
+                tx.configChange(identity, address, learner);
             }
         };
     }
@@ -14,14 +14,17 @@ import java.util.Map;
 
 import org.jsimpledb.cli.CliSession;
 import org.jsimpledb.kv.raft.CandidateRole;
+import org.jsimpledb.kv.raft.ContentionStats;
 import org.jsimpledb.kv.raft.Follower;
 import org.jsimpledb.kv.raft.FollowerRole;
 import org.jsimpledb.kv.raft.LeaderRole;
 import org.jsimpledb.kv.raft.LogEntry;
 import org.jsimpledb.kv.raft.RaftKVDatabase;
 import org.jsimpledb.kv.raft.RaftKVTransaction;
+import org.jsimpledb.kv.raft.RaftMetrics;
 import org.jsimpledb.kv.raft.Role;
 import org.jsimpledb.kv.raft.Timestamp;
+import org.jsimpledb.kv.util.Histogram;
 import org.jsimpledb.util.ParseContext;
 
 public class RaftStatusCommand extends AbstractRaftCommand {
@@ -75,6 +78,8 @@ public class RaftStatusCommand extends AbstractRaftCommand {
         writer.println(String.format("%-24s: %s", "Max transaction duration",
           RaftStatusCommand.describeMillis(db.getMaxTransactionDuration())));
         writer.println(String.format("%-24s: %s", "Follower probing enabled", db.isFollowerProbingEnabled()));
+        writer.println(String.format("%-24s: %s", "Preferred leader",
+          db.getPreferredLeader() != null ? "\"" + db.getPreferredLeader() + "\"" : "None"));
 
         // Cluster info
         writer.println();
@@ -84,7 +89,8 @@ public class RaftStatusCommand extends AbstractRaftCommand {
         writer.println(String.format("%-24s: \"%s\"", "Cluster identity", db.getIdentity()));
         writer.println(String.format("%-24s: %s", "Cluster ID",
           db.getClusterId() != 0 ? String.format("0x%08x", db.getClusterId()) : "Unconfigured"));
-        writer.println(String.format("%-24s: %s", "Node is cluster member", db.isClusterMember() ? "Yes" : "No"));
+        writer.println(String.format("%-24s: %s", "Node is cluster member",
+          db.isClusterMember() ? "Yes" : db.isLearner() ? "No (learner)" : "No"));
         final Map<String, String> config = db.getCurrentConfig();
         if (config.isEmpty())
             writer.println(String.format("%-24s: %s", "Cluster configuration", "Unconfigured"));
@@ -97,8 +103,9 @@ public class RaftStatusCommand extends AbstractRaftCommand {
             for (Map.Entry<String, String> entry : db.getCurrentConfig().entrySet()) {
                 final String identity = entry.getKey();
                 final String address = entry.getValue();
-                writer.println(String.format("%1s %-16s %s",
-                  identity.equals(db.getIdentity()) ? "*" : "", "\"" + identity + "\"", address));
+                writer.println(String.format("%1s %-16s %s%s",
+                  identity.equals(db.getIdentity()) ? "*" : "", "\"" + identity + "\"", address,
+                  db.isLearner(identity) ? " (learner)" : ""));
             }
         }
 
@@ -145,6 +152,9 @@ public class RaftStatusCommand extends AbstractRaftCommand {
             writer.println(String.format("%-24s: %s", "Lease Timeout", leader.getLeaseTimeout() != null ?
               String.format("%+dms", leader.getLeaseTimeout().offsetFromNow()) : "Not established"));
             final List<Follower> followers = leader.getFollowers();
+            final String transferTarget = leader.getLeadershipTransferTarget();
+            if (transferTarget != null)
+                writer.println(String.format("%-24s: \"%s\"", "Transferring leadership", transferTarget));
             writer.println(String.format("%-24s: %d", "Followers", followers.size()));
             if (!followers.isEmpty()) {
                 writer.println();
@@ -191,6 +201,58 @@ public class RaftStatusCommand extends AbstractRaftCommand {
             writer.println(String.format("%-24s: %d", "Votes Received", candidate.getVotesReceived()));
         }
 
+        // Metrics
+        final RaftMetrics metrics = db.getMetrics();
+        writer.println();
+        writer.println("Metrics");
+        writer.println("=======");
+        writer.println();
+        writer.println(String.format("  %-16s %-10s %-10s %-10s %-10s %s", "Stage", "Count", "Mean", "50%", "99%", "Max"));
+        writer.println(String.format("  %-16s %-10s %-10s %-10s %-10s %s", "-----", "-----", "----", "---", "---", "---"));
+        for (RaftMetrics.Stage stage : RaftMetrics.Stage.values()) {
+            final Histogram histogram = metrics.getLatency(stage);
+            writer.println(String.format("  %-16s %-10d %-10s %-10s %-10s %s", stage, histogram.getCount(),
+              RaftStatusCommand.describeMicros((long)histogram.getMean()),
+              RaftStatusCommand.describeMicros(histogram.getPercentile(0.50)),
+              RaftStatusCommand.describeMicros(histogram.getPercentile(0.99)),
+              RaftStatusCommand.describeMicros(histogram.getMax())));
+        }
+        final ContentionStats contention = metrics.getContentionStats();
+        writer.println();
+        writer.println(String.format("%-24s: %d", "Lock acquisitions", contention.getLockAcquisitions()));
+        writer.println(String.format("%-24s: %s total, %s max", "Lock wait time",
+          RaftStatusCommand.describeMicros(contention.getTotalLockWaitTime() / 1000),
+          RaftStatusCommand.describeMicros(contention.getMaxLockWaitTime() / 1000)));
+        writer.println(String.format("%-24s: %s total, %s max", "Lock hold time",
+          RaftStatusCommand.describeMicros(contention.getTotalLockHoldTime() / 1000),
+          RaftStatusCommand.describeMicros(contention.getMaxLockHoldTime() / 1000)));
+        final Map<String, Long> retryCounts = metrics.getRetryCounts();
+        writer.println(String.format("%-24s: %d", "Transaction retries",
+          retryCounts.values().stream().mapToLong(Long::longValue).sum()));
+        if (!retryCounts.isEmpty()) {
+            writer.println();
+            writer.println(String.format("  %-8s %s", "Count", "Reason"));
+            writer.println(String.format("  %-8s %s", "-----", "------"));
+            for (Map.Entry<String, Long> entry : retryCounts.entrySet())
+                writer.println(String.format("  %-8d %s", entry.getValue(), entry.getKey()));
+        }
+        if (!metrics.getFollowers().isEmpty()) {
+            writer.println();
+            writer.println(String.format("  %-16s %-8s %-8s %-10s %s", "Follower", "Match", "Lag", "Contact", "Snapshot"));
+            writer.println(String.format("  %-16s %-8s %-8s %-10s %s", "--------", "-----", "---", "-------", "--------"));
+            for (RaftMetrics.FollowerMetrics follower : metrics.getFollowers()) {
+                writer.println(String.format("  %-16s %-8d %-8d %-10s %s", follower.getIdentity(), follower.getMatchIndex(),
+                  follower.getReplicationLag(), follower.getTimeSinceContact() != -1 ?
+                   RaftStatusCommand.describeMillis(follower.getTimeSinceContact()) : "Never",
+                  RaftStatusCommand.describe(follower.getSnapshotTransmit())));
+            }
+        }
+        if (metrics.getSnapshotReceive() != null) {
+            writer.println();
+            writer.println(String.format("%-24s: %s", "Snapshot receive",
+              RaftStatusCommand.describe(metrics.getSnapshotReceive())));
+        }
+
         // Transactions
         writer.println();
         writer.println("Open Transactions");
@@ -216,6 +278,16 @@ public class RaftStatusCommand extends AbstractRaftCommand {
           (change[1] != null ? String.format("+\"%s\"@%s", change[0], change[1]) : "-\"" + change[0] + "\"") : "";
     }
 
+    // Describe snapshot install progress
+    private static String describe(RaftMetrics.SnapshotProgress progress) {
+        return progress != null ? String.format("%dt%d: %d pairs sent, %d acked", progress.getSnapshotIndex(),
+          progress.getSnapshotTerm(), progress.getPairsTransferred(), progress.getPairsAcknowledged()) : "";
+    }
+
+    private static String describeMicros(long value) {
+        return value < 1000 ? value + "us" : RaftStatusCommand.describeMillis(value / 1000);
+    }
+
     private static String describeMillis(long value) {
         StringBuilder b = new StringBuilder(32);
         if (value < 0) {
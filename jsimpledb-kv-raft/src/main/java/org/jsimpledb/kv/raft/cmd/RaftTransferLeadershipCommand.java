@@ -0,0 +1,57 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft.cmd;
+
+import java.util.Map;
+
+import org.jsimpledb.cli.CliSession;
+import org.jsimpledb.kv.raft.LeaderRole;
+import org.jsimpledb.kv.raft.RaftKVDatabase;
+import org.jsimpledb.util.ParseContext;
+
+public class RaftTransferLeadershipCommand extends AbstractRaftCommand {
+
+    public RaftTransferLeadershipCommand() {
+        super("raft-transfer-leadership identity");
+    }
+
+    @Override
+    public String getHelpSummary() {
+        return "Transfer Raft cluster leadership to another node";
+    }
+
+    @Override
+    public String getHelpDetail() {
+        return "This command transfers leadership from the local node, which must be the cluster leader, to the specified"
+          + " follower, which must be a voting member of the cluster. The local node first brings the follower up to date,"
+          + " then tells it to start an election immediately. Unlike `raft-step-down', the new leader is predictable and"
+          + " the cluster is not left without a leader for an election timeout. The transfer happens in the background;"
+          + " use `raft-status' to see whether it completed.";
+    }
+
+    @Override
+    public CliSession.Action getAction(CliSession session, ParseContext ctx, boolean complete, Map<String, Object> params) {
+        final String identity = (String)params.get("identity");
+        return new RaftAction() {
+            @Override
+            protected void run(CliSession session, RaftKVDatabase db) throws Exception {
+
+                // Get current role, which must be leader
+                final LeaderRole leader;
+                try {
+                    leader = (LeaderRole)db.getCurrentRole();
+                } catch (ClassCastException e) {
+                    throw new Exception("current role is not leader; try `raft-status' for more info");
+                }
+
+                // Transfer leadership
+                session.getWriter().println("Transferring Raft cluster leadership to \"" + identity + "\"");
+                leader.transferLeadership(identity);
+            }
+        };
+    }
+}
+
@@ -23,6 +23,7 @@ public class InstallSnapshot extends Message {
     private final Map<String, String> snapshotConfig;
     private final long pairIndex;
     private final boolean lastChunk;
+    private final boolean compressed;
     private final ByteBuffer data;
 
 // Constructors
@@ -43,23 +44,47 @@ public class InstallSnapshot extends Message {
      */
     public InstallSnapshot(int clusterId, String senderId, String recipientId, long term, long snapshotTerm,
       long snapshotIndex, long pairIndex, Map<String, String> snapshotConfig, boolean lastChunk, ByteBuffer data) {
+        this(clusterId, senderId, recipientId, term,
+          snapshotTerm, snapshotIndex, pairIndex, snapshotConfig, lastChunk, false, data);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param clusterId cluster ID
+     * @param senderId identity of sender
+     * @param recipientId identity of recipient
+     * @param term sender's current term
+     * @param snapshotTerm term of the last log entry in the snapshot
+     * @param snapshotIndex index of the last log entry in the snapshot
+     * @param snapshotConfig cluster config of the last log entry in the snapshot (first {@code pairIndex} only)
+     * @param pairIndex index of the first key/value pair in this chunk
+     * @param lastChunk true if this is the last chunk in the snapshot
+     * @param compressed true if {@code data} is compressed using {@link java.util.zip.Deflater}
+     * @param data encoded key/value pairs
+     */
+    public InstallSnapshot(int clusterId, String senderId, String recipientId, long term, long snapshotTerm,
+      long snapshotIndex, long pairIndex, Map<String, String> snapshotConfig, boolean lastChunk, boolean compressed,
+      ByteBuffer data) {
         super(Message.INSTALL_SNAPSHOT_TYPE, clusterId, senderId, recipientId, term);
         this.snapshotTerm = snapshotTerm;
         this.snapshotIndex = snapshotIndex;
         this.pairIndex = pairIndex;
         this.snapshotConfig = snapshotConfig;
         this.lastChunk = lastChunk;
+        this.compressed = compressed;
         this.data = data;
         this.checkArguments();
     }
 
-    InstallSnapshot(ByteBuffer buf) {
+    InstallSnapshot(ByteBuffer buf, boolean compressionFlag) {
         super(Message.INSTALL_SNAPSHOT_TYPE, buf);
         this.snapshotTerm = LongEncoder.read(buf);
         this.snapshotIndex = LongEncoder.read(buf);
         this.pairIndex = LongEncoder.read(buf);
         this.snapshotConfig = this.pairIndex == 0 ? InstallSnapshot.getSnapshotConfig(buf) : null;
         this.lastChunk = Message.getBoolean(buf);
+        this.compressed = compressionFlag && Message.getBoolean(buf);
         this.data = Message.getByteBuffer(buf);
         this.checkArguments();
     }
@@ -96,6 +121,15 @@ public class InstallSnapshot extends Message {
         return this.lastChunk;
     }
 
+    /**
+     * Determine whether the {@linkplain #getData data} in this message is compressed.
+     *
+     * @return true if data is compressed using {@link java.util.zip.Deflater}
+     */
+    public boolean isCompressed() {
+        return this.compressed;
+    }
+
     public ByteBuffer getData() {
         return this.data.asReadOnlyBuffer();
     }
@@ -121,6 +155,7 @@ public class InstallSnapshot extends Message {
         if (this.pairIndex == 0)
             InstallSnapshot.putSnapshotConfig(dest, this.snapshotConfig);
         Message.putBoolean(dest, this.lastChunk);
+        Message.putBoolean(dest, this.compressed);
         Message.putByteBuffer(dest, this.data);
     }
 
@@ -132,6 +167,7 @@ public class InstallSnapshot extends Message {
           + LongEncoder.encodeLength(this.pairIndex)
           + (this.pairIndex == 0 ? InstallSnapshot.calculateSize(this.snapshotConfig) : 0)
           + 1
+          + 1
           + Message.calculateSize(this.data);
     }
 
@@ -171,6 +207,7 @@ public class InstallSnapshot extends Message {
           + ",pairIndex=" + this.pairIndex
           + (this.snapshotConfig != null ? ",snapshotConfig=" + this.snapshotConfig : "")
           + ",lastChunk=" + this.lastChunk
+          + (this.compressed ? ",compressed" : "")
           + ",data=" + this.describe(this.data)
           + "]";
     }
@@ -0,0 +1,137 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft.msg;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+
+import org.jsimpledb.util.LongEncoder;
+
+/**
+ * Sent from a follower to a leader in response to an {@link InstallSnapshot}, acknowledging the key/value pairs
+ * received so far.
+ *
+ * <p>
+ * The leader uses these acknowledgements to limit the number of unacknowledged chunks in flight, and to resume
+ * an interrupted snapshot install from the last acknowledged key/value pair instead of starting over.
+ */
+public class InstallSnapshotResponse extends Message {
+
+    private final long snapshotTerm;
+    private final long snapshotIndex;
+    private final long pairIndex;                   // number of key/value pairs received and applied so far
+    private final boolean complete;                 // true if the snapshot install has completed
+
+// Constructors
+
+    /**
+     * Constructor.
+     *
+     * @param clusterId cluster ID
+     * @param senderId identity of sender
+     * @param recipientId identity of recipient
+     * @param term sender's current term
+     * @param snapshotTerm term of the last log entry in the snapshot
+     * @param snapshotIndex index of the last log entry in the snapshot
+     * @param pairIndex number of key/value pairs received and applied so far
+     * @param complete true if the snapshot install has completed
+     */
+    public InstallSnapshotResponse(int clusterId, String senderId, String recipientId, long term,
+      long snapshotTerm, long snapshotIndex, long pairIndex, boolean complete) {
+        super(Message.INSTALL_SNAPSHOT_RESPONSE_TYPE, clusterId, senderId, recipientId, term);
+        this.snapshotTerm = snapshotTerm;
+        this.snapshotIndex = snapshotIndex;
+        this.pairIndex = pairIndex;
+        this.complete = complete;
+        this.checkArguments();
+    }
+
+    InstallSnapshotResponse(ByteBuffer buf) {
+        super(Message.INSTALL_SNAPSHOT_RESPONSE_TYPE, buf);
+        this.snapshotTerm = LongEncoder.read(buf);
+        this.snapshotIndex = LongEncoder.read(buf);
+        this.pairIndex = LongEncoder.read(buf);
+        this.complete = Message.getBoolean(buf);
+        this.checkArguments();
+    }
+
+    @Override
+    void checkArguments() {
+        super.checkArguments();
+        Preconditions.checkArgument(this.snapshotTerm > 0);
+        Preconditions.checkArgument(this.snapshotIndex > 0);
+        Preconditions.checkArgument(this.pairIndex >= 0);
+    }
+
+// Properties
+
+    public long getSnapshotTerm() {
+        return this.snapshotTerm;
+    }
+
+    public long getSnapshotIndex() {
+        return this.snapshotIndex;
+    }
+
+    /**
+     * Get the number of key/value pairs in the snapshot that the follower has received and applied so far.
+     *
+     * @return pair index of the next key/value pair expected by the follower
+     */
+    public long getPairIndex() {
+        return this.pairIndex;
+    }
+
+    /**
+     * Determine whether the follower has received and applied the entire snapshot.
+     *
+     * @return true if snapshot install is complete
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+// Message
+
+    @Override
+    public void visit(MessageSwitch handler) {
+        handler.caseInstallSnapshotResponse(this);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dest) {
+        super.writeTo(dest);
+        LongEncoder.write(dest, this.snapshotTerm);
+        LongEncoder.write(dest, this.snapshotIndex);
+        LongEncoder.write(dest, this.pairIndex);
+        Message.putBoolean(dest, this.complete);
+    }
+
+    @Override
+    protected int calculateSize() {
+        return super.calculateSize()
+          + LongEncoder.encodeLength(this.snapshotTerm)
+          + LongEncoder.encodeLength(this.snapshotIndex)
+          + LongEncoder.encodeLength(this.pairIndex)
+          + 1;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[\"" + this.getSenderId() + "\"->\"" + this.getRecipientId() + "\""
+          + ",clusterId=" + String.format("%08x", this.getClusterId())
+          + ",term=" + this.getTerm()
+          + ",snapshot=" + this.snapshotIndex + "t" + this.snapshotTerm
+          + ",pairIndex=" + this.pairIndex
+          + ",complete=" + this.complete
+          + "]";
+    }
+}
+
@@ -30,11 +30,17 @@ public abstract class Message {
     static final byte REQUEST_VOTE_TYPE = 7;
     static final byte PING_REQUEST_TYPE = 8;
     static final byte PING_RESPONSE_TYPE = 9;
-    static final byte MAX_TYPE = 10;
+    static final byte INSTALL_SNAPSHOT_RESPONSE_TYPE = 10;
+    static final byte READ_INDEX_REQUEST_TYPE = 11;
+    static final byte READ_INDEX_RESPONSE_TYPE = 12;
+    static final byte TIMEOUT_NOW_TYPE = 13;
+    static final byte MAX_TYPE = 14;
 
     // Serialization version number
     private static final byte VERSION_1 = 1;
     private static final byte VERSION_2 = 2;
+    private static final byte VERSION_3 = 3;
+    private static final byte VERSION_4 = 4;
 
     // Minimum buffer size to use a direct buffer
     private static final int MIN_DIRECT_BUFFER_SIZE = 128;
@@ -147,6 +153,8 @@ public abstract class Message {
         switch (version) {
         case Message.VERSION_1:
         case Message.VERSION_2:
+        case Message.VERSION_3:
+        case Message.VERSION_4:
             break;
         default:
             throw new IllegalArgumentException("unrecognized message format version " + version);
@@ -172,10 +180,10 @@ public abstract class Message {
             msg = new GrantVote(buf);
             break;
         case INSTALL_SNAPSHOT_TYPE:
-            msg = new InstallSnapshot(buf);
+            msg = new InstallSnapshot(buf, version > Message.VERSION_2);
             break;
         case REQUEST_VOTE_TYPE:
-            msg = new RequestVote(buf);
+            msg = new RequestVote(buf, version > Message.VERSION_3);
             break;
         case PING_REQUEST_TYPE:
             msg = new PingRequest(buf);
@@ -183,6 +191,18 @@ public abstract class Message {
         case PING_RESPONSE_TYPE:
             msg = new PingResponse(buf);
             break;
+        case INSTALL_SNAPSHOT_RESPONSE_TYPE:
+            msg = new InstallSnapshotResponse(buf);
+            break;
+        case READ_INDEX_REQUEST_TYPE:
+            msg = new ReadIndexRequest(buf);
+            break;
+        case READ_INDEX_RESPONSE_TYPE:
+            msg = new ReadIndexResponse(buf);
+            break;
+        case TIMEOUT_NOW_TYPE:
+            msg = new TimeoutNow(buf);
+            break;
         default:
             throw new IllegalArgumentException("invalid message type " + type);
         }
@@ -216,7 +236,7 @@ public abstract class Message {
      * @throws java.nio.BufferOverflowException if data overflows {@code buf}
      */
     public void writeTo(ByteBuffer buf) {
-        buf.put(Message.VERSION_2);
+        buf.put(Message.VERSION_4);
         buf.put(this.type);
         buf.putInt(this.clusterId);
         Message.putString(buf, this.senderId);
@@ -52,6 +52,27 @@ public interface MessageSwitch {
      */
     void caseInstallSnapshot(InstallSnapshot msg);
 
+    /**
+     * Handle an {@link InstallSnapshotResponse}.
+     *
+     * @param msg message received
+     */
+    void caseInstallSnapshotResponse(InstallSnapshotResponse msg);
+
+    /**
+     * Handle a {@link ReadIndexRequest}.
+     *
+     * @param msg message received
+     */
+    void caseReadIndexRequest(ReadIndexRequest msg);
+
+    /**
+     * Handle a {@link ReadIndexResponse}.
+     *
+     * @param msg message received
+     */
+    void caseReadIndexResponse(ReadIndexResponse msg);
+
     /**
      * Handle a {@link PingRequest}.
      *
@@ -72,5 +93,12 @@ public interface MessageSwitch {
      * @param msg message received
      */
     void caseRequestVote(RequestVote msg);
+
+    /**
+     * Handle a {@link TimeoutNow}.
+     *
+     * @param msg message received
+     */
+    void caseTimeoutNow(TimeoutNow msg);
 }
 
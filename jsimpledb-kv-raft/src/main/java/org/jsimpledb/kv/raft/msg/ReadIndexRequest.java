@@ -0,0 +1,94 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft.msg;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+
+import org.jsimpledb.util.LongEncoder;
+
+/**
+ * Sent from a follower to the leader to obtain a <i>read index</i> on behalf of all of the follower's
+ * linearizable read-only transactions that are ready to commit.
+ *
+ * <p>
+ * A single request covers any number of transactions, so the leader does the same amount of work
+ * regardless of how many read-only transactions the follower is committing concurrently.
+ *
+ * @see ReadIndexResponse
+ */
+public class ReadIndexRequest extends Message {
+
+    private final long requestId;
+
+// Constructors
+
+    /**
+     * Constructor.
+     *
+     * @param clusterId cluster ID
+     * @param senderId identity of sender
+     * @param recipientId identity of recipient
+     * @param term sender's current term
+     * @param requestId sender's unique ID for this request
+     */
+    public ReadIndexRequest(int clusterId, String senderId, String recipientId, long term, long requestId) {
+        super(Message.READ_INDEX_REQUEST_TYPE, clusterId, senderId, recipientId, term);
+        this.requestId = requestId;
+        this.checkArguments();
+    }
+
+    ReadIndexRequest(ByteBuffer buf) {
+        super(Message.READ_INDEX_REQUEST_TYPE, buf);
+        this.requestId = LongEncoder.read(buf);
+        this.checkArguments();
+    }
+
+    @Override
+    void checkArguments() {
+        super.checkArguments();
+        Preconditions.checkArgument(this.requestId != 0);
+    }
+
+// Properties
+
+    public long getRequestId() {
+        return this.requestId;
+    }
+
+// Message
+
+    @Override
+    public void visit(MessageSwitch handler) {
+        handler.caseReadIndexRequest(this);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dest) {
+        super.writeTo(dest);
+        LongEncoder.write(dest, this.requestId);
+    }
+
+    @Override
+    protected int calculateSize() {
+        return super.calculateSize()
+          + LongEncoder.encodeLength(this.requestId);
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[\"" + this.getSenderId() + "\"->\"" + this.getRecipientId() + "\""
+          + ",clusterId=" + String.format("%08x", this.getClusterId())
+          + ",term=" + this.getTerm()
+          + ",requestId=" + this.requestId
+          + "]";
+    }
+}
+
@@ -0,0 +1,137 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft.msg;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+
+import org.jsimpledb.kv.raft.Timestamp;
+import org.jsimpledb.util.LongEncoder;
+
+/**
+ * Sent from a leader to a follower in response to a {@link ReadIndexRequest}.
+ *
+ * <p>
+ * The <i>read index</i> is the index of a log entry that includes every log entry committed prior to the
+ * leader's receipt of the request. Any read-only transaction covered by the request may commit once it is based
+ * on a log entry at or after the read index and its base log entry is committed, and (if present) once the follower
+ * has seen a leader lease timeout at or after {@linkplain #getReadLeaderLeaseTimeout the one given}.
+ */
+public class ReadIndexResponse extends Message {
+
+    private final long requestId;
+    private final long readTerm;
+    private final long readIndex;
+    private final Timestamp readLeaderLeaseTimeout;                 // minimum required value we must see to commit
+
+// Constructors
+
+    /**
+     * Constructor.
+     *
+     * @param clusterId cluster ID
+     * @param senderId identity of sender
+     * @param recipientId identity of recipient
+     * @param term sender's current term
+     * @param requestId request ID from the corresponding {@link ReadIndexRequest}
+     * @param readTerm term of the log entry at {@code readIndex}
+     * @param readIndex the read index
+     * @param readLeaderLeaseTimeout minimum leader lease time required for commit, or null for none
+     */
+    public ReadIndexResponse(int clusterId, String senderId, String recipientId, long term,
+      long requestId, long readTerm, long readIndex, Timestamp readLeaderLeaseTimeout) {
+        super(Message.READ_INDEX_RESPONSE_TYPE, clusterId, senderId, recipientId, term);
+        this.requestId = requestId;
+        this.readTerm = readTerm;
+        this.readIndex = readIndex;
+        this.readLeaderLeaseTimeout = readLeaderLeaseTimeout;
+        this.checkArguments();
+    }
+
+    ReadIndexResponse(ByteBuffer buf) {
+        super(Message.READ_INDEX_RESPONSE_TYPE, buf);
+        this.requestId = LongEncoder.read(buf);
+        this.readTerm = LongEncoder.read(buf);
+        this.readIndex = LongEncoder.read(buf);
+        this.readLeaderLeaseTimeout = Message.getBoolean(buf) ? Message.getTimestamp(buf) : null;
+        this.checkArguments();
+    }
+
+    @Override
+    void checkArguments() {
+        super.checkArguments();
+        Preconditions.checkArgument(this.requestId != 0);
+        Preconditions.checkArgument(this.readTerm >= 0);
+        Preconditions.checkArgument(this.readIndex >= 0);
+    }
+
+// Properties
+
+    public long getRequestId() {
+        return this.requestId;
+    }
+
+    public long getReadTerm() {
+        return this.readTerm;
+    }
+
+    public long getReadIndex() {
+        return this.readIndex;
+    }
+
+    public Timestamp getReadLeaderLeaseTimeout() {
+        return this.readLeaderLeaseTimeout;
+    }
+
+// Message
+
+    @Override
+    public boolean isLeaderMessage() {
+        return true;
+    }
+
+    @Override
+    public void visit(MessageSwitch handler) {
+        handler.caseReadIndexResponse(this);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dest) {
+        super.writeTo(dest);
+        LongEncoder.write(dest, this.requestId);
+        LongEncoder.write(dest, this.readTerm);
+        LongEncoder.write(dest, this.readIndex);
+        Message.putBoolean(dest, this.readLeaderLeaseTimeout != null);
+        if (this.readLeaderLeaseTimeout != null)
+            Message.putTimestamp(dest, this.readLeaderLeaseTimeout);
+    }
+
+    @Override
+    protected int calculateSize() {
+        return super.calculateSize()
+          + LongEncoder.encodeLength(this.requestId)
+          + LongEncoder.encodeLength(this.readTerm)
+          + LongEncoder.encodeLength(this.readIndex)
+          + 1
+          + (this.readLeaderLeaseTimeout != null ? Message.calculateSize(this.readLeaderLeaseTimeout) : 0);
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[\"" + this.getSenderId() + "\"->\"" + this.getRecipientId() + "\""
+          + ",clusterId=" + String.format("%08x", this.getClusterId())
+          + ",term=" + this.getTerm()
+          + ",requestId=" + this.requestId
+          + ",read=" + this.readIndex + "t" + this.readTerm
+          + (this.readLeaderLeaseTimeout != null ? "@" + this.readLeaderLeaseTimeout : "")
+          + "]";
+    }
+}
+
@@ -18,6 +18,7 @@ public class RequestVote extends Message {
 
     private final long lastLogTerm;
     private final long lastLogIndex;
+    private final boolean leadershipTransfer;
 
 // Constructors
 
@@ -32,16 +33,34 @@ public class RequestVote extends Message {
      * @param lastLogIndex index of the sender's last log entry
      */
     public RequestVote(int clusterId, String senderId, String recipientId, long term, long lastLogTerm, long lastLogIndex) {
+        this(clusterId, senderId, recipientId, term, lastLogTerm, lastLogIndex, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param clusterId cluster ID
+     * @param senderId identity of sender
+     * @param recipientId identity of recipient
+     * @param term sender's current term
+     * @param lastLogTerm term of the sender's last log entry
+     * @param lastLogIndex index of the sender's last log entry
+     * @param leadershipTransfer true if the election was triggered by a {@link TimeoutNow} from the current leader
+     */
+    public RequestVote(int clusterId, String senderId, String recipientId, long term,
+      long lastLogTerm, long lastLogIndex, boolean leadershipTransfer) {
         super(Message.REQUEST_VOTE_TYPE, clusterId, senderId, recipientId, term);
         this.lastLogTerm = lastLogTerm;
         this.lastLogIndex = lastLogIndex;
+        this.leadershipTransfer = leadershipTransfer;
         this.checkArguments();
     }
 
-    RequestVote(ByteBuffer buf) {
+    RequestVote(ByteBuffer buf, boolean leadershipTransferFlag) {
         super(Message.REQUEST_VOTE_TYPE, buf);
         this.lastLogTerm = LongEncoder.read(buf);
         this.lastLogIndex = LongEncoder.read(buf);
+        this.leadershipTransfer = leadershipTransferFlag && Message.getBoolean(buf);
         this.checkArguments();
     }
 
@@ -62,6 +81,18 @@ public class RequestVote extends Message {
         return this.lastLogIndex;
     }
 
+    /**
+     * Determine whether this election was triggered by the current leader transferring its leadership to the sender.
+     *
+     * <p>
+     * Followers normally deny votes while they are still hearing from a leader; they make an exception in this case.
+     *
+     * @return true if this vote request is part of a leadership transfer
+     */
+    public boolean isLeadershipTransfer() {
+        return this.leadershipTransfer;
+    }
+
 // Message
 
     @Override
@@ -74,13 +105,15 @@ public class RequestVote extends Message {
         super.writeTo(dest);
         LongEncoder.write(dest, this.lastLogTerm);
         LongEncoder.write(dest, this.lastLogIndex);
+        Message.putBoolean(dest, this.leadershipTransfer);
     }
 
     @Override
     protected int calculateSize() {
         return super.calculateSize()
           + LongEncoder.encodeLength(this.lastLogTerm)
-          + LongEncoder.encodeLength(this.lastLogIndex);
+          + LongEncoder.encodeLength(this.lastLogIndex)
+          + 1;
     }
 
 // Object
@@ -93,6 +126,7 @@ public class RequestVote extends Message {
           + ",term=" + this.getTerm()
           + ",lastLogTerm=" + this.lastLogTerm
           + ",lastLogIndex=" + this.lastLogIndex
+          + (this.leadershipTransfer ? ",leadershipTransfer" : "")
           + "]";
     }
 }
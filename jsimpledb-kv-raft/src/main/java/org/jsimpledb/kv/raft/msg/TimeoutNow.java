@@ -0,0 +1,107 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft.msg;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+
+import org.jsimpledb.util.LongEncoder;
+
+/**
+ * Sent from a leader to a follower to transfer leadership to that follower by having it start an election immediately.
+ *
+ * <p>
+ * The leader only sends this message once the follower's log is up to date. The follower ignores the message
+ * if its last log entry does not match the leader's, as that would likely cause it to lose the election.
+ */
+public class TimeoutNow extends Message {
+
+    private final long lastLogTerm;
+    private final long lastLogIndex;
+
+// Constructors
+
+    /**
+     * Constructor.
+     *
+     * @param clusterId cluster ID
+     * @param senderId identity of sender
+     * @param recipientId identity of recipient
+     * @param term sender's current term
+     * @param lastLogTerm term of the sender's last log entry
+     * @param lastLogIndex index of the sender's last log entry
+     */
+    public TimeoutNow(int clusterId, String senderId, String recipientId, long term, long lastLogTerm, long lastLogIndex) {
+        super(Message.TIMEOUT_NOW_TYPE, clusterId, senderId, recipientId, term);
+        this.lastLogTerm = lastLogTerm;
+        this.lastLogIndex = lastLogIndex;
+        this.checkArguments();
+    }
+
+    TimeoutNow(ByteBuffer buf) {
+        super(Message.TIMEOUT_NOW_TYPE, buf);
+        this.lastLogTerm = LongEncoder.read(buf);
+        this.lastLogIndex = LongEncoder.read(buf);
+        this.checkArguments();
+    }
+
+    @Override
+    void checkArguments() {
+        super.checkArguments();
+        Preconditions.checkArgument(this.lastLogTerm > 0);
+        Preconditions.checkArgument(this.lastLogIndex > 0);
+    }
+
+// Properties
+
+    public long getLastLogTerm() {
+        return this.lastLogTerm;
+    }
+
+    public long getLastLogIndex() {
+        return this.lastLogIndex;
+    }
+
+// Message
+
+    @Override
+    public boolean isLeaderMessage() {
+        return true;
+    }
+
+    @Override
+    public void visit(MessageSwitch handler) {
+        handler.caseTimeoutNow(this);
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dest) {
+        super.writeTo(dest);
+        LongEncoder.write(dest, this.lastLogTerm);
+        LongEncoder.write(dest, this.lastLogIndex);
+    }
+
+    @Override
+    protected int calculateSize() {
+        return super.calculateSize()
+          + LongEncoder.encodeLength(this.lastLogTerm)
+          + LongEncoder.encodeLength(this.lastLogIndex);
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[\"" + this.getSenderId() + "\"->\"" + this.getRecipientId() + "\""
+          + ",clusterId=" + String.format("%08x", this.getClusterId())
+          + ",term=" + this.getTerm()
+          + ",lastLog=" + this.lastLogIndex + "t" + this.lastLogTerm
+          + "]";
+    }
+}
+
@@ -0,0 +1,63 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.util.Map;
+
+import org.jsimpledb.kv.util.Histogram;
+
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MetricsTrackerTest extends TestSupport {
+
+    @Test
+    public void testHistogram() throws Exception {
+        final MetricsTracker tracker = new MetricsTracker();
+        for (int i = 1; i <= 100; i++)
+            tracker.recordMicros(RaftMetrics.Stage.APPLY, i * 10);
+        final Histogram histogram = tracker.getLatencies().get(RaftMetrics.Stage.APPLY);
+        Assert.assertEquals(histogram.getCount(), 100);
+        Assert.assertEquals(histogram.getTotal(), 50500);
+        Assert.assertEquals(histogram.getMean(), 505.0);
+        Assert.assertEquals(histogram.getMax(), 1000);
+        Assert.assertEquals(histogram.getBucketCount(Histogram.bucketFor(10)), 1);      // [8, 16)
+        Assert.assertEquals(histogram.getPercentile(0.50), 511);                        // 500 is in [256, 511]
+        Assert.assertEquals(histogram.getPercentile(1.00), 1000);                       // capped at max
+        Assert.assertEquals(tracker.getLatencies().get(RaftMetrics.Stage.COMMIT).getCount(), 0);
+        Assert.assertEquals(tracker.getLatencies().get(RaftMetrics.Stage.COMMIT).getPercentile(0.99), 0);
+
+        Assert.assertEquals(Histogram.bucketFor(0), 0);
+        Assert.assertEquals(Histogram.bucketFor(1), 1);
+        Assert.assertEquals(Histogram.bucketFor(3), 2);
+        Assert.assertEquals(Histogram.bucketFor(Long.MAX_VALUE), Histogram.NUM_BUCKETS - 1);
+
+        tracker.reset();
+        Assert.assertEquals(tracker.getLatencies().get(RaftMetrics.Stage.APPLY).getCount(), 0);
+        Assert.assertEquals(histogram.getCount(), 100);                                 // snapshot is a copy
+    }
+
+    @Test
+    public void testRetryReasons() throws Exception {
+        final MetricsTracker tracker = new MetricsTracker();
+        tracker.retry("commit index 63 < last applied log index 68");
+        tracker.retry("commit index 176 < last applied log index 183");
+        tracker.retry("node \"foo\" is not a cluster member");
+        tracker.retry("node \"bar\" is not a cluster member");
+        final Map<String, Long> counts = tracker.getRetryCounts();
+        Assert.assertEquals(counts.size(), 2);
+        Assert.assertEquals(counts.get("commit index # < last applied log index #"), (Long)2L);
+        Assert.assertEquals(counts.get("node \"*\" is not a cluster member"), (Long)2L);
+
+        // Number of distinct reasons is capped
+        for (int i = 0; i < MetricsTracker.MAX_RETRY_REASONS; i++)
+            tracker.retry("reason " + (char)('A' + i % 26) + (char)('A' + i / 26));
+        Assert.assertEquals(tracker.getRetryCounts().size(), MetricsTracker.MAX_RETRY_REASONS + 1);
+        Assert.assertTrue(tracker.getRetryCounts().containsKey(MetricsTracker.OTHER_RETRY_REASON));
+    }
+}
+
@@ -0,0 +1,131 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.Consumer;
+
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.array.AtomicArrayKVStore;
+import org.jsimpledb.test.TestSupport;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * Support superclass for tests that run a small cluster of {@link RaftKVDatabase}s over a {@link TestNetwork}.
+ */
+public abstract class RaftClusterTestSupport extends TestSupport {
+
+    private final String[] names;
+
+    RaftKVDatabase[] rafts;
+    private File topDir;
+
+    protected RaftClusterTestSupport(String... names) {
+        this.names = names;
+    }
+
+    @BeforeClass
+    public void setupCluster() throws Exception {
+        this.rafts = new RaftKVDatabase[this.names.length];
+        this.topDir = File.createTempFile(this.getClass().getSimpleName(), null);
+        Assert.assertTrue(this.topDir.delete());
+        Assert.assertTrue(this.topDir.mkdirs());
+        for (int i = 0; i < this.names.length; i++) {
+            final File dir = new File(this.topDir, this.names[i]);
+            final File kvdir = new File(dir, "kvstore");
+            Assert.assertTrue(kvdir.mkdirs());
+            final AtomicArrayKVStore kvstore = new AtomicArrayKVStore();
+            kvstore.setDirectory(kvdir);
+            this.rafts[i] = new RaftKVDatabase();
+            this.rafts[i].setKVStore(kvstore);
+            this.rafts[i].setLogDirectory(dir);
+            this.rafts[i].setNetwork(new TestNetwork(this.names[i], 5, 0.0f));
+            this.rafts[i].setIdentity(this.names[i]);
+            this.rafts[i].setMinElectionTimeout(300);
+            this.rafts[i].setMaxElectionTimeout(350);
+            this.rafts[i].setHeartbeatTimeout(100);
+            this.rafts[i].start();
+        }
+    }
+
+    @AfterClass
+    public void teardownCluster() throws Exception {
+        for (RaftKVDatabase raft : this.rafts) {
+            if (raft != null)
+                raft.stop();
+        }
+        if (this.topDir != null) {
+            Files.walkFileTree(this.topDir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        for (RaftKVDatabase raft : this.rafts) {
+            final Throwable t = raft != null ? raft.getLastInternalError() : null;
+            if (t != null)
+                throw new Exception("internal error in " + raft, t);
+        }
+    }
+
+    void configChange(RaftKVDatabase raft, String node, boolean learner) throws Exception {
+        this.transact(raft, tx -> tx.configChange(node, node, learner));
+    }
+
+    void put(RaftKVDatabase raft, String key, String value) throws Exception {
+        this.transact(raft, tx -> tx.put(ByteUtil.parse(key), ByteUtil.parse(value)));
+    }
+
+    void transact(RaftKVDatabase raft, Consumer<RaftKVTransaction> action) throws Exception {
+        RetryTransactionException retry = null;
+        for (int i = 0; i < 20; i++) {
+            final RaftKVTransaction tx = raft.createTransaction();
+            try {
+                action.accept(tx);
+                tx.commit();
+                return;
+            } catch (RetryTransactionException e) {
+                retry = e;
+                Thread.sleep(100);
+            }
+        }
+        throw retry;
+    }
+
+    void waitForValue(RaftKVDatabase raft, String key, String value) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        while (true) {
+            final RaftKVTransaction tx = raft.createTransaction(Consistency.EVENTUAL_COMMITTED);
+            final byte[] actual;
+            try {
+                actual = tx.get(ByteUtil.parse(key));
+            } finally {
+                tx.rollback();
+            }
+            if (actual != null && ByteUtil.toString(actual).equals(value))
+                return;
+            Assert.assertTrue(System.currentTimeMillis() - startTime < 5000, "value never appeared on " + raft);
+            Thread.sleep(50);
+        }
+    }
+}
+
@@ -0,0 +1,129 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.raft.cmd.RaftStatusCommand;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RaftConcurrentApplyTest extends RaftClusterTestSupport {
+
+    private static final int NUM_WRITERS = 8;
+    private static final int NUM_ADJUSTS = 50;
+
+    public RaftConcurrentApplyTest() {
+        super("node0", "node1", "node2");
+    }
+
+    @Test
+    public void testConcurrentApply() throws Exception {
+        final RaftKVDatabase leader = this.rafts[0];
+        final byte[] key = ByteUtil.parse("0123");
+
+        // Create cluster and initialize counter
+        for (RaftKVDatabase raft : this.rafts)
+            this.configChange(leader, raft.getIdentity(), false);
+        final RaftKVTransaction tx0 = leader.createTransaction();
+        final byte[] zero = tx0.encodeCounter(0);
+        tx0.rollback();
+        this.transact(leader, tx -> tx.put(key, zero));
+        for (RaftKVDatabase raft : this.rafts)
+            this.waitForValue(raft, ByteUtil.toString(key), ByteUtil.toString(zero));
+
+        // Adjust the counter concurrently from all nodes. Log entries are applied while new transactions are being created,
+        // so any view that layered an already-applied log entry on top of the key/value store would double count. A retry
+        // exception thrown by commit() leaves it unknown whether the transaction actually committed, so count those.
+        final AtomicInteger retries = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_WRITERS);
+        try {
+            final ArrayList<Future<?>> futures = new ArrayList<>(NUM_WRITERS);
+            for (int i = 0; i < NUM_WRITERS; i++) {
+                final RaftKVDatabase raft = this.rafts[i % this.rafts.length];
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < NUM_ADJUSTS; j++) {
+                        while (true) {
+                            final RaftKVTransaction tx = raft.createTransaction();
+                            tx.adjustCounter(key, 1);
+                            try {
+                                tx.commit();
+                                break;
+                            } catch (RetryTransactionException e) {
+                                retries.incrementAndGet();
+                                Thread.sleep(20);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Verify every node converges on the same total
+        final long expected = NUM_WRITERS * NUM_ADJUSTS;
+        final long leaderValue = this.readCounter(leader, key);
+        Assert.assertTrue(leaderValue >= expected && leaderValue <= expected + retries.get(),
+          "wrong counter value " + leaderValue + " (expected " + expected + " with " + retries.get() + " retries)");
+        for (RaftKVDatabase raft : this.rafts) {
+            final long startTime = System.currentTimeMillis();
+            long actual;
+            while ((actual = this.readCounter(raft, key)) != leaderValue && System.currentTimeMillis() - startTime < 5000)
+                Thread.sleep(50);
+            Assert.assertEquals(actual, leaderValue, "wrong counter value on " + raft);
+        }
+
+        // Verify contention statistics were gathered
+        for (RaftKVDatabase raft : this.rafts) {
+            final ContentionStats stats = raft.getContentionStats();
+            this.log.info("contention stats for " + raft.getIdentity() + ": " + stats);
+            Assert.assertTrue(stats.getLockAcquisitions() > 0);
+            Assert.assertTrue(stats.getTotalLockHoldTime() > 0);
+            Assert.assertTrue(stats.getMaxLockWaitTime() <= stats.getTotalLockWaitTime());
+        }
+        Assert.assertTrue(leader.getContentionStats().getLogEntriesApplied() > 0);
+
+        // Verify pipeline metrics were gathered
+        final RaftMetrics metrics = leader.getMetrics();
+        this.log.info("metrics for leader: " + metrics);
+        for (RaftMetrics.Stage stage : new RaftMetrics.Stage[] {
+          RaftMetrics.Stage.COMMIT, RaftMetrics.Stage.CONFLICT_CHECK, RaftMetrics.Stage.LOG_WRITE,
+          RaftMetrics.Stage.LOG_APPEND, RaftMetrics.Stage.FOLLOWER_ACK, RaftMetrics.Stage.APPLY }) {
+            Assert.assertTrue(metrics.getLatency(stage).getCount() > 0, "no samples for " + stage);
+        }
+        Assert.assertEquals(metrics.getFollowers().size(), this.rafts.length - 1);
+        Assert.assertTrue(this.rafts[1].getMetrics().getLatency(RaftMetrics.Stage.COMMIT_REQUEST).getCount() > 0);
+        final StringWriter buf = new StringWriter();
+        RaftStatusCommand.printStatus(new PrintWriter(buf), leader);
+        Assert.assertTrue(buf.toString().contains("FOLLOWER_ACK"));
+    }
+
+    private long readCounter(RaftKVDatabase raft, byte[] key) {
+        final RaftKVTransaction tx = raft.createTransaction();
+        tx.setReadOnly(true);
+        try {
+            final byte[] value = tx.get(key);
+            final long count = value != null ? tx.decodeCounter(value) : 0;
+            tx.commit();
+            return count;
+        } catch (RetryTransactionException e) {
+            return -1;
+        }
+    }
+}
+
@@ -47,6 +47,7 @@ public class RaftKVDatabaseTest extends KVDatabaseTest {
       "raftHeartbeatTimeout",
       "raftMaxTransactionDuration",
       "raftFollowerProbingEnabled",
+      "raftCommitBatchWindow",
       "raftNetworkDelayMillis",
       "raftNetworkDropRatio",
       "arrayCompactMaxDelay",
@@ -56,7 +57,7 @@ public class RaftKVDatabaseTest extends KVDatabaseTest {
     public void setTestRaftDirPrefix(@Optional String raftDirPrefix, @Optional("5") int numNodes, @Optional final String kvstoreType,
       @Optional("2500") int commitTimeout, @Optional("300") int minElectionTimeout, @Optional("350") int maxElectionTimeout,
       @Optional("150") int heartbeatTimeout, @Optional("5000") int maxTransactionDuration,
-      @Optional("true") boolean followerProbingEnabled,
+      @Optional("true") boolean followerProbingEnabled, @Optional("-1") int commitBatchWindow,
       @Optional("25") int networkDelayMillis, @Optional("0.075") float networkDropRatio,
       @Optional("90") int arrayCompactMaxDelay,
       @Optional("65536") int arrayCompactLowWater,
@@ -132,6 +133,9 @@ public class RaftKVDatabaseTest extends KVDatabaseTest {
             this.rafts[i].setHeartbeatTimeout(heartbeatTimeout);
             this.rafts[i].setMaxTransactionDuration(maxTransactionDuration);
             this.rafts[i].setFollowerProbingEnabled(followerProbingEnabled);
+            this.rafts[i].setCommitBatchWindow(commitBatchWindow >= 0 ? commitBatchWindow : this.random.nextInt(2) * 5);
+            this.rafts[i].setSnapshotCompression(this.random.nextBoolean());
+            this.rafts[i].setMaxSnapshotChunksInFlight(1 + this.random.nextInt(8));
             this.rafts[i].setDumpConflicts(true);
         }
         for (int i = 0; i < numNodes; i++)
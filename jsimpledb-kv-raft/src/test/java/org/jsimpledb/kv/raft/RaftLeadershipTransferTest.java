@@ -0,0 +1,102 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RaftLeadershipTransferTest extends RaftClusterTestSupport {
+
+    public RaftLeadershipTransferTest() {
+        super("node0", "node1", "node2");
+    }
+
+    @Test
+    public void testLeadershipTransfer() throws Exception {
+
+        // Create cluster
+        for (RaftKVDatabase raft : this.rafts)
+            this.configChange(this.rafts[0], raft.getIdentity(), false);
+        this.put(this.rafts[0], "00", "01");
+        for (RaftKVDatabase raft : this.rafts)
+            this.waitForValue(raft, "00", "01");
+        final long term = this.rafts[0].getCurrentTerm();
+
+        // Transfer leadership explicitly
+        final LeaderRole leader = (LeaderRole)this.rafts[0].getCurrentRole();
+        try {
+            leader.transferLeadership("bogus");
+            assert false;
+        } catch (IllegalArgumentException e) {
+            this.log.info("got expected " + e);
+        }
+        leader.transferLeadership("node1");
+        this.waitForLeader(this.rafts[1]);
+        Assert.assertEquals(this.rafts[1].getCurrentTerm(), term + 1, "transfer took more than one election");
+        this.put(this.rafts[2], "00", "02");
+        for (RaftKVDatabase raft : this.rafts)
+            this.waitForValue(raft, "00", "02");
+
+        // Configure a preferred leader, which the cluster should converge to
+        for (RaftKVDatabase raft : this.rafts)
+            raft.setPreferredLeader("node2");
+        this.waitForLeader(this.rafts[2]);
+        this.put(this.rafts[0], "00", "03");
+        for (RaftKVDatabase raft : this.rafts)
+            this.waitForValue(raft, "00", "03");
+
+        // Leadership should stay put
+        Thread.sleep(3 * this.rafts[2].getMaxElectionTimeout());
+        Assert.assertTrue(this.rafts[2].getCurrentRole() instanceof LeaderRole);
+        for (RaftKVDatabase raft : this.rafts)
+            raft.setPreferredLeader(null);
+
+        // Reads must not rely on the leader's lease during a transfer; stall one by making the target unreachable
+        final LeaderRole leader2 = (LeaderRole)this.rafts[2].getCurrentRole();
+        this.waitForLease(leader2);
+        this.rafts[0].stop();
+        leader2.transferLeadership("node0");
+        Assert.assertNull(leader2.getLeaseTimeout());
+        Assert.assertEquals(this.read(this.rafts[2], "00"), "03");
+        Assert.assertNull(leader2.getLeadershipTransferTarget(), "read committed during leadership transfer");
+        Assert.assertTrue(this.rafts[2].getCurrentRole() == leader2);
+        this.waitForLease(leader2);
+        this.rafts[0].start();
+        this.waitForValue(this.rafts[0], "00", "03");
+
+        // After a successful transfer, the old leader must see writes made by the new leader
+        leader2.transferLeadership("node1");
+        this.put(this.rafts[1], "00", "04");
+        Assert.assertEquals(this.read(this.rafts[2], "00"), "04");
+    }
+
+    private String read(RaftKVDatabase raft, String key) throws Exception {
+        final String[] value = new String[1];
+        this.transact(raft, tx -> {
+            tx.setReadOnly(true);
+            value[0] = ByteUtil.toString(tx.get(ByteUtil.parse(key)));
+        });
+        return value[0];
+    }
+
+    private void waitForLease(LeaderRole leader) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        while (leader.getLeaseTimeout() == null) {
+            Assert.assertTrue(System.currentTimeMillis() - startTime < 5000, "leader lease never established");
+            Thread.sleep(20);
+        }
+    }
+
+    private void waitForLeader(RaftKVDatabase raft) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        while (!(raft.getCurrentRole() instanceof LeaderRole)) {
+            Assert.assertTrue(System.currentTimeMillis() - startTime < 5000, raft.getIdentity() + " never became leader");
+            Thread.sleep(20);
+        }
+    }
+}
+
@@ -0,0 +1,72 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RaftLearnerQuorumTest extends RaftClusterTestSupport {
+
+    public RaftLearnerQuorumTest() {
+        super("voter1", "voter2", "learner");
+    }
+
+    @Test
+    public void testLearnerAckDoesNotCommit() throws Exception {
+        final RaftKVDatabase voter1 = this.rafts[0];
+        final RaftKVDatabase voter2 = this.rafts[1];
+        final RaftKVDatabase learner = this.rafts[2];
+
+        // Create cluster with two voting members and one learner
+        this.configChange(voter1, "voter1", false);
+        this.configChange(voter1, "voter2", false);
+        this.configChange(voter1, "learner", true);
+        this.put(voter1, "01", "02");
+        this.waitForValue(voter2, "01", "02");
+        this.waitForValue(learner, "01", "02");
+        Assert.assertTrue(voter1.getCurrentRole() instanceof LeaderRole);
+
+        // Partition the other voter; only the learner can receive the next log entry
+        voter2.stop();
+        final RaftKVTransaction tx = voter1.createTransaction();
+        tx.put(ByteUtil.parse("03"), ByteUtil.parse("04"));
+        tx.setTimeout(1500);
+        try {
+            tx.commit();
+            assert false : "commit succeeded without a voting majority";
+        } catch (RetryTransactionException e) {
+            this.log.info("got expected " + e);
+        }
+
+        // The learner has the entry, but the leader must not have committed it
+        final LeaderRole leader = (LeaderRole)voter1.getCurrentRole();
+        final long lastIndex;
+        synchronized (voter1) {
+            lastIndex = voter1.getLastLogIndex();
+        }
+        final long startTime = System.currentTimeMillis();
+        while (true) {
+            final Follower follower = leader.getFollowers().stream()
+              .filter(f -> f.getIdentity().equals("learner"))
+              .findFirst()
+              .get();
+            if (follower.getMatchIndex() >= lastIndex)
+                break;
+            Assert.assertTrue(System.currentTimeMillis() - startTime < 5000, "learner never received log entry");
+            Thread.sleep(50);
+        }
+        Thread.sleep(500);
+        Assert.assertTrue(voter1.getCommitIndex() < lastIndex,
+          "commit index " + voter1.getCommitIndex() + " advanced to " + lastIndex + " based on learner ack");
+
+        // Heal the partition; the entry can now commit
+        voter2.start();
+        this.put(voter1, "05", "06");
+        this.waitForValue(voter2, "05", "06");
+    }
+}
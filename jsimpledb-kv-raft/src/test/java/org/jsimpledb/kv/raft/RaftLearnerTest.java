@@ -0,0 +1,89 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.util.Arrays;
+
+import org.jsimpledb.kv.KVTransactionException;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RaftLearnerTest extends RaftClusterTestSupport {
+
+    public RaftLearnerTest() {
+        super("voter", "learner1", "learner2");
+    }
+
+    @Test
+    public void testLearners() throws Exception {
+        final RaftKVDatabase voter = this.rafts[0];
+        final RaftKVDatabase learner1 = this.rafts[1];
+        final RaftKVDatabase learner2 = this.rafts[2];
+
+        // The first node in a cluster can't be a learner
+        final RaftKVTransaction tx = voter.createTransaction();
+        tx.configChange("voter", "voter", true);
+        try {
+            tx.commit();
+            assert false;
+        } catch (RetryTransactionException e) {
+            this.log.info("got expected " + e);
+        }
+
+        // Create cluster with one voting member and two learners
+        this.configChange(voter, "voter", false);
+        this.configChange(voter, "learner1", true);
+        this.configChange(voter, "learner2", true);
+        Assert.assertTrue(voter.isClusterMember());
+        Assert.assertFalse(voter.isLearner());
+        Assert.assertFalse(voter.isClusterMember("learner1"));
+        Assert.assertTrue(voter.isLearner("learner1"));
+        Assert.assertTrue(voter.isLearner("learner2"));
+        Assert.assertEquals(voter.getCurrentConfig().get("learner1"), "learner1");
+
+        // Learners should receive committed data
+        this.put(voter, "01", "02");
+        this.waitForValue(learner1, "01", "02");
+        this.waitForValue(learner2, "01", "02");
+        Assert.assertTrue(learner1.isLearner());
+        Assert.assertFalse(learner1.isClusterMember());
+
+        // The last voting member can't be converted into a learner
+        try {
+            this.configChange(voter, "voter", true);
+            assert false;
+        } catch (KVTransactionException e) {
+            this.log.info("got expected " + e);
+        }
+
+        // Learners never start elections, even when the leader goes away
+        voter.stop();
+        final long stopTime = System.currentTimeMillis();
+        while (System.currentTimeMillis() - stopTime < 1500) {
+            for (RaftKVDatabase learner : Arrays.asList(learner1, learner2))
+                Assert.assertTrue(learner.getCurrentRole() instanceof FollowerRole, "learner changed role: " + learner);
+            Thread.sleep(50);
+        }
+        voter.start();
+
+        // Learners don't count toward the commit majority
+        learner1.stop();
+        learner2.stop();
+        this.put(voter, "03", "04");
+        learner1.start();
+        this.waitForValue(learner1, "03", "04");
+
+        // Learners can be converted into voting members
+        this.configChange(voter, "learner1", false);
+        Assert.assertTrue(voter.isClusterMember("learner1"));
+        Assert.assertFalse(voter.isLearner("learner1"));
+        this.put(learner1, "05", "06");
+        this.waitForValue(voter, "05", "06");
+        learner2.start();
+    }
+}
+
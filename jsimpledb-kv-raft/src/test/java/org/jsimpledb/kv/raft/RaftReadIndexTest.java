@@ -0,0 +1,72 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RaftReadIndexTest extends RaftClusterTestSupport {
+
+    private static final int NUM_ROUNDS = 20;
+    private static final int NUM_READERS = 10;
+
+    public RaftReadIndexTest() {
+        super("node0", "node1", "node2");
+    }
+
+    @Test
+    public void testFollowerReads() throws Exception {
+        final RaftKVDatabase leader = this.rafts[0];
+        final RaftKVDatabase follower = this.rafts[1];
+
+        // Create cluster
+        for (RaftKVDatabase raft : this.rafts)
+            this.configChange(leader, raft.getIdentity(), false);
+        this.put(leader, "00", "00");
+        this.waitForValue(follower, "00", "00");
+        Assert.assertTrue(follower.getCurrentRole() instanceof FollowerRole);
+
+        // Concurrent linearizable read-only transactions on a follower must see writes committed before they started
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_READERS);
+        try {
+            for (int round = 1; round <= NUM_ROUNDS; round++) {
+                final String value = String.format("%02x", round);
+                this.put(leader, "00", value);
+                final ArrayList<Future<String>> futures = new ArrayList<>(NUM_READERS);
+                for (int i = 0; i < NUM_READERS; i++)
+                    futures.add(executor.submit(() -> this.linearizableRead(follower, "00")));
+                for (Future<String> future : futures)
+                    Assert.assertEquals(future.get(), value, "stale read in round " + round);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String linearizableRead(RaftKVDatabase raft, String key) throws Exception {
+        RetryTransactionException retry = null;
+        for (int i = 0; i < 20; i++) {
+            final RaftKVTransaction tx = raft.createTransaction(Consistency.LINEARIZABLE);
+            try {
+                final byte[] value = tx.get(ByteUtil.parse(key));
+                tx.commit();
+                return value != null ? ByteUtil.toString(value) : null;
+            } catch (RetryTransactionException e) {
+                retry = e;
+                Thread.sleep(100);
+            }
+        }
+        throw retry;
+    }
+}
+
@@ -0,0 +1,91 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.dellroad.stuff.net.Network;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.mvcc.Writes;
+import org.jsimpledb.kv.raft.msg.CommitRequest;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RaftWriteOnlyCommitTest extends RaftClusterTestSupport {
+
+    public RaftWriteOnlyCommitTest() {
+        super("node0", "node1");
+    }
+
+    @Test
+    public void testWriteOnlyCommitRequest() throws Exception {
+        final RaftKVDatabase leader = this.rafts[0];
+        final RaftKVDatabase follower = this.rafts[1];
+
+        // Create cluster, with transaction coalescing enabled on the leader
+        this.configChange(leader, "node0", false);
+        this.configChange(leader, "node1", false);
+        this.put(leader, "01", "02");
+        this.waitForValue(follower, "01", "02");
+        leader.setCommitBatchWindow(20);
+
+        // Stop the follower so the next log entry stays in the leader's log
+        follower.stop();
+        final long baseTerm;
+        final long baseIndex;
+        synchronized (leader) {
+            baseTerm = leader.getLastLogTerm();
+            baseIndex = leader.getLastLogIndex();
+        }
+        final RaftKVTransaction tx = leader.createTransaction();
+        tx.put(ByteUtil.parse("03"), ByteUtil.parse("04"));
+        tx.setTimeout(500);
+        try {
+            tx.commit();
+            assert false : "commit succeeded without a majority";
+        } catch (RetryTransactionException e) {
+            this.log.info("got expected " + e);
+        }
+
+        // Send a commit request without any reads data, based on the log entry prior to the one just added
+        final Writes writes = new Writes();
+        writes.getPuts().put(ByteUtil.parse("05"), ByteUtil.parse("06"));
+        final ByteArrayOutputStream mutations = new ByteArrayOutputStream();
+        LogEntry.writeData(mutations, new LogEntry.Data(writes, null));
+        final TestNetwork network = new TestNetwork("node1", 0, 0.0f);
+        network.start(new Network.Handler() {
+            @Override
+            public void handle(String sender, ByteBuffer buf) {
+            }
+            @Override
+            public void outputQueueEmpty(String address) {
+            }
+        });
+        try {
+            network.send("node0", new CommitRequest(leader.getClusterId(), "node1", "node0", leader.getCurrentTerm(),
+              12345, baseTerm, baseIndex, null, ByteBuffer.wrap(mutations.toByteArray())).encode());
+            final long startTime = System.currentTimeMillis();
+            while (true) {
+                synchronized (leader) {
+                    if (leader.getLastLogIndex() >= baseIndex + 2)
+                        break;
+                }
+                Assert.assertNull(leader.getLastInternalError());
+                Assert.assertTrue(System.currentTimeMillis() - startTime < 5000, "write-only commit request never applied");
+                Thread.sleep(20);
+            }
+        } finally {
+            network.stop();
+        }
+        Assert.assertNull(leader.getLastInternalError());
+
+        // The coalesced write should commit once the follower is back
+        follower.start();
+        this.waitForValue(follower, "05", "06");
+    }
+}
@@ -0,0 +1,126 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.raft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.TreeMap;
+
+import org.dellroad.stuff.io.ByteBufferInputStream;
+import org.jsimpledb.kv.util.KeyListEncoder;
+import org.jsimpledb.kv.util.NavigableMapKVStore;
+import org.jsimpledb.test.TestSupport;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SnapshotTransmitTest extends TestSupport {
+
+    @Test
+    public void testCompression() throws Exception {
+        final byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte)(i % 7);
+        final ByteBuffer compressed = Util.compress(ByteBuffer.wrap(data));
+        Assert.assertNotNull(compressed);
+        Assert.assertTrue(compressed.remaining() < data.length);
+        Assert.assertEquals(Util.decompress(compressed), ByteBuffer.wrap(data));
+
+        // Incompressible data
+        final byte[] random = new byte[100];
+        this.random.nextBytes(random);
+        Assert.assertNull(Util.compress(ByteBuffer.wrap(random)));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+
+        // Populate a key/value store
+        final NavigableMapKVStore kv = new NavigableMapKVStore();
+        final TreeMap<byte[], byte[]> expected = new TreeMap<>(ByteUtil.COMPARATOR);
+        for (int i = 0; i < 5000; i++) {
+            final byte[] key = ByteUtil.parse(String.format("%08x", this.random.nextInt()));
+            final byte[] value = new byte[this.random.nextInt(20)];
+            kv.put(key, value);
+            expected.put(key, value);
+        }
+
+        // Transmit snapshot, randomly dropping chunks and acknowledgements and resuming as needed
+        final boolean compress = this.random.nextBoolean();
+        final SnapshotTransmit transmit = new SnapshotTransmit(1, 1, Collections.<String, String>emptyMap(), null, kv, compress);
+        final TreeMap<byte[], byte[]> received = new TreeMap<>(ByteUtil.COMPARATOR);
+        long receivedPairIndex = 0;
+        boolean complete = false;
+        int rewinds = 0;
+        while (!complete) {
+            final SnapshotTransmit.Chunk chunk = transmit.getNextChunk();
+            if (chunk == null || this.random.nextInt(10) == 0) {
+                transmit.rewind();
+                rewinds++;
+                continue;
+            }
+            Assert.assertTrue(chunk.getPairIndex() >= transmit.getAckedPairIndex());
+            if (this.random.nextInt(10) == 0)
+                continue;                                                   // chunk lost
+            if (chunk.getPairIndex() == receivedPairIndex) {
+                receivedPairIndex += this.decode(chunk.isCompressed() ? Util.decompress(chunk.getData()) : chunk.getData(), received);
+                Assert.assertEquals(receivedPairIndex, chunk.getEndPairIndex());
+                complete = chunk.isLastChunk();
+            }
+            if (complete || this.random.nextInt(3) != 0)                    // ack lost
+                transmit.acknowledge(receivedPairIndex, complete);
+        }
+        if (!transmit.isComplete())
+            transmit.acknowledge(receivedPairIndex, true);
+        Assert.assertTrue(transmit.isComplete());
+        Assert.assertEquals(transmit.getNumRewinds(), rewinds);
+        Assert.assertEquals(received.size(), expected.size());
+        for (byte[] key : expected.keySet())
+            Assert.assertEquals(received.get(key), expected.get(key));
+        transmit.close();
+    }
+
+    @Test
+    public void testEmptySnapshot() throws Exception {
+        final SnapshotTransmit transmit = new SnapshotTransmit(1, 1,
+          Collections.<String, String>emptyMap(), null, new NavigableMapKVStore(), true);
+        Assert.assertTrue(transmit.hasMoreChunks());
+        SnapshotTransmit.Chunk chunk = transmit.getNextChunk();
+        Assert.assertTrue(chunk.isLastChunk());
+        Assert.assertFalse(chunk.isCompressed());
+        Assert.assertEquals(chunk.getData().remaining(), 0);
+        Assert.assertNull(transmit.getNextChunk());
+
+        // Non-completion acknowledgement of empty chunk is not sufficient
+        Assert.assertFalse(transmit.acknowledge(0, false));
+        Assert.assertFalse(transmit.isComplete());
+
+        // Resend after rewind
+        transmit.rewind();
+        chunk = transmit.getNextChunk();
+        Assert.assertEquals(chunk.getPairIndex(), 0);
+        Assert.assertTrue(transmit.acknowledge(0, true));
+        Assert.assertTrue(transmit.isComplete());
+        transmit.close();
+    }
+
+    private int decode(ByteBuffer data, TreeMap<byte[], byte[]> map) throws IOException {
+        final ByteBuffer buf = data.duplicate();
+        final ByteBufferInputStream input = new ByteBufferInputStream(buf);
+        byte[] previousKey = null;
+        int count = 0;
+        while (buf.hasRemaining()) {
+            final byte[] key = KeyListEncoder.read(input, previousKey);
+            final byte[] value = KeyListEncoder.read(input, null);
+            map.put(key, value);
+            previousKey = key;
+            count++;
+        }
+        return count;
+    }
+}
+
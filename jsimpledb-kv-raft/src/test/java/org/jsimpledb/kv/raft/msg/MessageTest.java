@@ -65,7 +65,16 @@ public class MessageTest extends TestSupport {
               config, false, ByteBuffer.wrap(writesData)) },
             { new InstallSnapshot(123, "adlasdf", "\u1234haha", 234453, 234234, 34545, 787,
               null, false, ByteBuffer.wrap(writesData)) },
+            { new InstallSnapshot(123, "adlasdf", "\u1234haha", 234453, 234234, 34545, 787,
+              null, true, true, ByteBuffer.wrap(writesData)) },
+            { new InstallSnapshotResponse(123, "adlasdf", "\u1234haha", 234453, 234234, 34545, 787, false) },
+            { new InstallSnapshotResponse(123, "adlasdf", "\u1234haha", 234453, 234234, 34545, 0, true) },
+            { new ReadIndexRequest(123, "adlasdf", "\u1234haha", 234453, -8234234234L) },
+            { new ReadIndexResponse(123, "adlasdf", "\u1234haha", 234453, -8234234234L, 234453, 34545, null) },
+            { new ReadIndexResponse(123, "adlasdf", "\u1234haha", 234453, 17, 234453, 34545, new Timestamp(12313423)) },
             { new RequestVote(123, "adlasdf", "blooby", 234453, 234234, 34545) },
+            { new RequestVote(123, "adlasdf", "blooby", 234453, 234234, 34545, true) },
+            { new TimeoutNow(123, "adlasdf", "blooby", 234453, 234234, 34545) },
         };
     }
 }
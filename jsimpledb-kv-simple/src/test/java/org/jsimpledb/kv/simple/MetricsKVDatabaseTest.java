@@ -0,0 +1,90 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.simple;
+
+import java.util.Iterator;
+
+import org.jsimpledb.kv.KVDatabase;
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.kv.test.KVDatabaseTest;
+import org.jsimpledb.kv.util.KVMetrics;
+import org.jsimpledb.kv.util.MetricsKVDatabase;
+import org.jsimpledb.kv.util.MetricsKVTransaction;
+import org.jsimpledb.kv.util.NavigableMapKVStore;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Optional;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+
+public class MetricsKVDatabaseTest extends KVDatabaseTest {
+
+    private MetricsKVDatabase metricsKV;
+
+    @BeforeClass(groups = "configure")
+    @Parameters("testSimpleKV")
+    public void setTestSimpleKV(@Optional String testSimpleKV) {
+        if (testSimpleKV != null && Boolean.valueOf(testSimpleKV))
+            this.metricsKV = new MetricsKVDatabase(new SimpleKVDatabase(new NavigableMapKVStore(), 250, 5000));
+    }
+
+    @Override
+    protected KVDatabase getKVDatabase() {
+        return this.metricsKV;
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        final MetricsKVDatabase kvdb = new MetricsKVDatabase(new SimpleKVDatabase());
+        final KVMetrics metrics = kvdb.getMetrics();
+        kvdb.start();
+        try {
+
+            // Write some data
+            MetricsKVTransaction tx = kvdb.createTransaction();
+            tx.put(ByteUtil.parse("01"), ByteUtil.parse("aaaa"));
+            tx.put(ByteUtil.parse("02"), ByteUtil.parse("bbbb"));
+            tx.put(ByteUtil.parse("03"), ByteUtil.parse("cccc"));
+            tx.remove(ByteUtil.parse("04"));
+            tx.commit();
+
+            // Read it back
+            tx = kvdb.createTransaction();
+            Assert.assertEquals(tx.get(ByteUtil.parse("02")), ByteUtil.parse("bbbb"));
+            Assert.assertNull(tx.get(ByteUtil.parse("05")));
+            int count = 0;
+            for (Iterator<KVPair> i = tx.getRange(null, null, false); i.hasNext(); i.next())
+                count++;
+            Assert.assertEquals(count, 3);
+            tx.rollback();
+        } finally {
+            kvdb.stop();
+        }
+
+        Assert.assertEquals(metrics.getTransactions(), 2);
+        Assert.assertEquals(metrics.getCommits(), 1);
+        Assert.assertEquals(metrics.getRollbacks(), 1);
+        Assert.assertEquals(metrics.getRetries(), 0);
+        Assert.assertEquals(metrics.getFailures(), 0);
+        Assert.assertEquals(metrics.getLatency(KVMetrics.Operation.PUT).getCount(), 3);
+        Assert.assertEquals(metrics.getLatency(KVMetrics.Operation.REMOVE).getCount(), 1);
+        Assert.assertEquals(metrics.getLatency(KVMetrics.Operation.GET).getCount(), 2);
+        Assert.assertEquals(metrics.getLatency(KVMetrics.Operation.GET_RANGE).getCount(), 1);
+        Assert.assertEquals(metrics.getRangeLengths().getCount(), 1);
+        Assert.assertEquals(metrics.getRangeLengths().getTotal(), 3);
+        Assert.assertEquals(metrics.getBytesWritten(), 3 * 3 + 1);
+        Assert.assertEquals(metrics.getBytesRead(), 3 + 3 * 3);
+        Assert.assertEquals((long)metrics.getCounters().get("put.count"), 3);
+        Assert.assertTrue(metrics.getLatency(KVMetrics.Operation.COMMIT).getPercentile(0.5)
+          <= metrics.getLatency(KVMetrics.Operation.COMMIT).getMax());
+
+        metrics.reset();
+        Assert.assertEquals(metrics.getTransactions(), 0);
+        Assert.assertEquals(metrics.getLatency(KVMetrics.Operation.PUT).getCount(), 0);
+    }
+}
+
@@ -0,0 +1,123 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.mvcc;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.jsimpledb.kv.KVStore;
+
+/**
+ * A committed transaction, as delivered to a {@link CommitListener}.
+ *
+ * <p>
+ * Each instance contains the transaction's mutations along with a read-only snapshot of the key/value store
+ * as it existed just prior to the commit; together these describe the state of the key/value store both before
+ * and {@linkplain #getAfter after} the commit.
+ *
+ * <p>
+ * The snapshot remains valid only until the instance is {@link #close}d, which normally happens when
+ * {@link CommitListener#onCommits CommitListener.onCommits()} returns.
+ */
+public class Commit implements Closeable {
+
+    private final long version;
+    private final KVStore before;
+    private final Writes writes;
+    private final Closeable resource;
+
+    /**
+     * Constructor.
+     *
+     * @param version version number of the commit
+     * @param before read-only snapshot of the key/value store just prior to the commit
+     * @param writes the mutations applied by the commit; must not be modified
+     * @param resource resource to close when this instance is closed, or null for none
+     * @throws IllegalArgumentException if {@code before} or {@code writes} is null
+     */
+    public Commit(long version, KVStore before, Writes writes, Closeable resource) {
+        Preconditions.checkArgument(before != null, "null before");
+        Preconditions.checkArgument(writes != null, "null writes");
+        this.version = version;
+        this.before = before;
+        this.writes = writes;
+        this.resource = resource;
+    }
+
+    /**
+     * Get the version number associated with this commit.
+     *
+     * <p>
+     * Version numbers strictly increase with each successive commit, but are not necessarily consecutive.
+     * Their meaning is specific to the key/value database; for example, {@link SnapshotKVDatabase} uses
+     * its {@linkplain SnapshotKVDatabase#getCurrentVersion MVCC version}.
+     *
+     * @return commit version number
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Get a read-only snapshot of the key/value store as it existed just prior to this commit.
+     *
+     * @return key/value store before this commit
+     */
+    public KVStore getBefore() {
+        return this.before;
+    }
+
+    /**
+     * Get the mutations applied by this commit.
+     *
+     * <p>
+     * The caller must not modify the returned instance.
+     *
+     * @return committed mutations
+     */
+    public Writes getWrites() {
+        return this.writes;
+    }
+
+    /**
+     * Get a read-only view of the key/value store as it existed just after this commit.
+     *
+     * <p>
+     * The returned view is constructed by layering {@linkplain #getWrites the mutations} on top of
+     * {@linkplain #getBefore the prior snapshot}; it is not necessarily the current state of the database.
+     *
+     * @return key/value store after this commit
+     */
+    public KVStore getAfter() {
+        final MutableView view = new MutableView(this.before, null, this.writes);
+        view.setReadOnly();
+        return view;
+    }
+
+    /**
+     * Release the resources associated with this instance, including {@linkplain #getBefore the prior snapshot}.
+     */
+    @Override
+    public void close() {
+        if (this.resource == null)
+            return;
+        try {
+            this.resource.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[version=" + this.version + ",writes=" + this.writes + "]";
+    }
+}
+
@@ -0,0 +1,31 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.mvcc;
+
+import java.util.List;
+
+/**
+ * Listener for committed transactions registered with a {@link CommitNotifier}.
+ */
+@FunctionalInterface
+public interface CommitListener {
+
+    /**
+     * Receive notification of one or more committed transactions.
+     *
+     * <p>
+     * Notifications are delivered on a separate notification thread, in commit order, in batches.
+     * Each {@link Commit}'s {@linkplain Commit#getBefore snapshot} is valid only until this method returns.
+     *
+     * <p>
+     * While this method is running, further notifications are queued; if the queue fills up, committing transactions
+     * are delayed. Therefore, this method should return promptly, and it must not wait for other transactions to commit.
+     *
+     * @param commits committed transactions, in commit order
+     */
+    void onCommits(List<Commit> commits);
+}
+
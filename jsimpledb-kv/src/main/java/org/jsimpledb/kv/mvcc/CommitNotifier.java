@@ -0,0 +1,303 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.mvcc;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers committed transactions to registered {@link CommitListener}s asynchronously.
+ *
+ * <p>
+ * A key/value database {@linkplain #publish publishes} each {@link Commit} as it occurs. Commits are queued and delivered
+ * to all registered listeners on a dedicated notification thread, in the order published, in batches of up to
+ * {@linkplain #setMaxBatchSize a configurable size}. After a batch has been delivered to all listeners, its commits
+ * are {@linkplain Commit#close closed}.
+ *
+ * <p>
+ * To provide backpressure when listeners fall behind, the number of queued commits is limited to
+ * {@linkplain #setMaxQueueSize a configurable size}. The key/value database invokes {@link #awaitCapacity awaitCapacity()}
+ * after each commit (while not holding any locks), which blocks while the queue is full.
+ *
+ * <p>
+ * Because capturing commits has a cost, key/value databases should only publish commits when {@link #hasListeners}
+ * returns true. Commits published while no listeners are registered are discarded.
+ *
+ * <p>
+ * The notification thread is started on demand. After {@link #close}, any queued commits are discarded, but the
+ * instance may continue to be used, and a new notification thread will be started when needed.
+ *
+ * <p>
+ * Instances are thread safe.
+ */
+@ThreadSafe
+public class CommitNotifier implements Closeable {
+
+    /**
+     * Default maximum number of queued commits ({@value #DEFAULT_MAX_QUEUE_SIZE}).
+     */
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 1000;
+
+    /**
+     * Default maximum number of commits delivered in a single notification ({@value #DEFAULT_MAX_BATCH_SIZE}).
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    protected final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final CopyOnWriteArrayList<CommitListener> listeners = new CopyOnWriteArrayList<>();
+    private final String threadName;
+
+    @GuardedBy("this")
+    private final ArrayDeque<Commit> queue = new ArrayDeque<>();
+    @GuardedBy("this")
+    private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+    @GuardedBy("this")
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    @GuardedBy("this")
+    private ExecutorService executor;
+    @GuardedBy("this")
+    private boolean delivering;
+
+    /**
+     * Constructor.
+     *
+     * @param threadName name for the notification thread
+     * @throws IllegalArgumentException if {@code threadName} is null
+     */
+    public CommitNotifier(String threadName) {
+        Preconditions.checkArgument(threadName != null, "null threadName");
+        this.threadName = threadName;
+    }
+
+// Listeners
+
+    /**
+     * Register a listener.
+     *
+     * <p>
+     * The listener will receive all commits published after this method returns.
+     *
+     * @param listener listener to add
+     * @throws IllegalArgumentException if {@code listener} is null
+     */
+    public void addListener(CommitListener listener) {
+        Preconditions.checkArgument(listener != null, "null listener");
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Unregister a listener.
+     *
+     * @param listener listener to remove
+     * @throws IllegalArgumentException if {@code listener} is null
+     */
+    public void removeListener(CommitListener listener) {
+        Preconditions.checkArgument(listener != null, "null listener");
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Determine whether any listeners are registered.
+     *
+     * @return true if commits should be published to this instance
+     */
+    public boolean hasListeners() {
+        return !this.listeners.isEmpty();
+    }
+
+// Properties
+
+    /**
+     * Get the maximum number of queued commits.
+     *
+     * @return maximum queue size
+     */
+    public synchronized int getMaxQueueSize() {
+        return this.maxQueueSize;
+    }
+
+    /**
+     * Set the maximum number of queued commits, beyond which {@link #awaitCapacity awaitCapacity()} blocks.
+     *
+     * <p>
+     * Default is {@value #DEFAULT_MAX_QUEUE_SIZE}.
+     *
+     * @param maxQueueSize maximum queue size
+     * @throws IllegalArgumentException if {@code maxQueueSize} is zero or less
+     */
+    public synchronized void setMaxQueueSize(int maxQueueSize) {
+        Preconditions.checkArgument(maxQueueSize > 0, "maxQueueSize <= 0");
+        this.maxQueueSize = maxQueueSize;
+        this.notifyAll();
+    }
+
+    /**
+     * Get the maximum number of commits delivered in a single notification.
+     *
+     * @return maximum batch size
+     */
+    public synchronized int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * Set the maximum number of commits delivered in a single notification.
+     *
+     * <p>
+     * Default is {@value #DEFAULT_MAX_BATCH_SIZE}.
+     *
+     * @param maxBatchSize maximum batch size
+     * @throws IllegalArgumentException if {@code maxBatchSize} is zero or less
+     */
+    public synchronized void setMaxBatchSize(int maxBatchSize) {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize <= 0");
+        this.maxBatchSize = maxBatchSize;
+    }
+
+// Publishing
+
+    /**
+     * Publish a commit.
+     *
+     * <p>
+     * This method does not block; it may be invoked while holding locks. Commits must be published in commit order.
+     * This instance assumes responsibility for {@linkplain Commit#close closing} {@code commit}.
+     *
+     * @param commit committed transaction
+     * @throws IllegalArgumentException if {@code commit} is null
+     */
+    public synchronized void publish(Commit commit) {
+        Preconditions.checkArgument(commit != null, "null commit");
+        if (this.listeners.isEmpty()) {
+            commit.close();
+            return;
+        }
+        this.queue.add(commit);
+        if (this.delivering)
+            return;
+        if (this.executor == null) {
+            this.executor = Executors.newSingleThreadExecutor(action -> {
+                final Thread thread = new Thread(action);
+                thread.setName(this.threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        final ExecutorService notifyExecutor = this.executor;
+        try {
+            notifyExecutor.execute(() -> this.deliver(notifyExecutor));
+        } catch (RejectedExecutionException e) {
+            this.log.warn("commit notification task rejected, discarding " + this.queue.size() + " commit(s)", e);
+            this.discardQueue();
+            return;
+        }
+        this.delivering = true;
+    }
+
+    /**
+     * Wait until the number of queued commits is less than the configured maximum queue size.
+     *
+     * <p>
+     * This method should be invoked by the committing thread after each {@link #publish publish()},
+     * while not holding any locks. If the current thread is interrupted, this method returns immediately
+     * (with the interrupt flag set).
+     */
+    public synchronized void awaitCapacity() {
+        while (this.queue.size() >= this.maxQueueSize) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Discard any queued commits and stop the notification thread.
+     */
+    @Override
+    public void close() {
+        final ExecutorService oldExecutor;
+        synchronized (this) {
+            this.discardQueue();
+            oldExecutor = this.executor;
+            this.executor = null;
+            this.delivering = false;
+        }
+        if (oldExecutor == null)
+            return;
+        oldExecutor.shutdownNow();
+        try {
+            oldExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+// Internal methods
+
+    private void discardQueue() {
+        assert Thread.holdsLock(this);
+        while (!this.queue.isEmpty())
+            this.queue.removeFirst().close();
+        this.notifyAll();
+    }
+
+    // Runs on the notification thread
+    private void deliver(ExecutorService notifyExecutor) {
+        while (true) {
+
+            // Grab the next batch, if any
+            final ArrayList<Commit> batch;
+            synchronized (this) {
+                if (this.executor != notifyExecutor)                // we've been closed
+                    return;
+                if (this.queue.isEmpty()) {
+                    this.delivering = false;
+                    return;
+                }
+                batch = new ArrayList<>(Math.min(this.queue.size(), this.maxBatchSize));
+                while (!this.queue.isEmpty() && batch.size() < this.maxBatchSize)
+                    batch.add(this.queue.removeFirst());
+                this.notifyAll();
+            }
+
+            // Deliver it
+            final List<Commit> commits = Collections.unmodifiableList(batch);
+            try {
+                for (CommitListener listener : this.listeners) {
+                    try {
+                        listener.onCommits(commits);
+                    } catch (Throwable t) {
+                        this.log.error("error in commit listener " + listener, t);
+                    }
+                }
+            } finally {
+                for (Commit commit : batch)
+                    commit.close();
+            }
+        }
+    }
+}
+
@@ -0,0 +1,368 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.mvcc;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.jsimpledb.kv.KeyRange;
+import org.jsimpledb.util.ByteUtil;
+
+/**
+ * Aggregates transaction conflicts detected by an optimistic key/value database over a sliding time window.
+ *
+ * <p>
+ * Each time a transaction fails due to a read/write conflict, the conflicting key ranges are recorded. The lower bound
+ * of each range is converted into a "hotspot" name by the configured {@linkplain #setKeyDecoder key decoder}, and
+ * conflicts are counted per hotspot. Successful commits and retries are counted as well, so that the retry rate can
+ * be computed. All statistics reflect only the most recent {@linkplain #getWindowMillis window}.
+ *
+ * <p>
+ * By default, keys are reported as hexadecimal strings. When the database is used by JSimpleDB, configure
+ * {@code Database.describeKey()} as the key decoder, so that hotspots are reported by object type, field, and index name.
+ *
+ * <p>
+ * To use, configure an instance via {@link SnapshotKVDatabase#setConflictTracker SnapshotKVDatabase.setConflictTracker()}
+ * or {@code RaftKVDatabase.setConflictTracker()}.
+ *
+ * <p>
+ * Instances are thread safe.
+ */
+@ThreadSafe
+public class ConflictTracker {
+
+    /**
+     * Default window size in milliseconds ({@value #DEFAULT_WINDOW_MILLIS}).
+     */
+    public static final long DEFAULT_WINDOW_MILLIS = 60 * 1000;
+
+    /**
+     * Maximum number of distinct hotspots tracked in each window interval ({@value #MAX_HOTSPOTS}).
+     * Additional hotspots are counted under {@link #OTHER_HOTSPOT}.
+     */
+    public static final int MAX_HOTSPOTS = 1000;
+
+    /**
+     * Name used for conflicts in excess of {@link #MAX_HOTSPOTS} distinct hotspots.
+     */
+    public static final String OTHER_HOTSPOT = "(other)";
+
+    private static final int NUM_BUCKETS = 60;
+
+    private final long windowMillis;
+    private final long bucketMillis;
+    @GuardedBy("this")
+    private final Bucket[] buckets = new Bucket[NUM_BUCKETS];
+
+    private volatile Function<byte[], String> keyDecoder = ByteUtil::toString;
+
+    /**
+     * Default constructor.
+     *
+     * <p>
+     * Uses a window of {@value #DEFAULT_WINDOW_MILLIS} milliseconds.
+     */
+    public ConflictTracker() {
+        this(DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param windowMillis sliding window size in milliseconds
+     * @throws IllegalArgumentException if {@code windowMillis} is less than 60
+     */
+    public ConflictTracker(long windowMillis) {
+        Preconditions.checkArgument(windowMillis >= NUM_BUCKETS, "windowMillis < " + NUM_BUCKETS);
+        this.windowMillis = windowMillis;
+        this.bucketMillis = windowMillis / NUM_BUCKETS;
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            this.buckets[i] = new Bucket();
+    }
+
+    /**
+     * Get the sliding window size.
+     *
+     * @return window size in milliseconds
+     */
+    public long getWindowMillis() {
+        return this.windowMillis;
+    }
+
+    /**
+     * Get the function that converts conflicting keys into hotspot names.
+     *
+     * @return key decoder
+     */
+    public Function<byte[], String> getKeyDecoder() {
+        return this.keyDecoder;
+    }
+
+    /**
+     * Configure the function that converts conflicting keys into hotspot names.
+     *
+     * <p>
+     * The function is invoked while the database is processing a commit, so it should be fast. It should also map
+     * keys into a limited number of distinct names; for example, by identifying the field or index that owns the key
+     * rather than the specific object.
+     *
+     * <p>
+     * Default is {@link ByteUtil#toString(byte[]) ByteUtil::toString}.
+     *
+     * @param keyDecoder key decoder
+     * @throws IllegalArgumentException if {@code keyDecoder} is null
+     */
+    public void setKeyDecoder(Function<byte[], String> keyDecoder) {
+        Preconditions.checkArgument(keyDecoder != null, "null keyDecoder");
+        this.keyDecoder = keyDecoder;
+    }
+
+// Recording
+
+    /**
+     * Record a successful commit.
+     */
+    public synchronized void recordCommit() {
+        this.getCurrentBucket().commits++;
+    }
+
+    /**
+     * Record a transaction that must be retried.
+     */
+    public synchronized void recordRetry() {
+        this.getCurrentBucket().retries++;
+    }
+
+    /**
+     * Record the conflicts between a transaction's reads and the mutations of a transaction that committed ahead of it.
+     *
+     * @param reads the reads of the failed transaction
+     * @param mutations the mutations of the committed transaction
+     * @throws IllegalArgumentException if either parameter is null
+     */
+    public void recordConflicts(Reads reads, Mutations mutations) {
+        Preconditions.checkArgument(reads != null, "null reads");
+        this.recordConflicts(reads.getConflictRanges(mutations));
+    }
+
+    /**
+     * Record conflicting key ranges.
+     *
+     * @param ranges conflicting key ranges
+     * @throws IllegalArgumentException if {@code ranges} is null
+     */
+    public void recordConflicts(List<KeyRange> ranges) {
+        Preconditions.checkArgument(ranges != null, "null ranges");
+        final Function<byte[], String> decoder = this.keyDecoder;
+        final ArrayList<String> names = new ArrayList<>(ranges.size());
+        for (KeyRange range : ranges) {
+            String name;
+            try {
+                name = decoder.apply(range.getMin());
+            } catch (RuntimeException e) {
+                name = null;
+            }
+            names.add(name != null ? name : ByteUtil.toString(range.getMin()));
+        }
+        synchronized (this) {
+            final Bucket bucket = this.getCurrentBucket();
+            for (String name : names) {
+                if (!bucket.hotspots.containsKey(name) && bucket.hotspots.size() >= MAX_HOTSPOTS)
+                    name = OTHER_HOTSPOT;
+                bucket.hotspots.merge(name, 1L, Long::sum);
+                bucket.conflicts++;
+            }
+        }
+    }
+
+    /**
+     * Discard all recorded statistics.
+     */
+    public synchronized void reset() {
+        for (Bucket bucket : this.buckets)
+            bucket.reset(-1);
+    }
+
+// Accessors
+
+    /**
+     * Get the number of successful commits recorded within the current window.
+     *
+     * @return number of commits
+     */
+    public synchronized long getCommits() {
+        long total = 0;
+        for (Bucket bucket : this.getCurrentBuckets())
+            total += bucket.commits;
+        return total;
+    }
+
+    /**
+     * Get the number of retries recorded within the current window.
+     *
+     * @return number of retries
+     */
+    public synchronized long getRetries() {
+        long total = 0;
+        for (Bucket bucket : this.getCurrentBuckets())
+            total += bucket.retries;
+        return total;
+    }
+
+    /**
+     * Get the number of conflicting key ranges recorded within the current window.
+     *
+     * @return number of conflicts
+     */
+    public synchronized long getConflicts() {
+        long total = 0;
+        for (Bucket bucket : this.getCurrentBuckets())
+            total += bucket.conflicts;
+        return total;
+    }
+
+    /**
+     * Get the fraction of transaction commit attempts within the current window that resulted in a retry.
+     *
+     * @return retries divided by the sum of commits and retries, or zero if there were none
+     */
+    public synchronized double getRetryRate() {
+        final long retries = this.getRetries();
+        final long total = this.getCommits() + retries;
+        return total > 0 ? (double)retries / total : 0.0;
+    }
+
+    /**
+     * Get the hotspots with the most conflicts within the current window.
+     *
+     * @param max maximum number of hotspots to return
+     * @return up to {@code max} hotspots, sorted by decreasing conflict count
+     * @throws IllegalArgumentException if {@code max} is negative
+     */
+    public synchronized List<Hotspot> getHotspots(int max) {
+        Preconditions.checkArgument(max >= 0, "max < 0");
+        final HashMap<String, Long> totals = new HashMap<>();
+        for (Bucket bucket : this.getCurrentBuckets()) {
+            for (Map.Entry<String, Long> entry : bucket.hotspots.entrySet())
+                totals.merge(entry.getKey(), entry.getValue(), Long::sum);
+        }
+        final ArrayList<Hotspot> list = new ArrayList<>(totals.size());
+        for (Map.Entry<String, Long> entry : totals.entrySet())
+            list.add(new Hotspot(entry.getKey(), entry.getValue()));
+        list.sort((h1, h2) -> {
+            final int diff = Long.compare(h2.count, h1.count);
+            return diff != 0 ? diff : h1.name.compareTo(h2.name);
+        });
+        return list.size() > max ? new ArrayList<>(list.subList(0, max)) : list;
+    }
+
+// Internal methods
+
+    private Bucket getCurrentBucket() {
+        assert Thread.holdsLock(this);
+        final long epoch = System.currentTimeMillis() / this.bucketMillis;
+        final Bucket bucket = this.buckets[(int)(epoch % NUM_BUCKETS)];
+        if (bucket.epoch != epoch)
+            bucket.reset(epoch);
+        return bucket;
+    }
+
+    private List<Bucket> getCurrentBuckets() {
+        assert Thread.holdsLock(this);
+        final long epoch = System.currentTimeMillis() / this.bucketMillis;
+        final ArrayList<Bucket> list = new ArrayList<>(NUM_BUCKETS);
+        for (Bucket bucket : this.buckets) {
+            if (bucket.epoch > epoch - NUM_BUCKETS && bucket.epoch <= epoch)
+                list.add(bucket);
+        }
+        return list;
+    }
+
+// Object
+
+    /**
+     * Generate a human-readable report of the retry rate and the top ten hotspots.
+     */
+    @Override
+    public synchronized String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(String.format("window=%ds commits=%d retries=%d retryRate=%.2f%% conflicts=%d%n",
+          this.windowMillis / 1000, this.getCommits(), this.getRetries(), this.getRetryRate() * 100.0, this.getConflicts()));
+        for (Hotspot hotspot : this.getHotspots(10))
+            buf.append(String.format("%8d %s%n", hotspot.count, hotspot.name));
+        return buf.toString().trim();
+    }
+
+// Hotspot
+
+    /**
+     * A conflict hotspot and the number of conflicts recorded for it.
+     *
+     * <p>
+     * Instances are immutable.
+     */
+    public static final class Hotspot {
+
+        private final String name;
+        private final long count;
+
+        Hotspot(String name, long count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        /**
+         * Get the name of this hotspot as produced by the {@linkplain ConflictTracker#setKeyDecoder key decoder}.
+         *
+         * @return hotspot name
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Get the number of conflicts recorded for this hotspot.
+         *
+         * @return conflict count
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + "=" + this.count;
+        }
+    }
+
+// Bucket
+
+    private static class Bucket {
+
+        long epoch = -1;
+        long commits;
+        long retries;
+        long conflicts;
+        final HashMap<String, Long> hotspots = new HashMap<>();
+
+        void reset(long epoch) {
+            this.epoch = epoch;
+            this.commits = 0;
+            this.retries = 0;
+            this.conflicts = 0;
+            this.hotspots.clear();
+        }
+    }
+}
+
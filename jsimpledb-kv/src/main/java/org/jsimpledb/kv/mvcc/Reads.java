@@ -153,6 +153,52 @@ public class Reads extends KeyRanges {
         return conflicts;
     }
 
+    /**
+     * List the key ranges at which the given mutations conflict with the keys read by this instance.
+     *
+     * <p>
+     * This gives the same information as {@link #getConflicts getConflicts()}, but in a form suitable for further analysis.
+     * Conflicting puts and adjusts result in {@linkplain KeyRange#isSingleKey single key} ranges. This method returns
+     * an empty list if and only if {@link #isConflict isConflict()} returns false.
+     *
+     * @param mutations mutations to check for conflicts with this instance
+     * @return the conflicting key ranges
+     * @throws IllegalArgumentException if {@code mutations} is null
+     */
+    public List<KeyRange> getConflictRanges(Mutations mutations) {
+
+        // Sanity check
+        Preconditions.checkArgument(mutations != null, "null mutations");
+
+        // Prepare list
+        final ArrayList<KeyRange> conflicts = new ArrayList<>();
+
+        // Check removes
+        for (KeyRange remove : mutations.getRemoveRanges()) {
+            if (this.intersects(remove)) {
+                final KeyRanges intersection = new KeyRanges(remove);
+                intersection.intersect(this);
+                for (KeyRange range : intersection)
+                    conflicts.add(range);
+            }
+        }
+
+        // Check puts
+        for (Map.Entry<byte[], byte[]> entry : mutations.getPutPairs()) {
+            if (this.contains(entry.getKey()))
+                conflicts.add(new KeyRange(entry.getKey()));
+        }
+
+        // Check adjusts
+        for (Map.Entry<byte[], Long> entry : mutations.getAdjustPairs()) {
+            if (this.contains(entry.getKey()))
+                conflicts.add(new KeyRange(entry.getKey()));
+        }
+
+        // Return conflicts
+        return conflicts;
+    }
+
 // Cloneable
 
     @Override
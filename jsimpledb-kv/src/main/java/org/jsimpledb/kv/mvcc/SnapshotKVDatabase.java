@@ -49,6 +49,10 @@ import org.slf4j.LoggerFactory;
  * <p>
  * {@linkplain SnapshotKVTransaction#watchKey Key watches} are supported.
  *
+ * <p>
+ * Committed transactions may be monitored asynchronously, in commit order, by registering a {@link CommitListener}
+ * with this instance's {@linkplain #getCommitNotifier commit notifier}.
+ *
  * @see AtomicKVDatabase
  */
 @ThreadSafe
@@ -58,6 +62,10 @@ public abstract class SnapshotKVDatabase implements KVDatabase {
 
     protected final Logger log = LoggerFactory.getLogger(this.getClass());
 
+    private final CommitNotifier commitNotifier = new CommitNotifier("Commit Notify");
+
+    private volatile ConflictTracker conflictTracker;
+
 /*
 
    Open transactions (only) are contained in this.transactions; this.snapshot is the read-only view
@@ -144,6 +152,41 @@ public abstract class SnapshotKVDatabase implements KVDatabase {
         return this.currentVersion;
     }
 
+    /**
+     * Get the {@link CommitNotifier} that delivers this instance's committed transactions to registered {@link CommitListener}s.
+     *
+     * <p>
+     * Committed transactions are only captured while at least one listener is registered. Each {@link Commit}'s
+     * {@linkplain Commit#getVersion version} is the {@linkplain #getCurrentVersion MVCC version} it created.
+     * Commits not yet delivered when this instance is {@link #stop}ped are discarded.
+     *
+     * @return commit notifier for this instance
+     */
+    public CommitNotifier getCommitNotifier() {
+        return this.commitNotifier;
+    }
+
+    /**
+     * Get the {@link ConflictTracker} that records conflicts detected by this instance, if any.
+     *
+     * @return conflict tracker, or null if none is configured
+     */
+    public ConflictTracker getConflictTracker() {
+        return this.conflictTracker;
+    }
+
+    /**
+     * Configure a {@link ConflictTracker} to record commits, retries, and the key ranges of conflicts detected by this instance.
+     *
+     * <p>
+     * This may be changed at any time. Default is null.
+     *
+     * @param conflictTracker conflict tracker, or null for none
+     */
+    public void setConflictTracker(ConflictTracker conflictTracker) {
+        this.conflictTracker = conflictTracker;
+    }
+
 // KVDatabase
 
     @Override
@@ -178,6 +221,7 @@ public abstract class SnapshotKVDatabase implements KVDatabase {
                 this.snapshot.unref();
                 this.snapshot = null;
             }
+            this.commitNotifier.close();
             this.kvstore.stop();
             if (this.keyWatchTracker != null) {
                 this.keyWatchTracker.close();
@@ -300,14 +344,22 @@ public abstract class SnapshotKVDatabase implements KVDatabase {
     /**
      * Commit a transaction.
      */
-    synchronized void commit(SnapshotKVTransaction tx, boolean readOnly) {
+    void commit(SnapshotKVTransaction tx, boolean readOnly) {
         assert Thread.holdsLock(tx);
-        try {
-            this.doCommit(tx, readOnly);
-        } finally {
-            tx.error = null;                                // from this point on, throw a StaleTransactionException if accessed
-            this.cleanupTransaction(tx);
+        synchronized (this) {
+            try {
+                this.doCommit(tx, readOnly);
+                final ConflictTracker tracker = this.conflictTracker;
+                if (tracker != null)
+                    tracker.recordCommit();
+            } finally {
+                tx.error = null;                            // from this point on, throw a StaleTransactionException if accessed
+                this.cleanupTransaction(tx);
+            }
         }
+
+        // Apply backpressure if commit listeners are falling behind
+        this.commitNotifier.awaitCapacity();
     }
 
     /**
@@ -380,6 +432,7 @@ public abstract class SnapshotKVDatabase implements KVDatabase {
         this.currentVersion++;
 
         // Check concurrent transactions and invalidate any that have conflicts, or rebase them on the new version
+        final ConflictTracker tracker = this.conflictTracker;
         int numTx = this.transactions.size();                                                       // only used for logging
         for (Iterator<SnapshotKVTransaction> i = this.transactions.iterator(); i.hasNext(); ) {
             final SnapshotKVTransaction victim = i.next();
@@ -396,6 +449,12 @@ public abstract class SnapshotKVDatabase implements KVDatabase {
                 }
                 if (conflict) {
 
+                    // Record conflict
+                    if (tracker != null) {
+                        tracker.recordConflicts(victim.view.getReads(), txWrites);
+                        tracker.recordRetry();
+                    }
+
                     // Mark transaction for failure
                     i.remove();
                     victim.error = new RetryTransactionException(victim, "transaction is based on version "
@@ -416,6 +475,13 @@ public abstract class SnapshotKVDatabase implements KVDatabase {
             }
         }
 
+        // Publish commit, handing off a reference to the old snapshot, which still reflects the pre-commit state
+        if (this.commitNotifier.hasListeners()) {
+            oldSnapshot.ref();
+            this.commitNotifier.publish(
+              new Commit(this.currentVersion, oldSnapshot.getKVStore(), txWrites, oldSnapshot.getUnrefCloseable()));
+        }
+
         // Close the old snapshot (but only after rebasing remaining transactions)
         oldSnapshot.unref();
 
@@ -0,0 +1,195 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A thread safe histogram of non-negative {@code long} values using power-of-two sized buckets.
+ *
+ * <p>
+ * Bucket zero counts zero values; bucket <i>n</i> &gt; 0 counts values in the range 2<sup>n-1</sup>
+ * to 2<sup>n</sup>-1, inclusive. Values are unitless; the unit (e.g., nanoseconds) is determined by the caller.
+ *
+ * <p>
+ * Values are recorded without locking; reading the statistics while values are being recorded,
+ * or {@linkplain #Histogram(Histogram) copying} an instance, does not produce an atomic snapshot.
+ */
+@ThreadSafe
+public class Histogram {
+
+    /**
+     * The number of buckets.
+     */
+    public static final int NUM_BUCKETS = 64;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * Constructor.
+     */
+    public Histogram() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param original instance to copy
+     * @throws IllegalArgumentException if {@code original} is null
+     */
+    public Histogram(Histogram original) {
+        Preconditions.checkArgument(original != null, "null original");
+        this.count.add(original.getCount());
+        this.total.add(original.getTotal());
+        this.max.accumulate(original.getMax());
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            this.buckets.set(i, original.buckets.get(i));
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return value count
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Get the sum of the values recorded.
+     *
+     * @return value total
+     */
+    public long getTotal() {
+        return this.total.sum();
+    }
+
+    /**
+     * Get the maximum value recorded.
+     *
+     * @return maximum value, or zero if no values have been recorded
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     *
+     * @return mean value, or zero if no values have been recorded
+     */
+    public double getMean() {
+        final long n = this.getCount();
+        return n > 0 ? (double)this.getTotal() / n : 0.0;
+    }
+
+    /**
+     * Get the number of values recorded in the specified bucket.
+     *
+     * @param bucket bucket number
+     * @return value count
+     * @throws IllegalArgumentException if {@code bucket} is out of range
+     */
+    public long getBucketCount(int bucket) {
+        Preconditions.checkArgument(bucket >= 0 && bucket < NUM_BUCKETS, "invalid bucket");
+        return this.buckets.get(bucket);
+    }
+
+    /**
+     * Get the bucket counts.
+     *
+     * @return array of length {@link #NUM_BUCKETS} containing the bucket counts
+     */
+    public long[] getBuckets() {
+        final long[] result = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            result[i] = this.buckets.get(i);
+        return result;
+    }
+
+    /**
+     * Estimate a percentile value.
+     *
+     * <p>
+     * The returned value is the upper bound of the bucket containing the percentile, but not more than {@link #getMax}.
+     *
+     * @param fraction percentile as a fraction between zero and one
+     * @return upper bound for the percentile value, or zero if no values have been recorded
+     * @throws IllegalArgumentException if {@code fraction} is not between zero and one
+     */
+    public long getPercentile(double fraction) {
+        Preconditions.checkArgument(fraction >= 0.0 && fraction <= 1.0, "invalid fraction");
+        final long[] counts = this.getBuckets();
+        long n = 0;
+        for (long bucketCount : counts)
+            n += bucketCount;
+        if (n == 0)
+            return 0;
+        final long target = Math.max(1, (long)Math.ceil(fraction * n));
+        long sum = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            sum += counts[i];
+            if (sum >= target)
+                return Math.min(i == 0 ? 0 : i == NUM_BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1, this.getMax());
+        }
+        return this.getMax();
+    }
+
+    /**
+     * Record a value.
+     *
+     * <p>
+     * Negative values are recorded as zero.
+     *
+     * @param value value to record
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        this.count.increment();
+        this.total.add(value);
+        this.max.accumulate(value);
+        this.buckets.incrementAndGet(Histogram.bucketFor(value));
+    }
+
+    /**
+     * Discard all recorded values.
+     */
+    public void reset() {
+        this.count.reset();
+        this.total.reset();
+        this.max.reset();
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            this.buckets.set(i, 0);
+    }
+
+    /**
+     * Get the bucket in which the given value is counted.
+     *
+     * @param value value
+     * @return bucket number, or zero if {@code value} is negative
+     */
+    public static int bucketFor(long value) {
+        return 64 - Long.numberOfLeadingZeros(Math.max(value, 0));
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return "Histogram[count=" + this.getCount() + ",mean=" + this.getMean() + ",p99=" + this.getPercentile(0.99)
+          + ",max=" + this.getMax() + "]";
+    }
+}
+
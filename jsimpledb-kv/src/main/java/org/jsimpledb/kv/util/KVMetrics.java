@@ -0,0 +1,282 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Key/value operation statistics gathered by a {@link MetricsKVDatabase}.
+ *
+ * <p>
+ * For each {@link Operation}, a {@link Histogram} of operation latencies (in nanoseconds) is maintained.
+ * In addition, the number of key and value bytes read and written, the number of key/value pairs returned by
+ * each {@link org.jsimpledb.kv.KVStore#getRange getRange()} iteration, and transaction outcomes are tracked.
+ *
+ * <p>
+ * Instances implement {@link KVMetricsMXBean}, so they may be registered with a JMX {@code MBeanServer}.
+ * Alternately, applications may periodically report the statistics themselves using the accessor methods
+ * or {@link #toString}.
+ *
+ * <p>
+ * Instances are thread safe; statistics are updated without locking and are not reset atomically.
+ */
+@ThreadSafe
+public class KVMetrics implements KVMetricsMXBean {
+
+    private final EnumMap<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private final Histogram rangeLengths = new Histogram();
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    /**
+     * Constructor.
+     */
+    public KVMetrics() {
+        for (Operation operation : Operation.values())
+            this.latencies.put(operation, new Histogram());
+    }
+
+// Accessors
+
+    /**
+     * Get the latency histogram for the given operation.
+     *
+     * <p>
+     * For {@link Operation#GET_RANGE}, the latency covers only the creation of the iterator.
+     *
+     * @param operation key/value operation
+     * @return latency histogram in nanoseconds
+     * @throws IllegalArgumentException if {@code operation} is null
+     */
+    public Histogram getLatency(Operation operation) {
+        Preconditions.checkArgument(operation != null, "null operation");
+        return this.latencies.get(operation);
+    }
+
+    /**
+     * Get the histogram of the number of key/value pairs returned by {@link org.jsimpledb.kv.KVStore#getRange getRange()}
+     * iterators. An iteration is recorded when the iterator is exhausted or closed, whichever occurs first.
+     *
+     * @return range length histogram
+     */
+    public Histogram getRangeLengths() {
+        return this.rangeLengths;
+    }
+
+    /**
+     * Get the number of transactions created.
+     *
+     * @return transaction count
+     */
+    public long getTransactions() {
+        return this.transactions.sum();
+    }
+
+    /**
+     * Get the number of successful commits.
+     *
+     * @return commit count
+     */
+    public long getCommits() {
+        return this.commits.sum();
+    }
+
+    /**
+     * Get the number of commits that failed with a {@link org.jsimpledb.kv.RetryTransactionException}.
+     *
+     * @return retryable commit failure count
+     */
+    public long getRetries() {
+        return this.retries.sum();
+    }
+
+    /**
+     * Get the number of commits that failed with an exception other than {@link org.jsimpledb.kv.RetryTransactionException}.
+     *
+     * @return other commit failure count
+     */
+    public long getFailures() {
+        return this.failures.sum();
+    }
+
+    /**
+     * Get the number of rollbacks.
+     *
+     * @return rollback count
+     */
+    public long getRollbacks() {
+        return this.rollbacks.sum();
+    }
+
+    /**
+     * Get the total number of key and value bytes returned by read operations.
+     *
+     * @return bytes read
+     */
+    public long getBytesRead() {
+        return this.bytesRead.sum();
+    }
+
+    /**
+     * Get the total number of key and value bytes passed to write operations.
+     *
+     * @return bytes written
+     */
+    public long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+// KVMetricsMXBean
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final LinkedHashMap<String, Long> map = new LinkedHashMap<>();
+        map.put("transactions", this.getTransactions());
+        map.put("commits", this.getCommits());
+        map.put("retries", this.getRetries());
+        map.put("failures", this.getFailures());
+        map.put("rollbacks", this.getRollbacks());
+        map.put("bytesRead", this.getBytesRead());
+        map.put("bytesWritten", this.getBytesWritten());
+        for (Operation operation : Operation.values()) {
+            final Histogram latency = this.latencies.get(operation);
+            final String prefix = operation.getName();
+            map.put(prefix + ".count", latency.getCount());
+            map.put(prefix + ".totalNanos", latency.getTotal());
+            map.put(prefix + ".maxNanos", latency.getMax());
+            map.put(prefix + ".p99Nanos", latency.getPercentile(0.99));
+        }
+        map.put("rangeLength.count", this.rangeLengths.getCount());
+        map.put("rangeLength.total", this.rangeLengths.getTotal());
+        map.put("rangeLength.max", this.rangeLengths.getMax());
+        return map;
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram latency : this.latencies.values())
+            latency.reset();
+        this.rangeLengths.reset();
+        this.transactions.reset();
+        this.commits.reset();
+        this.retries.reset();
+        this.failures.reset();
+        this.rollbacks.reset();
+        this.bytesRead.reset();
+        this.bytesWritten.reset();
+    }
+
+// Recording
+
+    void recordLatency(Operation operation, long startTime) {
+        this.latencies.get(operation).record(System.nanoTime() - startTime);
+    }
+
+    void recordRangeLength(long length) {
+        this.rangeLengths.record(length);
+    }
+
+    void recordTransaction() {
+        this.transactions.increment();
+    }
+
+    void recordCommit() {
+        this.commits.increment();
+    }
+
+    void recordRetry() {
+        this.retries.increment();
+    }
+
+    void recordFailure() {
+        this.failures.increment();
+    }
+
+    void recordRollback() {
+        this.rollbacks.increment();
+    }
+
+    void recordRead(byte[] key, byte[] value) {
+        this.bytesRead.add((key != null ? key.length : 0) + (value != null ? value.length : 0));
+    }
+
+    void recordWrite(byte[] key, byte[] value) {
+        this.bytesWritten.add((key != null ? key.length : 0) + (value != null ? value.length : 0));
+    }
+
+// Object
+
+    /**
+     * Generate a multi-line, human-readable report of the statistics gathered by this instance.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(String.format("transactions=%d commits=%d retries=%d failures=%d rollbacks=%d bytesRead=%d bytesWritten=%d%n",
+          this.getTransactions(), this.getCommits(), this.getRetries(), this.getFailures(), this.getRollbacks(),
+          this.getBytesRead(), this.getBytesWritten()));
+        for (Operation operation : Operation.values()) {
+            final Histogram latency = this.latencies.get(operation);
+            if (latency.getCount() == 0)
+                continue;
+            buf.append(String.format("%-14s count=%d mean=%.1fus p50<=%.1fus p99<=%.1fus max=%.1fus%n",
+              operation.getName(), latency.getCount(), latency.getMean() / 1000.0, latency.getPercentile(0.50) / 1000.0,
+              latency.getPercentile(0.99) / 1000.0, latency.getMax() / 1000.0));
+        }
+        if (this.rangeLengths.getCount() > 0) {
+            buf.append(String.format("%-14s count=%d mean=%.1f p50<=%d p99<=%d max=%d%n", "rangeLength",
+              this.rangeLengths.getCount(), this.rangeLengths.getMean(), this.rangeLengths.getPercentile(0.50),
+              this.rangeLengths.getPercentile(0.99), this.rangeLengths.getMax()));
+        }
+        return buf.toString().trim();
+    }
+
+// Operation
+
+    /**
+     * Key/value operations tracked by {@link KVMetrics}.
+     */
+    public enum Operation {
+        GET("get"),
+        GET_AT_LEAST("getAtLeast"),
+        GET_AT_MOST("getAtMost"),
+        GET_RANGE("getRange"),
+        PUT("put"),
+        REMOVE("remove"),
+        REMOVE_RANGE("removeRange"),
+        ADJUST_COUNTER("adjustCounter"),
+        COMMIT("commit"),
+        ROLLBACK("rollback");
+
+        private final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the corresponding method.
+         *
+         * @return method name
+         */
+        public String getName() {
+            return this.name;
+        }
+    }
+}
+
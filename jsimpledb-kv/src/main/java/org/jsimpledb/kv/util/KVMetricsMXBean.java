@@ -0,0 +1,30 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.util;
+
+import java.util.Map;
+
+/**
+ * JMX management interface for {@link KVMetrics}.
+ */
+public interface KVMetricsMXBean {
+
+    /**
+     * Get a snapshot of all statistics as a flat map from name to value.
+     *
+     * <p>
+     * Latency values are in nanoseconds.
+     *
+     * @return statistics by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Reset all statistics to zero.
+     */
+    void reset();
+}
+
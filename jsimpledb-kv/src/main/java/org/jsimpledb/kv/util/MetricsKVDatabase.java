@@ -0,0 +1,98 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Map;
+
+import org.jsimpledb.kv.KVDatabase;
+
+/**
+ * {@link KVDatabase} wrapper that gathers {@link KVMetrics} statistics for all operations.
+ *
+ * <p>
+ * Instances wrap any other {@link KVDatabase}. Each {@link MetricsKVTransaction} forwards all operations to a transaction
+ * of the wrapped database, recording operation counts and latencies, bytes read and written, range iteration lengths,
+ * and commit outcomes. The overhead is a couple of {@link System#nanoTime} calls and a few uncontended
+ * atomic updates per operation.
+ *
+ * <p>
+ * Invocations of {@link #start} and {@link #stop} are forwarded to the wrapped database.
+ */
+public class MetricsKVDatabase implements KVDatabase {
+
+    private final KVDatabase db;
+    private final KVMetrics metrics;
+
+    /**
+     * Constructor.
+     *
+     * @param db the wrapped {@link KVDatabase}
+     * @throws IllegalArgumentException if {@code db} is null
+     */
+    public MetricsKVDatabase(KVDatabase db) {
+        this(db, new KVMetrics());
+    }
+
+    /**
+     * Constructor taking an explicit {@link KVMetrics}, which may be shared with other instances.
+     *
+     * @param db the wrapped {@link KVDatabase}
+     * @param metrics destination for gathered statistics
+     * @throws IllegalArgumentException if either parameter is null
+     */
+    public MetricsKVDatabase(KVDatabase db, KVMetrics metrics) {
+        Preconditions.checkArgument(db != null, "null db");
+        Preconditions.checkArgument(metrics != null, "null metrics");
+        this.db = db;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the wrapped {@link KVDatabase} associated with this instance.
+     *
+     * @return the wrapped {@link KVDatabase}
+     */
+    public KVDatabase getWrappedKVDatabase() {
+        return this.db;
+    }
+
+    /**
+     * Get the statistics gathered by this instance.
+     *
+     * @return gathered statistics
+     */
+    public KVMetrics getMetrics() {
+        return this.metrics;
+    }
+
+// KVDatabase
+
+    @Override
+    public void start() {
+        this.db.start();
+    }
+
+    @Override
+    public void stop() {
+        this.db.stop();
+    }
+
+    @Override
+    public MetricsKVTransaction createTransaction() {
+        return this.createTransaction(null);
+    }
+
+    @Override
+    public MetricsKVTransaction createTransaction(Map<String, ?> options) {
+        final MetricsKVTransaction tx = new MetricsKVTransaction(this,
+          options != null ? this.db.createTransaction(options) : this.db.createTransaction());
+        this.metrics.recordTransaction();
+        return tx;
+    }
+}
+
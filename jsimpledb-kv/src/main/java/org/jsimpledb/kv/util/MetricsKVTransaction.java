@@ -0,0 +1,308 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.util;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+
+import org.jsimpledb.kv.CloseableKVStore;
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.kv.KVTransaction;
+import org.jsimpledb.kv.KVTransactionException;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.StaleTransactionException;
+import org.jsimpledb.kv.TransactionTimeoutException;
+import org.jsimpledb.kv.util.KVMetrics.Operation;
+
+/**
+ * {@link KVTransaction} that records {@link KVMetrics} statistics and forwards all operations to an underlying transaction.
+ *
+ * <p>
+ * Instances are created via {@link MetricsKVDatabase#createTransaction}. Operations on the {@link KVTransaction}
+ * returned by {@link #mutableSnapshot} are not recorded.
+ */
+public class MetricsKVTransaction extends ForwardingKVStore implements KVTransaction {
+
+    private final MetricsKVDatabase db;
+    private final KVTransaction tx;
+    private final KVMetrics metrics;
+
+    MetricsKVTransaction(MetricsKVDatabase db, KVTransaction tx) {
+        Preconditions.checkArgument(db != null, "null db");
+        Preconditions.checkArgument(tx != null, "null tx");
+        this.db = db;
+        this.tx = tx;
+        this.metrics = db.getMetrics();
+    }
+
+    /**
+     * Get the wrapped {@link KVTransaction}.
+     *
+     * @return underlying transaction
+     */
+    public KVTransaction getWrappedKVTransaction() {
+        return this.tx;
+    }
+
+// ForwardingKVStore
+
+    @Override
+    protected KVTransaction delegate() {
+        return this.tx;
+    }
+
+// KVStore
+
+    @Override
+    public byte[] get(byte[] key) {
+        final long startTime = System.nanoTime();
+        final byte[] value;
+        try {
+            value = this.tx.get(key);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.GET, startTime);
+        }
+        if (value != null)
+            this.metrics.recordRead(key, value);
+        return value;
+    }
+
+    @Override
+    public KVPair getAtLeast(byte[] minKey, byte[] maxKey) {
+        final long startTime = System.nanoTime();
+        final KVPair pair;
+        try {
+            pair = this.tx.getAtLeast(minKey, maxKey);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.GET_AT_LEAST, startTime);
+        }
+        if (pair != null)
+            this.metrics.recordRead(pair.getKey(), pair.getValue());
+        return pair;
+    }
+
+    @Override
+    public KVPair getAtMost(byte[] maxKey, byte[] minKey) {
+        final long startTime = System.nanoTime();
+        final KVPair pair;
+        try {
+            pair = this.tx.getAtMost(maxKey, minKey);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.GET_AT_MOST, startTime);
+        }
+        if (pair != null)
+            this.metrics.recordRead(pair.getKey(), pair.getValue());
+        return pair;
+    }
+
+    @Override
+    public Iterator<KVPair> getRange(byte[] minKey, byte[] maxKey, boolean reverse) {
+        final long startTime = System.nanoTime();
+        final Iterator<KVPair> iterator;
+        try {
+            iterator = this.tx.getRange(minKey, maxKey, reverse);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.GET_RANGE, startTime);
+        }
+        return new MetricsIterator(iterator);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.put(key, value);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.PUT, startTime);
+        }
+        this.metrics.recordWrite(key, value);
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.remove(key);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.REMOVE, startTime);
+        }
+        this.metrics.recordWrite(key, null);
+    }
+
+    @Override
+    public void removeRange(byte[] minKey, byte[] maxKey) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.removeRange(minKey, maxKey);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.REMOVE_RANGE, startTime);
+        }
+        this.metrics.recordWrite(minKey, maxKey);
+    }
+
+    @Override
+    public void adjustCounter(byte[] key, long amount) {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.adjustCounter(key, amount);
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.ADJUST_COUNTER, startTime);
+        }
+        this.metrics.recordWrite(key, null);
+    }
+
+// KVTransaction
+
+    @Override
+    public MetricsKVDatabase getKVDatabase() {
+        return this.db;
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.tx.setTimeout(timeout);
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return this.tx.isReadOnly();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        this.tx.setReadOnly(readOnly);
+    }
+
+    @Override
+    public Future<Void> watchKey(byte[] key) {
+        return this.tx.watchKey(key);
+    }
+
+    @Override
+    public void commit() {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.commit();
+        } catch (KVTransactionException e) {
+            if (e instanceof RetryTransactionException)
+                this.metrics.recordRetry();
+            else
+                this.metrics.recordFailure();
+            throw this.wrapException(e);
+        } catch (RuntimeException | Error e) {
+            this.metrics.recordFailure();
+            throw e;
+        } finally {
+            this.metrics.recordLatency(Operation.COMMIT, startTime);
+        }
+        this.metrics.recordCommit();
+    }
+
+    @Override
+    public void rollback() {
+        final long startTime = System.nanoTime();
+        try {
+            this.tx.rollback();
+        } catch (KVTransactionException e) {
+            throw this.wrapException(e);
+        } finally {
+            this.metrics.recordLatency(Operation.ROLLBACK, startTime);
+        }
+        this.metrics.recordRollback();
+    }
+
+    @Override
+    public CloseableKVStore mutableSnapshot() {
+        return this.tx.mutableSnapshot();
+    }
+
+    // Report exceptions from the wrapped transaction as coming from this transaction
+    private KVTransactionException wrapException(KVTransactionException e) {
+        if (e.getTransaction() != this.tx)
+            return e;
+        if (e instanceof RetryTransactionException)
+            return new RetryTransactionException(this, e.getMessage(), e);
+        if (e instanceof TransactionTimeoutException)
+            return new TransactionTimeoutException(this, e.getMessage(), e);
+        if (e instanceof StaleTransactionException)
+            return new StaleTransactionException(this, e.getMessage(), e);
+        return new KVTransactionException(this, e.getMessage(), e);
+    }
+
+// MetricsIterator
+
+    private class MetricsIterator implements Iterator<KVPair>, Closeable {
+
+        private final Iterator<KVPair> iterator;
+
+        private long length;
+        private boolean recorded;
+
+        MetricsIterator(Iterator<KVPair> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            final boolean hasNext = this.iterator.hasNext();
+            if (!hasNext)
+                this.recordLength();
+            return hasNext;
+        }
+
+        @Override
+        public KVPair next() {
+            final KVPair pair = this.iterator.next();
+            MetricsKVTransaction.this.metrics.recordRead(pair.getKey(), pair.getValue());
+            this.length++;
+            return pair;
+        }
+
+        @Override
+        public void remove() {
+            this.iterator.remove();
+        }
+
+        @Override
+        public void close() {
+            this.recordLength();
+            if (this.iterator instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable)this.iterator).close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+
+        private void recordLength() {
+            if (this.recorded)
+                return;
+            MetricsKVTransaction.this.metrics.recordRangeLength(this.length);
+            this.recorded = true;
+        }
+    }
+}
+
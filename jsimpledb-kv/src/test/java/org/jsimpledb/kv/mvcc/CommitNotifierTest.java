@@ -0,0 +1,119 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.mvcc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jsimpledb.kv.util.NavigableMapKVStore;
+import org.jsimpledb.test.TestSupport;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CommitNotifierTest extends TestSupport {
+
+    @Test
+    public void testOrderAndBatching() throws Exception {
+        final CommitNotifier notifier = new CommitNotifier("Test Notify");
+        notifier.setMaxBatchSize(3);
+        final ArrayList<Long> versions = new ArrayList<>();
+        final ArrayList<Integer> batchSizes = new ArrayList<>();
+        final AtomicInteger closed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        final int numCommits = 20;
+        notifier.addListener(commits -> {
+            batchSizes.add(commits.size());
+            for (Commit commit : commits) {
+                versions.add(commit.getVersion());
+                Assert.assertEquals(commit.getAfter().get(ByteUtil.parse("01")), new byte[] { (byte)commit.getVersion() });
+            }
+            if (versions.size() == numCommits)
+                done.countDown();
+        });
+        try {
+            for (int i = 0; i < numCommits; i++)
+                notifier.publish(this.buildCommit(i, closed));
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            final ArrayList<Long> expected = new ArrayList<>();
+            for (int i = 0; i < numCommits; i++)
+                expected.add((long)i);
+            Assert.assertEquals(versions, expected);
+            for (int batchSize : batchSizes)
+                Assert.assertTrue(batchSize >= 1 && batchSize <= 3, "bad batch size " + batchSize);
+        } finally {
+            notifier.close();
+        }
+        Assert.assertEquals(closed.get(), numCommits);
+    }
+
+    @Test
+    public void testNoListeners() throws Exception {
+        final CommitNotifier notifier = new CommitNotifier("Test Notify");
+        final AtomicInteger closed = new AtomicInteger();
+        notifier.publish(this.buildCommit(1, closed));
+        Assert.assertEquals(closed.get(), 1);
+        notifier.close();
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final CommitNotifier notifier = new CommitNotifier("Test Notify");
+        notifier.setMaxQueueSize(2);
+        notifier.setMaxBatchSize(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> versions = new ArrayList<>();
+        notifier.addListener(commits -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (versions) {
+                for (Commit commit : commits)
+                    versions.add(commit.getVersion());
+            }
+        });
+        final AtomicInteger closed = new AtomicInteger();
+        try {
+
+            // Block the notification thread in the listener, then fill the queue
+            notifier.publish(this.buildCommit(0, closed));
+            Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+            notifier.publish(this.buildCommit(1, closed));
+            notifier.publish(this.buildCommit(2, closed));
+
+            // A committing thread should now block
+            final CountDownLatch proceeded = new CountDownLatch(1);
+            final Thread committer = new Thread(() -> {
+                notifier.awaitCapacity();
+                proceeded.countDown();
+            });
+            committer.start();
+            Assert.assertFalse(proceeded.await(200, TimeUnit.MILLISECONDS));
+
+            // Unblock the listener
+            release.countDown();
+            Assert.assertTrue(proceeded.await(5, TimeUnit.SECONDS));
+            committer.join();
+        } finally {
+            release.countDown();
+            notifier.close();
+        }
+    }
+
+    private Commit buildCommit(long version, AtomicInteger closed) {
+        final Writes writes = new Writes();
+        writes.getPuts().put(ByteUtil.parse("01"), new byte[] { (byte)version });
+        return new Commit(version, new NavigableMapKVStore(), writes, closed::incrementAndGet);
+    }
+}
+
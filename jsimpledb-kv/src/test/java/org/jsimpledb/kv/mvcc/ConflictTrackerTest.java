@@ -0,0 +1,135 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.kv.mvcc;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jsimpledb.kv.CloseableKVStore;
+import org.jsimpledb.kv.KVTransaction;
+import org.jsimpledb.kv.KeyRange;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.jsimpledb.kv.util.CloseableForwardingKVStore;
+import org.jsimpledb.kv.util.NavigableMapKVStore;
+import org.jsimpledb.test.TestSupport;
+import org.jsimpledb.util.ByteUtil;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ConflictTrackerTest extends TestSupport {
+
+    @Test
+    public void testConflictRanges() throws Exception {
+        final Reads reads = new Reads();
+        reads.add(new KeyRange(ByteUtil.parse("10")));
+        reads.add(new KeyRange(ByteUtil.parse("20"), ByteUtil.parse("30")));
+        final Writes writes = new Writes();
+        writes.getPuts().put(ByteUtil.parse("10"), ByteUtil.parse("ff"));
+        writes.getPuts().put(ByteUtil.parse("11"), ByteUtil.parse("ff"));
+        writes.getRemoves().add(new KeyRange(ByteUtil.parse("28"), ByteUtil.parse("40")));
+        writes.getAdjusts().put(ByteUtil.parse("2000"), 1L);
+        final List<KeyRange> conflicts = reads.getConflictRanges(writes);
+        Assert.assertEquals(conflicts, Arrays.asList(
+          new KeyRange(ByteUtil.parse("28"), ByteUtil.parse("30")),
+          new KeyRange(ByteUtil.parse("10")),
+          new KeyRange(ByteUtil.parse("2000"))));
+        Assert.assertEquals(conflicts.size(), reads.getConflicts(writes).size());
+        Assert.assertTrue(reads.getConflictRanges(new Writes()).isEmpty());
+    }
+
+    @Test
+    public void testHotspots() throws Exception {
+        final ConflictTracker tracker = new ConflictTracker();
+        tracker.setKeyDecoder(key -> "prefix " + ByteUtil.toString(Arrays.copyOf(key, 1)));
+        tracker.recordConflicts(Arrays.asList(new KeyRange(ByteUtil.parse("1001")), new KeyRange(ByteUtil.parse("1002"))));
+        tracker.recordConflicts(Arrays.asList(new KeyRange(ByteUtil.parse("2001"))));
+        tracker.recordConflicts(Arrays.asList(new KeyRange(ByteUtil.parse("1003"))));
+        tracker.recordCommit();
+        tracker.recordCommit();
+        tracker.recordCommit();
+        tracker.recordRetry();
+
+        Assert.assertEquals(tracker.getConflicts(), 4);
+        Assert.assertEquals(tracker.getCommits(), 3);
+        Assert.assertEquals(tracker.getRetries(), 1);
+        Assert.assertEquals(tracker.getRetryRate(), 0.25);
+        final List<ConflictTracker.Hotspot> hotspots = tracker.getHotspots(10);
+        Assert.assertEquals(hotspots.size(), 2);
+        Assert.assertEquals(hotspots.get(0).getName(), "prefix 10");
+        Assert.assertEquals(hotspots.get(0).getCount(), 3);
+        Assert.assertEquals(hotspots.get(1).getName(), "prefix 20");
+        Assert.assertEquals(tracker.getHotspots(1).size(), 1);
+        Assert.assertTrue(tracker.toString().contains("prefix 10"));
+
+        tracker.reset();
+        Assert.assertEquals(tracker.getConflicts(), 0);
+        Assert.assertEquals(tracker.getRetryRate(), 0.0);
+        Assert.assertTrue(tracker.getHotspots(10).isEmpty());
+    }
+
+    @Test
+    public void testWindow() throws Exception {
+        final ConflictTracker tracker = new ConflictTracker(120);
+        tracker.recordRetry();
+        Assert.assertEquals(tracker.getRetries(), 1);
+        Thread.sleep(250);
+        Assert.assertEquals(tracker.getRetries(), 0);
+    }
+
+    @Test
+    public void testSnapshotKVDatabase() throws Exception {
+        final SnapshotKVDatabase kvdb = new SnapshotKVDatabase(new MemoryAtomicKVStore()) { };
+        final ConflictTracker tracker = new ConflictTracker();
+        kvdb.setConflictTracker(tracker);
+        kvdb.start();
+        try {
+            final KVTransaction tx1 = kvdb.createTransaction();
+            final KVTransaction tx2 = kvdb.createTransaction();
+            tx1.get(ByteUtil.parse("01"));
+            tx2.get(ByteUtil.parse("01"));
+            tx1.put(ByteUtil.parse("01"), ByteUtil.parse("aa"));
+            tx2.put(ByteUtil.parse("01"), ByteUtil.parse("bb"));
+            tx1.commit();
+            try {
+                tx2.commit();
+                assert false;
+            } catch (RetryTransactionException e) {
+                // expected
+            }
+        } finally {
+            kvdb.stop();
+        }
+        Assert.assertEquals(tracker.getCommits(), 1);
+        Assert.assertEquals(tracker.getRetries(), 1);
+        Assert.assertEquals(tracker.getHotspots(10).get(0).getName(), "01");
+    }
+
+// MemoryAtomicKVStore
+
+    private static class MemoryAtomicKVStore extends NavigableMapKVStore implements AtomicKVStore {
+
+        private static final long serialVersionUID = -1L;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public synchronized CloseableKVStore snapshot() {
+            return new CloseableForwardingKVStore(this.clone());
+        }
+
+        @Override
+        public synchronized void mutate(Mutations mutations, boolean sync) {
+            Writes.apply(mutations, this);
+        }
+    }
+}
+
@@ -171,6 +171,8 @@ public class JClass<T> extends JSchemaObject {
                     throw new IllegalArgumentException("invalid " + description + ": counter fields must not specify a type");
                 if (annotation.indexed())
                     throw new IllegalArgumentException("invalid " + description + ": counter fields cannot be indexed");
+                if (annotation.counterShards() < 1)
+                    throw new IllegalArgumentException("invalid " + description + ": counterShards() must be at least one");
 
                 // Create counter field
                 final JCounterField jfield = new JCounterField(this.jdb, fieldName, storageId, annotation,
@@ -281,7 +283,7 @@ public class JClass<T> extends JSchemaObject {
               "element field of list field `" + fieldName + "' in object type `" + this.name + "'");
 
             // Create list field
-            final JListField jfield = new JListField(this.jdb, fieldName, storageId, elementField,
+            final JListField jfield = new JListField(this.jdb, fieldName, storageId, elementField, annotation.sparse(),
               "list field `" + fieldName + "' in object type `" + this.name + "'", getter);
             elementField.parent = jfield;
 
@@ -614,6 +616,8 @@ public class JClass<T> extends JSchemaObject {
             throw new IllegalArgumentException("invalid " + description + ": onDelete() only allowed on reference fields");
         if (!isReferenceType && annotation.cascadeDelete())
             throw new IllegalArgumentException("invalid " + description + ": cascadeDelete() only allowed on reference fields");
+        if (annotation.counterShards() != 1)
+            throw new IllegalArgumentException("invalid " + description + ": counterShards() only allowed on counter fields");
         if (!isReferenceType && annotation.unique() && !annotation.indexed())
             throw new IllegalArgumentException("invalid " + description + ": unique() constraint requires field to be indexed");
         if (nonReferenceType != null && nonReferenceType.getTypeToken().isPrimitive() && annotation.uniqueExcludeNull()) {
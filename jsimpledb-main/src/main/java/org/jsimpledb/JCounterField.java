@@ -23,11 +23,23 @@ import org.objectweb.asm.ClassWriter;
 public class JCounterField extends JField {
 
     final UpgradeConversionPolicy upgradeConversion;
+    final int shards;
 
     JCounterField(JSimpleDB jdb, String name, int storageId,
       org.jsimpledb.annotation.JField annotation, String description, Method getter) {
         super(jdb, name, storageId, description, getter);
         this.upgradeConversion = annotation.upgradeConversion();
+        this.shards = annotation.counterShards();
+    }
+
+    /**
+     * Get the number of shards across which this counter's value is spread.
+     *
+     * @return number of shards, or one if this field is not sharded
+     * @see org.jsimpledb.annotation.JField#counterShards
+     */
+    public int getShards() {
+        return this.shards;
     }
 
     @Override
@@ -45,6 +57,7 @@ public class JCounterField extends JField {
     CounterSchemaField toSchemaItem(JSimpleDB jdb) {
         final CounterSchemaField schemaField = new CounterSchemaField();
         this.initialize(jdb, schemaField);
+        schemaField.setShards(this.shards);
         return schemaField;
     }
 
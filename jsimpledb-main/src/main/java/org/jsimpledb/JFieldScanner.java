@@ -126,5 +126,9 @@ class JFieldScanner<T> extends AbstractFieldScanner<T, JField> {
         public UpgradeConversionPolicy upgradeConversion() {
             return this.jsimpleClass.autogenUpgradeConversion();
         }
+        @Override
+        public int counterShards() {
+            return 1;
+        }
     };
 }
@@ -24,8 +24,23 @@ import org.jsimpledb.schema.ListSchemaField;
  */
 public class JListField extends JCollectionField {
 
-    JListField(JSimpleDB jdb, String name, int storageId, JSimpleField elementField, String description, Method getter) {
+    final boolean sparse;
+
+    JListField(JSimpleDB jdb, String name, int storageId,
+      JSimpleField elementField, boolean sparse, String description, Method getter) {
         super(jdb, name, storageId, elementField, description, getter);
+        this.sparse = sparse;
+    }
+
+    /**
+     * Determine whether this field uses sparse element storage.
+     *
+     * @return true if this field uses sparse storage
+     * @see org.jsimpledb.annotation.JListField#sparse
+     * @see org.jsimpledb.core.ListField#isSparse
+     */
+    public boolean isSparse() {
+        return this.sparse;
     }
 
     @Override
@@ -43,6 +58,7 @@ public class JListField extends JCollectionField {
     ListSchemaField toSchemaItem(JSimpleDB jdb) {
         final ListSchemaField schemaField = new ListSchemaField();
         super.initialize(jdb, schemaField);
+        schemaField.setSparse(this.sparse);
         return schemaField;
     }
 
@@ -65,5 +65,9 @@ class JListFieldScanner<T> extends AbstractFieldScanner<T, JListField> {
         public JField element() {
             return JFieldScanner.getDefaultJField(this.jsimpleClass);
         }
+        @Override
+        public boolean sparse() {
+            return false;
+        }
     }
 }
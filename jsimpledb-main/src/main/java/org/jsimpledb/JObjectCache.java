@@ -8,11 +8,15 @@ package org.jsimpledb;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 
+import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
-import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
 import org.jsimpledb.core.ObjId;
@@ -21,18 +25,22 @@ import org.jsimpledb.core.util.ObjIdMap;
 @ThreadSafe
 class JObjectCache {
 
+    private static final int NUM_SEGMENTS = 16;                 // must be a power of two
+
     private final JTransaction jtx;
+    private final JObjectRetention retention;
     private final ReferenceQueue<JObject> referenceQueue = new ReferenceQueue<>();
 
     /**
-     * Mapping from object ID to {@link JObject}.
+     * Mapping from object ID to {@link JObject}, split into {@link #NUM_SEGMENTS} segments by object ID hash code.
+     * Each segment is guarded by its own monitor; {@link ObjIdMap} stores keys as primitive {@code long}s.
      *
      * <p>
-     * As a special case, null values in this map indicate that the corresponding {@link JObject}
-     * is currently under construction by some thread.
+     * Values are either a {@link JObject} (for {@link JObjectRetention#STRONG} retention), a {@link JObjRef} referring
+     * to a {@link JObject}, or a {@link Construction} indicating that the corresponding {@link JObject} is currently
+     * under construction by some thread.
      */
-    @GuardedBy("itself")
-    private final ObjIdMap<JObjRef> cache = new ObjIdMap<>();
+    private final ObjIdMap<Object>[] segments;
 
     /**
      * Mapping of {@link JObject}s currently under construction by the current thread.
@@ -42,9 +50,20 @@ class JObjectCache {
      */
     private final ThreadLocal<ObjIdMap<JObject>> instantiations = new ThreadLocal<>();
 
-    JObjectCache(JTransaction jtx) {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    JObjectCache(JTransaction jtx, JObjectRetention retention) {
         this.jtx = jtx;
+        this.retention = retention;
         assert this.jtx != null;
+        assert this.retention != null;
+        @SuppressWarnings("unchecked")
+        final ObjIdMap<Object>[] array = (ObjIdMap<Object>[])new ObjIdMap<?>[NUM_SEGMENTS];
+        for (int i = 0; i < array.length; i++)
+            array[i] = new ObjIdMap<>();
+        this.segments = array;
     }
 
     /**
@@ -59,15 +78,9 @@ class JObjectCache {
         // Sanity check
         Preconditions.checkArgument(id != null, "null id");
 
-        // Check for existing entry
-        synchronized (this.cache) {
-            final JObjRef ref = this.cache.get(id);
-            if (ref != null)
-                return ref.get();
-        }
-
-        // Does not exist - or is currently being instantiated
-        return null;
+        // Check for existing entry; a construction indicates the object is currently being instantiated
+        final Object value = this.cacheGet(id);
+        return value != null && !(value instanceof Construction) ? this.dereference(value) : null;
     }
 
     /**
@@ -82,28 +95,17 @@ class JObjectCache {
         // Sanity check
         Preconditions.checkArgument(id != null, "null id");
 
+        // Garbage collect
+        this.gc();
+
         // Check for existing entry
         boolean interrupted = false;
-        synchronized (this.cache) {
-
-            // Check for existing JObject, or null if object is being instantiated
+        try {
             while (true) {
 
-                // Garbage collect
-                this.gc();
-
-                // Get weak reference
-                final JObjRef ref = this.cache.get(id);
-                if (ref != null) {
-
-                    // If weak reference still valid, return corresponding JObject
-                    final JObject jobj = ref.get();
-                    if (jobj != null)
-                        return jobj;
-
-                    // The weak reference has been cleared; we will construct a new JObject replacement
-                    // this.cache.remove(id);   // not necessary; see below
-                } else if (this.cache.containsKey(id)) {    // null value indicates object is being instantiated by some thread
+                // Check for existing JObject, or construction if object is being instantiated
+                final Object value = this.cacheGet(id);
+                if (value instanceof Construction) {
 
                     // Is the current thread the one instantiating the object?
                     final ObjIdMap<JObject> threadInstantiations = this.instantiations.get();
@@ -115,46 +117,75 @@ class JObjectCache {
                     }
 
                     // Some other thread is instantiating the object, so wait for it to finish doing so
+                    final JObject jobj;
                     try {
-                        this.cache.wait();
+                        jobj = ((Construction)value).future.get();
                     } catch (InterruptedException e) {
                         interrupted = true;
+                        continue;
+                    } catch (ExecutionException e) {
+                        throw new RuntimeException("internal error", e);
                     }
-                    continue;
+                    if (jobj == null)                               // construction failed; try again ourselves
+                        continue;
+                    this.hitCount.increment();
+                    return jobj;
                 }
 
-                // Set a null value in the cache to indicate that some thread (i.e., this one) is instantiating the object
-                this.cache.put(id, null);
-                break;
+                // If weak reference still valid, return corresponding JObject
+                if (value != null) {
+                    final JObject jobj = this.dereference(value);
+                    if (jobj != null) {
+                        this.hitCount.increment();
+                        return jobj;
+                    }
+                }
+
+                // Install a construction to indicate that some thread (i.e., this one) is instantiating the object
+                final Construction construction = new Construction();
+                final boolean installed = this.cacheReplace(id, value, construction);
+                if (!installed)
+                    continue;                                       // we lost a race with some other thread; start over
+                if (value != null)
+                    this.evictionCount.increment();                 // the reference was cleared; we will construct a replacement
+                this.missCount.increment();
+
+                // Instantiate new JObject instance
+                JObject jobj = null;
+                try {
+                    jobj = this.createJObject(id);
+                } finally {
+
+                    // Add JObject to the cache, or else remove the construction
+                    this.cacheReplace(id, construction, jobj != null ? this.reference(jobj) : null);
+
+                    // Wakeup any waiting threads
+                    construction.future.complete(jobj);
+                }
+                return jobj;
             }
+        } finally {
+
+            // Re-interrupt the current thread if needed
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
+    }
 
-        // Instantiate new JObject instance
-        JObject jobj = null;
-        try {
-            jobj = this.createJObject(id);
-        } finally {
-            synchronized (this.cache) {
-                assert this.cache.containsKey(id) && this.cache.get(id) == null;
-                this.gc();
-
-                // Add JObject to the cache, or else remove the 'under construction' flag
-                if (jobj != null)
-                    this.cache.put(id, new JObjRef(jobj, this.referenceQueue));
-                else
-                    this.cache.remove(id);
-
-                // Wakeup any waiting threads
-                this.cache.notifyAll();
+    /**
+     * Get cache statistics.
+     *
+     * @return current statistics
+     */
+    public JObjectCacheStats getStats() {
+        int size = 0;
+        for (ObjIdMap<Object> segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
             }
         }
-
-        // Re-interrupt the current thread if needed
-        if (interrupted)
-            Thread.currentThread().interrupt();
-
-        // Done
-        return jobj;
+        return new JObjectCacheStats(this.retention, size,
+          this.hitCount.sum(), this.missCount.sum(), this.evictionCount.sum());
     }
 
     /**
@@ -238,32 +269,103 @@ class JObjectCache {
         return jobj;
     }
 
+    private Object reference(JObject jobj) {
+        switch (this.retention) {
+        case STRONG:
+            return jobj;
+        case SOFT:
+            return new SoftJObjRef(jobj, this.referenceQueue);
+        case WEAK:
+            return new WeakJObjRef(jobj, this.referenceQueue);
+        default:
+            throw new RuntimeException("internal error");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JObject dereference(Object value) {
+        assert !(value instanceof Construction);
+        return value instanceof JObject ? (JObject)value : ((Reference<JObject>)value).get();
+    }
+
     private void gc() {
-        assert Thread.holdsLock(this.cache);
         while (true) {
             final JObjRef ref = (JObjRef)this.referenceQueue.poll();
             if (ref == null)
                 break;
-            assert ref.get() == null;
-            final ObjId id = ref.getObjId();
-            if (this.cache.get(id) == ref)  // avoid race where old reference is cleared after being replaced in the cache
-                this.cache.remove(id);
+            if (this.cacheReplace(new ObjId(ref.getKey()), ref, null))    // avoid race where old ref is cleared after replacement
+                this.evictionCount.increment();
         }
     }
 
+// Segments
+
+    private ObjIdMap<Object> segment(ObjId id) {
+        return this.segments[id.hashCode() & (NUM_SEGMENTS - 1)];
+    }
+
+    private Object cacheGet(ObjId id) {
+        final ObjIdMap<Object> segment = this.segment(id);
+        synchronized (segment) {
+            return segment.get(id);
+        }
+    }
+
+    // Atomically replace the entry for id if currently mapped to oldValue; null means no entry
+    private boolean cacheReplace(ObjId id, Object oldValue, Object newValue) {
+        final ObjIdMap<Object> segment = this.segment(id);
+        synchronized (segment) {
+            if (segment.get(id) != oldValue)
+                return false;
+            if (newValue != null)
+                segment.put(id, newValue);
+            else
+                segment.remove(id);
+            return true;
+        }
+    }
+
+// Construction
+
+    private static class Construction {
+
+        final CompletableFuture<JObject> future = new CompletableFuture<>();
+    }
+
 // JObjRef
 
-    private static class JObjRef extends WeakReference<JObject> {
+    private interface JObjRef {
+
+        long getKey();
+    }
+
+    private static class WeakJObjRef extends WeakReference<JObject> implements JObjRef {
+
+        private final long id;                                  // try to be memory efficient, avoiding extra objects
+
+        WeakJObjRef(JObject jobj, ReferenceQueue<JObject> queue) {
+            super(jobj, queue);
+            this.id = jobj.getObjId().asLong();
+        }
+
+        @Override
+        public long getKey() {
+            return this.id;
+        }
+    }
+
+    private static class SoftJObjRef extends SoftReference<JObject> implements JObjRef {
 
         private final long id;                                  // try to be memory efficient, avoiding extra objects
 
-        JObjRef(JObject jobj, ReferenceQueue<JObject> queue) {
+        SoftJObjRef(JObject jobj, ReferenceQueue<JObject> queue) {
             super(jobj, queue);
             this.id = jobj.getObjId().asLong();
         }
 
-        public ObjId getObjId() {
-            return new ObjId(this.id);
+        @Override
+        public long getKey() {
+            return this.id;
         }
     }
 }
@@ -0,0 +1,94 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb;
+
+/**
+ * Statistics for the cache of {@link JObject}s associated with a {@link JTransaction}.
+ *
+ * <p>
+ * Instances are immutable.
+ *
+ * @see JTransaction#getObjectCacheStats
+ */
+public final class JObjectCacheStats {
+
+    private final JObjectRetention retention;
+    private final int size;
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+
+    JObjectCacheStats(JObjectRetention retention, int size, long hitCount, long missCount, long evictionCount) {
+        this.retention = retention;
+        this.size = size;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * Get the retention policy of the cache.
+     *
+     * @return cache retention
+     */
+    public JObjectRetention getRetention() {
+        return this.retention;
+    }
+
+    /**
+     * Get the number of entries in the cache, including entries whose {@link JObject}s have been garbage collected
+     * but not yet evicted.
+     *
+     * @return approximate cache size
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of lookups that found an existing {@link JObject}.
+     *
+     * @return number of cache hits
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Get the number of lookups that required a new {@link JObject} to be instantiated.
+     *
+     * @return number of cache misses
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Get the number of cached {@link JObject}s that were discarded after being garbage collected.
+     *
+     * <p>
+     * This is always zero for {@link JObjectRetention#STRONG} retention.
+     *
+     * @return number of cache evictions
+     */
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[retention=" + this.retention
+          + ",size=" + this.size
+          + ",hits=" + this.hitCount
+          + ",misses=" + this.missCount
+          + ",evictions=" + this.evictionCount
+          + "]";
+    }
+}
+
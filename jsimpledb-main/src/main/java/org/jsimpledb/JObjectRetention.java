@@ -0,0 +1,44 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb;
+
+/**
+ * Configures how a {@link JTransaction} retains the {@link JObject}s it has instantiated.
+ *
+ * <p>
+ * Each {@link JTransaction} caches the {@link JObject} instance associated with each {@link org.jsimpledb.core.ObjId}
+ * so that at most one instance exists per object at any time. This setting determines when a cached instance that is
+ * no longer referenced elsewhere may be discarded; if so, a new instance is created if that object is accessed again.
+ *
+ * @see JSimpleDB#setObjectRetention JSimpleDB.setObjectRetention()
+ * @see JTransaction#getObjectCacheStats
+ */
+public enum JObjectRetention {
+
+    /**
+     * Cached instances are retained only while strongly reachable elsewhere.
+     *
+     * <p>
+     * This is the default.
+     */
+    WEAK,
+
+    /**
+     * Cached instances are retained until the JVM needs to reclaim memory.
+     */
+    SOFT,
+
+    /**
+     * Cached instances are retained for the lifetime of the transaction.
+     *
+     * <p>
+     * This avoids re-instantiation overhead entirely, but memory usage will grow with the number of distinct objects
+     * accessed; it is most appropriate for short-lived transactions or for long-lived snapshot transactions
+     * whose contents are bounded.
+     */
+    STRONG;
+}
+
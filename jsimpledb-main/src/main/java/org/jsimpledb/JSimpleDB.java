@@ -137,6 +137,7 @@ public class JSimpleDB {
     final Transaction.ListenerSet[] listenerSets = new Transaction.ListenerSet[4];
 
     ValidatorFactory validatorFactory;
+    volatile JObjectRetention objectRetention = JObjectRetention.WEAK;
 
     volatile int configuredVersion;
     volatile int actualVersion;
@@ -857,6 +858,33 @@ public class JSimpleDB {
         return this.validatorFactory;
     }
 
+// Object Cache
+
+    /**
+     * Get the {@link JObjectRetention} used for the {@link JObject} caches of new transactions.
+     *
+     * @return object retention for new transactions
+     */
+    public JObjectRetention getObjectRetention() {
+        return this.objectRetention;
+    }
+
+    /**
+     * Configure how {@link JObject}s are retained by the {@link JObject} cache in transactions created after this
+     * method is invoked.
+     *
+     * <p>
+     * Default is {@link JObjectRetention#WEAK}.
+     *
+     * @param objectRetention object retention for new transactions
+     * @throws IllegalArgumentException if {@code objectRetention} is null
+     * @see JTransaction#getObjectCacheStats
+     */
+    public void setObjectRetention(JObjectRetention objectRetention) {
+        Preconditions.checkArgument(objectRetention != null, "null objectRetention");
+        this.objectRetention = objectRetention;
+    }
+
 // Misc utility
 
     /**
@@ -12,6 +12,7 @@ import java.util.Arrays;
 import javax.validation.ValidatorFactory;
 
 import org.jsimpledb.core.Database;
+import org.jsimpledb.core.ObjIdGenerator;
 import org.jsimpledb.kv.simple.SimpleKVDatabase;
 
 /**
@@ -30,6 +31,8 @@ public class JSimpleDBFactory {
     private StorageIdGenerator storageIdGenerator = new DefaultStorageIdGenerator();
     private Iterable<? extends Class<?>> modelClasses;
     private ValidatorFactory validatorFactory;
+    private JObjectRetention objectRetention = JObjectRetention.WEAK;
+    private ObjIdGenerator objIdGenerator;
 
     /**
      * Configure the Java model classes.
@@ -128,6 +131,39 @@ public class JSimpleDBFactory {
         return this;
     }
 
+    /**
+     * Configure how {@link JObject}s are retained by the {@link JObject} cache in each transaction.
+     *
+     * <p>
+     * Default is {@link JObjectRetention#WEAK}.
+     *
+     * @param objectRetention object retention
+     * @return this instance
+     * @throws IllegalArgumentException if {@code objectRetention} is null
+     * @see JSimpleDB#setObjectRetention JSimpleDB.setObjectRetention()
+     */
+    public JSimpleDBFactory setObjectRetention(JObjectRetention objectRetention) {
+        Preconditions.checkArgument(objectRetention != null, "null objectRetention");
+        this.objectRetention = objectRetention;
+        return this;
+    }
+
+    /**
+     * Configure the {@link ObjIdGenerator} used to generate the {@link org.jsimpledb.core.ObjId}s of new objects.
+     *
+     * <p>
+     * If not configured (or null), the {@link Database}'s existing {@linkplain Database#getObjIdGenerator generator}
+     * is left unchanged.
+     *
+     * @param objIdGenerator object ID generator, or null to leave the database's generator unchanged
+     * @return this instance
+     * @see Database#setObjIdGenerator Database.setObjIdGenerator()
+     */
+    public JSimpleDBFactory setObjIdGenerator(ObjIdGenerator objIdGenerator) {
+        this.objIdGenerator = objIdGenerator;
+        return this;
+    }
+
     /**
      * Construct a {@link JSimpleDB} instance using this instance's configuration.
      *
@@ -143,9 +179,12 @@ public class JSimpleDBFactory {
             if (schemaVersion1 == 0)
                 schemaVersion1 = 1;
         }
+        if (this.objIdGenerator != null)
+            database1.setObjIdGenerator(this.objIdGenerator);
         final JSimpleDB jdb = new JSimpleDB(database1, schemaVersion1, this.storageIdGenerator, this.modelClasses);
         if (this.validatorFactory != null)
             jdb.setValidatorFactory(this.validatorFactory);
+        jdb.setObjectRetention(this.objectRetention);
         return jdb;
     }
 }
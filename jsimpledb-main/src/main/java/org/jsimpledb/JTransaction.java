@@ -18,12 +18,18 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
@@ -56,6 +62,7 @@ import org.jsimpledb.core.SetField;
 import org.jsimpledb.core.SimpleField;
 import org.jsimpledb.core.StaleTransactionException;
 import org.jsimpledb.core.Transaction;
+import org.jsimpledb.core.TransactionProfile;
 import org.jsimpledb.core.TypeNotInSchemaVersionException;
 import org.jsimpledb.core.UnknownFieldException;
 import org.jsimpledb.core.VersionChangeListener;
@@ -109,6 +116,7 @@ import org.slf4j.LoggerFactory;
  * <ul>
  *  <li>{@link #validate validate()} - Validate objects in the validation queue</li>
  *  <li>{@link #resetValidationQueue} - Clear the validation queue</li>
+ *  <li>{@link #setValidationPool setValidationPool()} - Enable parallel validation</li>
  * </ul>
  *
  * <p>
@@ -201,11 +209,16 @@ public class JTransaction {
     final ReferenceConverter<JObject> referenceConverter = new ReferenceConverter<>(this, JObject.class);
 
     private final ValidationMode validationMode;
-    @GuardedBy("this")
+    // The validation queue and snapshot transaction have their own locks so that parallel validation worker threads
+    // can access them (e.g., to requeue an object modified by an @OnValidate method) while commit() holds our monitor
+    @GuardedBy("validationQueue")
     private final ObjIdMap<Class<?>[]> validationQueue = new ObjIdMap<>();  // maps object -> groups for pending validation
-    private final JObjectCache jobjectCache = new JObjectCache(this);
-
+    private final JObjectCache jobjectCache;
     @GuardedBy("this")
+    private ForkJoinPool validationPool;
+
+    private final Object snapshotLock = new Object();
+    @GuardedBy("snapshotLock")
     private SnapshotJTransaction snapshotTransaction;
     @GuardedBy("this")
     private boolean commitInvoked;
@@ -226,6 +239,7 @@ public class JTransaction {
         this.jdb = jdb;
         this.tx = tx;
         this.validationMode = validationMode;
+        this.jobjectCache = new JObjectCache(this, jdb.getObjectRetention());
 
         // Set back-reference
         tx.setUserObject(this);
@@ -323,6 +337,19 @@ public class JTransaction {
         return this.tx;
     }
 
+    /**
+     * Get the profile of key/value store accesses made by this transaction.
+     *
+     * <p>
+     * Convenience method, equivalent to {@code getTransaction().getProfile()}.
+     *
+     * @return key/value access profile, or null if {@linkplain org.jsimpledb.core.Database#setTransactionProfiling profiling}
+     *  was not enabled when this transaction was created
+     */
+    public TransactionProfile getProfile() {
+        return this.tx.getProfile();
+    }
+
     /**
      * Get the {@link ValidationMode} configured for this instance.
      *
@@ -332,6 +359,49 @@ public class JTransaction {
         return this.validationMode;
     }
 
+    /**
+     * Get statistics for the cache of {@link JObject}s instantiated by this transaction.
+     *
+     * @return current {@link JObject} cache statistics
+     * @see JSimpleDB#setObjectRetention JSimpleDB.setObjectRetention()
+     */
+    public JObjectCacheStats getObjectCacheStats() {
+        return this.jobjectCache.getStats();
+    }
+
+    /**
+     * Get the {@link ForkJoinPool} used for parallel validation, if any.
+     *
+     * @return pool used for parallel validation, or null if validation is performed serially
+     * @see #setValidationPool setValidationPool()
+     */
+    public synchronized ForkJoinPool getValidationPool() {
+        return this.validationPool;
+    }
+
+    /**
+     * Configure parallel validation.
+     *
+     * <p>
+     * By default, {@link #validate} validates the objects in the validation queue one at a time in the current thread.
+     * When a {@link ForkJoinPool} is configured, the validation queue is instead validated in batches: JSR 303 validation
+     * and {@link org.jsimpledb.annotation.OnValidate &#64;OnValidate} methods are invoked concurrently in {@code pool},
+     * with this transaction set as the {@linkplain #getCurrent current transaction} in each worker thread, and uniqueness
+     * constraint index lookups are batched by field. This can substantially reduce commit time for transactions that
+     * modify a large number of objects.
+     *
+     * <p>
+     * Error reporting is deterministic: if one or more objects in a batch fail validation, the {@link ValidationException}
+     * for the object having the lowest {@link ObjId} is thrown, and all subsequent objects in the batch are left on
+     * the validation queue. Note, however, that validation constraints and {@link org.jsimpledb.annotation.OnValidate
+     * &#64;OnValidate} methods must be safe to invoke from multiple threads at once when parallel validation is enabled.
+     *
+     * @param pool pool in which to perform validation, or null to validate serially (the default)
+     */
+    public synchronized void setValidationPool(ForkJoinPool pool) {
+        this.validationPool = pool;
+    }
+
     /**
      * Get all instances of the given type.
      *
@@ -449,10 +519,12 @@ public class JTransaction {
      * @return the associated snapshot transaction
      * @see JObject#copyOut JObject.copyOut()
      */
-    public synchronized SnapshotJTransaction getSnapshotTransaction() {
-        if (this.snapshotTransaction == null)
-            this.snapshotTransaction = this.createSnapshotTransaction(ValidationMode.MANUAL);
-        return this.snapshotTransaction;
+    public SnapshotJTransaction getSnapshotTransaction() {
+        synchronized (this.snapshotLock) {
+            if (this.snapshotTransaction == null)
+                this.snapshotTransaction = this.createSnapshotTransaction(ValidationMode.MANUAL);
+            return this.snapshotTransaction;
+        }
     }
 
     /**
@@ -849,7 +921,7 @@ public class JTransaction {
 
         // Remove object from validation queue if enqueued
         if (deleted) {
-            synchronized (this) {
+            synchronized (this.validationQueue) {
                 this.validationQueue.remove(id);
             }
         }
@@ -921,13 +993,15 @@ public class JTransaction {
      * @throws StaleTransactionException if this transaction is no longer usable
      * @throws IllegalStateException if transaction commit is already in progress
      */
-    public synchronized void resetValidationQueue() {
+    public void resetValidationQueue() {
         if (!this.tx.isValid())
             throw new StaleTransactionException(this.tx);
-        this.validationQueue.clear();
+        synchronized (this.validationQueue) {
+            this.validationQueue.clear();
+        }
     }
 
-    private synchronized void revalidate(Collection<? extends ObjId> ids, Class<?>... groups) {
+    private void revalidate(Collection<? extends ObjId> ids, Class<?>... groups) {
 
         // Sanity checks
         if (!this.tx.isValid())
@@ -943,17 +1017,19 @@ public class JTransaction {
             groups = DEFAULT_CLASS_ARRAY;
 
         // Add to queue
-        for (ObjId id : ids) {
-            final Class<?>[] existingGroups = this.validationQueue.get(id);
-            if (existingGroups == null) {
-                this.validationQueue.put(id, groups);
-                continue;
+        synchronized (this.validationQueue) {
+            for (ObjId id : ids) {
+                final Class<?>[] existingGroups = this.validationQueue.get(id);
+                if (existingGroups == null) {
+                    this.validationQueue.put(id, groups);
+                    continue;
+                }
+                if (existingGroups == groups)                                   // i.e., both are DEFAULT_CLASS_ARRAY
+                    continue;
+                final HashSet<Class<?>> newGroups = new HashSet<>(Arrays.asList(existingGroups));
+                newGroups.addAll(Arrays.asList(groups));
+                this.validationQueue.put(id, newGroups.toArray(new Class<?>[newGroups.size()]));
             }
-            if (existingGroups == groups)                                       // i.e., both are DEFAULT_CLASS_ARRAY
-                continue;
-            final HashSet<Class<?>> newGroups = new HashSet<>(Arrays.asList(existingGroups));
-            newGroups.addAll(Arrays.asList(groups));
-            this.validationQueue.put(id, newGroups.toArray(new Class<?>[newGroups.size()]));
         }
     }
 
@@ -1537,16 +1613,20 @@ public class JTransaction {
 
 // Internal methods
 
-    @SuppressWarnings("unchecked")
     private void doValidate() {
         final ValidatorFactory validatorFactory = this.jdb.getValidatorFactory();
         final Validator validator = validatorFactory != null ? validatorFactory.getValidator() : null;
+        final ForkJoinPool pool = this.getValidationPool();
+        if (pool != null) {
+            this.doValidateParallel(pool, validator);
+            return;
+        }
         while (true) {
 
             // Pop next object to validate off the queue
             final ObjId id;
             final Class<?>[] validationGroups;
-            synchronized (this) {
+            synchronized (this.validationQueue) {
                 final Map.Entry<ObjId, Class<?>[]> entry = this.validationQueue.removeOne();
                 if (entry == null)
                     return;
@@ -1566,68 +1646,312 @@ public class JTransaction {
             if (jclass == null)
                 return;
 
-            // Do JSR 303 validation if needed
-            if (validator != null) {
-                final Set<ConstraintViolation<JObject>> violations;
-                try {
-                    violations = new ValidationContext<JObject>(jobj, validationGroups).validate(validator);
-                } catch (RuntimeException e) {
-                    final Throwable rootCause = Throwables.getRootCause(e);
-                    if (rootCause instanceof KVDatabaseException)
-                        throw (KVDatabaseException)rootCause;
-                    throw e;
-                }
-                if (!violations.isEmpty()) {
-                    throw new ValidationException(jobj, violations, "validation error for object " + id + " of type `"
-                      + this.jdb.jclasses.get(id.getStorageId()).name + "':\n" + ValidationUtil.describe(violations));
-                }
-            }
-
-            // Do @OnValidate method validation
-            for (OnValidateScanner<?>.MethodInfo info : jclass.onValidateMethods) {
-                Class<?>[] methodGroups = info.getAnnotation().groups();
-                if (methodGroups.length == 0)
-                    methodGroups = DEFAULT_CLASS_ARRAY;
-                if (Util.isAnyGroupBeingValidated(methodGroups, validationGroups))
-                    Util.invoke(info.getMethod(), jobj);
-            }
+            // Do JSR 303 and @OnValidate method validation
+            this.doValidate(validator, jobj, jclass, validationGroups);
 
             // Do uniqueness validation
-            if (!jclass.uniqueConstraintFields.isEmpty()
-              && Util.isAnyGroupBeingValidated(DEFAULT_AND_UNIQUENESS_CLASS_ARRAY, validationGroups)) {
+            if (this.requiresUniquenessValidation(jclass, validationGroups)) {
                 for (JSimpleField jfield : jclass.uniqueConstraintFields) {
-                    assert jfield.indexed;
-                    assert jfield.unique;
 
                     // Get field's (core API) value
                     final Object value = this.tx.readSimpleField(id, jfield.storageId, false);
 
                     // Compare to excluded value list
-                    if (jfield.uniqueExcludes != null
-                      && Collections.binarySearch(jfield.uniqueExcludes, value, (Comparator<Object>)jfield.fieldType) >= 0)
+                    if (JTransaction.isUniqueExcluded(jfield, value))
                         continue;
 
-                    // Query core API index to find other objects with the same value in the field, but restrict the search to
-                    // only include those types having the annotated method, not some other method with the same name/storage ID.
-                    final IndexQueryInfo info = this.jdb.getIndexQueryInfo(new IndexQueryInfoKey(jfield.name,
-                      false, jfield.getter.getDeclaringClass(), jfield.typeToken.wrap().getRawType()));
-                    final CoreIndex<?, ObjId> index = info.applyFilters(this.tx.queryIndex(jfield.storageId));
-
                     // Seach for other objects with the same value in the field and report violation if any are found
                     final ArrayList<ObjId> conflictors = new ArrayList<>(MAX_UNIQUE_CONFLICTORS);
-                    for (ObjId conflictor : index.asMap().get(value)) {
+                    for (ObjId conflictor : this.queryUniqueIndex(jfield).asMap().get(value)) {
                         if (conflictor.equals(id))                          // ignore jobj's own index entry
                             continue;
                         conflictors.add(conflictor);
                         if (conflictors.size() >= MAX_UNIQUE_CONFLICTORS)
                             break;
                     }
-                    if (!conflictors.isEmpty()) {
-                        throw new ValidationException(jobj, "uniqueness constraint on " + jfield + " failed for object "
-                          + id + ": field value " + value + " is also shared by object(s) " + conflictors);
+                    if (!conflictors.isEmpty())
+                        throw this.uniquenessViolation(jobj, jfield, value, conflictors);
+                }
+            }
+        }
+    }
+
+    // Do JSR 303 and @OnValidate method validation
+    private void doValidate(Validator validator, JObject jobj, JClass<?> jclass, Class<?>[] validationGroups) {
+
+        // Do JSR 303 validation if needed
+        if (validator != null) {
+            final Set<ConstraintViolation<JObject>> violations;
+            try {
+                violations = new ValidationContext<JObject>(jobj, validationGroups).validate(validator);
+            } catch (RuntimeException e) {
+                final Throwable rootCause = Throwables.getRootCause(e);
+                if (rootCause instanceof KVDatabaseException)
+                    throw (KVDatabaseException)rootCause;
+                throw e;
+            }
+            if (!violations.isEmpty()) {
+                throw new ValidationException(jobj, violations, "validation error for object " + jobj.getObjId() + " of type `"
+                  + jclass.name + "':\n" + ValidationUtil.describe(violations));
+            }
+        }
+
+        // Do @OnValidate method validation
+        for (OnValidateScanner<?>.MethodInfo info : jclass.onValidateMethods) {
+            Class<?>[] methodGroups = info.getAnnotation().groups();
+            if (methodGroups.length == 0)
+                methodGroups = DEFAULT_CLASS_ARRAY;
+            if (Util.isAnyGroupBeingValidated(methodGroups, validationGroups))
+                Util.invoke(info.getMethod(), jobj);
+        }
+    }
+
+    private boolean requiresUniquenessValidation(JClass<?> jclass, Class<?>[] validationGroups) {
+        return !jclass.uniqueConstraintFields.isEmpty()
+          && Util.isAnyGroupBeingValidated(DEFAULT_AND_UNIQUENESS_CLASS_ARRAY, validationGroups);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isUniqueExcluded(JSimpleField jfield, Object value) {
+        assert jfield.indexed;
+        assert jfield.unique;
+        return jfield.uniqueExcludes != null
+          && Collections.binarySearch(jfield.uniqueExcludes, value, (Comparator<Object>)jfield.fieldType) >= 0;
+    }
+
+    // Query core API index to find objects with a given value in the field, but restrict the search to
+    // only include those types having the annotated method, not some other method with the same name/storage ID.
+    private CoreIndex<?, ObjId> queryUniqueIndex(JSimpleField jfield) {
+        final IndexQueryInfo info = this.jdb.getIndexQueryInfo(new IndexQueryInfoKey(jfield.name,
+          false, jfield.getter.getDeclaringClass(), jfield.typeToken.wrap().getRawType()));
+        return info.applyFilters(this.tx.queryIndex(jfield.storageId));
+    }
+
+    private ValidationException uniquenessViolation(JObject jobj, JSimpleField jfield, Object value, List<ObjId> conflictors) {
+        return new ValidationException(jobj, "uniqueness constraint on " + jfield + " failed for object "
+          + jobj.getObjId() + ": field value " + value + " is also shared by object(s) " + conflictors);
+    }
+
+// Parallel Validation
+
+    /**
+     * Validate the validation queue in batches using the given {@link ForkJoinPool}.
+     *
+     * <p>
+     * Each batch contains the entire contents of the validation queue, sorted by object ID. JSR 303 and
+     * {@link org.jsimpledb.annotation.OnValidate &#64;OnValidate} validation is performed concurrently, followed by
+     * uniqueness validation in which index lookups are batched by field.
+     * If any object fails, the exception for the failed object having the lowest object ID is thrown, and all objects
+     * after it in the batch are put back on the validation queue; this makes the outcome identical to validating the
+     * batch serially in object ID order.
+     */
+    private void doValidateParallel(ForkJoinPool pool, Validator validator) {
+        while (true) {
+
+            // Drain the queue into the next batch
+            final ObjId[] ids;
+            final Class<?>[][] groups;
+            synchronized (this.validationQueue) {
+                if (this.validationQueue.isEmpty())
+                    return;
+                ids = this.validationQueue.keySet().toArray(new ObjId[this.validationQueue.size()]);
+                Arrays.sort(ids);
+                groups = new Class<?>[ids.length][];
+                for (int i = 0; i < ids.length; i++)
+                    groups[i] = this.validationQueue.get(ids[i]);
+                this.validationQueue.clear();
+            }
+            final ValidationBatch batch = new ValidationBatch(validator, ids, groups);
+
+            // Do JSR 303 and @OnValidate method validation
+            final int threshold = Math.max(1, ids.length / (pool.getParallelism() * 4));
+            pool.invoke(new ValidateTask(batch, 0, ids.length, threshold));
+
+            // Do uniqueness validation, batching index lookups by field
+            final LinkedHashMap<JSimpleField, UniqueFieldBatch> fieldBatches = new LinkedHashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                final JObject jobj = batch.uniqueCheckObjects[i];
+                if (jobj == null)
+                    continue;
+                for (JSimpleField jfield : this.jdb.jclasses.get(ids[i].getStorageId()).uniqueConstraintFields)
+                    fieldBatches.computeIfAbsent(jfield, UniqueFieldBatch::new).indexes.add(i);
+            }
+            if (!fieldBatches.isEmpty()) {
+                final ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(fieldBatches.size());
+                for (UniqueFieldBatch fieldBatch : fieldBatches.values())
+                    tasks.add(ForkJoinTask.adapt(() -> this.performAction(() -> fieldBatch.lookup(batch))));
+                pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+                for (int i = 0; i < ids.length; i++) {
+                    final JObject jobj = batch.uniqueCheckObjects[i];
+                    if (jobj == null || batch.failures[i] != null)
+                        continue;
+                    for (JSimpleField jfield : this.jdb.jclasses.get(ids[i].getStorageId()).uniqueConstraintFields) {
+                        final ValidationException failure = fieldBatches.get(jfield).check(jobj, i);
+                        if (failure != null) {
+                            batch.failures[i] = failure;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            // Report the first failure, if any, leaving the remainder of the batch on the validation queue
+            for (int i = 0; i < ids.length; i++) {
+                final RuntimeException failure = batch.failures[i];
+                if (failure == null)
+                    continue;
+                for (int j = i + 1; j < ids.length; j++)
+                    this.revalidate(Collections.singleton(ids[j]), groups[j]);
+                throw failure;
+            }
+        }
+    }
+
+    // One batch of objects being validated in parallel
+    private static class ValidationBatch {
+
+        final Validator validator;
+        final ObjId[] ids;
+        final Class<?>[][] groups;
+        final RuntimeException[] failures;
+        final JObject[] uniqueCheckObjects;                 // non-null for objects requiring uniqueness validation
+
+        ValidationBatch(Validator validator, ObjId[] ids, Class<?>[][] groups) {
+            this.validator = validator;
+            this.ids = ids;
+            this.groups = groups;
+            this.failures = new RuntimeException[ids.length];
+            this.uniqueCheckObjects = new JObject[ids.length];
+        }
+    }
+
+    // Performs JSR 303 and @OnValidate method validation on a range of objects in a batch
+    @SuppressWarnings("serial")
+    private class ValidateTask extends RecursiveAction {
+
+        private final ValidationBatch batch;
+        private final int min;
+        private final int max;
+        private final int threshold;
+
+        ValidateTask(ValidationBatch batch, int min, int max, int threshold) {
+            this.batch = batch;
+            this.min = min;
+            this.max = max;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.max - this.min > this.threshold) {
+                final int mid = (this.min + this.max) >>> 1;
+                ForkJoinTask.invokeAll(new ValidateTask(this.batch, this.min, mid, this.threshold),
+                  new ValidateTask(this.batch, mid, this.max, this.threshold));
+                return;
+            }
+            JTransaction.this.performAction(() -> {
+                for (int i = this.min; i < this.max; i++) {
+                    try {
+                        this.validate(i);
+                    } catch (RuntimeException e) {
+                        this.batch.failures[i] = e;
                     }
                 }
+            });
+        }
+
+        private void validate(int i) {
+            final ObjId id = this.batch.ids[i];
+            final Class<?>[] validationGroups = this.batch.groups[i];
+
+            // Does it still exist?
+            if (!JTransaction.this.tx.exists(id))
+                return;
+
+            // Get object and verify type exists in current schema (if not, the remaining validation is unneccessary)
+            final JObject jobj = JTransaction.this.get(id);
+            final JClass<?> jclass = JTransaction.this.jdb.jclasses.get(id.getStorageId());
+            if (jclass == null)
+                return;
+
+            // Do JSR 303 and @OnValidate method validation
+            JTransaction.this.doValidate(this.batch.validator, jobj, jclass, validationGroups);
+
+            // Uniqueness validation happens later
+            if (JTransaction.this.requiresUniquenessValidation(jclass, validationGroups))
+                this.batch.uniqueCheckObjects[i] = jobj;
+        }
+    }
+
+    // Performs the uniqueness index lookups for one field for all objects in a batch
+    private class UniqueFieldBatch {
+
+        final JSimpleField jfield;
+        final ArrayList<Integer> indexes = new ArrayList<>();
+        final HashMap<Integer, Object> values = new HashMap<>();
+        final TreeMap<Object, List<ObjId>> matches;
+
+        @SuppressWarnings("unchecked")
+        UniqueFieldBatch(JSimpleField jfield) {
+            this.jfield = jfield;
+            this.matches = new TreeMap<>((Comparator<Object>)jfield.fieldType);
+        }
+
+        // Read field values and find all objects sharing each distinct value, using a single scan of the index
+        @SuppressWarnings("unchecked")
+        void lookup(ValidationBatch batch) {
+            for (int i : this.indexes) {
+                final RuntimeException failure;
+                try {
+                    final Object value = JTransaction.this.tx.readSimpleField(batch.ids[i], this.jfield.storageId, false);
+                    if (JTransaction.isUniqueExcluded(this.jfield, value))
+                        continue;
+                    this.values.put(i, value);
+                    continue;
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                synchronized (batch) {
+                    if (batch.failures[i] == null)
+                        batch.failures[i] = failure;
+                }
+            }
+            if (this.values.isEmpty())
+                return;
+            for (Object value : this.values.values())
+                this.matches.computeIfAbsent(value, v -> new ArrayList<>(MAX_UNIQUE_CONFLICTORS + 1));
+
+            // Scan the index over the range spanning all of the (sorted) values, picking out the entries for those values
+            final NavigableMap<Object, NavigableSet<ObjId>> indexMap
+              = (NavigableMap<Object, NavigableSet<ObjId>>)JTransaction.this.queryUniqueIndex(this.jfield).asMap();
+            final NavigableMap<Object, NavigableSet<ObjId>> range
+              = indexMap.subMap(this.matches.firstKey(), true, this.matches.lastKey(), true);
+            for (Map.Entry<Object, NavigableSet<ObjId>> entry : range.entrySet()) {
+                final List<ObjId> list = this.matches.get(entry.getKey());
+                if (list == null)
+                    continue;
+                for (ObjId obj : entry.getValue()) {
+                    list.add(obj);
+                    if (list.size() > MAX_UNIQUE_CONFLICTORS)           // one extra, in case it's the object itself
+                        break;
+                }
+            }
+        }
+
+        // Check whether the object at the given batch index is in violation
+        ValidationException check(JObject jobj, int i) {
+            if (!this.values.containsKey(i))
+                return null;
+            final Object value = this.values.get(i);
+            final ArrayList<ObjId> conflictors = new ArrayList<>(MAX_UNIQUE_CONFLICTORS);
+            for (ObjId conflictor : this.matches.get(value)) {
+                if (conflictor.equals(jobj.getObjId()))             // ignore jobj's own index entry
+                    continue;
+                conflictors.add(conflictor);
+                if (conflictors.size() >= MAX_UNIQUE_CONFLICTORS)
+                    break;
             }
+            return !conflictors.isEmpty() ? JTransaction.this.uniquenessViolation(jobj, this.jfield, value, conflictors) : null;
         }
     }
 
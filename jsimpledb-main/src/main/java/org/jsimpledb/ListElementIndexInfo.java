@@ -15,13 +15,19 @@ import org.jsimpledb.core.Transaction;
  */
 class ListElementIndexInfo extends ComplexSubFieldIndexInfo {
 
+    private final boolean sparse;
+
     ListElementIndexInfo(JListField jfield) {
         super(jfield.elementField);
+        this.sparse = jfield.sparse;
     }
 
+    // Sparse list element index entries contain positions instead of list indexes, so only the simple index is available
     @Override
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public Object toIndex(JTransaction jtx) {
+        if (this.sparse)
+            return super.toIndex(jtx);
         return new ConvertedIndex2(jtx.tx.queryListElementIndex(this.storageId),
           this.getConverter(jtx), jtx.referenceConverter, Converter.identity());
     }
@@ -30,5 +36,27 @@ class ListElementIndexInfo extends ComplexSubFieldIndexInfo {
     protected Iterable<?> iterateReferences(Transaction tx, ObjId id) {
         return tx.readListField(id, this.getParentStorageId(), false);
     }
+
+// Object
+
+    @Override
+    protected String toStringPrefix() {
+        return super.toStringPrefix() + (this.sparse ? ",sparse" : "");
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        final ListElementIndexInfo that = (ListElementIndexInfo)obj;
+        return this.sparse == that.sparse;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode() ^ (this.sparse ? 1 : 0);
+    }
 }
 
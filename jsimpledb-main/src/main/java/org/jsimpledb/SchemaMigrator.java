@@ -0,0 +1,494 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.jsimpledb.core.DeletedObjectException;
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.core.TypeNotInSchemaVersionException;
+import org.jsimpledb.kv.RetryTransactionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Upgrades database objects to the current schema version in the background.
+ *
+ * <p>
+ * JSimpleDB normally upgrades an object's schema version lazily, i.e., when the object is first accessed in a transaction
+ * whose schema version differs from the object's. That means objects that are rarely accessed may linger in old schema
+ * versions indefinitely, and the cost of upgrading is borne by whatever transaction happens to touch them first.
+ * This class walks the {@linkplain org.jsimpledb.core.Transaction#queryVersion object version index} and
+ * {@linkplain JTransaction#updateSchemaVersion upgrades} objects having other schema versions in a sequence of
+ * small transactions, each of which upgrades at most {@linkplain #setBatchSize batch size} objects. As with lazy
+ * upgrades, any {@link org.jsimpledb.annotation.OnVersionChange &#64;OnVersionChange} methods are invoked.
+ *
+ * <p>
+ * To avoid competing with foreground transactions, batches are separated by a {@linkplain #setBatchDelay delay},
+ * and when a batch fails with a {@link RetryTransactionException}, the delay is doubled (up to a limit) until
+ * a batch succeeds again.
+ *
+ * <p>
+ * No separate migration state is stored: the object version index itself records which objects still need upgrading.
+ * Therefore, migration resumes where it left off if this instance (or the whole process) is restarted.
+ * Objects that cannot be upgraded, e.g., because their type does not exist in the current schema, an
+ * {@link org.jsimpledb.annotation.OnVersionChange &#64;OnVersionChange} method throws an exception, or the upgraded
+ * object fails validation, are skipped (and logged) for the lifetime of this instance.
+ *
+ * <p>
+ * Instances may be {@linkplain #start started} to run in a background thread, which stops automatically when no
+ * objects remain to be upgraded; or, {@link #migrateBatch} may be invoked directly.
+ *
+ * <p>
+ * Instances are thread safe.
+ */
+@ThreadSafe
+public class SchemaMigrator {
+
+    /**
+     * Default batch size ({@value #DEFAULT_BATCH_SIZE}).
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Default batch delay in milliseconds ({@value #DEFAULT_BATCH_DELAY}).
+     */
+    public static final long DEFAULT_BATCH_DELAY = 100;
+
+    /**
+     * Maximum factor by which the batch delay is increased after retries ({@value #MAX_BACKOFF}).
+     */
+    public static final int MAX_BACKOFF = 64;
+
+    protected final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final JSimpleDB jdb;
+    private final AtomicLong migrated = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long batchDelay = DEFAULT_BATCH_DELAY;
+    private volatile ValidationMode validationMode = ValidationMode.AUTOMATIC;
+    private volatile boolean complete;
+
+    @GuardedBy("this")
+    private final HashSet<ObjId> skipped = new HashSet<>();
+    @GuardedBy("this")
+    private final TreeMap<Integer, ObjId> resumePoints = new TreeMap<>();
+    @GuardedBy("this")
+    private ScheduledExecutorService executor;
+    @GuardedBy("this")
+    private int backoff = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param jdb database
+     * @throws IllegalArgumentException if {@code jdb} is null
+     */
+    public SchemaMigrator(JSimpleDB jdb) {
+        Preconditions.checkArgument(jdb != null, "null jdb");
+        this.jdb = jdb;
+    }
+
+// Configuration
+
+    /**
+     * Get the maximum number of objects upgraded per transaction.
+     *
+     * @return batch size
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Set the maximum number of objects upgraded per transaction.
+     *
+     * <p>
+     * Default is {@value #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize batch size
+     * @throws IllegalArgumentException if {@code batchSize} is not positive
+     */
+    public void setBatchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0, "batchSize <= 0");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Get the delay between batches when running in the background.
+     *
+     * @return batch delay in milliseconds
+     */
+    public long getBatchDelay() {
+        return this.batchDelay;
+    }
+
+    /**
+     * Set the delay between batches when running in the background.
+     *
+     * <p>
+     * Default is {@value #DEFAULT_BATCH_DELAY}.
+     *
+     * @param batchDelay batch delay in milliseconds
+     * @throws IllegalArgumentException if {@code batchDelay} is negative
+     */
+    public void setBatchDelay(long batchDelay) {
+        Preconditions.checkArgument(batchDelay >= 0, "batchDelay < 0");
+        this.batchDelay = batchDelay;
+    }
+
+    /**
+     * Get the {@link ValidationMode} used for migration transactions.
+     *
+     * @return validation mode
+     */
+    public ValidationMode getValidationMode() {
+        return this.validationMode;
+    }
+
+    /**
+     * Set the {@link ValidationMode} used for migration transactions.
+     *
+     * <p>
+     * Default is {@link ValidationMode#AUTOMATIC}.
+     *
+     * @param validationMode validation mode
+     * @throws IllegalArgumentException if {@code validationMode} is null
+     */
+    public void setValidationMode(ValidationMode validationMode) {
+        Preconditions.checkArgument(validationMode != null, "null validationMode");
+        this.validationMode = validationMode;
+    }
+
+// Progress
+
+    /**
+     * Get the number of objects upgraded by this instance.
+     *
+     * @return number of objects upgraded
+     */
+    public long getMigrated() {
+        return this.migrated.get();
+    }
+
+    /**
+     * Get the number of batches successfully committed by this instance.
+     *
+     * @return number of batches
+     */
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    /**
+     * Get the number of batches that failed with a {@link RetryTransactionException}.
+     *
+     * @return number of retried batches
+     */
+    public long getRetries() {
+        return this.retries.get();
+    }
+
+    /**
+     * Get the number of objects that could not be upgraded and are being skipped.
+     *
+     * @return number of skipped objects
+     */
+    public synchronized int getSkipped() {
+        return this.skipped.size();
+    }
+
+    /**
+     * Determine whether the most recent batch found no more objects to upgrade (other than skipped objects).
+     *
+     * @return true if migration is complete
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * Count the objects in each schema version other than the current one.
+     *
+     * <p>
+     * This scans the entire object version index for those versions in a new transaction, so it may be slow
+     * when many objects remain.
+     *
+     * @return mapping from schema version to number of objects having that version
+     */
+    public Map<Integer, Long> countRemaining() {
+        final JTransaction jtx = this.jdb.createTransaction(false, ValidationMode.DISABLED);
+        try {
+            final int currentVersion = jtx.getTransaction().getSchema().getVersionNumber();
+            final TreeMap<Integer, Long> counts = new TreeMap<>();
+            for (Map.Entry<Integer, NavigableSet<ObjId>> entry : jtx.getTransaction().queryVersion().asMap().entrySet()) {
+                if (entry.getKey() != currentVersion)
+                    counts.put(entry.getKey(), (long)entry.getValue().size());
+            }
+            return counts;
+        } finally {
+            jtx.rollback();
+        }
+    }
+
+// Lifecycle
+
+    /**
+     * Start migrating objects in a background thread.
+     *
+     * <p>
+     * Does nothing if already started.
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (this.executor != null)
+            return;
+        this.complete = false;
+        this.backoff = 1;
+        this.executor = Executors.newSingleThreadScheduledExecutor(action -> {
+            final Thread thread = new Thread(action);
+            thread.setName("SchemaMigrator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.execute(this::runBatch);
+    }
+
+    /**
+     * Stop migrating objects in the background, waiting for any batch in progress to complete.
+     *
+     * <p>
+     * Does nothing if not started.
+     */
+    @PreDestroy
+    public void stop() {
+        final ScheduledExecutorService executorToStop;
+        synchronized (this) {
+            if ((executorToStop = this.executor) == null)
+                return;
+            this.executor = null;
+        }
+        executorToStop.shutdownNow();
+        try {
+            executorToStop.awaitTermination(1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Determine whether this instance is currently migrating objects in the background.
+     *
+     * @return true if the background thread is running
+     */
+    public synchronized boolean isRunning() {
+        return this.executor != null;
+    }
+
+// Migration
+
+    /**
+     * Upgrade up to {@linkplain #getBatchSize batch size} objects to the current schema version in a single transaction.
+     *
+     * <p>
+     * If the transaction fails for any reason other than a {@link RetryTransactionException}, e.g., an
+     * {@link org.jsimpledb.annotation.OnVersionChange &#64;OnVersionChange} method throws an exception or an upgraded
+     * object fails validation at commit time, each object in the batch is retried in its own transaction,
+     * and the objects that still fail are skipped.
+     *
+     * <p>
+     * Each batch resumes the object version index scan where the previous successful batch left off, so skipped
+     * objects are not re-read by every batch. When the end of the index is reached, the scan restarts from the beginning,
+     * picking up any objects created in other schema versions in the meantime.
+     *
+     * @return the number of objects upgraded, which can be zero even when other objects remain
+     *  (e.g., if every object in the batch was skipped); use {@link #isComplete} to determine whether any objects remain
+     * @throws RetryTransactionException if a transaction could not be committed due to a conflict
+     */
+    public int migrateBatch() {
+
+        // Upgrade the next batch of objects
+        final ArrayList<ObjId> ids = new ArrayList<>();
+        final TreeMap<Integer, ObjId> resume;
+        synchronized (this) {
+            resume = new TreeMap<>(this.resumePoints);
+        }
+        int count;
+        try {
+            count = this.upgrade(ids, resume);
+        } catch (RetryTransactionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            if (ids.isEmpty())
+                throw e;
+
+            // Isolate the object(s) causing the failure by upgrading each object in its own transaction
+            if (this.log.isDebugEnabled())
+                this.log.debug("schema migrator batch of " + ids.size() + " object(s) failed, retrying individually: " + e);
+            count = 0;
+            for (ObjId id : ids) {
+                try {
+                    count += this.upgrade(new ArrayList<>(Collections.singleton(id)), null);
+                } catch (RetryTransactionException e2) {
+                    this.migrated.addAndGet(count);
+                    throw e2;
+                } catch (RuntimeException e2) {
+                    this.skip(id, e2);
+                }
+            }
+        }
+
+        // Update progress
+        synchronized (this) {
+            this.resumePoints.clear();
+            this.resumePoints.putAll(resume);
+        }
+        this.migrated.addAndGet(count);
+        this.batches.incrementAndGet();
+        this.complete = ids.isEmpty();
+        return count;
+    }
+
+    /**
+     * Upgrade objects in a single transaction.
+     *
+     * @param ids the objects to upgrade; if {@code resume} is not null, this must be empty and is filled in with the next batch
+     * @param resume per-version scan resume points, or null to just upgrade {@code ids}; updated to reflect the new batch
+     * @return the number of objects upgraded
+     */
+    private int upgrade(List<ObjId> ids, TreeMap<Integer, ObjId> resume) {
+        final JTransaction jtx = this.jdb.createTransaction(false, this.validationMode);
+        JTransaction.setCurrent(jtx);
+        try {
+            if (resume != null) {
+                this.findBatch(jtx, ids, resume);
+                if (ids.isEmpty() && !resume.isEmpty()) {                 // reached the end, start over from the beginning
+                    resume.clear();
+                    this.findBatch(jtx, ids, resume);
+                }
+            }
+            int count = 0;
+            for (ObjId id : ids) {
+                try {
+                    if (jtx.updateSchemaVersion(jtx.get(id)))
+                        count++;
+                } catch (TypeNotInSchemaVersionException e) {
+                    this.skip(id, e);
+                } catch (DeletedObjectException e) {
+                    continue;
+                }
+            }
+            jtx.commit();
+            return count;
+        } finally {
+            jtx.rollback();
+            JTransaction.setCurrent(null);
+        }
+    }
+
+    // Find up to batch size objects needing an upgrade, starting after the given resume points, which are updated
+    private void findBatch(JTransaction jtx, List<ObjId> ids, TreeMap<Integer, ObjId> resume) {
+        final HashSet<ObjId> skipSet;
+        synchronized (this) {
+            skipSet = new HashSet<>(this.skipped);
+        }
+        final int currentVersion = jtx.getTransaction().getSchema().getVersionNumber();
+        final int limit = this.batchSize;
+        for (Map.Entry<Integer, NavigableSet<ObjId>> entry : jtx.getTransaction().queryVersion().asMap().entrySet()) {
+            final int version = entry.getKey();
+            if (version == currentVersion)
+                continue;
+            final ObjId after = resume.get(version);
+            for (ObjId id : after != null ? entry.getValue().tailSet(after, false) : entry.getValue()) {
+                resume.put(version, id);
+                if (skipSet.contains(id))
+                    continue;
+                ids.add(id);
+                if (ids.size() >= limit)
+                    return;
+            }
+        }
+    }
+
+    private synchronized void skip(ObjId id, Exception e) {
+        if (this.skipped.add(id))
+            this.log.warn("schema migrator skipping object " + id + " which cannot be upgraded: " + e);
+    }
+
+    private void runBatch() {
+        long delay = this.batchDelay;
+        try {
+            this.migrateBatch();
+            if (this.complete) {
+                this.log.info("schema migration complete: " + this.migrated.get() + " object(s) upgraded, "
+                  + this.getSkipped() + " skipped");
+                synchronized (this) {
+                    if (this.executor != null) {
+                        this.executor.shutdown();
+                        this.executor = null;
+                    }
+                }
+                return;
+            }
+            synchronized (this) {
+                this.backoff = 1;
+            }
+            if (this.log.isDebugEnabled())
+                this.log.debug("schema migrator has upgraded " + this.migrated.get() + " object(s)");
+        } catch (RetryTransactionException e) {
+            this.retries.incrementAndGet();
+            synchronized (this) {
+                this.backoff = Math.min(this.backoff * 2, MAX_BACKOFF);
+                delay *= this.backoff;
+            }
+            if (this.log.isDebugEnabled())
+                this.log.debug("schema migrator batch conflicted, retrying in " + delay + "ms: " + e.getMessage());
+        } catch (RuntimeException e) {
+            this.log.error("schema migrator batch failed", e);
+        }
+
+        // Schedule next batch
+        synchronized (this) {
+            if (this.executor != null)
+                this.executor.schedule(this::runBatch, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[migrated=" + this.getMigrated()
+          + ",batches=" + this.getBatches()
+          + ",retries=" + this.getRetries()
+          + ",skipped=" + this.getSkipped()
+          + ",complete=" + this.isComplete()
+          + "]";
+    }
+}
+
@@ -47,7 +47,7 @@ import org.jsimpledb.core.DeleteAction;
  *
  * <p>
  * Simple fields may be {@link #indexed}; see {@link org.jsimpledb.index} for information on querying indexes.
- * {@link org.jsimpledb.Counter} fields may not be indexed.
+ * {@link org.jsimpledb.Counter} fields may not be indexed, but may be sharded; see {@link #counterShards}.
  *
  * <p><b>Reference Fields</b></p>
  *
@@ -323,5 +323,26 @@ public @interface JField {
      * @see org.jsimpledb.core.FieldType#convert FieldType.convert()
      */
     UpgradeConversionPolicy upgradeConversion() default UpgradeConversionPolicy.ATTEMPT;
+
+    /**
+     * Specify the number of shards for a {@link org.jsimpledb.Counter} field.
+     *
+     * <p>
+     * A counter with more than one shard stores its value as the sum of that many sub-values. Each transaction adjusts
+     * only one randomly chosen shard, so that concurrent transactions adjusting the same counter usually do not conflict,
+     * even if the underlying key/value store must read a counter in order to adjust it. The tradeoff is that reading the
+     * counter's value requires reading all of its shards. Sharding is useful for counters that are adjusted frequently
+     * by many concurrent transactions, e.g., "view counts".
+     *
+     * <p>
+     * The number of shards may be changed in a new schema version; the counter's value is preserved when objects are upgraded.
+     *
+     * <p>
+     * For non-counter fields, this property must be left unset.
+     *
+     * @return number of counter shards; default is one, i.e., not sharded
+     * @see org.jsimpledb.core.CounterField
+     */
+    int counterShards() default 1;
 }
 
@@ -18,9 +18,11 @@ import java.lang.annotation.Target;
  * The annotated method's return type must be {@link java.util.List List}{@code <E>}, where {@code E} is a supported simple type.
  *
  * <p>
- * List fields have a "random access" performance profile similar to an {@link java.util.ArrayList}. In particular,
+ * By default, list fields have a "random access" performance profile similar to an {@link java.util.ArrayList}. In particular,
  * {@link java.util.List#get List.get()} and {@link java.util.List#size List.size()} are constant time, but an insertion
- * in the middle of the list requires shifting all subsequent values by one.
+ * in the middle of the list requires shifting all subsequent values by one. Alternately, a list field may be configured
+ * with {@link #sparse sparse} storage, which has a "sequential access" performance profile similar to a
+ * {@link java.util.LinkedList}.
  *
  * <p>
  * Note that both primitive types and their corresponding wrapper types are supported as elements. A list whose
@@ -58,5 +60,37 @@ public @interface JListField {
      * @return the list element field
      */
     JField element() default @JField();
+
+    /**
+     * Whether to use sparse storage for this list field.
+     *
+     * <p>
+     * Normally list elements are stored under consecutive list indexes, so inserting or removing an element requires
+     * rewriting every subsequent element (and its index entry, if any), and conflicts with any concurrent transaction
+     * that reads those elements. When this property is true, elements are instead stored under sparse positions with gaps
+     * between them, so an insertion or removal only writes the affected elements. The trade-off is that accessing an
+     * element by list index, and {@link java.util.List#size List.size()}, require a scan from the start of the list.
+     *
+     * <p>
+     * That scan affects the transaction's read set, not just its cost. Every element before the target index is read,
+     * so {@link java.util.List#get get(int)}, {@link java.util.List#set set(int, Object)},
+     * {@link java.util.List#add(int, Object) add(int, Object)}, and {@link java.util.List#remove(int) remove(int)} at index
+     * <i>N</i> read <i>N</i> + 1 keys. They conflict with any concurrent transaction that changes the list before that index.
+     * {@link java.util.List#size List.size()} reads the entire list. Appending with {@link java.util.List#add(Object) add()}
+     * or {@link java.util.List#addAll(java.util.Collection) addAll()} reads only the last element, unless field change
+     * listeners are registered on the list; then the list size is also needed, so appending reads the entire list.
+     *
+     * <p>
+     * For sparse list fields, index queries that include list indexes
+     * (see {@link org.jsimpledb.JTransaction#queryListElementIndex JTransaction.queryListElementIndex()})
+     * are not supported; a plain index query on the {@code element} sub-field is still supported.
+     *
+     * <p>
+     * Changing this property is a change to the field's storage encoding, and therefore requires a new storage ID.
+     *
+     * @return whether the list field uses sparse storage
+     * @see org.jsimpledb.core.ListField#isSparse
+     */
+    boolean sparse() default false;
 }
 
@@ -0,0 +1,377 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.change;
+
+import com.google.common.base.Converter;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jsimpledb.JClass;
+import org.jsimpledb.JCounterField;
+import org.jsimpledb.JField;
+import org.jsimpledb.JFieldSwitchAdapter;
+import org.jsimpledb.JListField;
+import org.jsimpledb.JMapField;
+import org.jsimpledb.JObject;
+import org.jsimpledb.JSetField;
+import org.jsimpledb.JSimpleDB;
+import org.jsimpledb.JSimpleField;
+import org.jsimpledb.JTransaction;
+import org.jsimpledb.SnapshotJTransaction;
+import org.jsimpledb.ValidationMode;
+import org.jsimpledb.core.Field;
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.core.ObjType;
+import org.jsimpledb.core.Schema;
+import org.jsimpledb.core.Transaction;
+import org.jsimpledb.core.TypeNotInSchemaVersionException;
+import org.jsimpledb.core.util.ObjIdSortedSet;
+import org.jsimpledb.kv.KVPair;
+import org.jsimpledb.kv.KVStore;
+import org.jsimpledb.kv.KeyRange;
+import org.jsimpledb.kv.mvcc.Commit;
+import org.jsimpledb.kv.mvcc.CommitListener;
+import org.jsimpledb.kv.mvcc.MutableView;
+import org.jsimpledb.kv.mvcc.Writes;
+import org.jsimpledb.util.ByteReader;
+import org.jsimpledb.util.ByteUtil;
+import org.jsimpledb.util.UnsignedIntEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the key/value mutations of committed transactions into {@link Change}s.
+ *
+ * <p>
+ * Instances are {@link CommitListener}s intended to be registered with the
+ * {@link org.jsimpledb.kv.mvcc.CommitNotifier} of the key/value database underlying a {@link JSimpleDB}, for
+ * example, {@link org.jsimpledb.kv.mvcc.SnapshotKVDatabase#getCommitNotifier} or
+ * {@code RaftKVDatabase.getCommitNotifier()}. For each committed transaction, the objects
+ * affected by the transaction's mutations are identified, their before and after states are compared, and the
+ * resulting {@link Change}s are delivered to the configured {@link ChangeStreamListener}. Because this happens after
+ * the fact on a separate thread, it adds no overhead to the committing transaction, unlike
+ * {@link org.jsimpledb.annotation.OnChange &#64;OnChange} notifications.
+ *
+ * <p>
+ * Because changes are reconstructed by comparing states, the generated {@link Change}s describe the net effect of each
+ * transaction rather than the individual operations that were performed: for example, a set element that is added and
+ * then removed in the same transaction generates nothing, and a list is described by element replacements plus
+ * additions or removals at the end. Changes to counter fields, and to fields whose type changed due to a schema version
+ * change, are not reported.
+ *
+ * <p>
+ * The {@link JObject}s associated with the generated {@link Change}s reside in read-only {@link SnapshotJTransaction}s
+ * reflecting the database state before or after the commit: created objects and new field values are associated with
+ * the "after" state, while deleted objects and old field values are associated with the "before" state.
+ */
+public class ChangeStream implements CommitListener {
+
+    protected final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final JSimpleDB jdb;
+    private final ChangeStreamListener listener;
+
+    /**
+     * Constructor.
+     *
+     * @param jdb database whose changes are to be decoded
+     * @param listener recipient of decoded changes
+     * @throws IllegalArgumentException if either parameter is null
+     */
+    public ChangeStream(JSimpleDB jdb, ChangeStreamListener listener) {
+        Preconditions.checkArgument(jdb != null, "null jdb");
+        Preconditions.checkArgument(listener != null, "null listener");
+        this.jdb = jdb;
+        this.listener = listener;
+    }
+
+    /**
+     * Get the associated {@link JSimpleDB}.
+     *
+     * @return associated database
+     */
+    public JSimpleDB getJSimpleDB() {
+        return this.jdb;
+    }
+
+// CommitListener
+
+    @Override
+    public void onCommits(List<Commit> commits) {
+        for (Commit commit : commits) {
+            final List<Change<?>> changes;
+            try {
+                changes = this.decode(commit);
+            } catch (RuntimeException e) {
+                this.log.error("error decoding changes in " + commit, e);
+                continue;
+            }
+            if (!changes.isEmpty())
+                this.listener.onChanges(commit.getVersion(), changes);
+        }
+    }
+
+// Decoding
+
+    /**
+     * Decode the {@link Change}s made by the given commit.
+     *
+     * <p>
+     * The returned {@link Change}s are only valid while {@code commit} remains open.
+     *
+     * @param commit committed transaction
+     * @return changes made by {@code commit}, ordered by object ID
+     * @throws org.jsimpledb.core.SchemaMismatchException if the database contains schema information that is
+     *  incompatible with the associated {@link JSimpleDB}
+     * @throws IllegalArgumentException if {@code commit} is null
+     */
+    public List<Change<?>> decode(Commit commit) {
+        Preconditions.checkArgument(commit != null, "null commit");
+
+        // Create snapshot transactions for the before and after states; any schema updates go into discarded writes
+        final SnapshotJTransaction before = this.jdb.createSnapshotTransaction(
+          new MutableView(commit.getBefore(), null, new Writes()), true, ValidationMode.DISABLED);
+        final SnapshotJTransaction after = this.jdb.createSnapshotTransaction(
+          new MutableView(commit.getAfter(), null, new Writes()), true, ValidationMode.DISABLED);
+
+        // Find affected objects
+        final ObjIdSortedSet ids = this.findObjects(commit, after.getTransaction());
+
+        // Compare before and after states
+        final ArrayList<Change<?>> changes = new ArrayList<>();
+        for (ObjId id : ids) {
+            final boolean existedBefore = before.getTransaction().exists(id);
+            final boolean existsAfter = after.getTransaction().exists(id);
+            if (existsAfter && !existedBefore)
+                changes.add(new ObjectCreate<JObject>(after.get(id)));
+            else if (existedBefore && !existsAfter)
+                changes.add(new ObjectDelete<JObject>(before.get(id)));
+            else if (existedBefore)
+                this.addFieldChanges(changes, id, before, after);
+        }
+        return changes;
+    }
+
+    // Find the objects whose keys are affected by the given commit's mutations
+    private ObjIdSortedSet findObjects(Commit commit, Transaction tx) {
+
+        // Get all object type storage ID's
+        final Set<Integer> objTypeIds = new TreeSet<>();
+        for (Schema schema : tx.getSchemas().getVersions().values())
+            objTypeIds.addAll(schema.getObjTypes().keySet());
+
+        // Inspect mutated keys
+        final ArrayList<ObjId> ids = new ArrayList<>();
+        final Writes writes = commit.getWrites();
+        for (byte[] key : writes.getPuts().keySet())
+            this.addObjId(ids, key, objTypeIds);
+        for (byte[] key : writes.getAdjusts().keySet())
+            this.addObjId(ids, key, objTypeIds);
+        for (KeyRange range : writes.getRemoves())
+            this.addObjIds(ids, commit.getBefore(), range, objTypeIds);
+        return new ObjIdSortedSet(ids);
+    }
+
+    // Find the objects having keys in the given range, seeking past each object, index, and meta-data range as we go
+    private void addObjIds(List<ObjId> ids, KVStore kv, KeyRange range, Set<Integer> objTypeIds) {
+        final byte[] max = range.getMax();
+        byte[] next = range.getMin();
+        while (max == null || ByteUtil.compare(next, max) < 0) {
+            final Iterator<KVPair> i = kv.getRange(next, max, false);
+            try {
+                if (!i.hasNext())
+                    return;
+                final byte[] key = i.next().getKey();
+                final ObjId id = this.addObjId(ids, key, objTypeIds);
+                if (id != null)
+                    next = ByteUtil.getKeyAfterPrefix(id.getBytes());
+                else {
+                    if ((key[0] & 0xff) == 0xff)
+                        return;
+                    final int storageId = UnsignedIntEncoder.read(new ByteReader(key));
+                    next = ByteUtil.getKeyAfterPrefix(UnsignedIntEncoder.encode(storageId));
+                }
+            } finally {
+                if (i instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable)i).close();
+                    } catch (Exception e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+
+    // Add the ID of the object owning the given key, if any
+    private ObjId addObjId(List<ObjId> ids, byte[] key, Set<Integer> objTypeIds) {
+        if (key.length < ObjId.NUM_BYTES || (key[0] & 0xff) == 0xff)
+            return null;
+        final ByteReader reader = new ByteReader(key);
+        if (!objTypeIds.contains(UnsignedIntEncoder.read(reader)))
+            return null;
+        final ObjId id = new ObjId(new ByteReader(key));
+        ids.add(id);
+        return id;
+    }
+
+    // Add changes for the fields of an object that exists both before and after
+    private void addFieldChanges(final List<Change<?>> changes, final ObjId id,
+      final SnapshotJTransaction before, final SnapshotJTransaction after) {
+        final JClass<?> jclass;
+        try {
+            jclass = this.jdb.getJClass(id);
+        } catch (TypeNotInSchemaVersionException e) {
+            return;
+        }
+        final JObject jobj = after.get(id);
+        final Transaction btx = before.getTransaction();
+        final Transaction atx = after.getTransaction();
+        final ObjType beforeType = btx.getSchemas().getVersion(btx.getSchemaVersion(id)).getObjType(id.getStorageId());
+        final ObjType afterType = atx.getSchemas().getVersion(atx.getSchemaVersion(id)).getObjType(id.getStorageId());
+        for (JField jfield : jclass.getJFieldsByStorageId().values()) {
+            final int storageId = jfield.getStorageId();
+            final String name = jfield.getName();
+
+            // Skip fields that are missing, or of a different type, in either version
+            final Field<?> beforeField = beforeType.getFields().get(storageId);
+            final Field<?> afterField = afterType.getFields().get(storageId);
+            if (beforeField == null || afterField == null
+              || beforeField.getClass() != afterField.getClass()
+              || !beforeField.getTypeToken().equals(afterField.getTypeToken()))
+                continue;
+
+            // Compare field values
+            jfield.visit(new JFieldSwitchAdapter<Void>() {
+
+                @Override
+                public Void caseJSimpleField(JSimpleField field) {
+                    final Object oldValue = btx.readSimpleField(id, storageId, false);
+                    final Object newValue = atx.readSimpleField(id, storageId, false);
+                    if (!Objects.deepEquals(oldValue, newValue)) {
+                        changes.add(new SimpleFieldChange<JObject, Object>(jobj, storageId, name,
+                          ChangeStream.convert(field, before, oldValue), ChangeStream.convert(field, after, newValue)));
+                    }
+                    return null;
+                }
+
+                @Override
+                public Void caseJSetField(JSetField field) {
+                    final NavigableSet<?> oldSet = btx.readSetField(id, storageId, false);
+                    final NavigableSet<?> newSet = atx.readSetField(id, storageId, false);
+                    if (newSet.isEmpty() && !oldSet.isEmpty()) {
+                        changes.add(new SetFieldClear<JObject>(jobj, storageId, name));
+                        return null;
+                    }
+                    final JSimpleField elementField = field.getElementField();
+                    for (Object elem : oldSet) {
+                        if (!newSet.contains(elem)) {
+                            changes.add(new SetFieldRemove<JObject, Object>(jobj, storageId, name,
+                              ChangeStream.convert(elementField, before, elem)));
+                        }
+                    }
+                    for (Object elem : newSet) {
+                        if (!oldSet.contains(elem)) {
+                            changes.add(new SetFieldAdd<JObject, Object>(jobj, storageId, name,
+                              ChangeStream.convert(elementField, after, elem)));
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public Void caseJListField(JListField field) {
+                    final List<?> oldList = btx.readListField(id, storageId, false);
+                    final List<?> newList = atx.readListField(id, storageId, false);
+                    if (newList.isEmpty() && !oldList.isEmpty()) {
+                        changes.add(new ListFieldClear<JObject>(jobj, storageId, name));
+                        return null;
+                    }
+                    final JSimpleField elementField = field.getElementField();
+                    final int oldSize = oldList.size();
+                    final int newSize = newList.size();
+                    final int commonSize = Math.min(oldSize, newSize);
+                    for (int i = 0; i < commonSize; i++) {
+                        final Object oldElem = oldList.get(i);
+                        final Object newElem = newList.get(i);
+                        if (!Objects.deepEquals(oldElem, newElem)) {
+                            changes.add(new ListFieldReplace<JObject, Object>(jobj, storageId, name, i,
+                              ChangeStream.convert(elementField, before, oldElem),
+                              ChangeStream.convert(elementField, after, newElem)));
+                        }
+                    }
+                    for (int i = oldSize - 1; i >= commonSize; i--) {
+                        changes.add(new ListFieldRemove<JObject, Object>(jobj, storageId, name, i,
+                          ChangeStream.convert(elementField, before, oldList.get(i))));
+                    }
+                    for (int i = commonSize; i < newSize; i++) {
+                        changes.add(new ListFieldAdd<JObject, Object>(jobj, storageId, name, i,
+                          ChangeStream.convert(elementField, after, newList.get(i))));
+                    }
+                    return null;
+                }
+
+                @Override
+                public Void caseJMapField(JMapField field) {
+                    final NavigableMap<?, ?> oldMap = btx.readMapField(id, storageId, false);
+                    final NavigableMap<?, ?> newMap = atx.readMapField(id, storageId, false);
+                    if (newMap.isEmpty() && !oldMap.isEmpty()) {
+                        changes.add(new MapFieldClear<JObject>(jobj, storageId, name));
+                        return null;
+                    }
+                    final JSimpleField keyField = field.getKeyField();
+                    final JSimpleField valueField = field.getValueField();
+                    for (Map.Entry<?, ?> entry : oldMap.entrySet()) {
+                        if (!newMap.containsKey(entry.getKey())) {
+                            changes.add(new MapFieldRemove<JObject, Object, Object>(jobj, storageId, name,
+                              ChangeStream.convert(keyField, before, entry.getKey()),
+                              ChangeStream.convert(valueField, before, entry.getValue())));
+                        }
+                    }
+                    for (Map.Entry<?, ?> entry : newMap.entrySet()) {
+                        final Object key = entry.getKey();
+                        final Object newValue = entry.getValue();
+                        if (!oldMap.containsKey(key)) {
+                            changes.add(new MapFieldAdd<JObject, Object, Object>(jobj, storageId, name,
+                              ChangeStream.convert(keyField, after, key), ChangeStream.convert(valueField, after, newValue)));
+                            continue;
+                        }
+                        final Object oldValue = oldMap.get(key);
+                        if (!Objects.deepEquals(oldValue, newValue)) {
+                            changes.add(new MapFieldReplace<JObject, Object, Object>(jobj, storageId, name,
+                              ChangeStream.convert(keyField, after, key),
+                              ChangeStream.convert(valueField, before, oldValue),
+                              ChangeStream.convert(valueField, after, newValue)));
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public Void caseJCounterField(JCounterField field) {
+                    return null;
+                }
+            });
+        }
+    }
+
+    // Convert a core API value into its Java model value in the given transaction
+    @SuppressWarnings("unchecked")
+    private static Object convert(JSimpleField field, JTransaction jtx, Object value) {
+        final Converter<?, ?> converter = field.getConverter(jtx);
+        return converter != null ? ((Converter<Object, Object>)converter).convert(value) : value;
+    }
+}
+
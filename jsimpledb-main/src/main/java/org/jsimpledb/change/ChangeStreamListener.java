@@ -0,0 +1,29 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.change;
+
+import java.util.List;
+
+/**
+ * Callback interface for receiving the decoded {@link Change}s of committed transactions from a {@link ChangeStream}.
+ */
+@FunctionalInterface
+public interface ChangeStreamListener {
+
+    /**
+     * Receive notification of the changes made by a committed transaction.
+     *
+     * <p>
+     * This method is invoked once per committed transaction that changed at least one object, in commit order.
+     * The {@link org.jsimpledb.JObject}s associated with the {@link Change}s reside in snapshot transactions that
+     * are only valid for the duration of this method; use a {@link ChangeCopier} to retain them.
+     *
+     * @param version the commit version as reported by the underlying key/value database
+     * @param changes the changes made by the transaction, ordered by object ID
+     */
+    void onChanges(long version, List<Change<?>> changes);
+}
+
@@ -4,6 +4,7 @@
  */
 
 /**
- * Classes passed to {@link org.jsimpledb.annotation.OnChange &#64;OnChange}-annotated methods.
+ * Classes passed to {@link org.jsimpledb.annotation.OnChange &#64;OnChange}-annotated methods, and support for decoding
+ * committed transactions into the same classes via {@link org.jsimpledb.change.ChangeStream}.
  */
 package org.jsimpledb.change;
@@ -0,0 +1,234 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jsimpledb.annotation.JSimpleClass;
+import org.jsimpledb.change.Change;
+import org.jsimpledb.change.ChangeStream;
+import org.jsimpledb.change.ListFieldAdd;
+import org.jsimpledb.change.ListFieldRemove;
+import org.jsimpledb.change.ListFieldReplace;
+import org.jsimpledb.change.MapFieldAdd;
+import org.jsimpledb.change.MapFieldRemove;
+import org.jsimpledb.change.MapFieldReplace;
+import org.jsimpledb.change.ObjectCreate;
+import org.jsimpledb.change.ObjectDelete;
+import org.jsimpledb.change.SetFieldAdd;
+import org.jsimpledb.change.SetFieldClear;
+import org.jsimpledb.change.SetFieldRemove;
+import org.jsimpledb.change.SimpleFieldChange;
+import org.jsimpledb.core.Database;
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.kv.CloseableKVStore;
+import org.jsimpledb.kv.mvcc.AtomicKVStore;
+import org.jsimpledb.kv.mvcc.Mutations;
+import org.jsimpledb.kv.mvcc.SnapshotKVDatabase;
+import org.jsimpledb.kv.mvcc.Writes;
+import org.jsimpledb.kv.util.CloseableForwardingKVStore;
+import org.jsimpledb.kv.util.NavigableMapKVStore;
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ChangeStreamTest extends TestSupport {
+
+    @Test
+    public void testChangeStream() throws Exception {
+
+        final SnapshotKVDatabase kvdb = new SnapshotKVDatabase(new MemoryAtomicKVStore()) { };
+        kvdb.start();
+        try {
+            final JSimpleDB jdb = new JSimpleDB(new Database(kvdb), 1, new DefaultStorageIdGenerator(), Arrays.<Class<?>>asList(Person.class));
+
+            // Register change stream
+            final LinkedBlockingQueue<List<String>> queue = new LinkedBlockingQueue<>();
+            kvdb.getCommitNotifier().addListener(new ChangeStream(jdb, (version, changes) -> {
+                final ArrayList<String> list = new ArrayList<>();
+                for (Change<?> change : changes)
+                    list.add(this.describe(change));
+                queue.add(list);
+            }));
+
+            // Create objects
+            final ObjId[] ids = new ObjId[2];
+            this.run(jdb, jtx -> {
+                final Person p1 = jtx.create(Person.class);
+                final Person p2 = jtx.create(Person.class);
+                p1.setName("Fred");
+                p1.getTags().add("a");
+                p1.getScores().addAll(Arrays.asList(1, 2, 3));
+                p1.getAttributes().put("x", 10);
+                ids[0] = p1.getObjId();
+                ids[1] = p2.getObjId();
+            });
+            this.check(queue.poll(5, TimeUnit.SECONDS), "create " + ids[0], "create " + ids[1]);
+
+            // Modify fields
+            this.run(jdb, jtx -> {
+                final Person p1 = jtx.get(ids[0], Person.class);
+                final Person p2 = jtx.get(ids[1], Person.class);
+                p1.setName("Joe");
+                p1.setFriend(p2);
+                p1.getTags().remove("a");
+                p1.getTags().add("b");
+                p1.getScores().set(0, 4);
+                p1.getScores().remove(2);
+                p1.getAttributes().put("x", 11);
+                p1.getAttributes().put("y", 12);
+                p2.setName("Bob");
+                p2.getTags().add("c");
+            });
+            this.check(queue.poll(5, TimeUnit.SECONDS),
+              "name: Fred -> Joe",
+              "friend: null -> " + ids[1],
+              "tags - a",
+              "tags + b",
+              "scores[0]: 1 -> 4",
+              "scores - [2] 3",
+              "attributes[x]: 10 -> 11",
+              "attributes + [y] 12",
+              "name: null -> Bob",
+              "tags + c");
+
+            // Transactions without changes generate nothing; clear and delete
+            this.run(jdb, jtx -> jtx.get(ids[0], Person.class).setName("Joe"));
+            this.run(jdb, jtx -> {
+                final Person p1 = jtx.get(ids[0], Person.class);
+                p1.setFriend(null);
+                p1.getTags().clear();
+                p1.getScores().add(5);
+                p1.getAttributes().remove("y");
+                jtx.get(ids[1], Person.class).delete();
+            });
+            this.check(queue.poll(5, TimeUnit.SECONDS),
+              "friend: " + ids[1] + " -> null",
+              "tags clear",
+              "scores + [2] 5",
+              "attributes - [y] 12",
+              "delete " + ids[1]);
+            Assert.assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            kvdb.stop();
+        }
+    }
+
+    // Changes are ordered by object ID and then by storage ID, so just compare as sets
+    private void check(List<String> actual, String... expected) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(new HashSet<>(actual), new HashSet<>(Arrays.asList(expected)), "actual: " + actual);
+        Assert.assertEquals(actual.size(), expected.length, "actual: " + actual);
+    }
+
+    private void run(JSimpleDB jdb, java.util.function.Consumer<JTransaction> action) {
+        final JTransaction jtx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+        JTransaction.setCurrent(jtx);
+        try {
+            action.accept(jtx);
+            jtx.commit();
+        } finally {
+            JTransaction.setCurrent(null);
+        }
+    }
+
+    private String describe(Change<?> change) {
+        if (change instanceof ObjectCreate)
+            return "create " + this.describe(change.getObject());
+        if (change instanceof ObjectDelete)
+            return "delete " + this.describe(change.getObject());
+        if (change instanceof SimpleFieldChange) {
+            final SimpleFieldChange<?, ?> c = (SimpleFieldChange<?, ?>)change;
+            return c.getFieldName() + ": " + this.describe(c.getOldValue()) + " -> " + this.describe(c.getNewValue());
+        }
+        if (change instanceof SetFieldAdd)
+            return ((SetFieldAdd<?, ?>)change).getFieldName() + " + " + ((SetFieldAdd<?, ?>)change).getElement();
+        if (change instanceof SetFieldRemove)
+            return ((SetFieldRemove<?, ?>)change).getFieldName() + " - " + ((SetFieldRemove<?, ?>)change).getElement();
+        if (change instanceof SetFieldClear)
+            return ((SetFieldClear<?>)change).getFieldName() + " clear";
+        if (change instanceof ListFieldReplace) {
+            final ListFieldReplace<?, ?> c = (ListFieldReplace<?, ?>)change;
+            return c.getFieldName() + "[" + c.getIndex() + "]: " + c.getOldValue() + " -> " + c.getNewValue();
+        }
+        if (change instanceof ListFieldAdd) {
+            final ListFieldAdd<?, ?> c = (ListFieldAdd<?, ?>)change;
+            return c.getFieldName() + " + [" + c.getIndex() + "] " + c.getElement();
+        }
+        if (change instanceof ListFieldRemove) {
+            final ListFieldRemove<?, ?> c = (ListFieldRemove<?, ?>)change;
+            return c.getFieldName() + " - [" + c.getIndex() + "] " + c.getElement();
+        }
+        if (change instanceof MapFieldReplace) {
+            final MapFieldReplace<?, ?, ?> c = (MapFieldReplace<?, ?, ?>)change;
+            return c.getFieldName() + "[" + c.getKey() + "]: " + c.getOldValue() + " -> " + c.getNewValue();
+        }
+        if (change instanceof MapFieldAdd) {
+            final MapFieldAdd<?, ?, ?> c = (MapFieldAdd<?, ?, ?>)change;
+            return c.getFieldName() + " + [" + c.getKey() + "] " + c.getValue();
+        }
+        if (change instanceof MapFieldRemove) {
+            final MapFieldRemove<?, ?, ?> c = (MapFieldRemove<?, ?, ?>)change;
+            return c.getFieldName() + " - [" + c.getKey() + "] " + c.getValue();
+        }
+        return change.toString();
+    }
+
+    private String describe(Object value) {
+        return value instanceof JObject ? "" + ((JObject)value).getObjId() : "" + value;
+    }
+
+// MemoryAtomicKVStore
+
+    private static class MemoryAtomicKVStore extends NavigableMapKVStore implements AtomicKVStore {
+
+        private static final long serialVersionUID = -1L;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public synchronized CloseableKVStore snapshot() {
+            return new CloseableForwardingKVStore(this.clone());
+        }
+
+        @Override
+        public synchronized void mutate(Mutations mutations, boolean sync) {
+            Writes.apply(mutations, this);
+        }
+    }
+
+// Model Classes
+
+    @JSimpleClass(storageId = 100)
+    public abstract static class Person implements JObject {
+
+        public abstract String getName();
+        public abstract void setName(String name);
+
+        public abstract Person getFriend();
+        public abstract void setFriend(Person friend);
+
+        public abstract NavigableSet<String> getTags();
+
+        public abstract List<Integer> getScores();
+
+        public abstract NavigableMap<String, Integer> getAttributes();
+    }
+}
+
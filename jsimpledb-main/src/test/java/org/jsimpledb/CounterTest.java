@@ -10,6 +10,7 @@ import java.util.NavigableMap;
 import org.jsimpledb.annotation.JField;
 import org.jsimpledb.annotation.JMapField;
 import org.jsimpledb.annotation.JSimpleClass;
+import org.jsimpledb.core.ObjId;
 import org.jsimpledb.test.TestSupport;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -51,6 +52,58 @@ public class CounterTest extends TestSupport {
         }
     }
 
+    @Test
+    public void testShardedCounter() {
+
+        final JSimpleDB jdb = BasicTest.getJSimpleDB(Person.class);
+        Assert.assertEquals(jdb.getJClass(Person.class).getJField(105, JCounterField.class).getShards(), 4);
+
+        final ObjId id;
+        JTransaction tx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+        JTransaction.setCurrent(tx);
+        try {
+            id = ((JObject)tx.create(Person.class)).getObjId();
+            tx.commit();
+        } finally {
+            JTransaction.setCurrent(null);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            tx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+            JTransaction.setCurrent(tx);
+            try {
+                tx.get(id, Person.class).getShardedCounter().adjust(i);
+                tx.commit();
+            } finally {
+                JTransaction.setCurrent(null);
+            }
+        }
+
+        tx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+        JTransaction.setCurrent(tx);
+        try {
+            final Counter counter = tx.get(id, Person.class).getShardedCounter();
+            Assert.assertEquals(counter.get(), 190);
+            counter.set(-5);
+            Assert.assertEquals(counter.get(), -5);
+            counter.adjust(10);
+            Assert.assertEquals(counter.get(), 5);
+            tx.commit();
+        } finally {
+            JTransaction.setCurrent(null);
+        }
+    }
+
+    @Test
+    public void testInvalidShards() {
+        try {
+            BasicTest.getJSimpleDB(BadPerson.class);
+            assert false;
+        } catch (IllegalArgumentException e) {
+            this.log.debug("got expected " + e);
+        }
+    }
+
 // Model Classes
 
     @JSimpleClass(storageId = 100)
@@ -59,8 +112,19 @@ public class CounterTest extends TestSupport {
         @JField(storageId = 104)
         public abstract Counter getCounter();
 
+        @JField(storageId = 105, counterShards = 4)
+        public abstract Counter getShardedCounter();
+
         @JMapField(storageId = 101, key = @JField(storageId = 102), value = @JField(storageId = 103, type = "float"))
         public abstract NavigableMap<Person, Float> getRatings();
     }
+
+    @JSimpleClass(storageId = 200)
+    public abstract static class BadPerson {
+
+        @JField(storageId = 201, counterShards = 4)
+        public abstract int getValue();
+        public abstract void setValue(int value);
+    }
 }
 
@@ -0,0 +1,118 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jsimpledb.annotation.JSimpleClass;
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class JObjectCacheTest extends TestSupport {
+
+    @Test(dataProvider = "retentions")
+    public void testConcurrentGet(JObjectRetention retention) throws Exception {
+
+        final JSimpleDB jdb = BasicTest.getJSimpleDB(Item.class);
+        jdb.setObjectRetention(retention);
+        Assert.assertEquals(jdb.getObjectRetention(), retention);
+
+        // Create objects
+        final int count = 100;
+        final ArrayList<ObjId> ids = new ArrayList<>(count);
+        JTransaction jtx = jdb.createTransaction(true, ValidationMode.MANUAL);
+        for (int i = 0; i < count; i++)
+            ids.add(jtx.create(Item.class).getObjId());
+        jtx.commit();
+
+        // Access them concurrently in a new transaction
+        final int numThreads = 8;
+        final JTransaction jtx2 = jdb.createTransaction(true, ValidationMode.MANUAL);
+        Assert.assertEquals(jtx2.getObjectCacheStats().getRetention(), retention);
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final List<JObject> expected;
+        try {
+            final ArrayList<Future<List<JObject>>> futures = new ArrayList<>(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> {
+                    final ArrayList<JObject> list = new ArrayList<>(count);
+                    for (ObjId id : ids)
+                        list.add(jtx2.get(id));
+                    return list;
+                }));
+            }
+            expected = futures.get(0).get();
+            for (Future<List<JObject>> future : futures) {
+                final List<JObject> actual = future.get();
+                for (int i = 0; i < count; i++) {
+                    Assert.assertSame(actual.get(i), expected.get(i));
+                    Assert.assertEquals(actual.get(i).getObjId(), ids.get(i));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Every lookup was a hit or a miss; since all instances are still strongly referenced, there was one miss per object
+        final JObjectCacheStats stats = jtx2.getObjectCacheStats();
+        this.log.info("stats: " + stats);
+        Assert.assertEquals(stats.getMissCount(), count);
+        Assert.assertEquals(stats.getHitCount() + stats.getMissCount(), count * numThreads);
+        Assert.assertEquals(stats.getEvictionCount(), 0);
+        Assert.assertEquals(stats.getSize(), count);
+        jtx2.rollback();
+    }
+
+    @Test
+    public void testStrongRetention() throws Exception {
+
+        final JSimpleDB jdb = new JSimpleDBFactory()
+          .setModelClasses(Item.class)
+          .setObjectRetention(JObjectRetention.STRONG)
+          .newJSimpleDB();
+        final JTransaction jtx = jdb.createTransaction(true, ValidationMode.MANUAL);
+
+        // Create objects, but don't keep any references to them
+        final int count = 100;
+        final ArrayList<ObjId> ids = new ArrayList<>(count);
+        final ArrayList<Integer> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Item item = jtx.create(Item.class);
+            ids.add(item.getObjId());
+            hashes.add(System.identityHashCode(item));
+        }
+        System.gc();
+
+        // Instances should not have been discarded
+        for (int i = 0; i < count; i++)
+            Assert.assertEquals(System.identityHashCode(jtx.get(ids.get(i))), (int)hashes.get(i));
+        Assert.assertEquals(jtx.getObjectCacheStats().getEvictionCount(), 0);
+        jtx.rollback();
+    }
+
+    @DataProvider(name = "retentions")
+    public Object[][] genRetentions() {
+        final JObjectRetention[] retentions = JObjectRetention.values();
+        final Object[][] array = new Object[retentions.length][];
+        for (int i = 0; i < retentions.length; i++)
+            array[i] = new Object[] { retentions[i] };
+        return array;
+    }
+
+// Model Classes
+
+    @JSimpleClass
+    public abstract static class Item implements JObject {
+    }
+}
+
@@ -0,0 +1,196 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.validation.constraints.Min;
+
+import org.jsimpledb.annotation.JField;
+import org.jsimpledb.annotation.JSimpleClass;
+import org.jsimpledb.annotation.OnValidate;
+import org.jsimpledb.core.ObjId;
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ParallelValidationTest extends TestSupport {
+
+    private static final AtomicInteger CHECKS = new AtomicInteger();
+    private static final AtomicInteger NO_CURRENT = new AtomicInteger();
+
+    @Test
+    public void testParallelValidation() throws Exception {
+
+        final JSimpleDB jdb = BasicTest.getJSimpleDB(Item.class);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final JTransaction jtx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+            jtx.setValidationPool(pool);
+            Assert.assertSame(jtx.getValidationPool(), pool);
+            JTransaction.setCurrent(jtx);
+            try {
+
+            // Create a bunch of valid objects
+
+                final int count = 200;
+                final ArrayList<Item> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final Item item = jtx.create(Item.class);
+                    item.setCode(i);
+                    item.setCount(i);
+                    items.add(item);
+                }
+                CHECKS.set(0);
+                NO_CURRENT.set(0);
+                jtx.validate();
+                Assert.assertEquals(CHECKS.get(), count);
+                Assert.assertEquals(NO_CURRENT.get(), 0);
+
+            // Introduce three errors; they should be reported in object ID order
+
+                final Item dup1 = items.get(40);
+                final Item dup2 = items.get(160);
+                final Item negative = items.get(100);
+                dup1.setCode(12345);
+                dup2.setCode(12345);
+                negative.setCount(-1);
+                items.get(120).setCount(120000);                                    // valid change
+
+                final Item[] failures = new Item[] { dup1, dup2, negative };
+                Arrays.sort(failures, (item1, item2) -> item1.getObjId().compareTo(item2.getObjId()));
+                for (Item failure : failures) {
+                    try {
+                        jtx.validate();
+                        assert false : "expected validation failure for " + failure;
+                    } catch (ValidationException e) {
+                        this.log.info("got expected " + e);
+                        Assert.assertSame(e.getObject(), failure);
+                    }
+                }
+                jtx.validate();
+
+            // Errors should also be detected at commit time
+
+                negative.setCount(-2);
+                negative.revalidate();
+                try {
+                    jtx.commit();
+                    assert false : "expected validation failure";
+                } catch (ValidationException e) {
+                    this.log.info("got expected " + e);
+                    Assert.assertSame(e.getObject(), negative);
+                }
+            } finally {
+                JTransaction.setCurrent(null);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLowestFailureReported() throws Exception {
+
+        final JSimpleDB jdb = BasicTest.getJSimpleDB(Item.class);
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            for (int repeat = 0; repeat < 5; repeat++) {
+                final JTransaction jtx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+                jtx.setValidationPool(pool);
+                JTransaction.setCurrent(jtx);
+                try {
+                    ObjId first = null;
+                    for (int i = 0; i < 200; i++) {
+                        final Item item = jtx.create(Item.class);
+                        item.setCode(i * 10 + repeat);
+                        item.setCount(this.random.nextInt(20) == 0 ? -1 : i);
+                        if (item.getCount() < 0 && (first == null || item.getObjId().compareTo(first) < 0))
+                            first = item.getObjId();
+                    }
+                    try {
+                        jtx.validate();
+                        Assert.assertNull(first);
+                    } catch (ValidationException e) {
+                        Assert.assertEquals(e.getObject().getObjId(), first);
+                    }
+                } finally {
+                    JTransaction.setCurrent(null);
+                    jtx.rollback();
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(timeOut = 60000)
+    public void testOnValidateChangesField() throws Exception {
+
+        final JSimpleDB jdb = BasicTest.getJSimpleDB(Normalized.class);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final JTransaction jtx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+            jtx.setValidationPool(pool);
+            JTransaction.setCurrent(jtx);
+            try {
+                final ArrayList<Normalized> items = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    final Normalized item = jtx.create(Normalized.class);
+                    item.setValue(i);
+                    items.add(item);
+                }
+                jtx.commit();
+                for (int i = 0; i < items.size(); i++)
+                    Assert.assertEquals(items.get(i).getValue(), i & ~1);
+            } finally {
+                JTransaction.setCurrent(null);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+// Model Classes
+
+    @JSimpleClass
+    public abstract static class Item implements JObject {
+
+        @JField(indexed = true, unique = true)
+        public abstract int getCode();
+        public abstract void setCode(int code);
+
+        @Min(0)
+        public abstract int getCount();
+        public abstract void setCount(int count);
+
+        @OnValidate
+        private void checkMe() {
+            CHECKS.incrementAndGet();
+            if (JTransaction.getCurrent() != this.getTransaction())
+                NO_CURRENT.incrementAndGet();
+        }
+    }
+
+    @JSimpleClass
+    public abstract static class Normalized implements JObject {
+
+        @Min(0)
+        public abstract int getValue();
+        public abstract void setValue(int value);
+
+        // Changing a validated field from within @OnValidate requeues this object for validation
+        @OnValidate
+        private void normalize() {
+            if ((this.getValue() & 1) != 0)
+                this.setValue(this.getValue() & ~1);
+        }
+    }
+}
+
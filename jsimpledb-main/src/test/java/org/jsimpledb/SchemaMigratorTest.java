@@ -0,0 +1,199 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.validation.constraints.Min;
+
+import org.jsimpledb.annotation.JField;
+import org.jsimpledb.annotation.JSimpleClass;
+import org.jsimpledb.annotation.OnVersionChange;
+import org.jsimpledb.core.Database;
+import org.jsimpledb.kv.simple.SimpleKVDatabase;
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SchemaMigratorTest extends TestSupport {
+
+    @Test
+    public void testMigrateBatches() throws Exception {
+
+        final Database db = new Database(new SimpleKVDatabase());
+
+        // Create version 1 objects, including one whose type does not exist in version 2
+        final JSimpleDB jdb1 = new JSimpleDB(db, 1, null, Arrays.<Class<?>>asList(Person1.class, Other.class));
+        this.createPeople(jdb1, 0, 25);
+        final JTransaction tx = jdb1.createTransaction(true, ValidationMode.AUTOMATIC);
+        tx.create(Other.class);
+        tx.commit();
+
+        // Record version 2
+        final JSimpleDB jdb2 = new JSimpleDB(db, 2, null, Arrays.<Class<?>>asList(Person2.class));
+        jdb2.createTransaction(true, ValidationMode.AUTOMATIC).commit();
+
+        // Migrate
+        final SchemaMigrator migrator = new SchemaMigrator(jdb2);
+        migrator.setBatchSize(10);
+        Assert.assertEquals(migrator.countRemaining(), Collections.singletonMap(1, 26L));
+        Assert.assertEquals(migrator.migrateBatch(), 10);
+        Assert.assertFalse(migrator.isComplete());
+        Assert.assertEquals(migrator.migrateBatch(), 10);
+        Assert.assertEquals(migrator.migrateBatch(), 5);
+        Assert.assertEquals(migrator.migrateBatch(), 0);
+        Assert.assertTrue(migrator.isComplete());
+        Assert.assertEquals(migrator.getMigrated(), 25);
+        Assert.assertEquals(migrator.getBatches(), 4);
+        Assert.assertEquals(migrator.getSkipped(), 1);
+        Assert.assertEquals(migrator.countRemaining(), Collections.singletonMap(1, 1L));
+        this.checkPeople(jdb2, 25);
+    }
+
+    @Test
+    public void testBackground() throws Exception {
+
+        final Database db = new Database(new SimpleKVDatabase());
+        final JSimpleDB jdb1 = new JSimpleDB(db, 1, null, Arrays.<Class<?>>asList(Person1.class));
+        this.createPeople(jdb1, 0, 50);
+        final JSimpleDB jdb2 = new JSimpleDB(db, 2, null, Arrays.<Class<?>>asList(Person2.class));
+        jdb2.createTransaction(true, ValidationMode.AUTOMATIC).commit();
+
+        final SchemaMigrator migrator = new SchemaMigrator(jdb2);
+        migrator.setBatchSize(7);
+        migrator.setBatchDelay(1);
+        migrator.start();
+        try {
+            for (int i = 0; i < 500 && migrator.isRunning(); i++)
+                Thread.sleep(10);
+            Assert.assertFalse(migrator.isRunning());
+            Assert.assertTrue(migrator.isComplete());
+        } finally {
+            migrator.stop();
+        }
+        Assert.assertEquals(migrator.getMigrated(), 50);
+        Assert.assertTrue(migrator.countRemaining().isEmpty());
+        this.checkPeople(jdb2, 50);
+    }
+
+    @Test
+    public void testValidationFailure() throws Exception {
+
+        final Database db = new Database(new SimpleKVDatabase());
+
+        // Create version 1 objects, one of which will fail validation after being upgraded
+        final JSimpleDB jdb1 = new JSimpleDB(db, 1, null, Arrays.<Class<?>>asList(Person1.class));
+        this.createPeople(jdb1, -1, 25);
+
+        // Record version 2
+        final JSimpleDB jdb2 = new JSimpleDB(db, 2, null, Arrays.<Class<?>>asList(ValidatedPerson2.class));
+        jdb2.createTransaction(true, ValidationMode.AUTOMATIC).commit();
+
+        // Migrate; the batch containing the invalid object is retried one object at a time
+        final SchemaMigrator migrator = new SchemaMigrator(jdb2);
+        migrator.setBatchSize(10);
+        int count = 0;
+        for (int i = 0; i < 10 && !migrator.isComplete(); i++)
+            count += migrator.migrateBatch();
+        Assert.assertTrue(migrator.isComplete());
+        Assert.assertEquals(count, 24);
+        Assert.assertEquals(migrator.getMigrated(), 24);
+        Assert.assertEquals(migrator.getSkipped(), 1);
+        Assert.assertEquals(migrator.countRemaining(), Collections.singletonMap(1, 1L));
+
+        // Verify the invalid object was left alone
+        final JTransaction tx = jdb2.createTransaction(false, ValidationMode.DISABLED);
+        JTransaction.setCurrent(tx);
+        try {
+            for (ValidatedPerson2 person : tx.getAll(ValidatedPerson2.class)) {
+                final int version = tx.getSchemaVersion(person.getObjId());
+                Assert.assertEquals(version, person.getAge() < 0 ? 1 : 2, "wrong version for age " + person.getAge());
+            }
+        } finally {
+            tx.rollback();
+            JTransaction.setCurrent(null);
+        }
+    }
+
+    private void createPeople(JSimpleDB jdb, int start, int count) {
+        final JTransaction tx = jdb.createTransaction(true, ValidationMode.AUTOMATIC);
+        JTransaction.setCurrent(tx);
+        try {
+            for (int i = start; i < start + count; i++)
+                tx.create(Person1.class).setAge(i);
+            tx.commit();
+        } finally {
+            JTransaction.setCurrent(null);
+        }
+    }
+
+    private void checkPeople(JSimpleDB jdb, int count) {
+        final JTransaction tx = jdb.createTransaction(false, ValidationMode.AUTOMATIC);
+        JTransaction.setCurrent(tx);
+        try {
+            Assert.assertEquals(tx.getAll(Person2.class).size(), count);
+            for (Person2 person : tx.getAll(Person2.class)) {
+                Assert.assertEquals(tx.getSchemaVersion(person.getObjId()), 2);
+                Assert.assertEquals(person.getDescription(), "age " + person.getAge());
+            }
+        } finally {
+            tx.rollback();
+            JTransaction.setCurrent(null);
+        }
+    }
+
+// Model Classes
+
+    @JSimpleClass(storageId = 100)
+    public abstract static class Person1 implements JObject {
+
+        @JField(storageId = 101)
+        public abstract int getAge();
+        public abstract void setAge(int age);
+    }
+
+    @JSimpleClass(storageId = 200)
+    public abstract static class Other implements JObject {
+    }
+
+    @JSimpleClass(storageId = 100)
+    public abstract static class Person2 implements JObject {
+
+        @JField(storageId = 101)
+        public abstract int getAge();
+        public abstract void setAge(int age);
+
+        @JField(storageId = 102)
+        public abstract String getDescription();
+        public abstract void setDescription(String description);
+
+        @OnVersionChange(oldVersion = 1, newVersion = 2)
+        private void versionChange(Map<Integer, Object> oldValues) {
+            this.setDescription("age " + oldValues.get(101));
+        }
+    }
+
+    @JSimpleClass(storageId = 100)
+    public abstract static class ValidatedPerson2 implements JObject {
+
+        @JField(storageId = 101)
+        @Min(0)
+        public abstract int getAge();
+        public abstract void setAge(int age);
+
+        @JField(storageId = 102)
+        public abstract String getDescription();
+        public abstract void setDescription(String description);
+
+        @OnVersionChange(oldVersion = 1, newVersion = 2)
+        private void versionChange(Map<Integer, Object> oldValues) {
+            this.setDescription("age " + oldValues.get(101));
+        }
+    }
+}
+
@@ -5,6 +5,8 @@
 
 package org.jsimpledb.util;
 
+import com.google.common.collect.Iterators;
+
 import java.util.Comparator;
 import java.util.List;
 import java.util.NavigableSet;
@@ -14,16 +16,34 @@ import java.util.NoSuchElementException;
  * Provides a read-only view of the intersection of two or more {@link NavigableSet}s.
  * A complete iteration takes <i>O(N * M)</i> queries, where <i>N</i> is the number of
  * elements in the smallest set and <i>M</i> is the number of sets.
+ *
+ * <p>
+ * Normally, iteration "leapfrogs" through the sets, starting with the first set, using {@link NavigableSet#ceiling ceiling()}.
+ * In probing mode, iteration instead walks the first set and checks each element using {@link NavigableSet#contains contains()}
+ * on the other sets; this is more efficient when the first set is much smaller than the others.
  */
 class IntersectionNavigableSet<E> extends AbstractMultiNavigableSet<E> {
 
+    private final boolean probe;
+
     /**
      * Constructor.
      *
      * @param sets the sets to intersect
      */
     IntersectionNavigableSet(Iterable<? extends NavigableSet<E>> sets) {
+        this(sets, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sets the sets to intersect
+     * @param probe true to iterate the first set and probe the other sets, false to leapfrog through all sets
+     */
+    IntersectionNavigableSet(Iterable<? extends NavigableSet<E>> sets, boolean probe) {
         super(sets);
+        this.probe = probe;
     }
 
     /**
@@ -32,17 +52,19 @@ class IntersectionNavigableSet<E> extends AbstractMultiNavigableSet<E> {
      * @param sets the sets to intersect
      * @param comparator common comparator
      * @param bounds range restriction
+     * @param probe true to iterate the first set and probe the other sets, false to leapfrog through all sets
      * @throws IllegalArgumentException if {@code bounds} is null
      */
     protected IntersectionNavigableSet(Iterable<? extends NavigableSet<E>> sets,
-      Comparator<? super E> comparator, Bounds<E> bounds) {
+      Comparator<? super E> comparator, Bounds<E> bounds, boolean probe) {
         super(sets, comparator, bounds);
+        this.probe = probe;
     }
 
     @Override
     protected NavigableSet<E> createSubSet(boolean reverse, Bounds<E> newBounds, List<NavigableSet<E>> newList) {
         final Comparator<? super E> newComparator = this.getComparator(reverse);
-        return new IntersectionNavigableSet<>(newList, newComparator, bounds);
+        return new IntersectionNavigableSet<>(newList, newComparator, bounds, this.probe);
     }
 
     @Override
@@ -56,6 +78,16 @@ class IntersectionNavigableSet<E> extends AbstractMultiNavigableSet<E> {
 
     @Override
     public java.util.Iterator<E> iterator() {
+        if (this.probe && !this.list.isEmpty()) {
+            final List<? extends NavigableSet<E>> others = this.list.subList(1, this.list.size());
+            return Iterators.filter(this.list.get(0).iterator(), elem -> {
+                for (NavigableSet<E> set : others) {
+                    if (!set.contains(elem))
+                        return false;
+                }
+                return true;
+            });
+        }
         return new Iterator();
     }
 
@@ -0,0 +1,276 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * Creates intersection, union, and difference views of {@link NavigableSet}s like {@link NavigableSets} does,
+ * but uses estimates of the sizes of the operand sets to choose an efficient evaluation strategy.
+ *
+ * <p>
+ * The views returned by {@link NavigableSets} process their operands in the order given. For example, iteration of an
+ * {@linkplain NavigableSets#intersection intersection} is driven by the first set, so intersecting a huge set with a tiny
+ * one requires a scan of the huge set if the huge set is given first. This class instead:
+ * <ul>
+ *  <li>Orders intersection operands by increasing estimated size, so the smallest set drives iteration, and
+ *      when the smallest set is much smaller than all of the others, simply iterates it and probes the other sets
+ *      using {@link NavigableSet#contains contains()}</li>
+ *  <li>Orders union operands by decreasing estimated size, so {@link NavigableSet#contains contains()} succeeds as early
+ *      as possible</li>
+ * </ul>
+ *
+ * <p>
+ * By default, the size of a set is estimated by counting its elements up to a fixed limit; sets larger than the limit
+ * are all considered equally large. This requires no extra bookkeeping and is appropriate for sets such as index views
+ * whose {@link NavigableSet#size size()} method requires a full scan. Alternately, a custom estimator may be provided,
+ * and estimates for individual sets may be supplied via {@link #setEstimate setEstimate()}, e.g., based on
+ * statistics gathered for the corresponding index.
+ *
+ * <p>
+ * The returned views are live views; only the evaluation strategy is affected by the size estimates, so inaccurate
+ * estimates affect performance but not correctness. Estimates are computed at the time each view is created.
+ *
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see NavigableSets
+ */
+public class NavigableSetPlanner {
+
+    /**
+     * Default limit on the number of elements counted when estimating the size of a set.
+     */
+    public static final int DEFAULT_SAMPLE_LIMIT = 1000;
+
+    /**
+     * Default minimum ratio between the estimated sizes of the second smallest and the smallest set
+     * in an intersection at which iteration switches to probing.
+     */
+    public static final int DEFAULT_PROBE_RATIO = 16;
+
+    private final ToLongFunction<? super NavigableSet<?>> estimator;
+    private final IdentityHashMap<NavigableSet<?>, Long> estimates = new IdentityHashMap<>();
+
+    private int probeRatio = DEFAULT_PROBE_RATIO;
+
+// Constructors
+
+    /**
+     * Default constructor.
+     *
+     * <p>
+     * Set sizes will be estimated by counting up to {@link #DEFAULT_SAMPLE_LIMIT} elements.
+     */
+    public NavigableSetPlanner() {
+        this(DEFAULT_SAMPLE_LIMIT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * <p>
+     * Set sizes will be estimated by counting up to {@code sampleLimit} elements.
+     *
+     * @param sampleLimit maximum number of elements to count when estimating the size of a set
+     * @throws IllegalArgumentException if {@code sampleLimit} is not positive
+     */
+    public NavigableSetPlanner(int sampleLimit) {
+        Preconditions.checkArgument(sampleLimit > 0, "sampleLimit <= 0");
+        this.estimator = set -> NavigableSetPlanner.countUpTo(set, sampleLimit);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param estimator function returning the estimated size of a set
+     * @throws IllegalArgumentException if {@code estimator} is null
+     */
+    public NavigableSetPlanner(ToLongFunction<? super NavigableSet<?>> estimator) {
+        Preconditions.checkArgument(estimator != null, "null estimator");
+        this.estimator = estimator;
+    }
+
+// Configuration
+
+    /**
+     * Get the minimum ratio between the estimated sizes of the second smallest and the smallest set
+     * in an intersection at which iteration switches from leapfrogging to probing.
+     *
+     * @return probe ratio
+     */
+    public int getProbeRatio() {
+        return this.probeRatio;
+    }
+
+    /**
+     * Set the minimum ratio between the estimated sizes of the second smallest and the smallest set
+     * in an intersection at which iteration switches from leapfrogging to probing.
+     *
+     * <p>
+     * Default is {@link #DEFAULT_PROBE_RATIO}.
+     *
+     * @param probeRatio probe ratio
+     * @throws IllegalArgumentException if {@code probeRatio} is less than one
+     */
+    public void setProbeRatio(int probeRatio) {
+        Preconditions.checkArgument(probeRatio >= 1, "probeRatio < 1");
+        this.probeRatio = probeRatio;
+    }
+
+    /**
+     * Supply the estimated size of a specific set, overriding this instance's estimator.
+     *
+     * @param set the set
+     * @param size estimated size of {@code set}
+     * @throws IllegalArgumentException if {@code set} is null
+     * @throws IllegalArgumentException if {@code size} is negative
+     */
+    public void setEstimate(NavigableSet<?> set, long size) {
+        Preconditions.checkArgument(set != null, "null set");
+        Preconditions.checkArgument(size >= 0, "size < 0");
+        this.estimates.put(set, size);
+    }
+
+    /**
+     * Get the estimated size of the given set.
+     *
+     * @param set the set
+     * @return estimated size of {@code set}
+     * @throws IllegalArgumentException if {@code set} is null
+     */
+    public long estimateSize(NavigableSet<?> set) {
+        Preconditions.checkArgument(set != null, "null set");
+        if (set instanceof EmptyNavigableSet)
+            return 0;
+        final Long estimate = this.estimates.get(set);
+        return estimate != null ? estimate : Math.max(this.estimator.applyAsLong(set), 0);
+    }
+
+// Set operations
+
+    /**
+     * Create a read-only view of the intersection of two or more {@link NavigableSet}s that have a consistent sort order.
+     *
+     * @param sets the sets to intersect
+     * @param <E> element type
+     * @return the intersection of all {@code sets}
+     * @throws IllegalArgumentException if the {@code sets} do not have equal {@link Comparator}s
+     * @throws IllegalArgumentException if {@code sets}, or any {@link NavigableSet} therein, is null
+     * @see NavigableSets#intersection NavigableSets.intersection()
+     */
+    public <E> NavigableSet<E> intersection(Iterable<? extends NavigableSet<E>> sets) {
+        Preconditions.checkArgument(sets != null, "null sets");
+
+        // Estimate sizes and sort by increasing size
+        final ArrayList<Estimated<E>> list = this.estimate(sets);
+        if (list.size() < 2)
+            return NavigableSets.intersection(Lists.transform(list, estimated -> estimated.set));
+        list.sort(Comparator.comparingLong(estimated -> estimated.size));
+
+        // Determine whether to probe
+        final long smallest = list.get(0).size;
+        final long secondSmallest = list.get(1).size;
+        final boolean probe = smallest == 0 || secondSmallest / smallest >= this.probeRatio;
+
+        // Create intersection
+        if (list.stream().anyMatch(estimated -> estimated.set instanceof EmptyNavigableSet))
+            return new EmptyNavigableSet<>(null);
+        return new IntersectionNavigableSet<>(Lists.transform(list, estimated -> estimated.set), probe);
+    }
+
+    /**
+     * Create a read-only view of the union of two or more {@link NavigableSet}s that have a consistent sort order.
+     *
+     * @param sets the sets to union
+     * @param <E> element type
+     * @return the union of all {@code sets}
+     * @throws IllegalArgumentException if the {@code sets} do not have equal {@link Comparator}s
+     * @throws IllegalArgumentException if {@code sets}, or any {@link NavigableSet} therein, is null
+     * @see NavigableSets#union NavigableSets.union()
+     */
+    public <E> NavigableSet<E> union(Iterable<? extends NavigableSet<E>> sets) {
+        Preconditions.checkArgument(sets != null, "null sets");
+
+        // Estimate sizes and sort by decreasing size
+        final ArrayList<Estimated<E>> list = this.estimate(sets);
+        list.sort(Comparator.comparingLong((Estimated<E> estimated) -> estimated.size).reversed());
+
+        // Create union
+        return NavigableSets.union(Lists.transform(list, estimated -> estimated.set));
+    }
+
+    /**
+     * Create a read-only view of the difference of two {@link NavigableSet}s that have a consistent sort order.
+     *
+     * <p>
+     * Iteration of a difference always walks {@code set1} and probes {@code set2} using {@link NavigableSet#contains contains()},
+     * which is already the cheapest strategy, and the operands cannot be reordered; therefore, this method simply
+     * delegates to {@link NavigableSets#difference NavigableSets.difference()}. It is provided for completeness.
+     *
+     * @param set1 original set
+     * @param set2 set of elements to exclude from {@code set1}
+     * @param <E> element type
+     * @return the difference of {@code set1} and {@code set2}
+     * @throws IllegalArgumentException if the {@code set1} and {@code set2} do not have equal {@link Comparator}s
+     * @throws IllegalArgumentException if either parameter is is null
+     * @see NavigableSets#difference NavigableSets.difference()
+     */
+    public <E> NavigableSet<E> difference(NavigableSet<E> set1, NavigableSet<E> set2) {
+        Preconditions.checkArgument(set1 != null, "null set1");
+        Preconditions.checkArgument(set2 != null, "null set2");
+        return NavigableSets.difference(set1, set2);
+    }
+
+// Internal methods
+
+    private <E> ArrayList<Estimated<E>> estimate(Iterable<? extends NavigableSet<E>> sets) {
+        final ArrayList<Estimated<E>> list = new ArrayList<>();
+        for (NavigableSet<E> set : sets) {
+            Preconditions.checkArgument(set != null, "null set");
+            list.add(new Estimated<>(set, this.estimateSize(set)));
+        }
+        return list;
+    }
+
+    /**
+     * Count the elements in the given set, stopping after the given limit.
+     *
+     * @param set the set
+     * @param limit maximum number of elements to count
+     * @return the size of {@code set}, or {@code limit} if {@code set} contains at least {@code limit} elements
+     * @throws IllegalArgumentException if {@code set} is null
+     */
+    public static long countUpTo(NavigableSet<?> set, int limit) {
+        Preconditions.checkArgument(set != null, "null set");
+        long count = 0;
+        for (Iterator<?> i = set.iterator(); count < limit && i.hasNext(); i.next())
+            count++;
+        return count;
+    }
+
+// Estimated
+
+    private static class Estimated<E> {
+
+        final NavigableSet<E> set;
+        final long size;
+
+        Estimated(NavigableSet<E> set, long size) {
+            this.set = set;
+            this.size = size;
+        }
+    }
+}
+
@@ -0,0 +1,142 @@
+
+/*
+ * Copyright (C) 2015 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.jsimpledb.util;
+
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jsimpledb.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class NavigableSetPlannerTest extends TestSupport {
+
+    @Test
+    public void testEstimate() {
+        final NavigableSetPlanner planner = new NavigableSetPlanner(10);
+        final TreeSet<Integer> set = new TreeSet<>();
+        Assert.assertEquals(planner.estimateSize(set), 0);
+        for (int i = 0; i < 5; i++)
+            set.add(i);
+        Assert.assertEquals(planner.estimateSize(set), 5);
+        for (int i = 0; i < 100; i++)
+            set.add(i);
+        Assert.assertEquals(planner.estimateSize(set), 10);
+        planner.setEstimate(set, 1234);
+        Assert.assertEquals(planner.estimateSize(set), 1234);
+        Assert.assertEquals(planner.estimateSize(NavigableSets.empty()), 0);
+    }
+
+    @Test
+    public void testProbeSmallestSet() {
+
+        // Create one big and one small set
+        final TreeSet<Integer> big = new TreeSet<>();
+        for (int i = 0; i < 10000; i++)
+            big.add(i);
+        final TreeSet<Integer> small = new TreeSet<>(Arrays.asList(17, 5000, 9999, 20000));
+
+        // Wrap big set so we can count how many elements are iterated
+        final AtomicInteger iterated = new AtomicInteger();
+        final NavigableSet<Integer> countingBig = new CountingSet(big, iterated);
+
+        // Intersect with big set first; only the small set should be iterated
+        final NavigableSetPlanner planner = new NavigableSetPlanner();
+        planner.setEstimate(countingBig, big.size());
+        final NavigableSet<Integer> intersection = planner.intersection(Arrays.<NavigableSet<Integer>>asList(countingBig, small));
+        Assert.assertEquals(new ArrayList<>(intersection), Arrays.asList(17, 5000, 9999));
+        Assert.assertEquals(iterated.get(), 0);
+        Assert.assertEquals(new ArrayList<>(intersection.descendingSet()), Arrays.asList(9999, 5000, 17));
+        Assert.assertEquals(new ArrayList<>(intersection.headSet(9999, false)), Arrays.asList(17, 5000));
+        Assert.assertEquals(iterated.get(), 0);
+    }
+
+    @Test
+    public void testRandomOperations() {
+        for (int testNum = 0; testNum < 200; testNum++) {
+
+            // Generate sets
+            final int numSets = this.random.nextInt(5) + 1;
+            final ArrayList<NavigableSet<Integer>> sets = new ArrayList<>(numSets);
+            for (int i = 0; i < numSets; i++) {
+                final NavigableSet<Integer> set = new TreeSet<>();
+                final int numValues = this.random.nextInt(4) == 0 ? this.random.nextInt(400) : this.random.nextInt(10);
+                for (int j = 0; j < numValues; j++)
+                    set.add(this.random.nextInt(this.random.nextBoolean() ? 500 : 50));
+                sets.add(set);
+            }
+            final NavigableSetPlanner planner = new NavigableSetPlanner(this.random.nextInt(50) + 1);
+            planner.setProbeRatio(this.random.nextInt(4) + 1);
+
+            // Verify intersection
+            final TreeSet<Integer> expectedIntersection = new TreeSet<>(sets.get(0));
+            for (NavigableSet<Integer> set : sets)
+                expectedIntersection.retainAll(set);
+            final NavigableSet<Integer> intersection = planner.intersection(sets);
+            Assert.assertEquals(new ArrayList<>(intersection), new ArrayList<>(expectedIntersection));
+            Assert.assertEquals(new ArrayList<>(intersection.descendingSet()),
+              new ArrayList<>(expectedIntersection.descendingSet()));
+            for (int i = 0; i < 20; i++) {
+                final int value = this.random.nextInt(500);
+                Assert.assertEquals(intersection.contains(value), expectedIntersection.contains(value));
+                Assert.assertEquals(new ArrayList<>(intersection.tailSet(value, true)),
+                  new ArrayList<>(expectedIntersection.tailSet(value, true)));
+            }
+
+            // Verify union
+            final TreeSet<Integer> expectedUnion = new TreeSet<>();
+            for (NavigableSet<Integer> set : sets)
+                expectedUnion.addAll(set);
+            Assert.assertEquals(new ArrayList<>(planner.union(sets)), new ArrayList<>(expectedUnion));
+
+            // Verify difference
+            final NavigableSet<Integer> set1 = sets.get(0);
+            final NavigableSet<Integer> set2 = sets.get(sets.size() - 1);
+            Assert.assertEquals(planner.difference(set1, set2), Sets.difference(set1, set2));
+        }
+    }
+
+// CountingSet
+
+    @SuppressWarnings("serial")
+    private static class CountingSet extends TreeSet<Integer> {
+
+        private final AtomicInteger counter;
+
+        CountingSet(NavigableSet<Integer> set, AtomicInteger counter) {
+            super(set);
+            this.counter = counter;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            final Iterator<Integer> i = super.iterator();
+            return new Iterator<Integer>() {
+                @Override
+                public boolean hasNext() {
+                    return i.hasNext();
+                }
+                @Override
+                public Integer next() {
+                    CountingSet.this.counter.incrementAndGet();
+                    return i.next();
+                }
+            };
+        }
+
+        @Override
+        public NavigableSet<Integer> headSet(Integer toElement, boolean inclusive) {
+            return new CountingSet(super.headSet(toElement, inclusive), this.counter);
+        }
+    }
+}
+